@@ -0,0 +1,71 @@
+#!/usr/bin/env python3
+# Copyright (C) 2026 Google Inc.
+#
+# Licensed under the Apache License, Version 2.0 (the "License"); you may not
+# use this file except in compliance with the License. You may obtain a copy of
+# the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+# WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+# License for the specific language governing permissions and limitations under
+# the License.
+"""Compares two JMH JSON result files, e.g. of two commits.
+
+Usage: compare.py BASELINE.json CANDIDATE.json [--threshold PERCENT]
+
+Prints the change of every benchmark found in both files, and exits with 1 if
+any got worse by more than the threshold (10% by default).
+"""
+
+import argparse
+import json
+import sys
+
+
+def load(path):
+  with open(path) as f:
+    results = json.load(f)
+  scores = {}
+  for result in results:
+    params = result.get('params', {})
+    key = result['benchmark'].rsplit('.', 2)[-2:]
+    key = '.'.join(key) + ''.join(
+        ' %s=%s' % (k, v) for k, v in sorted(params.items()))
+    metric = result['primaryMetric']
+    scores[key] = (result['mode'], metric['score'], metric['scoreUnit'])
+  return scores
+
+
+def main():
+  parser = argparse.ArgumentParser(description=__doc__.splitlines()[0])
+  parser.add_argument('baseline')
+  parser.add_argument('candidate')
+  parser.add_argument('--threshold', type=float, default=10.0)
+  args = parser.parse_args()
+
+  baseline = load(args.baseline)
+  candidate = load(args.candidate)
+  regressions = 0
+  for key in sorted(baseline.keys() & candidate.keys()):
+    mode, before, unit = baseline[key]
+    _, after, _ = candidate[key]
+    change = (after - before) / before * 100 if before else 0.0
+    # Throughput is better when higher; all other modes measure time.
+    worse = -change if mode == 'thrpt' else change
+    flag = ''
+    if worse > args.threshold:
+      flag = '  REGRESSION'
+      regressions += 1
+    print('%-70s %12.3f -> %12.3f %-6s %+7.1f%%%s' %
+          (key, before, after, unit, change, flag))
+  for key in sorted(baseline.keys() ^ candidate.keys()):
+    print('%-70s only in %s' %
+          (key, args.baseline if key in baseline else args.candidate))
+  return 1 if regressions else 0
+
+
+if __name__ == '__main__':
+  sys.exit(main())
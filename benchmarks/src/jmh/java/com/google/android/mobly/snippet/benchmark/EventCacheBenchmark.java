@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.benchmark;
+
+import com.google.android.mobly.snippet.event.EventCache;
+import com.google.android.mobly.snippet.event.EventQueue;
+import com.google.android.mobly.snippet.event.EventQueue.OverflowPolicy;
+import com.google.android.mobly.snippet.event.SnippetEvent;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Posting events to one queue of the {@link EventCache} from several producer threads while a
+ * consumer drains it, as {@code eventGetAll} does.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EventCacheBenchmark {
+    private static final String CALLBACK_ID = "benchmark";
+    private static final String EVENT_NAME = "event";
+
+    private EventCache mCache;
+    private EventQueue mQueue;
+
+    @Setup
+    public void setUp() {
+        BenchmarkContext.initLogging();
+        mCache = EventCache.getInstance();
+        // Producers outpace the consumer; dropping keeps the queue bounded without blocking them.
+        mCache.configureQueue(CALLBACK_ID, EVENT_NAME, 4096, OverflowPolicy.DROP_OLDEST, 0);
+        mQueue = mCache.getEventQueue(CALLBACK_ID, EVENT_NAME);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mCache.clearAll();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public void post() {
+        SnippetEvent event = new SnippetEvent(CALLBACK_ID, EVENT_NAME);
+        event.getData().putInt("value", 42);
+        event.getData().putString("label", "benchmark");
+        mCache.postEvent(event);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public List<SnippetEvent> drain() {
+        return mQueue.drain();
+    }
+}
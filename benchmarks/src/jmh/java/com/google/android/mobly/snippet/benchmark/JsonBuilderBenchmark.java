@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.benchmark;
+
+import com.google.android.mobly.snippet.rpc.JsonBuilder;
+import com.google.android.mobly.snippet.rpc.JsonSerializable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Converting RPC results to JSON: building an {@code org.json} tree with {@link JsonBuilder#build},
+ * and streaming the text with {@link JsonBuilder#write}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonBuilderBenchmark {
+    /** A {@link JsonSerializable} with nested children, as snippets commonly return. */
+    private static final class Node implements JsonSerializable {
+        private final int mId;
+        private final List<Node> mChildren = new ArrayList<>();
+
+        private Node(int id) {
+            mId = id;
+        }
+
+        @Override
+        public JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("id", mId);
+            json.put("name", "node" + mId);
+            json.put("children", JsonBuilder.build(mChildren));
+            return json;
+        }
+    }
+
+    /** Discards what is written, so only serializing is measured. */
+    private static final class NullWriter extends Writer {
+        @Override
+        public void write(char[] cbuf, int off, int len) {}
+
+        @Override
+        public void write(String str, int off, int len) {}
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+
+    @Param({"list", "map", "intArray", "byteArray", "nested"})
+    public String shape;
+
+    /** Number of elements, or of nodes for "nested". */
+    @Param({"10000"})
+    public int size;
+
+    private final Writer mWriter = new NullWriter();
+    private Object mData;
+
+    @Setup
+    public void setUp() {
+        switch (shape) {
+            case "list":
+                List<Integer> list = new ArrayList<>();
+                for (int i = 0; i < size; i++) {
+                    list.add(i);
+                }
+                mData = list;
+                break;
+            case "map":
+                Map<String, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    map.put("key" + i, i % 2 == 0 ? (Object) i : "value" + i);
+                }
+                mData = map;
+                break;
+            case "intArray":
+                int[] ints = new int[size];
+                for (int i = 0; i < size; i++) {
+                    ints[i] = i;
+                }
+                mData = ints;
+                break;
+            case "byteArray":
+                byte[] bytes = new byte[size];
+                for (int i = 0; i < size; i++) {
+                    bytes[i] = (byte) i;
+                }
+                mData = bytes;
+                break;
+            case "nested":
+                List<Node> roots = new ArrayList<>();
+                for (int i = 0; i < size; i += 10) {
+                    Node root = new Node(i);
+                    for (int j = 1; j < 10; j++) {
+                        root.mChildren.add(new Node(i + j));
+                    }
+                    roots.add(root);
+                }
+                mData = roots;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+    }
+
+    @Benchmark
+    public Object build() throws JSONException {
+        return JsonBuilder.build(mData);
+    }
+
+    @Benchmark
+    public String buildToString() throws JSONException {
+        return JsonBuilder.build(mData).toString();
+    }
+
+    @Benchmark
+    public void write() throws IOException, JSONException {
+        JsonBuilder.write(mData, mWriter);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.benchmark;
+
+import com.google.android.mobly.snippet.rpc.JsonRpcResult;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Encoding the response line of a result and of an error with {@link JsonRpcResult}. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JsonRpcResultBenchmark {
+    /** Number of elements of the list returned as result. */
+    @Param({"1", "1000"})
+    public int size;
+
+    private Object mResult;
+    private Exception mError;
+
+    @Setup
+    public void setUp() {
+        if (size == 1) {
+            mResult = "result";
+        } else {
+            List<String> list = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                list.add("item" + i);
+            }
+            mResult = list;
+        }
+        // A realistic stack depth, so encoding the stack trace is part of the cost.
+        mError = nestedException(20);
+    }
+
+    private static Exception nestedException(int depth) {
+        if (depth == 0) {
+            return new IllegalStateException("Something went wrong");
+        }
+        return nestedException(depth - 1);
+    }
+
+    @Benchmark
+    public String result() throws JSONException {
+        return JsonRpcResult.result(1, mResult).toString();
+    }
+
+    @Benchmark
+    public String error() throws JSONException {
+        return JsonRpcResult.error(1, mError).toString();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.benchmark;
+
+import com.google.android.mobly.snippet.manager.SnippetManager;
+import com.google.android.mobly.snippet.rpc.MethodDescriptor;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Decoding the JSON parameters of a request into arguments and calling the RPC, through {@link
+ * MethodDescriptor#invoke}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MethodDescriptorBenchmark {
+    /** The {@link BenchmarkSnippet} RPC to call. */
+    @Param({
+        "noArgs",
+        "primitives",
+        "boxed",
+        "bytes",
+        "intArray",
+        "stringArray",
+        "json",
+        "intent",
+        "defaults"
+    })
+    public String rpc;
+
+    private SnippetManager mSnippetManager;
+    private MethodDescriptor mDescriptor;
+    private JSONArray mParams;
+
+    @Setup
+    public void setUp() throws JSONException {
+        mSnippetManager = BenchmarkContext.getSnippetManager();
+        mDescriptor = mSnippetManager.getMethodDescriptor(rpc);
+        mParams = paramsFor(rpc);
+    }
+
+    @Benchmark
+    public Object invoke() throws Throwable {
+        return mDescriptor.invoke(mSnippetManager, mParams);
+    }
+
+    private static JSONArray paramsFor(String rpc) throws JSONException {
+        JSONArray params = new JSONArray();
+        switch (rpc) {
+            case "noArgs":
+            case "defaults":
+                break;
+            case "primitives":
+            case "boxed":
+                params.put(42).put(1L << 40).put(3.5).put(true);
+                break;
+            case "bytes":
+                byte[] bytes = new byte[1024];
+                for (int i = 0; i < bytes.length; i++) {
+                    bytes[i] = (byte) i;
+                }
+                params.put(Base64.getEncoder().encodeToString(bytes));
+                break;
+            case "intArray":
+                JSONArray ints = new JSONArray();
+                for (int i = 0; i < 100; i++) {
+                    ints.put(i);
+                }
+                params.put(ints);
+                break;
+            case "stringArray":
+                JSONArray strings = new JSONArray();
+                for (int i = 0; i < 100; i++) {
+                    strings.put("item" + i);
+                }
+                params.put(strings);
+                break;
+            case "json":
+                params.put(new JSONObject().put("a", 1).put("b", "two"));
+                params.put(new JSONArray().put(1).put(2).put(3));
+                break;
+            case "intent":
+                params.put(
+                        new JSONObject()
+                                .put("action", "android.intent.action.VIEW")
+                                .put("data", "https://example.com/")
+                                .put("flags", 0x10000000)
+                                .put("categories", new JSONArray().put("BROWSABLE"))
+                                .put("extras", new JSONObject().put("count", 3).put("name", "x")));
+                break;
+            default:
+                throw new IllegalArgumentException("No parameters for " + rpc);
+        }
+        return params;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.benchmark;
+
+import com.google.android.mobly.snippet.rpc.InMemoryTransport;
+import com.google.android.mobly.snippet.rpc.JsonRpcServer;
+import com.google.android.mobly.snippet.rpc.ServerTransport;
+import com.google.android.mobly.snippet.rpc.SimpleServer.Engine;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A full round trip of a small RPC through {@link JsonRpcServer} on a loopback socket: the client
+ * writes a request line and waits for the response line. {@code MEMORY} serves the blocking engine
+ * over an {@link InMemoryTransport}, which leaves out the cost of the sockets.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoundTripBenchmark {
+    /** The server, shared by all benchmark threads. */
+    @State(Scope.Benchmark)
+    public static class Server {
+        @Param({"BLOCKING", "NIO", "MEMORY"})
+        public String engine;
+
+        private JsonRpcServer mServer;
+        private InMemoryTransport mTransport;
+
+        @Setup
+        public void setUp() throws IOException {
+            BenchmarkContext.initLogging();
+            mServer = new JsonRpcServer(new BenchmarkContext());
+            if (engine.equals("MEMORY")) {
+                mTransport = new InMemoryTransport();
+                mServer.start(mTransport);
+            } else {
+                mServer.startLocal(0, Engine.valueOf(engine));
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            mServer.shutdown();
+        }
+    }
+
+    /** A session of its own for each benchmark thread. */
+    @State(Scope.Thread)
+    public static class Client {
+        private Closeable mConnection;
+        private BufferedReader mReader;
+        private Writer mWriter;
+        private int mNextId;
+
+        @Setup
+        public void setUp(Server server) throws IOException {
+            InputStream in;
+            OutputStream out;
+            if (server.mTransport != null) {
+                ServerTransport.Connection connection = server.mTransport.connect();
+                mConnection = connection;
+                in = connection.getInputStream();
+                out = connection.getOutputStream();
+            } else {
+                Socket socket =
+                        new Socket(InetAddress.getLoopbackAddress(), server.mServer.getPort());
+                socket.setTcpNoDelay(true);
+                mConnection = socket;
+                in = socket.getInputStream();
+                out = socket.getOutputStream();
+            }
+            mReader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            mWriter = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            send("{\"cmd\": \"initiate\", \"uid\": -1}");
+            mReader.readLine();
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            mConnection.close();
+        }
+
+        private void send(String line) throws IOException {
+            mWriter.write(line);
+            mWriter.write('\n');
+            mWriter.flush();
+        }
+    }
+
+    @Benchmark
+    public String echo(Client client) throws IOException {
+        client.send(
+                "{\"id\": " + client.mNextId++ + ", \"method\": \"echo\", \"params\": [\"ping\"]}");
+        return client.mReader.readLine();
+    }
+}
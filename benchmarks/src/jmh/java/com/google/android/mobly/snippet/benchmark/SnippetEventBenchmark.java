@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.benchmark;
+
+import com.google.android.mobly.snippet.event.CompactSnippetEvent;
+import com.google.android.mobly.snippet.event.SnippetEvent;
+import com.google.android.mobly.snippet.rpc.JsonBuilder;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Creating a sensor-like event and writing it into a response, as {@code eventGetAll} does, with a
+ * Bundle-based {@link SnippetEvent} and with a {@link CompactSnippetEvent}; and writing a compact
+ * event as is, as subscription pushes do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SnippetEventBenchmark {
+    private static final String CALLBACK_ID = "benchmark";
+    private static final String EVENT_NAME = "onSensorChanged";
+
+    @Param({"bundle", "compact", "compactPush"})
+    public String type;
+
+    @Benchmark
+    public String postAndWrite() throws IOException, JSONException {
+        StringWriter out = new StringWriter(256);
+        if (type.startsWith("compact")) {
+            CompactSnippetEvent event = new CompactSnippetEvent(CALLBACK_ID, EVENT_NAME);
+            event.putLong("timestamp", 123456789L)
+                    .putDouble("x", 0.25)
+                    .putDouble("y", -9.81)
+                    .putDouble("z", 1.5)
+                    .putInt("accuracy", 3)
+                    .putString("sensor", "accelerometer");
+            JsonBuilder.write(type.equals("compactPush") ? event : event.toJson(), out);
+        } else {
+            SnippetEvent event = new SnippetEvent(CALLBACK_ID, EVENT_NAME);
+            event.getData().putLong("timestamp", 123456789L);
+            event.getData().putDouble("x", 0.25);
+            event.getData().putDouble("y", -9.81);
+            event.getData().putDouble("z", 1.5);
+            event.getData().putInt("accuracy", 3);
+            event.getData().putString("sensor", "accelerometer");
+            JsonBuilder.write(event.toJson(), out);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.content;
+
+import android.net.Uri;
+import android.os.Bundle;
+import java.io.Serializable;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/** Plain-JVM stand-in for the Android class of the same name. */
+public class Intent {
+    private String mAction;
+    private Uri mData;
+    private String mType;
+    private int mFlags;
+    private ComponentName mComponent;
+    private Set<String> mCategories;
+    private Bundle mExtras;
+
+    public Intent setAction(String action) {
+        mAction = action;
+        return this;
+    }
+
+    public String getAction() {
+        return mAction;
+    }
+
+    public Intent setData(Uri data) {
+        mData = data;
+        mType = null;
+        return this;
+    }
+
+    public Intent setType(String type) {
+        mData = null;
+        mType = type;
+        return this;
+    }
+
+    public Intent setDataAndType(Uri data, String type) {
+        mData = data;
+        mType = type;
+        return this;
+    }
+
+    public String getDataString() {
+        return mData == null ? null : mData.toString();
+    }
+
+    public String getType() {
+        return mType;
+    }
+
+    public Intent setClassName(String packageName, String className) {
+        mComponent = new ComponentName(packageName, className);
+        return this;
+    }
+
+    public ComponentName getComponent() {
+        return mComponent;
+    }
+
+    public Intent setFlags(int flags) {
+        mFlags = flags;
+        return this;
+    }
+
+    public int getFlags() {
+        return mFlags;
+    }
+
+    public Intent addCategory(String category) {
+        if (mCategories == null) {
+            mCategories = new LinkedHashSet<>();
+        }
+        mCategories.add(category);
+        return this;
+    }
+
+    public Set<String> getCategories() {
+        return mCategories;
+    }
+
+    public Intent putExtra(String name, Serializable value) {
+        extras().putSerializable(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, Bundle value) {
+        extras().putBundle(name, value);
+        return this;
+    }
+
+    public Bundle getExtras() {
+        return mExtras;
+    }
+
+    private Bundle extras() {
+        if (mExtras == null) {
+            mExtras = new Bundle();
+        }
+        return mExtras;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.content.pm;
+
+/** Plain-JVM stand-in for the Android class of the same name. */
+public abstract class PackageManager {
+    public static final int GET_META_DATA = 0x00000080;
+
+    /** Thrown when a package is not installed. */
+    public static class NameNotFoundException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public NameNotFoundException(String name) {
+            super(name);
+        }
+    }
+
+    public abstract ApplicationInfo getApplicationInfo(String packageName, int flags)
+            throws NameNotFoundException;
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.net;
+
+import java.io.IOException;
+
+/**
+ * Plain-JVM stand-in for the Android class of the same name. The benchmarks do not serve over
+ * Unix domain sockets, so binding one fails.
+ */
+public class LocalServerSocket {
+    public LocalServerSocket(String name) throws IOException {
+        throw new IOException("Unix domain sockets are not available on the plain JVM.");
+    }
+
+    public LocalSocket accept() throws IOException {
+        throw new IOException("Not bound.");
+    }
+
+    public void close() throws IOException {}
+}
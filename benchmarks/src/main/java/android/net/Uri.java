@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.net;
+
+/** Plain-JVM stand-in for the Android class of the same name, holding the parsed string. */
+public final class Uri {
+    private final String mUriString;
+
+    private Uri(String uriString) {
+        mUriString = uriString;
+    }
+
+    public static Uri parse(String uriString) {
+        if (uriString == null) {
+            throw new NullPointerException("uriString");
+        }
+        return new Uri(uriString);
+    }
+
+    @Override
+    public String toString() {
+        return mUriString;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.os;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/** Plain-JVM stand-in for the Android class of the same name, backed by a map. */
+public final class Bundle {
+    private final Map<String, Object> mMap = new LinkedHashMap<>();
+
+    public void setClassLoader(ClassLoader loader) {}
+
+    public int size() {
+        return mMap.size();
+    }
+
+    public boolean isEmpty() {
+        return mMap.isEmpty();
+    }
+
+    public boolean containsKey(String key) {
+        return mMap.containsKey(key);
+    }
+
+    public Set<String> keySet() {
+        return mMap.keySet();
+    }
+
+    public Object get(String key) {
+        return mMap.get(key);
+    }
+
+    public void remove(String key) {
+        mMap.remove(key);
+    }
+
+    public void clear() {
+        mMap.clear();
+    }
+
+    public void putAll(Bundle bundle) {
+        mMap.putAll(bundle.mMap);
+    }
+
+    public void putBoolean(String key, boolean value) {
+        mMap.put(key, value);
+    }
+
+    public void putInt(String key, int value) {
+        mMap.put(key, value);
+    }
+
+    public void putLong(String key, long value) {
+        mMap.put(key, value);
+    }
+
+    public void putFloat(String key, float value) {
+        mMap.put(key, value);
+    }
+
+    public void putDouble(String key, double value) {
+        mMap.put(key, value);
+    }
+
+    public void putString(String key, String value) {
+        mMap.put(key, value);
+    }
+
+    public void putBundle(String key, Bundle value) {
+        mMap.put(key, value);
+    }
+
+    public void putBooleanArray(String key, boolean[] value) {
+        mMap.put(key, value);
+    }
+
+    public void putIntArray(String key, int[] value) {
+        mMap.put(key, value);
+    }
+
+    public void putLongArray(String key, long[] value) {
+        mMap.put(key, value);
+    }
+
+    public void putDoubleArray(String key, double[] value) {
+        mMap.put(key, value);
+    }
+
+    public void putStringArray(String key, String[] value) {
+        mMap.put(key, value);
+    }
+
+    public void putSerializable(String key, java.io.Serializable value) {
+        mMap.put(key, value);
+    }
+
+    public boolean getBoolean(String key) {
+        return getBoolean(key, false);
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        Object value = mMap.get(key);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+
+    public int getInt(String key) {
+        return getInt(key, 0);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        Object value = mMap.get(key);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+
+    public long getLong(String key) {
+        return getLong(key, 0L);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        Object value = mMap.get(key);
+        return value instanceof Long ? (Long) value : defaultValue;
+    }
+
+    public double getDouble(String key) {
+        Object value = mMap.get(key);
+        return value instanceof Double ? (Double) value : 0.0;
+    }
+
+    public String getString(String key) {
+        Object value = mMap.get(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    public Bundle getBundle(String key) {
+        Object value = mMap.get(key);
+        return value instanceof Bundle ? (Bundle) value : null;
+    }
+
+    @Override
+    public String toString() {
+        return "Bundle[" + mMap + "]";
+    }
+}
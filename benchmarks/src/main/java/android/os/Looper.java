@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.os;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plain-JVM stand-in for the Android class of the same name. The main looper is a single daemon
+ * thread named "main".
+ */
+public final class Looper {
+    private static final Looper sMainLooper = new Looper("main");
+
+    private final ThreadPoolExecutor mExecutor;
+
+    private Looper(String name) {
+        mExecutor =
+                new ThreadPoolExecutor(
+                        1,
+                        1,
+                        0,
+                        TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>(),
+                        runnable -> {
+                            Thread thread = new Thread(runnable, name);
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+    }
+
+    public static Looper getMainLooper() {
+        return sMainLooper;
+    }
+
+    void post(Runnable runnable) {
+        mExecutor.execute(runnable);
+    }
+
+    void remove(Runnable runnable) {
+        mExecutor.remove(runnable);
+    }
+}
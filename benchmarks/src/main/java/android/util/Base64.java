@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.util;
+
+/**
+ * Plain-JVM stand-in for the Android class of the same name, backed by {@link java.util.Base64}.
+ */
+public final class Base64 {
+    public static final int DEFAULT = 0;
+    public static final int NO_WRAP = 2;
+
+    private Base64() {}
+
+    public static byte[] decode(String str, int flags) {
+        // Android decoders skip line breaks, as the MIME decoder does.
+        return java.util.Base64.getMimeDecoder().decode(str);
+    }
+
+    public static String encodeToString(byte[] input, int flags) {
+        return encodeToString(input, 0, input.length, flags);
+    }
+
+    public static String encodeToString(byte[] input, int offset, int len, int flags) {
+        java.util.Base64.Encoder encoder =
+                (flags & NO_WRAP) != 0
+                        ? java.util.Base64.getEncoder()
+                        : java.util.Base64.getMimeEncoder(76, new byte[] {'\n'});
+        byte[] chunk = input;
+        if (offset != 0 || len != input.length) {
+            chunk = new byte[len];
+            System.arraycopy(input, offset, chunk, 0, len);
+        }
+        return encoder.encodeToString(chunk);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.util;
+
+/**
+ * Plain-JVM stand-in for the Android class of the same name. Like a device with default settings,
+ * only INFO and above are loggable; messages go to standard error.
+ */
+public final class Log {
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int ASSERT = 7;
+
+    private Log() {}
+
+    public static boolean isLoggable(String tag, int level) {
+        return level >= INFO;
+    }
+
+    public static int v(String tag, String msg) {
+        return println("V", tag, msg, null);
+    }
+
+    public static int v(String tag, String msg, Throwable tr) {
+        return println("V", tag, msg, tr);
+    }
+
+    public static int d(String tag, String msg) {
+        return println("D", tag, msg, null);
+    }
+
+    public static int d(String tag, String msg, Throwable tr) {
+        return println("D", tag, msg, tr);
+    }
+
+    public static int i(String tag, String msg) {
+        return println("I", tag, msg, null);
+    }
+
+    public static int i(String tag, String msg, Throwable tr) {
+        return println("I", tag, msg, tr);
+    }
+
+    public static int w(String tag, String msg) {
+        return println("W", tag, msg, null);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return println("W", tag, msg, tr);
+    }
+
+    public static int e(String tag, String msg) {
+        return println("E", tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return println("E", tag, msg, tr);
+    }
+
+    private static int println(String level, String tag, String msg, Throwable tr) {
+        String line = level + "/" + tag + ": " + msg;
+        System.err.println(line);
+        if (tr != null) {
+            tr.printStackTrace();
+        }
+        return line.length();
+    }
+}
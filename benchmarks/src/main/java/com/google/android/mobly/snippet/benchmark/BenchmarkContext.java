@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.benchmark;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import com.google.android.mobly.snippet.manager.SnippetManager;
+import com.google.android.mobly.snippet.util.Log;
+import java.io.File;
+
+/**
+ * A {@link Context} whose manifest metadata declares {@link BenchmarkSnippet}, as the manifest of a
+ * snippet APK would.
+ */
+public final class BenchmarkContext extends Context {
+    private static final String PACKAGE_NAME = "com.google.android.mobly.snippet.benchmark";
+
+    private static SnippetManager sSnippetManager;
+
+    private final PackageManager mPackageManager =
+            new PackageManager() {
+                @Override
+                public ApplicationInfo getApplicationInfo(String packageName, int flags)
+                        throws NameNotFoundException {
+                    if (!PACKAGE_NAME.equals(packageName)) {
+                        throw new NameNotFoundException(packageName);
+                    }
+                    ApplicationInfo appInfo = new ApplicationInfo();
+                    appInfo.metaData = new Bundle();
+                    appInfo.metaData.putString("mobly-snippets", BenchmarkSnippet.class.getName());
+                    appInfo.metaData.putString("mobly-log-tag", "MoblyBenchmark");
+                    return appInfo;
+                }
+            };
+
+    /** Initializes logging, which the library requires, once per JVM. */
+    public static synchronized void initLogging() {
+        if (Log.apkLogTag == null) {
+            Log.initLogTag(new BenchmarkContext());
+        }
+    }
+
+    /**
+     * Returns the snippet manager of this JVM, creating it if needed. Benchmarks starting a {@code
+     * JsonRpcServer}, which creates its own, must not call this.
+     */
+    public static synchronized SnippetManager getSnippetManager() {
+        if (sSnippetManager == null) {
+            initLogging();
+            sSnippetManager = SnippetManager.initSnippetManager(new BenchmarkContext());
+        }
+        return sSnippetManager;
+    }
+
+    @Override
+    public String getPackageName() {
+        return PACKAGE_NAME;
+    }
+
+    @Override
+    public PackageManager getPackageManager() {
+        return mPackageManager;
+    }
+
+    @Override
+    public File getFilesDir() {
+        return new File(System.getProperty("java.io.tmpdir"), PACKAGE_NAME);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.benchmark;
+
+import android.content.Intent;
+import com.google.android.mobly.snippet.Snippet;
+import com.google.android.mobly.snippet.event.EventCache;
+import com.google.android.mobly.snippet.event.SnippetEvent;
+import com.google.android.mobly.snippet.rpc.AsyncRpc;
+import com.google.android.mobly.snippet.rpc.Rpc;
+import com.google.android.mobly.snippet.rpc.RpcDefault;
+import com.google.android.mobly.snippet.rpc.RpcOptional;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * RPCs covering the parameter types that {@code MethodDescriptor} decodes, an async RPC posting
+ * events, and RPCs that sleep, fail, or return bytes or many items, for the protocol features of
+ * the server.
+ */
+public class BenchmarkSnippet implements Snippet {
+    @Rpc(description = "Takes no parameters.")
+    public void noArgs() {}
+
+    @Rpc(description = "Echoes a string, for round trips.")
+    public String echo(String value) {
+        return value;
+    }
+
+    @Rpc(description = "Takes primitives.")
+    public long primitives(int i, long l, double d, boolean b) {
+        return b ? i + l + (long) d : 0;
+    }
+
+    @Rpc(description = "Takes boxed primitives.")
+    public long boxed(Integer i, Long l, Double d, Boolean b) {
+        return b ? i + l + d.longValue() : 0;
+    }
+
+    @Rpc(description = "Takes a byte array, sent as base64.")
+    public int bytes(byte[] value) {
+        return value.length;
+    }
+
+    @Rpc(description = "Takes an int array.")
+    public int intArray(int[] value) {
+        return value.length;
+    }
+
+    @Rpc(description = "Takes a string array.")
+    public int stringArray(String[] value) {
+        return value.length;
+    }
+
+    @Rpc(description = "Takes JSON values as they are.")
+    public int json(JSONObject object, JSONArray array) {
+        return object.length() + array.length();
+    }
+
+    @Rpc(description = "Takes an Intent built from its JSON description.")
+    public String intent(Intent intent) {
+        return intent.getAction();
+    }
+
+    @Rpc(description = "Takes parameters that are filled in when omitted.")
+    public String defaults(@RpcDefault("5") Integer count, @RpcOptional String label) {
+        return label + count;
+    }
+
+    @Rpc(description = "Sleeps for the given number of milliseconds, unless interrupted.")
+    public int sleep(Integer millis) throws InterruptedException {
+        Thread.sleep(millis);
+        return millis;
+    }
+
+    @Rpc(description = "Throws an exception with the given message.")
+    public void fail(String message) throws Exception {
+        throw new Exception(message);
+    }
+
+    @Rpc(description = "Returns the given number of bytes, counting up from 0.")
+    public byte[] byteRange(Integer length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    @Rpc(description = "Returns the integers from 0 to the given count, exclusive.")
+    public List<Integer> range(Integer count) {
+        List<Integer> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(i);
+        }
+        return items;
+    }
+
+    @AsyncRpc(description = "Posts the given number of \"tick\" events, numbered from 0.")
+    public void postEvents(String callbackId, Integer count) {
+        for (int i = 0; i < count; i++) {
+            SnippetEvent event = new SnippetEvent(callbackId, "tick");
+            event.getData().putInt("index", i);
+            EventCache.getInstance().postEvent(event);
+        }
+    }
+
+    @Override
+    public void shutdown() {}
+}
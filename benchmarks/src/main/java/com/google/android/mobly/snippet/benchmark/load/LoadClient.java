@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.benchmark.load;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A connection to a snippet server, speaking its line-delimited JSON-RPC protocol as the Mobly
+ * snippet client does: an {@code initiate} or {@code continue} handshake, then one request line
+ * answered by one response line at a time.
+ */
+final class LoadClient implements Closeable {
+    private final Socket mSocket;
+    private final BufferedReader mReader;
+    private final Writer mWriter;
+    private final int mUid;
+    private int mNextId = 0;
+
+    private LoadClient(InetSocketAddress address, JSONObject handshake, int timeoutMs)
+            throws IOException, JSONException {
+        mSocket = new Socket();
+        try {
+            mSocket.connect(address, timeoutMs);
+            mSocket.setSoTimeout(timeoutMs);
+            mSocket.setTcpNoDelay(true);
+            mReader =
+                    new BufferedReader(
+                            new InputStreamReader(
+                                    mSocket.getInputStream(), StandardCharsets.UTF_8));
+            mWriter = new OutputStreamWriter(mSocket.getOutputStream(), StandardCharsets.UTF_8);
+            JSONObject result = new JSONObject(exchange(handshake));
+            if (!result.optBoolean("status")) {
+                throw new ProtocolException(
+                        "Handshake " + handshake + " refused: " + result.opt("error"));
+            }
+            mUid = result.getInt("uid");
+        } catch (IOException | JSONException | RuntimeException e) {
+            mSocket.close();
+            throw e;
+        }
+    }
+
+    /** Connects and starts a new session. */
+    static LoadClient initiate(InetSocketAddress address, int timeoutMs)
+            throws IOException, JSONException {
+        return new LoadClient(
+                address, new JSONObject().put("cmd", "initiate").put("uid", -1), timeoutMs);
+    }
+
+    /**
+     * Connects to an existing session, as a client does after losing its connection. The server
+     * serves the session on the new connection from then on.
+     */
+    static LoadClient resume(InetSocketAddress address, int uid, int timeoutMs)
+            throws IOException, JSONException {
+        return new LoadClient(
+                address, new JSONObject().put("cmd", "continue").put("uid", uid), timeoutMs);
+    }
+
+    int getUid() {
+        return mUid;
+    }
+
+    /**
+     * Calls an RPC and returns its response, which holds either a "result" or an "error".
+     *
+     * @throws ProtocolException if the response is not the one of this request.
+     */
+    JSONObject call(String method, JSONArray params) throws IOException, JSONException {
+        int id = mNextId++;
+        JSONObject request = new JSONObject();
+        request.put("id", id);
+        request.put("method", method);
+        request.put("params", params);
+        JSONObject response = new JSONObject(exchange(request));
+        if (response.optInt("id", -1) != id) {
+            throw new ProtocolException("Expected the response to " + id + ", got " + response);
+        }
+        return response;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+    }
+
+    private String exchange(JSONObject request) throws IOException {
+        mWriter.write(request.toString());
+        mWriter.write('\n');
+        mWriter.flush();
+        String response = mReader.readLine();
+        if (response == null) {
+            throw new EOFException("Connection closed by the server");
+        }
+        return response;
+    }
+}
@@ -0,0 +1,568 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.benchmark.load;
+
+import com.google.android.mobly.snippet.benchmark.BenchmarkContext;
+import com.google.android.mobly.snippet.rpc.JsonRpcServer;
+import com.google.android.mobly.snippet.rpc.SimpleServer.Engine;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Load generator and soak harness for the snippet server protocol.
+ *
+ * <p>Opens concurrent sessions to a snippet server, each replaying a weighted mix of operations
+ * until the run ends, and reports throughput, latency percentiles and error rates every interval
+ * and for the whole run. The server is either a device, e.g. through {@code adb forward}, or a
+ * {@link JsonRpcServer} started in this JVM with {@code BenchmarkSnippet}.
+ *
+ * <p>Example, against an in-process server for ten minutes:
+ *
+ * <pre>
+ * ./gradlew :benchmarks:loadTest \
+ *     -PloadArgs="--server=NIO --sessions=64 --duration-sec=600"
+ * </pre>
+ */
+public final class LoadGenerator {
+    private static final String USAGE =
+            "Options, all of the form --name=value:\n"
+                    + "  --host              server host (default 127.0.0.1)\n"
+                    + "  --port              server port\n"
+                    + "  --server            BLOCKING or NIO, to start a server in this JVM\n"
+                    + "                      instead of connecting to --port\n"
+                    + "  --sessions          number of concurrent sessions (default 8)\n"
+                    + "  --duration-sec      length of the run (default 30)\n"
+                    + "  --report-sec        interval between reports (default 10)\n"
+                    + "  --mix               weights of the operations (default "
+                    + "sync=80,async=15,reconnect=4,churn=1)\n"
+                    + "  --sync-rpc          RPC of sync operations (default echo)\n"
+                    + "  --sync-params       its JSON parameters (default [\"ping\"])\n"
+                    + "  --async-rpc         @AsyncRpc of async operations (default postEvents)\n"
+                    + "  --async-events      events each async call posts (default 5)\n"
+                    + "  --async-params      its JSON parameters (default [<async-events>])\n"
+                    + "  --event-name        name of the events it posts (default tick)\n"
+                    + "  --timeout-ms        timeout of connecting and of each response "
+                    + "(default 10000)\n"
+                    + "  --seed              seed of the operation mix (default 0)\n"
+                    + "  --close-server      true to end the run with closeSl4aSession, which\n"
+                    + "                      shuts the server down (default true with --server)\n"
+                    + "  --output            file to write the final report to, as JSON\n";
+
+    /** What a session does in one step. */
+    enum Operation {
+        /** Calls a sync RPC. */
+        SYNC,
+        /** Calls an async RPC, then drains the events it posted. */
+        ASYNC,
+        /** Reconnects to the same session with a {@code continue} handshake. */
+        RECONNECT,
+        /** Disconnects, ending the session, and initiates a new one. */
+        CHURN
+    }
+
+    private static final class Options {
+        private String mHost = "127.0.0.1";
+        private int mPort = -1;
+        private Engine mServer;
+        private int mSessions = 8;
+        private long mDurationSec = 30;
+        private long mReportSec = 10;
+        private final Map<Operation, Integer> mMix = new EnumMap<>(Operation.class);
+        private String mSyncRpc = "echo";
+        private JSONArray mSyncParams;
+        private String mAsyncRpc = "postEvents";
+        private int mAsyncEvents = 5;
+        private JSONArray mAsyncParams;
+        private String mEventName = "tick";
+        private int mTimeoutMs = 10000;
+        private long mSeed = 0;
+        private Boolean mCloseServer;
+        private String mOutput;
+
+        private static Options parse(String[] args) throws JSONException {
+            Options options = new Options();
+            options.parseMix("sync=80,async=15,reconnect=4,churn=1");
+            options.mSyncParams = new JSONArray().put("ping");
+            for (String arg : args) {
+                int equals = arg.indexOf('=');
+                if (!arg.startsWith("--") || equals < 0) {
+                    throw new IllegalArgumentException("Expected --name=value, got " + arg);
+                }
+                String name = arg.substring(2, equals);
+                String value = arg.substring(equals + 1);
+                switch (name) {
+                    case "host":
+                        options.mHost = value;
+                        break;
+                    case "port":
+                        options.mPort = Integer.parseInt(value);
+                        break;
+                    case "server":
+                        options.mServer = Engine.valueOf(value.toUpperCase(Locale.ROOT));
+                        break;
+                    case "sessions":
+                        options.mSessions = Integer.parseInt(value);
+                        break;
+                    case "duration-sec":
+                        options.mDurationSec = Long.parseLong(value);
+                        break;
+                    case "report-sec":
+                        options.mReportSec = Long.parseLong(value);
+                        break;
+                    case "mix":
+                        options.parseMix(value);
+                        break;
+                    case "sync-rpc":
+                        options.mSyncRpc = value;
+                        break;
+                    case "sync-params":
+                        options.mSyncParams = new JSONArray(value);
+                        break;
+                    case "async-rpc":
+                        options.mAsyncRpc = value;
+                        break;
+                    case "async-events":
+                        options.mAsyncEvents = Integer.parseInt(value);
+                        break;
+                    case "async-params":
+                        options.mAsyncParams = new JSONArray(value);
+                        break;
+                    case "event-name":
+                        options.mEventName = value;
+                        break;
+                    case "timeout-ms":
+                        options.mTimeoutMs = Integer.parseInt(value);
+                        break;
+                    case "seed":
+                        options.mSeed = Long.parseLong(value);
+                        break;
+                    case "close-server":
+                        options.mCloseServer = Boolean.parseBoolean(value);
+                        break;
+                    case "output":
+                        options.mOutput = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option --" + name);
+                }
+            }
+            if (options.mServer == null && options.mPort < 0) {
+                throw new IllegalArgumentException("Either --port or --server is required");
+            }
+            if (options.mSessions < 1 || options.mDurationSec < 1 || options.mReportSec < 1) {
+                throw new IllegalArgumentException(
+                        "--sessions, --duration-sec and --report-sec must be positive");
+            }
+            if (options.mCloseServer == null) {
+                options.mCloseServer = options.mServer != null;
+            }
+            if (options.mAsyncParams == null) {
+                options.mAsyncParams = new JSONArray().put(options.mAsyncEvents);
+            }
+            return options;
+        }
+
+        private void parseMix(String mix) {
+            mMix.clear();
+            for (String entry : mix.split(",")) {
+                String[] parts = entry.split("=", 2);
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Expected operation=weight, got " + entry);
+                }
+                int weight = Integer.parseInt(parts[1].trim());
+                if (weight < 0) {
+                    throw new IllegalArgumentException("Negative weight in " + entry);
+                }
+                mMix.put(Operation.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)), weight);
+            }
+            int total = 0;
+            for (int weight : mMix.values()) {
+                total += weight;
+            }
+            if (total == 0) {
+                throw new IllegalArgumentException("The mix has no operations: " + mix);
+            }
+        }
+
+        private Operation pick(Random random) {
+            int total = 0;
+            for (int weight : mMix.values()) {
+                total += weight;
+            }
+            int value = random.nextInt(total);
+            for (Map.Entry<Operation, Integer> entry : mMix.entrySet()) {
+                value -= entry.getValue();
+                if (value < 0) {
+                    return entry.getKey();
+                }
+            }
+            throw new AssertionError();
+        }
+    }
+
+    /** Latencies of the operations of one kind that succeeded, and counts of those that failed. */
+    private static final class OperationStats {
+        private final LatencyHistogram mLatencies = new LatencyHistogram();
+        private final AtomicLong mErrors = new AtomicLong();
+        private long[] mLastLatencies;
+        private long mLastErrors;
+    }
+
+    // Most distinct error messages kept for the report.
+    private static final int MAX_ERROR_SAMPLES = 10;
+
+    private final Options mOptions;
+    private final InetSocketAddress mAddress;
+    private final Map<Operation, OperationStats> mStats = new EnumMap<>(Operation.class);
+    private final Set<String> mErrorSamples = ConcurrentHashMap.newKeySet();
+    private volatile long mDeadlineNanos;
+
+    private LoadGenerator(Options options, InetSocketAddress address) {
+        mOptions = options;
+        mAddress = address;
+        for (Operation operation : Operation.values()) {
+            mStats.put(operation, new OperationStats());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (Arrays.asList(args).contains("--help")) {
+            System.out.print(USAGE);
+            return;
+        }
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException | JSONException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+        JsonRpcServer server = null;
+        InetSocketAddress address;
+        if (options.mServer != null) {
+            BenchmarkContext.initLogging();
+            server = new JsonRpcServer(new BenchmarkContext());
+            server.startLocal(0, options.mServer);
+            address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+        } else {
+            address = new InetSocketAddress(options.mHost, options.mPort);
+        }
+        JSONObject report;
+        try {
+            report = new LoadGenerator(options, address).run();
+        } finally {
+            if (server != null) {
+                server.shutdown();
+            }
+        }
+        System.out.println(report.toString(2));
+        if (options.mOutput != null) {
+            try (Writer writer =
+                    new OutputStreamWriter(
+                            new FileOutputStream(options.mOutput), StandardCharsets.UTF_8)) {
+                writer.write(report.toString(2));
+                writer.write('\n');
+            }
+        }
+        System.exit(0);
+    }
+
+    private JSONObject run() throws InterruptedException, JSONException {
+        long startNanos = System.nanoTime();
+        mDeadlineNanos = startNanos + TimeUnit.SECONDS.toNanos(mOptions.mDurationSec);
+        List<Thread> sessions = new ArrayList<>();
+        for (int i = 0; i < mOptions.mSessions; i++) {
+            final Random random = new Random(mOptions.mSeed + i);
+            Thread thread = new Thread(() -> runSession(random), "LoadGenerator session " + i);
+            thread.setDaemon(true);
+            thread.start();
+            sessions.add(thread);
+        }
+        System.out.println(
+                String.format(
+                        Locale.US,
+                        "%d sessions to %s for %ds",
+                        mOptions.mSessions,
+                        mAddress,
+                        mOptions.mDurationSec));
+        long lastReportNanos = startNanos;
+        long reportNanos = TimeUnit.SECONDS.toNanos(mOptions.mReportSec);
+        while (System.nanoTime() < mDeadlineNanos) {
+            long sleepNanos =
+                    Math.min(lastReportNanos + reportNanos, mDeadlineNanos) - System.nanoTime();
+            if (sleepNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            }
+            long now = System.nanoTime();
+            printInterval(now - startNanos, now - lastReportNanos);
+            lastReportNanos = now;
+        }
+        // Sessions finish their current operation and close, bounded by the response timeout.
+        for (Thread thread : sessions) {
+            thread.join(2L * mOptions.mTimeoutMs);
+        }
+        JSONObject report = buildReport((System.nanoTime() - startNanos) / 1e9);
+        report.put("server", leftoverServerState());
+        if (mOptions.mCloseServer) {
+            report.put("closeServer", closeServer());
+        }
+        return report;
+    }
+
+    /**
+     * Returns what the server still holds once all sessions are gone, from the {@code metrics}
+     * built-in command: sessions and event queues that outlived their sessions are leaks.
+     */
+    private JSONObject leftoverServerState() throws InterruptedException, JSONException {
+        JSONObject state = new JSONObject();
+        try (LoadClient client = LoadClient.initiate(mAddress, mOptions.mTimeoutMs)) {
+            JSONObject metrics = null;
+            // The server notices closed connections asynchronously.
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mOptions.mTimeoutMs);
+            do {
+                if (metrics != null) {
+                    TimeUnit.MILLISECONDS.sleep(100);
+                }
+                metrics = check(client.call("metrics", new JSONArray())).getJSONObject("result");
+            } while (metrics.getInt("activeSessions") > 1 && System.nanoTime() < deadline);
+            // Not counting the session asking.
+            state.put("sessionsLeftOpen", metrics.getInt("activeSessions") - 1);
+            state.put("eventQueuesLeft", metrics.getJSONObject("eventQueues").length());
+            state.put("metrics", metrics);
+        } catch (IOException | JSONException | RpcFailedException e) {
+            state.put("error", e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+        return state;
+    }
+
+    /** Tears the server down with {@code closeSl4aSession}, as Mobly does at the end of a test. */
+    private JSONObject closeServer() throws JSONException {
+        JSONObject result = new JSONObject();
+        long start = System.nanoTime();
+        try {
+            LoadClient client = LoadClient.initiate(mAddress, mOptions.mTimeoutMs);
+            try {
+                check(client.call("closeSl4aSession", new JSONArray()));
+            } finally {
+                client.close();
+            }
+            result.put("ok", true);
+            result.put("latencyUs", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        } catch (IOException | JSONException | RpcFailedException e) {
+            result.put("ok", false);
+            result.put("error", e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+        return result;
+    }
+
+    private void runSession(Random random) {
+        LoadClient client = null;
+        while (System.nanoTime() < mDeadlineNanos) {
+            Operation operation = mOptions.pick(random);
+            OperationStats stats = mStats.get(operation);
+            try {
+                if (client == null) {
+                    client = LoadClient.initiate(mAddress, mOptions.mTimeoutMs);
+                }
+                long start = System.nanoTime();
+                client = perform(operation, client);
+                stats.mLatencies.record(System.nanoTime() - start);
+            } catch (RpcFailedException e) {
+                // The connection is still usable.
+                recordError(stats, operation, e);
+            } catch (IOException | JSONException | RuntimeException e) {
+                recordError(stats, operation, e);
+                closeQuietly(client);
+                client = null;
+            }
+        }
+        closeQuietly(client);
+    }
+
+    /**
+     * Performs an operation on a session.
+     *
+     * @return the client to use from then on.
+     */
+    private LoadClient perform(Operation operation, LoadClient client)
+            throws IOException, JSONException, RpcFailedException {
+        switch (operation) {
+            case SYNC:
+                check(client.call(mOptions.mSyncRpc, mOptions.mSyncParams));
+                return client;
+            case ASYNC:
+                callAsync(client);
+                return client;
+            case RECONNECT:
+                LoadClient resumed =
+                        LoadClient.resume(mAddress, client.getUid(), mOptions.mTimeoutMs);
+                client.close();
+                return resumed;
+            case CHURN:
+                client.close();
+                return LoadClient.initiate(mAddress, mOptions.mTimeoutMs);
+        }
+        throw new AssertionError(operation);
+    }
+
+    /** Calls the async RPC, then drains its events as a test would. */
+    private void callAsync(LoadClient client)
+            throws IOException, JSONException, RpcFailedException {
+        JSONObject response = check(client.call(mOptions.mAsyncRpc, mOptions.mAsyncParams));
+        String callbackId = response.getString("callback");
+        JSONArray params = new JSONArray().put(callbackId).put(mOptions.mEventName);
+        int received = check(client.call("eventGetAll", params)).getJSONArray("result").length();
+        // Events posted by another thread may still be coming.
+        params.put(mOptions.mTimeoutMs);
+        while (received < mOptions.mAsyncEvents) {
+            check(client.call("eventWaitAndGet", params));
+            received++;
+        }
+        if (received > mOptions.mAsyncEvents) {
+            throw new RpcFailedException(
+                    "Expected " + mOptions.mAsyncEvents + " events, got " + received);
+        }
+    }
+
+    private static JSONObject check(JSONObject response) throws RpcFailedException {
+        if (!response.isNull("error")) {
+            throw new RpcFailedException(String.valueOf(response.opt("error")));
+        }
+        return response;
+    }
+
+    private void recordError(OperationStats stats, Operation operation, Exception e) {
+        stats.mErrors.incrementAndGet();
+        if (mErrorSamples.size() < MAX_ERROR_SAMPLES) {
+            String message = e.getMessage();
+            // Only the first line; RPC errors carry the whole stack trace.
+            if (message != null && message.indexOf('\n') >= 0) {
+                message = message.substring(0, message.indexOf('\n'));
+            }
+            mErrorSamples.add(operation + ": " + e.getClass().getSimpleName() + ": " + message);
+        }
+    }
+
+    private static void closeQuietly(LoadClient client) {
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // Already broken.
+            }
+        }
+    }
+
+    private void printInterval(long elapsedNanos, long intervalNanos) {
+        double seconds = intervalNanos / 1e9;
+        StringBuilder line = new StringBuilder();
+        line.append(
+                String.format(
+                        Locale.US, "[%5ds]", TimeUnit.NANOSECONDS.toSeconds(elapsedNanos)));
+        for (Operation operation : Operation.values()) {
+            OperationStats stats = mStats.get(operation);
+            long[] latencies = stats.mLatencies.snapshot();
+            long[] interval =
+                    stats.mLastLatencies == null
+                            ? latencies
+                            : LatencyHistogram.difference(latencies, stats.mLastLatencies);
+            long errors = stats.mErrors.get();
+            long count = LatencyHistogram.count(interval);
+            if (count > 0 || errors > stats.mLastErrors) {
+                line.append(
+                        String.format(
+                                Locale.US,
+                                "  %s %.0f/s p50=%dus p99=%dus err=%d",
+                                operation.name().toLowerCase(Locale.ROOT),
+                                count / seconds,
+                                LatencyHistogram.percentileMicros(interval, 0.5),
+                                LatencyHistogram.percentileMicros(interval, 0.99),
+                                errors - stats.mLastErrors));
+            }
+            stats.mLastLatencies = latencies;
+            stats.mLastErrors = errors;
+        }
+        System.out.println(line);
+    }
+
+    private JSONObject buildReport(double seconds) throws JSONException {
+        JSONObject report = new JSONObject();
+        report.put("sessions", mOptions.mSessions);
+        report.put("seconds", seconds);
+        long totalOperations = 0;
+        long totalErrors = 0;
+        JSONObject operations = new JSONObject();
+        for (Operation operation : Operation.values()) {
+            OperationStats stats = mStats.get(operation);
+            long[] latencies = stats.mLatencies.snapshot();
+            long count = LatencyHistogram.count(latencies);
+            long errors = stats.mErrors.get();
+            if (count + errors == 0) {
+                continue;
+            }
+            totalOperations += count + errors;
+            totalErrors += errors;
+            JSONObject json = new JSONObject();
+            json.put("operations", count + errors);
+            json.put("errors", errors);
+            json.put("errorRate", (double) errors / (count + errors));
+            json.put("perSecond", count / seconds);
+            json.put("p50Us", LatencyHistogram.percentileMicros(latencies, 0.5));
+            json.put("p99Us", LatencyHistogram.percentileMicros(latencies, 0.99));
+            json.put("p999Us", LatencyHistogram.percentileMicros(latencies, 0.999));
+            operations.put(operation.name().toLowerCase(Locale.ROOT), json);
+        }
+        report.put("operations", totalOperations);
+        report.put("errors", totalErrors);
+        report.put(
+                "errorRate", totalOperations == 0 ? 0.0 : (double) totalErrors / totalOperations);
+        report.put("perSecond", (totalOperations - totalErrors) / seconds);
+        report.put("byOperation", operations);
+        report.put("errorSamples", new JSONArray(mErrorSamples));
+        return report;
+    }
+
+    /** An RPC answered with an error; the connection is still usable. */
+    private static final class RpcFailedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private RpcFailedException(String message) {
+            super(message);
+        }
+    }
+}
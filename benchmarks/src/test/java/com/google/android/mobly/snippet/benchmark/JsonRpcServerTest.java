@@ -0,0 +1,477 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.mobly.snippet.rpc.InMemoryTransport;
+import com.google.android.mobly.snippet.rpc.JsonRpcResult;
+import com.google.android.mobly.snippet.rpc.JsonRpcServer;
+import com.google.android.mobly.snippet.rpc.RpcError;
+import com.google.android.mobly.snippet.rpc.ServerTransport;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Drives {@link JsonRpcServer} through an {@link InMemoryTransport}: the session handshake, RPCs,
+ * the protocol features negotiated in the handshake, and the end of a connection. The server is
+ * shared by all tests, since a JVM holds a single {@code SnippetManager}.
+ */
+public class JsonRpcServerTest {
+    private static final long TIMEOUT_MS = 5000;
+    private static final int COMPRESSED_FLAG = 0x80000000;
+
+    private static JsonRpcServer sServer;
+    private static InMemoryTransport sTransport;
+
+    @BeforeClass
+    public static void setUpServer() {
+        BenchmarkContext.initLogging();
+        sServer = new JsonRpcServer(new BenchmarkContext());
+        sTransport = new InMemoryTransport();
+        sServer.start(sTransport);
+    }
+
+    @AfterClass
+    public static void tearDownServer() throws Exception {
+        sServer.shutdown();
+    }
+
+    @Test
+    public void initiateStartsSession() throws Exception {
+        try (Client client = new Client()) {
+            JSONObject response = client.handshake("initiate", -1);
+            assertTrue(response.getBoolean("status"));
+            assertTrue(response.getInt("uid") > 0);
+            assertTrue(response.isNull("error"));
+        }
+    }
+
+    @Test
+    public void continueJoinsSession() throws Exception {
+        try (Client first = new Client();
+                Client second = new Client()) {
+            int uid = first.handshake("initiate", -1).getInt("uid");
+            JSONObject response = second.handshake("continue", uid);
+            assertTrue(response.getBoolean("status"));
+            assertEquals(uid, response.getInt("uid"));
+            assertEquals("pong", second.call(1, "echo", "pong").getString("result"));
+        }
+    }
+
+    @Test
+    public void rpcRoundTrip() throws Exception {
+        try (Client client = new Client()) {
+            client.handshake("initiate", -1);
+            JSONObject response = client.call(7, "echo", "ping");
+            assertEquals(7, response.getInt("id"));
+            assertEquals("ping", response.getString("result"));
+            assertTrue(response.isNull("callback"));
+            assertTrue(response.isNull("error"));
+        }
+    }
+
+    @Test
+    public void continueUnknownSessionIsRefused() throws Exception {
+        try (Client client = new Client()) {
+            JSONObject response = client.handshake("continue", Integer.MAX_VALUE);
+            assertFalse(response.getBoolean("status"));
+            assertEquals("Session does not exist.", response.getString("error"));
+            // The server closes a refused connection.
+            assertNull(client.readLine());
+        }
+    }
+
+    @Test
+    public void unknownCommandIsRefused() throws Exception {
+        try (Client client = new Client()) {
+            JSONObject response = client.handshake("resume", -1);
+            assertFalse(response.getBoolean("status"));
+            assertEquals("Unrecognized command.", response.getString("error"));
+            assertNull(client.readLine());
+        }
+    }
+
+    @Test
+    public void closingConnectionEndsSession() throws Exception {
+        int uid;
+        try (Client client = new Client()) {
+            uid = client.handshake("initiate", -1).getInt("uid");
+            client.call(1, "echo", "ping");
+        }
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (sServer.getSessionCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, sServer.getSessionCount());
+        try (Client client = new Client()) {
+            assertFalse(client.handshake("continue", uid).getBoolean("status"));
+        }
+    }
+
+    @Test
+    public void pipelinedRequestsAreAnsweredOutOfOrder() throws Exception {
+        try (Client client = new Client()) {
+            JSONObject response = client.handshake(initiate().put("pipeline", true));
+            assertTrue(response.getBoolean("pipeline"));
+            client.send(request(1, "sleep", 500));
+            client.send(request(2, "echo", "fast"));
+            JSONObject first = client.receive();
+            assertEquals(2, first.getInt("id"));
+            assertEquals("fast", first.getString("result"));
+            JSONObject second = client.receive();
+            assertEquals(1, second.getInt("id"));
+            assertEquals(500, second.getInt("result"));
+        }
+    }
+
+    @Test
+    public void pipelinedRequestsBeyondMaxInFlightWait() throws Exception {
+        try (Client client = new Client()) {
+            JSONObject response =
+                    client.handshake(initiate().put("pipeline", true).put("maxInFlight", 2));
+            assertEquals(2, response.getInt("maxInFlight"));
+            long start = System.currentTimeMillis();
+            client.send(request(1, "sleep", 300));
+            client.send(request(2, "sleep", 300));
+            client.send(request(3, "echo", "third"));
+            // The third request starts once one of the first two is done.
+            JSONObject first = client.receive();
+            assertTrue(first.getInt("id") != 3);
+            assertTrue(System.currentTimeMillis() - start >= 250);
+            client.receive();
+            client.receive();
+        }
+    }
+
+    @Test
+    public void batchIsAnsweredInOrder() throws Exception {
+        try (Client client = new Client()) {
+            client.handshake(initiate().put("batchParallel", true));
+            JSONArray batch =
+                    new JSONArray()
+                            .put(request(1, "sleep", 200))
+                            .put(request(2, "echo", "b"))
+                            .put(request(3, "fail", "boom"));
+            client.send(batch);
+            JSONArray responses = client.receiveArray();
+            assertEquals(3, responses.length());
+            assertEquals(200, responses.getJSONObject(0).getInt("result"));
+            assertEquals("b", responses.getJSONObject(1).getString("result"));
+            assertTrue(responses.getJSONObject(2).getString("error").contains("boom"));
+        }
+    }
+
+    @Test
+    public void batchStopsOnError() throws Exception {
+        try (Client client = new Client()) {
+            client.handshake(initiate().put("batchStopOnError", true));
+            JSONArray batch =
+                    new JSONArray()
+                            .put(request(1, "echo", "a"))
+                            .put(request(2, "fail", "boom"))
+                            .put(request(3, "echo", "c"));
+            client.send(batch);
+            JSONArray responses = client.receiveArray();
+            assertEquals("a", responses.getJSONObject(0).getString("result"));
+            assertTrue(responses.getJSONObject(1).getString("error").contains("boom"));
+            assertTrue(responses.getJSONObject(2).getString("error").contains("Not executed"));
+        }
+    }
+
+    @Test
+    public void bytesAreSentAsBase64() throws Exception {
+        try (Client client = new Client()) {
+            client.handshake(initiate().put("byteEncoding", "base64"));
+            assertEquals("AAECAw==", client.call(1, "byteRange", 4).getString("result"));
+            // Byte array parameters take base64 in every session.
+            assertEquals(4, client.call(2, "bytes", "AAECAw==").getInt("result"));
+        }
+        try (Client client = new Client()) {
+            client.handshake(initiate());
+            JSONArray bytes = client.call(1, "byteRange", 4).getJSONArray("result");
+            assertEquals("[0,1,2,3]", bytes.toString());
+        }
+    }
+
+    @Test
+    public void largeBytesAreSentInBinaryFrames() throws Exception {
+        int length = JsonRpcResult.BINARY_FRAME_MIN_LENGTH;
+        try (Client client = new Client()) {
+            client.handshake(initiate().put("binaryFrames", true));
+            JSONObject response = client.call(1, "byteRange", length);
+            assertTrue(response.getBoolean("binaryFrame"));
+            assertTrue(response.isNull("result"));
+            byte[] frame = client.receiveBinaryFrame();
+            assertEquals(length, frame.length);
+            assertEquals((byte) (length - 1), frame[length - 1]);
+            // Smaller results are sent inline, right after the frame.
+            assertEquals(3, client.call(2, "byteRange", 3).getJSONArray("result").length());
+        }
+    }
+
+    @Test
+    public void deflateFramesCarryMessages() throws Exception {
+        try (Client client = new Client()) {
+            JSONObject handshake =
+                    initiate().put("compression", "deflate").put("compressionThreshold", 64);
+            JSONObject response = client.handshake(handshake);
+            assertTrue(response.getBoolean("status"));
+            client.useFrames(64);
+            assertEquals("short", client.call(1, "echo", "short").getString("result"));
+            String large = new String(new char[10000]).replace('\0', 'x');
+            JSONObject echoed = client.call(2, "echo", large);
+            assertTrue(client.mLastFrameCompressed);
+            assertEquals(large, echoed.getString("result"));
+        }
+    }
+
+    @Test
+    public void deadlineExceededIsReported() throws Exception {
+        try (Client client = new Client()) {
+            client.handshake(initiate());
+            client.send(request(1, "sleep", 5000).put("deadlineMs", 100));
+            long start = System.currentTimeMillis();
+            JSONObject response = client.receive();
+            assertTrue(System.currentTimeMillis() - start < 2000);
+            assertEquals(RpcError.CODE_DEADLINE_EXCEEDED, response.getString("errorCode"));
+            assertEquals("pong", client.call(2, "echo", "pong").getString("result"));
+        }
+    }
+
+    @Test
+    public void cancelRpcInterruptsIt() throws Exception {
+        try (Client client = new Client()) {
+            client.handshake(initiate().put("pipeline", true));
+            client.send(request(1, "sleep", 5000));
+            // Wait for the RPC to start.
+            Thread.sleep(200);
+            JSONObject cancel = client.call(2, "cancelRpc", 1);
+            assertEquals(2, cancel.getInt("id"));
+            assertTrue(cancel.getBoolean("result"));
+            JSONObject cancelled = client.receive();
+            assertEquals(1, cancelled.getInt("id"));
+            assertEquals(RpcError.CODE_CANCELLED, cancelled.getString("errorCode"));
+            assertFalse(client.call(3, "cancelRpc", 1).getBoolean("result"));
+        }
+    }
+
+    @Test
+    public void resultIsSentPageByPage() throws Exception {
+        try (Client client = new Client()) {
+            client.handshake(initiate());
+            client.send(request(1, "range", 10).put("pageSize", 4));
+            JSONObject page = client.receive().getJSONObject("result");
+            assertEquals("[0,1,2,3]", page.getJSONArray("items").toString());
+            int cursor = page.getInt("cursor");
+            page = client.call(2, "nextPage", cursor).getJSONObject("result");
+            assertEquals("[4,5,6,7]", page.getJSONArray("items").toString());
+            page = client.call(3, "nextPage", cursor).getJSONObject("result");
+            assertEquals("[8,9]", page.getJSONArray("items").toString());
+            assertTrue(page.isNull("cursor"));
+            // An exhausted cursor is released.
+            assertFalse(client.call(4, "nextPage", cursor).isNull("error"));
+        }
+    }
+
+    @Test
+    public void closeCursorReleasesIt() throws Exception {
+        try (Client client = new Client()) {
+            client.handshake(initiate());
+            client.send(request(1, "range", 10).put("pageSize", 4));
+            int cursor = client.receive().getJSONObject("result").getInt("cursor");
+            assertTrue(client.call(2, "closeCursor", cursor).getBoolean("result"));
+            assertFalse(client.call(3, "closeCursor", cursor).getBoolean("result"));
+            assertFalse(client.call(4, "nextPage", cursor).isNull("error"));
+        }
+    }
+
+    private static JSONObject initiate() throws JSONException {
+        return new JSONObject().put("cmd", "initiate").put("uid", -1);
+    }
+
+    private static JSONObject request(int id, String method, Object... params)
+            throws JSONException {
+        JSONArray array = new JSONArray();
+        for (Object param : params) {
+            array.put(param);
+        }
+        return new JSONObject().put("id", id).put("method", method).put("params", array);
+    }
+
+    /**
+     * A client connection, sending and receiving lines, or deflate frames once {@link #useFrames}
+     * is called.
+     */
+    private static final class Client implements Closeable {
+        private final ServerTransport.Connection mConnection;
+        private final DataInputStream mIn;
+        private final OutputStream mOut;
+        // The compression threshold of the frames in use, or -1 for lines.
+        private int mThreshold = -1;
+        private boolean mLastFrameCompressed;
+
+        Client() throws IOException {
+            mConnection = sTransport.connect();
+            mIn = new DataInputStream(new BufferedInputStream(mConnection.getInputStream()));
+            mOut = mConnection.getOutputStream();
+        }
+
+        JSONObject handshake(String cmd, int uid) throws IOException, JSONException {
+            return handshake(new JSONObject().put("cmd", cmd).put("uid", uid));
+        }
+
+        JSONObject handshake(JSONObject request) throws IOException, JSONException {
+            send(request);
+            return receive();
+        }
+
+        /** Switches to deflate frames, as negotiated in the handshake. */
+        void useFrames(int threshold) {
+            mThreshold = threshold;
+        }
+
+        JSONObject call(int id, String method, Object... params)
+                throws IOException, JSONException {
+            send(request(id, method, params));
+            return receive();
+        }
+
+        void send(Object message) throws IOException {
+            byte[] text = message.toString().getBytes(StandardCharsets.UTF_8);
+            if (mThreshold < 0) {
+                mOut.write(text);
+                mOut.write('\n');
+            } else if (text.length < mThreshold) {
+                mOut.write(ByteBuffer.allocate(4).putInt(text.length).array());
+                mOut.write(text);
+            } else {
+                byte[] payload = deflate(text);
+                mOut.write(ByteBuffer.allocate(4).putInt(COMPRESSED_FLAG | payload.length).array());
+                mOut.write(payload);
+            }
+            mOut.flush();
+        }
+
+        JSONObject receive() throws IOException, JSONException {
+            return new JSONObject(receiveMessage());
+        }
+
+        JSONArray receiveArray() throws IOException, JSONException {
+            return new JSONArray(receiveMessage());
+        }
+
+        /** Reads the raw bytes following a response with {@code "binaryFrame": true}. */
+        byte[] receiveBinaryFrame() throws IOException {
+            byte[] bytes = new byte[mIn.readInt()];
+            mIn.readFully(bytes);
+            return bytes;
+        }
+
+        /** Reads a line, or returns null if the server closed the connection. */
+        String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = mIn.read()) != '\n') {
+                if (b < 0) {
+                    return line.size() == 0 ? null : line.toString("UTF-8");
+                }
+                line.write(b);
+            }
+            return line.toString("UTF-8");
+        }
+
+        private String receiveMessage() throws IOException {
+            if (mThreshold < 0) {
+                String line = readLine();
+                if (line == null) {
+                    throw new IOException("The server closed the connection.");
+                }
+                return line;
+            }
+            int header;
+            try {
+                header = mIn.readInt();
+            } catch (EOFException e) {
+                throw new IOException("The server closed the connection.", e);
+            }
+            byte[] payload = new byte[header & ~COMPRESSED_FLAG];
+            mIn.readFully(payload);
+            mLastFrameCompressed = (header & COMPRESSED_FLAG) != 0;
+            byte[] text = mLastFrameCompressed ? inflate(payload) : payload;
+            return new String(text, StandardCharsets.UTF_8);
+        }
+
+        private static byte[] deflate(byte[] bytes) {
+            Deflater deflater = new Deflater();
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            deflater.end();
+            return out.toByteArray();
+        }
+
+        private static byte[] inflate(byte[] bytes) throws IOException {
+            Inflater inflater = new Inflater();
+            inflater.setInput(bytes);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            try {
+                while (!inflater.finished()) {
+                    int count = inflater.inflate(buffer);
+                    if (count == 0 && inflater.needsInput()) {
+                        throw new IOException("Truncated compressed frame.");
+                    }
+                    out.write(buffer, 0, count);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid compressed frame.", e);
+            } finally {
+                inflater.end();
+            }
+            return out.toByteArray();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mConnection.close();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.rpc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Encodes messages with {@link FrameCodec} and decodes the frames it writes, around the
+ * compression threshold, and checks that frames beyond the limits are rejected.
+ */
+public class FrameCodecTest {
+    private static final int THRESHOLD = 100;
+    private static final int COMPRESSED_FLAG = 0x80000000;
+
+    private final FrameCodec mCodec = new FrameCodec(THRESHOLD);
+    private final RecordingSession mSession = new RecordingSession();
+
+    @After
+    public void tearDown() {
+        mCodec.end();
+    }
+
+    @Test
+    public void messageBelowThresholdIsSentAsText() throws Exception {
+        String message = repeat('a', THRESHOLD - 1);
+        byte[] frame = encode(message);
+        assertEquals(THRESHOLD - 1, header(frame));
+        assertArrayEquals(
+                message.getBytes(StandardCharsets.UTF_8),
+                Arrays.copyOfRange(frame, FrameCodec.HEADER_LENGTH, frame.length));
+        assertEquals(message, decode(frame));
+    }
+
+    @Test
+    public void messageAtThresholdIsCompressed() throws Exception {
+        String message = repeat('a', THRESHOLD);
+        byte[] frame = encode(message);
+        assertTrue((header(frame) & COMPRESSED_FLAG) != 0);
+        assertEquals(frame.length - FrameCodec.HEADER_LENGTH, header(frame) & ~COMPRESSED_FLAG);
+        assertEquals(message, decode(frame));
+    }
+
+    @Test
+    public void messageAboveThresholdIsCompressed() throws Exception {
+        String message = repeat('a', THRESHOLD + 1);
+        byte[] frame = encode(message);
+        assertTrue((header(frame) & COMPRESSED_FLAG) != 0);
+        assertEquals(message, decode(frame));
+    }
+
+    @Test
+    public void messageSplitAcrossWritesCrossesThreshold() throws Exception {
+        // Multi-byte characters, so the threshold is crossed by bytes before it is by chars.
+        String part = "{\"k\":\"\u00e9\uD83D\uDE00\"}";
+        StringBuilder message = new StringBuilder();
+        mCodec.beginFrame();
+        for (int i = 0; i < 20; i++) {
+            char[] chars = part.toCharArray();
+            mCodec.write(chars, 0, chars.length);
+            message.append(part);
+        }
+        mCodec.endFrame(mSession);
+        byte[] frame = mSession.takeBytes();
+        assertTrue((header(frame) & COMPRESSED_FLAG) != 0);
+        assertEquals(message.toString(), decode(frame));
+    }
+
+    @Test
+    public void codecIsReusedForSeveralFrames() throws Exception {
+        String large = repeat('b', 10 * THRESHOLD);
+        String small = "{\"id\":1}";
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        frames.write(encode(large));
+        frames.write(encode(small));
+        frames.write(encode(large));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frames.toByteArray()));
+        assertEquals(large, mCodec.readFrame(in));
+        assertEquals(small, mCodec.readFrame(in));
+        assertEquals(large, mCodec.readFrame(in));
+        assertNull(mCodec.readFrame(in));
+    }
+
+    @Test
+    public void headerOverMaxFrameLengthIsRejected() throws Exception {
+        int max = FrameCodec.MAX_FRAME_LENGTH;
+        assertEquals(max, FrameCodec.payloadLength(max));
+        byte[] frame = ByteBuffer.allocate(4).putInt(max + 1).array();
+        try {
+            // The payload is not there: the header alone must be rejected, not buffered for.
+            mCodec.readFrame(new DataInputStream(new ByteArrayInputStream(frame)));
+            fail("The frame was accepted.");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("exceeds the limit"));
+        }
+    }
+
+    @Test
+    public void compressedHeaderOverMaxFrameLengthIsRejected() throws Exception {
+        try {
+            FrameCodec.payloadLength(COMPRESSED_FLAG | (FrameCodec.MAX_FRAME_LENGTH + 1));
+            fail("The frame was accepted.");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("exceeds the limit"));
+        }
+    }
+
+    @Test
+    public void payloadInflatingPastMaxMessageLengthIsRejected() throws Exception {
+        // Zeros compress about a thousandfold, so the payload is well within MAX_FRAME_LENGTH.
+        byte[] payload = deflateZeros(FrameCodec.MAX_MESSAGE_LENGTH + 1);
+        assertTrue(payload.length <= FrameCodec.MAX_FRAME_LENGTH);
+        try {
+            mCodec.decode(COMPRESSED_FLAG | payload.length, payload, 0, payload.length);
+            fail("The payload was inflated.");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("inflates past the limit"));
+        }
+    }
+
+    @Test
+    public void truncatedCompressedPayloadIsRejected() throws Exception {
+        byte[] frame = encode(repeat('c', 10 * THRESHOLD));
+        int length = (frame.length - FrameCodec.HEADER_LENGTH) / 2;
+        try {
+            mCodec.decode(COMPRESSED_FLAG | length, frame, FrameCodec.HEADER_LENGTH, length);
+            fail("The payload was inflated.");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Truncated"));
+        }
+    }
+
+    private byte[] encode(String message) throws IOException {
+        char[] chars = message.toCharArray();
+        mCodec.beginFrame();
+        mCodec.write(chars, 0, chars.length);
+        mCodec.endFrame(mSession);
+        return mSession.takeBytes();
+    }
+
+    private String decode(byte[] frame) throws IOException {
+        return mCodec.readFrame(new DataInputStream(new ByteArrayInputStream(frame)));
+    }
+
+    private static int header(byte[] frame) {
+        return ByteBuffer.wrap(frame, 0, FrameCodec.HEADER_LENGTH).getInt();
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static byte[] deflateZeros(int length) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        byte[] zeros = new byte[1024 * 1024];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        for (int remaining = length; remaining > 0; remaining -= zeros.length) {
+            deflater.setInput(zeros, 0, Math.min(zeros.length, remaining));
+            while (!deflater.needsInput()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /** A session that keeps the bytes of the frames written to it. */
+    private static final class RecordingSession extends RpcSession {
+        private final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+
+        RecordingSession() {
+            super(1, SessionOptions.getDefault());
+        }
+
+        byte[] takeBytes() {
+            byte[] bytes = mBytes.toByteArray();
+            mBytes.reset();
+            return bytes;
+        }
+
+        @Override
+        public void send(String response) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        void beginStream() {}
+
+        @Override
+        void writeStream(char[] chars, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        void writeStream(byte[] bytes, int offset, int length) {
+            mBytes.write(bytes, offset, length);
+        }
+
+        @Override
+        void endStream(boolean complete) {}
+
+        @Override
+        public void close() {}
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+    }
+}
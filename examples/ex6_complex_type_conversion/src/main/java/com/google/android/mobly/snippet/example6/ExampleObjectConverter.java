@@ -1,5 +1,6 @@
 package com.google.android.mobly.snippet.example6;
 
+import com.google.android.mobly.snippet.ConvertsTypes;
 import com.google.android.mobly.snippet.SnippetObjectConverter;
 
 import org.json.JSONException;
@@ -11,7 +12,7 @@ import java.lang.reflect.Type;
 /**
  * Example showing how to supply custom object converter to Mobly Snippet Lib.
  */
-
+@ConvertsTypes(CustomType.class)
 public class ExampleObjectConverter implements SnippetObjectConverter {
     @Override
     public JSONObject serialize(Object object) throws JSONException {
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates the {@code RpcIndex} of each snippet class compiled, so the snippet lib finds its RPCs
+ * at startup without scanning all its public methods by reflection.
+ *
+ * <p>The index of {@code com.my.app.FooSnippet} is the class {@code
+ * com.my.app.FooSnippet_RpcIndex}. It lists the public methods annotated with {@code Rpc} or
+ * {@code AsyncRpc} that the class declares or inherits, by name and erased parameter types, which
+ * is what {@code Class#getMethods()} would have found.
+ *
+ * <p>Every class of the compilation implementing {@code Snippet} gets an index, including classes
+ * that only inherit their RPCs, as long as some class compiled with them uses the RPC annotations.
+ * Snippet classes without an index are still found by scanning them.
+ *
+ * <p>The processor refers to the snippet lib by class name only, so it does not depend on it. Every
+ * index depends only on its snippet class and the supertypes of that class, so it is an isolating
+ * processor for incremental builds with Gradle.
+ */
+@SupportedAnnotationTypes({RpcIndexProcessor.RPC, RpcIndexProcessor.ASYNC_RPC})
+public final class RpcIndexProcessor extends AbstractProcessor {
+    static final String RPC = "com.google.android.mobly.snippet.rpc.Rpc";
+    static final String ASYNC_RPC = "com.google.android.mobly.snippet.rpc.AsyncRpc";
+    private static final String SNIPPET = "com.google.android.mobly.snippet.Snippet";
+    private static final String RPC_INDEX = "com.google.android.mobly.snippet.rpc.RpcIndex";
+    // Must match RpcIndex.CLASS_NAME_SUFFIX.
+    private static final String CLASS_NAME_SUFFIX = "_RpcIndex";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement snippet = processingEnv.getElementUtils().getTypeElement(SNIPPET);
+        if (snippet == null) {
+            // Not compiled against the snippet lib.
+            return false;
+        }
+        TypeMirror snippetType = processingEnv.getTypeUtils().erasure(snippet.asType());
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            processType(type, snippetType);
+        }
+        // Other processors may handle the same annotations.
+        return false;
+    }
+
+    private void processType(TypeElement type, TypeMirror snippetType) {
+        if (isIndexable(type, snippetType)) {
+            try {
+                writeIndex(type);
+            } catch (IOException e) {
+                processingEnv
+                        .getMessager()
+                        .printMessage(
+                                Diagnostic.Kind.ERROR,
+                                "Failed to write the RPC index of " + type + ": " + e,
+                                type);
+            }
+        }
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            processType(nested, snippetType);
+        }
+    }
+
+    /** Whether the snippet lib may construct the class, and the index may refer to it. */
+    private boolean isIndexable(TypeElement type, TypeMirror snippetType) {
+        if (type.getKind() != ElementKind.CLASS
+                || type.getModifiers().contains(Modifier.ABSTRACT)
+                || type.getModifiers().contains(Modifier.PRIVATE)) {
+            return false;
+        }
+        if (type.getNestingKind().isNested() && !type.getModifiers().contains(Modifier.STATIC)) {
+            return false;
+        }
+        Types types = processingEnv.getTypeUtils();
+        return types.isAssignable(types.erasure(type.asType()), snippetType);
+    }
+
+    private void writeIndex(TypeElement type) throws IOException {
+        Elements elements = processingEnv.getElementUtils();
+        PackageElement pkg = elements.getPackageOf(type);
+        String binaryName = elements.getBinaryName(type).toString();
+        String indexName =
+                (pkg.isUnnamed() ? binaryName : binaryName.substring(pkg.toString().length() + 1))
+                        + CLASS_NAME_SUFFIX;
+        List<String> lookups = new ArrayList<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(type))) {
+            if (method.getModifiers().contains(Modifier.PUBLIC) && isRpc(method)) {
+                StringBuilder lookup = new StringBuilder();
+                lookup.append("c.getMethod(\"").append(method.getSimpleName()).append('"');
+                for (VariableElement parameter : method.getParameters()) {
+                    lookup.append(", ").append(classLiteral(parameter.asType()));
+                }
+                lookups.add(lookup.append(')').toString());
+            }
+        }
+
+        String qualifiedIndexName = pkg.isUnnamed() ? indexName : pkg + "." + indexName;
+        try (Writer writer =
+                processingEnv.getFiler().createSourceFile(qualifiedIndexName, type).openWriter()) {
+            writer.write("// Generated by " + getClass().getName() + ". Do not edit.\n");
+            if (!pkg.isUnnamed()) {
+                writer.write("package " + pkg + ";\n");
+            }
+            writer.write("\n/** The RPCs of {@link " + type.getQualifiedName() + "}. */\n");
+            writer.write("public final class " + indexName + " implements " + RPC_INDEX + " {\n");
+            writer.write("    @Override\n");
+            writer.write("    public java.lang.reflect.Method[] getRpcMethods()\n");
+            writer.write("            throws java.lang.NoSuchMethodException {\n");
+            writer.write("        java.lang.Class<?> c = " + type.getQualifiedName() + ".class;\n");
+            writer.write("        return new java.lang.reflect.Method[] {\n");
+            for (String lookup : lookups) {
+                writer.write("            " + lookup + ",\n");
+            }
+            writer.write("        };\n");
+            writer.write("    }\n");
+            writer.write("}\n");
+        }
+    }
+
+    private static boolean isRpc(ExecutableElement method) {
+        for (AnnotationMirror annotation : method.getAnnotationMirrors()) {
+            Element element = annotation.getAnnotationType().asElement();
+            String name = ((TypeElement) element).getQualifiedName().toString();
+            if (name.equals(RPC) || name.equals(ASYNC_RPC)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the class literal of the erasure of the given type, as Method lookups take. */
+    private String classLiteral(TypeMirror type) {
+        return typeName(processingEnv.getTypeUtils().erasure(type)) + ".class";
+    }
+
+    private String typeName(TypeMirror erased) {
+        switch (erased.getKind()) {
+            case ARRAY:
+                return typeName(((ArrayType) erased).getComponentType()) + "[]";
+            case DECLARED:
+                TypeElement element = (TypeElement) processingEnv.getTypeUtils().asElement(erased);
+                return element.getQualifiedName().toString();
+            default:
+                // A primitive type, named by its keyword.
+                return erased.getKind().name().toLowerCase(Locale.ROOT);
+        }
+    }
+}
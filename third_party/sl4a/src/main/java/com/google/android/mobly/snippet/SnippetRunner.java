@@ -25,6 +25,8 @@ import android.os.Bundle;
 import android.os.Process;
 import androidx.test.runner.AndroidJUnitRunner;
 import com.google.android.mobly.snippet.rpc.AndroidProxy;
+import com.google.android.mobly.snippet.rpc.LocalSocketTransport;
+import com.google.android.mobly.snippet.rpc.SimpleServer;
 import com.google.android.mobly.snippet.util.EmptyTestClass;
 import com.google.android.mobly.snippet.util.Log;
 import com.google.android.mobly.snippet.util.NotificationIdFactory;
@@ -56,6 +58,41 @@ import java.util.Locale;
  *         <li>"SNIPPET START, PROTOCOL &lt;major&gt; &lt;minor&gt;" upon snippet start
  *         <li>"SNIPPET SERVING, PORT &lt;port&gt;" once server is ready
  *       </ul>
+ *   <li>v1.1: Optional session features negotiated in the handshake (see {@link
+ *       com.google.android.mobly.snippet.rpc.SessionOptions})
+ *       <ul>
+ *         <li>"pipeline": requests of a session run concurrently, responses match by "id"
+ *         <li>A request line may hold a JSON array of requests, answered by an array of responses
+ *         <li>"--e engine nio" serves connections from a selector thread instead of one thread
+ *             per connection
+ *         <li>"byteEncoding": "base64" sends byte arrays as base64 strings, and byte array
+ *             parameters accept base64 strings
+ *         <li>"binaryFrames": large byte array results follow their response line as a
+ *             length-prefixed binary frame
+ *         <li>{"subscription": ID, "credits": N} lines attach an event subscription made with
+ *             eventSubscribe to the connection, which pushes up to N more of its events
+ *         <li>The "metrics" built-in command reports per-RPC counts and phase latencies; passing
+ *             true resets them
+ *         <li>A request may set "deadlineMs"; an RPC that does not complete in time is answered
+ *             with the error and "errorCode": "DEADLINE_EXCEEDED", and one that cannot start
+ *             because all the workers for such RPCs are busy with "errorCode":
+ *             "RESOURCE_EXHAUSTED"
+ *         <li>The "cancelRpc" built-in command, given the id of a request of the session still
+ *             executing, answers that request with "errorCode": "CANCELLED"; a request reusing
+ *             the id of one still executing is answered with "errorCode": "DUPLICATE_ID"
+ *         <li>A session may have several connections at once, each joining it with "continue"
+ *         <li>The "invalidateRpcCache" built-in command drops the cached results of the RPC it is
+ *             given, or of all RPCs, see {@link com.google.android.mobly.snippet.rpc.RpcCache}
+ *         <li>A request may set "pageSize" to receive a result holding many items as its first
+ *             page and a cursor; the "nextPage" and "closeCursor" built-in commands fetch the
+ *             following pages and release the cursor
+ *         <li>"compression": "deflate" switches the connection to length-prefixed frames after
+ *             the handshake, compressed from "compressionThreshold" bytes on
+ *         <li>"--e transport localabstract" serves on a Unix domain socket in the abstract
+ *             namespace, named by "--e socket_name &lt;name&gt;" or after the package and process,
+ *             and reports "SNIPPET SERVING, LOCALABSTRACT &lt;name&gt;" for {@code adb forward
+ *             tcp:&lt;port&gt; localabstract:&lt;name&gt;}
+ *       </ul>
  * </ul>
  */
 public class SnippetRunner extends AndroidJUnitRunner {
@@ -74,10 +111,13 @@ public class SnippetRunner extends AndroidJUnitRunner {
      * <p>Increment this when new features are added to the launch and communication protocol that
      * are backwards compatible with the old protocol and don't break existing clients.
      */
-    public static final int PROTOCOL_MINOR_VERSION = 0;
+    public static final int PROTOCOL_MINOR_VERSION = 1;
 
     private static final String ARG_ACTION = "action";
     private static final String ARG_PORT = "port";
+    private static final String ARG_ENGINE = "engine";
+    private static final String ARG_TRANSPORT = "transport";
+    private static final String ARG_SOCKET_NAME = "socket_name";
 
     /**
      * Values needed to create a notification channel. This applies to versions > O (26).
@@ -91,6 +131,11 @@ public class SnippetRunner extends AndroidJUnitRunner {
         STOP
     };
 
+    private enum Transport {
+        TCP,
+        LOCALABSTRACT
+    }
+
     private static final int NOTIFICATION_ID = NotificationIdFactory.create();
 
     private Bundle mArguments;
@@ -131,7 +176,29 @@ public class SnippetRunner extends AndroidJUnitRunner {
                 if (servicePort != null) {
                     port = Integer.parseInt(servicePort);
                 }
-                startServer(port);
+                String serverEngine = mArguments.getString(ARG_ENGINE);
+                SimpleServer.Engine engine = SimpleServer.Engine.BLOCKING;
+                if (serverEngine != null) {
+                    engine = SimpleServer.Engine.valueOf(serverEngine.toUpperCase(Locale.ROOT));
+                }
+                String serverTransport = mArguments.getString(ARG_TRANSPORT);
+                Transport transport = Transport.TCP;
+                if (serverTransport != null) {
+                    transport = Transport.valueOf(serverTransport.toUpperCase(Locale.ROOT));
+                }
+                String socketName = null;
+                if (transport == Transport.LOCALABSTRACT) {
+                    if (engine != SimpleServer.Engine.BLOCKING) {
+                        throw new IllegalArgumentException(
+                                "\"--e engine " + serverEngine + "\" only serves TCP");
+                    }
+                    socketName = mArguments.getString(ARG_SOCKET_NAME);
+                    if (socketName == null) {
+                        socketName =
+                                getTargetContext().getPackageName() + "-" + Process.myPid();
+                    }
+                }
+                startServer(port, engine, socketName);
                 break;
             case STOP:
                 mNotificationManager.cancel(NOTIFICATION_ID);
@@ -140,10 +207,18 @@ public class SnippetRunner extends AndroidJUnitRunner {
         }
     }
 
-    private void startServer(int port) {
+    /**
+     * Starts the server on a TCP port, or on the Unix domain socket named {@code socketName} in the
+     * abstract namespace if it is not null.
+     */
+    private void startServer(int port, SimpleServer.Engine engine, String socketName) {
         AndroidProxy androidProxy = new AndroidProxy(getContext());
         try {
-            androidProxy.startLocal(port);
+            if (socketName != null) {
+                androidProxy.start(new LocalSocketTransport(socketName));
+            } else {
+                androidProxy.startLocal(port, engine);
+            }
         } catch (SocketException e) {
             if ("Permission denied".equals(e.getMessage())) {
                 throw new RuntimeException(
@@ -156,9 +231,9 @@ public class SnippetRunner extends AndroidJUnitRunner {
             throw new RuntimeException("Failed to start server", e);
         }
         createNotification();
-        int actualPort = androidProxy.getPort();
-        sendString("SNIPPET SERVING, PORT " + actualPort);
-        Log.i("Snippet server started for process " + Process.myPid() + " on port " + actualPort);
+        String endpoint = androidProxy.getEndpoint();
+        sendString("SNIPPET SERVING, " + endpoint);
+        Log.i("Snippet server started for process " + Process.myPid() + " on " + endpoint);
     }
 
     @SuppressWarnings("deprecation") // Depreciated calls needed for versions < O (26)
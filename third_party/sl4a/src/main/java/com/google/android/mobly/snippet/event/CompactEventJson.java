@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.event;
+
+import com.google.android.mobly.snippet.rpc.EncodedJson;
+import java.util.Iterator;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The JSON tree of a {@link CompactSnippetEvent}, which the RPCs of {@link EventSnippet} return
+ * like that of any other event.
+ *
+ * <p>{@link com.google.android.mobly.snippet.rpc.JsonBuilder} writes it into the response as the
+ * cached text of the event, rather than serializing the tree again. The tree itself is only built
+ * from the fields of the event, without parsing that text, the first time it is read or changed,
+ * so events drained by RPCs cost no more than their text. Once the tree is changed through put,
+ * putOpt, accumulate or remove, e.g. by a snippet calling those RPCs directly, it is serialized
+ * like any other {@link JSONObject}.
+ *
+ * <p>{@code org.json} serializes a tree nested in another one without calling any method it could
+ * override, so a tree not built yet must only be written by {@code JsonBuilder}; see {@link
+ * #build()}.
+ */
+final class CompactEventJson extends JSONObject implements EncodedJson {
+    // The object of the event, which holds the text: this one, or the parent of the data.
+    private final CompactEventJson mRoot;
+    // The text of the event until the tree changes. Only set on the object of the event.
+    private volatile String mJson;
+    // The event whose fields the tree is built from, until it is built.
+    private CompactSnippetEvent mEvent;
+    // Set while the tree is built by the thread holding the lock, and once it is built.
+    private boolean mBuilding = false;
+    private volatile boolean mBuilt = false;
+
+    /** Creates the object of an event, whose tree is built when it is first read or changed. */
+    CompactEventJson(CompactSnippetEvent event) {
+        mRoot = this;
+        mEvent = event;
+        mJson = event.getJson(false);
+    }
+
+    private CompactEventJson(CompactEventJson root) {
+        mRoot = root;
+        mBuilt = true;
+    }
+
+    /** Builds the tree now, if it was not built yet. */
+    CompactEventJson build() {
+        if (mBuilt) {
+            return this;
+        }
+        synchronized (this) {
+            if (mBuilt || mBuilding) {
+                return this;
+            }
+            mBuilding = true;
+            try {
+                super.put("callbackId", mEvent.getCallbackId());
+                super.put("name", mEvent.getName());
+                super.put("time", mEvent.getCreationTime());
+                CompactEventJson data = new CompactEventJson(this);
+                mEvent.putFields(data);
+                super.put("data", data);
+            } catch (JSONException e) {
+                // Only null names and non-finite numbers are rejected, and the event has neither.
+                throw new AssertionError(e);
+            }
+            mEvent = null;
+            mBuilt = true;
+        }
+        return this;
+    }
+
+    @Override
+    public String getJson(boolean base64Bytes) {
+        // Events hold no byte arrays, so the text does not depend on base64Bytes.
+        String json = mRoot == this ? mJson : null;
+        return json != null ? json : toString();
+    }
+
+    private void changed() {
+        build();
+        if (mRoot.mBuilt) {
+            mRoot.mJson = null;
+        }
+    }
+
+    @Override
+    public int length() {
+        build();
+        return super.length();
+    }
+
+    @Override
+    public boolean isNull(String name) {
+        build();
+        return super.isNull(name);
+    }
+
+    @Override
+    public boolean has(String name) {
+        build();
+        return super.has(name);
+    }
+
+    @Override
+    public Object get(String name) throws JSONException {
+        build();
+        return super.get(name);
+    }
+
+    @Override
+    public Object opt(String name) {
+        build();
+        return super.opt(name);
+    }
+
+    @Override
+    public Iterator<String> keys() {
+        build();
+        return super.keys();
+    }
+
+    @Override
+    public JSONArray names() {
+        build();
+        return super.names();
+    }
+
+    @Override
+    public String toString() {
+        String json = mRoot == this ? mJson : null;
+        if (json != null) {
+            return json;
+        }
+        build();
+        return super.toString();
+    }
+
+    @Override
+    public String toString(int indentSpaces) throws JSONException {
+        build();
+        return super.toString(indentSpaces);
+    }
+
+    @Override
+    public JSONObject put(String name, boolean value) throws JSONException {
+        changed();
+        return super.put(name, value);
+    }
+
+    @Override
+    public JSONObject put(String name, double value) throws JSONException {
+        changed();
+        return super.put(name, value);
+    }
+
+    @Override
+    public JSONObject put(String name, int value) throws JSONException {
+        changed();
+        return super.put(name, value);
+    }
+
+    @Override
+    public JSONObject put(String name, long value) throws JSONException {
+        changed();
+        return super.put(name, value);
+    }
+
+    @Override
+    public JSONObject put(String name, Object value) throws JSONException {
+        changed();
+        return super.put(name, value);
+    }
+
+    @Override
+    public JSONObject putOpt(String name, Object value) throws JSONException {
+        changed();
+        return super.putOpt(name, value);
+    }
+
+    @Override
+    public JSONObject accumulate(String name, Object value) throws JSONException {
+        changed();
+        return super.accumulate(name, value);
+    }
+
+    @Override
+    public Object remove(String name) {
+        changed();
+        return super.remove(name);
+    }
+}
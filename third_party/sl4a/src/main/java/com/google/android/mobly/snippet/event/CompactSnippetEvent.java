@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.event;
+
+import android.os.Bundle;
+import com.google.android.mobly.snippet.rpc.EncodedJson;
+import com.google.android.mobly.snippet.rpc.JsonBuilder;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * An event for producers posting at a high rate, e.g. sensor streams, that keeps its data in flat
+ * typed fields instead of a {@link Bundle}.
+ *
+ * <p>Numbers are stored unboxed, and the event is serialized to JSON text once, the first time it
+ * is needed; the drain RPCs of {@link EventSnippet} then write that text into the response as is.
+ * Its JSON is the same as that of a {@link SnippetEvent} holding the same values in its Bundle.
+ *
+ * <p>Fields must be put before the event is posted. {@link #getData()} returns a copy.
+ */
+public final class CompactSnippetEvent extends SnippetEvent implements EncodedJson {
+    private static final int DEFAULT_CAPACITY = 4;
+    private static final byte TYPE_INT = 0;
+    private static final byte TYPE_LONG = 1;
+    private static final byte TYPE_DOUBLE = 2;
+    private static final byte TYPE_BOOLEAN = 3;
+    private static final byte TYPE_STRING = 4;
+    // Rough size of a field beyond its key and string.
+    private static final int FIELD_OVERHEAD_BYTES = 16;
+
+    private String[] mKeys;
+    private byte[] mTypes;
+    // The bits of each number, the doubles as raw long bits, and 1 or 0 for booleans.
+    private long[] mNumbers;
+    // Allocated with the first string field.
+    private String[] mStrings;
+    private int mSize = 0;
+    private volatile String mJson;
+
+    /**
+     * Constructs an event.
+     *
+     * @param callbackId The callbackId passed to the {@link
+     *     com.google.android.mobly.snippet.rpc.AsyncRpc} method.
+     * @param name The name of the event.
+     */
+    public CompactSnippetEvent(String callbackId, String name) {
+        this(callbackId, name, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs an event with room for the given number of fields, which grows as needed.
+     *
+     * @param callbackId The callbackId passed to the {@link
+     *     com.google.android.mobly.snippet.rpc.AsyncRpc} method.
+     * @param name The name of the event.
+     */
+    public CompactSnippetEvent(String callbackId, String name, int capacity) {
+        super(callbackId, name, System.currentTimeMillis(), null);
+        mKeys = new String[capacity];
+        mTypes = new byte[capacity];
+        mNumbers = new long[capacity];
+    }
+
+    public CompactSnippetEvent putInt(String key, int value) {
+        int index = slot(key, TYPE_INT);
+        mNumbers[index] = value;
+        return this;
+    }
+
+    public CompactSnippetEvent putLong(String key, long value) {
+        int index = slot(key, TYPE_LONG);
+        mNumbers[index] = value;
+        return this;
+    }
+
+    /** @throws IllegalArgumentException if the value is NaN or infinite, which JSON cannot hold. */
+    public CompactSnippetEvent putDouble(String key, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Field " + key + " is not a finite number.");
+        }
+        int index = slot(key, TYPE_DOUBLE);
+        mNumbers[index] = Double.doubleToRawLongBits(value);
+        return this;
+    }
+
+    public CompactSnippetEvent putBoolean(String key, boolean value) {
+        int index = slot(key, TYPE_BOOLEAN);
+        mNumbers[index] = value ? 1 : 0;
+        return this;
+    }
+
+    public CompactSnippetEvent putString(String key, String value) {
+        int index = slot(key, TYPE_STRING);
+        if (mStrings == null) {
+            mStrings = new String[mKeys.length];
+        }
+        mStrings[index] = value;
+        return this;
+    }
+
+    /** Returns the index of the field, adding it if needed, and sets its type. */
+    private int slot(String key, byte type) {
+        if (mJson != null) {
+            throw new IllegalStateException(
+                    "Event " + getName() + " was already serialized, its fields cannot change.");
+        }
+        int index = indexOf(key);
+        if (index < 0) {
+            if (mSize == mKeys.length) {
+                int capacity = Math.max(DEFAULT_CAPACITY, mSize * 2);
+                mKeys = Arrays.copyOf(mKeys, capacity);
+                mTypes = Arrays.copyOf(mTypes, capacity);
+                mNumbers = Arrays.copyOf(mNumbers, capacity);
+                if (mStrings != null) {
+                    mStrings = Arrays.copyOf(mStrings, capacity);
+                }
+            }
+            index = mSize++;
+            mKeys[index] = key;
+        } else if (mStrings != null) {
+            mStrings[index] = null;
+        }
+        mTypes[index] = type;
+        return index;
+    }
+
+    private int indexOf(String key) {
+        for (int i = 0; i < mSize; i++) {
+            if (mKeys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the value of a field, boxed. */
+    private Object valueAt(int index) {
+        long bits = mNumbers[index];
+        switch (mTypes[index]) {
+            case TYPE_INT:
+                return (int) bits;
+            case TYPE_LONG:
+                return bits;
+            case TYPE_DOUBLE:
+                return Double.longBitsToDouble(bits);
+            case TYPE_BOOLEAN:
+                return bits != 0;
+            default:
+                return mStrings[index];
+        }
+    }
+
+    @Override
+    Object getValue(String key) {
+        int index = indexOf(key);
+        return index < 0 ? null : valueAt(index);
+    }
+
+    /**
+     * Returns a copy of the fields in a new Bundle. Changing it does not change the event; use the
+     * put methods of this class instead.
+     */
+    @Override
+    public Bundle getData() {
+        Bundle data = new Bundle();
+        for (int i = 0; i < mSize; i++) {
+            long bits = mNumbers[i];
+            switch (mTypes[i]) {
+                case TYPE_INT:
+                    data.putInt(mKeys[i], (int) bits);
+                    break;
+                case TYPE_LONG:
+                    data.putLong(mKeys[i], bits);
+                    break;
+                case TYPE_DOUBLE:
+                    data.putDouble(mKeys[i], Double.longBitsToDouble(bits));
+                    break;
+                case TYPE_BOOLEAN:
+                    data.putBoolean(mKeys[i], bits != 0);
+                    break;
+                default:
+                    data.putString(mKeys[i], mStrings[i]);
+                    break;
+            }
+        }
+        return data;
+    }
+
+    /** Returns the JSON text of the event, serializing it on the first call. */
+    @Override
+    public String getJson(boolean base64Bytes) {
+        String json = mJson;
+        if (json == null) {
+            // Threads racing here produce the same text.
+            json = encode();
+            mJson = json;
+        }
+        return json;
+    }
+
+    /**
+     * Returns the JSON tree of the event, which is written into responses as the text of the event
+     * unless it is changed.
+     */
+    @Override
+    public JSONObject toJson() throws JSONException {
+        return new CompactEventJson(this).build();
+    }
+
+    /** Returns the JSON tree of the event, built only if it is read or changed. */
+    @Override
+    JSONObject toResultJson() {
+        return new CompactEventJson(this);
+    }
+
+    /** Puts the fields into the data object of the JSON tree. */
+    void putFields(JSONObject data) throws JSONException {
+        for (int i = 0; i < mSize; i++) {
+            Object value = valueAt(i);
+            data.put(mKeys[i], value != null ? value : JSONObject.NULL);
+        }
+    }
+
+    @Override
+    String toJsonString() {
+        return getJson(false);
+    }
+
+    /** Returns roughly how many bytes of memory the fields take. */
+    long estimateDataSize() {
+        long size = 0;
+        for (int i = 0; i < mSize; i++) {
+            size += FIELD_OVERHEAD_BYTES + 8 + 2L * mKeys[i].length();
+            if (mTypes[i] == TYPE_STRING && mStrings[i] != null) {
+                size += 2L * mStrings[i].length();
+            }
+        }
+        return size;
+    }
+
+    private String encode() {
+        StringWriter out = new StringWriter(64 + 24 * mSize);
+        try {
+            out.write("{\"callbackId\":");
+            JsonBuilder.writeString(getCallbackId(), out);
+            out.write(",\"name\":");
+            JsonBuilder.writeString(getName(), out);
+            out.write(",\"time\":");
+            out.write(Long.toString(getCreationTime()));
+            out.write(",\"data\":{");
+            for (int i = 0; i < mSize; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                JsonBuilder.writeString(mKeys[i], out);
+                out.write(':');
+                writeValue(i, out);
+            }
+            out.write("}}");
+        } catch (IOException e) {
+            // StringWriter does not throw.
+            throw new AssertionError(e);
+        }
+        return out.toString();
+    }
+
+    private void writeValue(int index, StringWriter out) throws IOException {
+        long bits = mNumbers[index];
+        switch (mTypes[index]) {
+            case TYPE_INT:
+            case TYPE_LONG:
+                out.write(Long.toString(bits));
+                break;
+            case TYPE_DOUBLE:
+                try {
+                    out.write(JSONObject.numberToString(Double.longBitsToDouble(bits)));
+                } catch (JSONException e) {
+                    // Only NaN and infinities are rejected, and putDouble does not accept them.
+                    throw new AssertionError(e);
+                }
+                break;
+            case TYPE_BOOLEAN:
+                out.write(bits != 0 ? "true" : "false");
+                break;
+            default:
+                if (mStrings[index] == null) {
+                    out.write("null");
+                } else {
+                    JsonBuilder.writeString(mStrings[index], out);
+                }
+                break;
+        }
+    }
+}
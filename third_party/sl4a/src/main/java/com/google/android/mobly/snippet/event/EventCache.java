@@ -16,12 +16,28 @@
 
 package com.google.android.mobly.snippet.event;
 
+import android.os.Bundle;
+import com.google.android.mobly.snippet.event.EventQueue.OverflowPolicy;
 import com.google.android.mobly.snippet.util.Log;
-import java.util.Deque;
-import java.util.HashMap;
+import java.io.File;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.reflect.Array;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Manage the event queue.
@@ -30,14 +46,120 @@ import java.util.concurrent.LinkedBlockingDeque;
  * SnippetEvent} objects posted from snippet classes. The SnippetEvent cache provides a useful means
  * of recording background events (such as sensor data) when the phone is busy with foreground
  * activities.
+ *
+ * <p>Each callback ID and event name has its own {@link EventQueue}, bounded by a number of events.
+ * All queues together are also bounded by the estimated size of their events. What happens when
+ * either bound is reached is decided by the {@link OverflowPolicy} of the queue posted to, unless
+ * spilling to files is enabled with {@link #enableSpill}.
  */
 public class EventCache {
     private static final String EVENT_DEQUE_ID_TEMPLATE = "%s|%s";
     private static final int EVENT_DEQUE_MAX_SIZE = 1024;
+    private static final long DEFAULT_MAX_TOTAL_BYTES = 32L * 1024 * 1024;
+    // Rough sizes of an event without its data, and of a value of unknown type.
+    private static final int EVENT_OVERHEAD_BYTES = 96;
+    private static final int VALUE_OVERHEAD_BYTES = 16;
+
+    /** The key of a queue: a callback ID and an event name. */
+    private static final class QueueKey {
+        private final String mCallbackId;
+        private final String mName;
+        private final int mHash;
+
+        private QueueKey(String callbackId, String name) {
+            mCallbackId = callbackId;
+            mName = name;
+            mHash = 31 * callbackId.hashCode() + name.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof QueueKey)) {
+                return false;
+            }
+            QueueKey other = (QueueKey) o;
+            return mHash == other.mHash
+                    && mCallbackId.equals(other.mCallbackId)
+                    && mName.equals(other.mName);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public String toString() {
+            return getQueueId(mCallbackId, mName);
+        }
+    }
+
+    /** A thread waiting for an event matching a filter. */
+    private static final class Waiter {
+        private final EventFilter mFilter;
+        private long mSignals = 0;
+
+        private Waiter(EventFilter filter) {
+            mFilter = filter;
+        }
+
+        private synchronized long getSignals() {
+            return mSignals;
+        }
+
+        private synchronized void signal() {
+            mSignals++;
+            notifyAll();
+        }
+
+        /** Waits until signaled again after {@code signals}, up to the given time. */
+        private synchronized void await(long signals, long timeoutNanos)
+                throws InterruptedException {
+            long deadline = System.nanoTime() + timeoutNanos;
+            long remaining = timeoutNanos;
+            while (mSignals == signals && remaining > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                remaining = deadline - System.nanoTime();
+            }
+        }
+    }
 
     // A Map with each value being the queue for a particular type of event, and the key being the
-    // unique ID of the queue. The ID is composed of a callback ID and an event's name.
-    private final Map<String, LinkedBlockingDeque<SnippetEvent>> mEventDeques = new HashMap<>();
+    // callback ID and the event's name.
+    private final Map<QueueKey, EventQueue> mEventQueues = new ConcurrentHashMap<>();
+    // Subscriptions by ID, and by the callback ID they are interested in.
+    private final Map<Integer, EventSubscription> mSubscriptions = new ConcurrentHashMap<>();
+    private final Map<String, List<EventSubscription>> mSubscriptionsByCallbackId =
+            new ConcurrentHashMap<>();
+    private final AtomicInteger mNextSubscriptionId = new AtomicInteger(0);
+    // Threads waiting for an event matching a filter, woken up when one is queued.
+    private final List<Waiter> mWaiters = new CopyOnWriteArrayList<>();
+
+    // Estimated size of all queued events, and the threads waiting for it to shrink.
+    private final AtomicLong mTotalBytes = new AtomicLong();
+    private final AtomicInteger mBytesWaiters = new AtomicInteger();
+    private final Object mBytesFreed = new Object();
+    private volatile long mMaxTotalBytes = DEFAULT_MAX_TOTAL_BYTES;
+
+    // Where queues spill the events that do not fit in memory, if anywhere, and the disk space
+    // their segment files take.
+    private volatile File mSpillDirectory;
+    private volatile long mMaxSpillBytes;
+    private final AtomicLong mSpillBytes = new AtomicLong();
+    private final AtomicInteger mNextSpillId = new AtomicInteger();
+    // Deleted segment files that are still mapped, so their disk space is not freed yet.
+    private final Set<DeletedSegment> mDeletedSegments =
+            Collections.newSetFromMap(new ConcurrentHashMap<DeletedSegment, Boolean>());
+    private final ReferenceQueue<MappedByteBuffer> mUnmappedSegments = new ReferenceQueue<>();
+    private final AtomicLong mDeletedSpillBytes = new AtomicLong();
+
+    // The configuration of queues that were not configured explicitly.
+    private volatile int mDefaultCapacity = EVENT_DEQUE_MAX_SIZE;
+    private volatile OverflowPolicy mDefaultPolicy = OverflowPolicy.DROP_OLDEST;
+    private volatile long mDefaultBlockTimeoutMs = 0;
 
     private static volatile EventCache mEventCache;
 
@@ -58,46 +180,460 @@ public class EventCache {
         return String.format(Locale.US, EVENT_DEQUE_ID_TEMPLATE, callbackId, name);
     }
 
-    public LinkedBlockingDeque<SnippetEvent> getEventDeque(String qId) {
-        synchronized (mEventDeques) {
-            LinkedBlockingDeque<SnippetEvent> eventDeque = mEventDeques.get(qId);
-            if (eventDeque == null) {
-                eventDeque = new LinkedBlockingDeque<>(EVENT_DEQUE_MAX_SIZE);
-                mEventDeques.put(qId, eventDeque);
+    /** Returns the queue of the events of the given callback ID and name, creating it if needed. */
+    public EventQueue getEventQueue(String callbackId, String name) {
+        QueueKey key = new QueueKey(callbackId, name);
+        EventQueue queue = mEventQueues.get(key);
+        if (queue == null) {
+            queue =
+                    mEventQueues.computeIfAbsent(
+                            key,
+                            k ->
+                                    new EventQueue(
+                                            k.toString(),
+                                            this,
+                                            mDefaultCapacity,
+                                            mDefaultPolicy,
+                                            mDefaultBlockTimeoutMs));
+        }
+        return queue;
+    }
+
+    /** Returns the queues created so far, keyed by {@link #getQueueId}. */
+    public Map<String, EventQueue> getEventQueues() {
+        Map<String, EventQueue> queues = new TreeMap<>();
+        for (Map.Entry<QueueKey, EventQueue> entry : mEventQueues.entrySet()) {
+            queues.put(entry.getKey().toString(), entry.getValue());
+        }
+        return queues;
+    }
+
+    /**
+     * Sets the capacity and overflow policy of the queue of the given callback ID and event name.
+     *
+     * @param blockTimeoutMs how long {@link OverflowPolicy#BLOCK} waits for room.
+     */
+    public void configureQueue(
+            String callbackId,
+            String name,
+            int capacity,
+            OverflowPolicy policy,
+            long blockTimeoutMs) {
+        getEventQueue(callbackId, name).configure(capacity, policy, blockTimeoutMs);
+    }
+
+    /** Sets the capacity and overflow policy of the queues created from now on. */
+    public void setDefaultQueueConfig(int capacity, OverflowPolicy policy, long blockTimeoutMs) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative capacity: " + capacity);
+        }
+        mDefaultCapacity = capacity;
+        mDefaultPolicy = policy;
+        mDefaultBlockTimeoutMs = blockTimeoutMs;
+    }
+
+    /**
+     * Bounds the estimated size of all queued events together. Events already queued are kept if
+     * the new bound is lower.
+     */
+    public void setMaxTotalBytes(long maxTotalBytes) {
+        mMaxTotalBytes = maxTotalBytes;
+        notifyBytesFreed();
+    }
+
+    public long getMaxTotalBytes() {
+        return mMaxTotalBytes;
+    }
+
+    /** Returns the estimated size of all queued events. */
+    public long getTotalBytes() {
+        return mTotalBytes.get();
+    }
+
+    /**
+     * Spills the events that do not fit in memory to files in the given directory, instead of
+     * applying the overflow policy, until they take the given disk space. Files left in the
+     * directory by an earlier process are deleted, since their callback IDs are meaningless now.
+     */
+    public void enableSpill(File directory, long maxSpillBytes) {
+        deleteRecursively(directory);
+        mMaxSpillBytes = maxSpillBytes;
+        mSpillDirectory = directory;
+        Log.i("Spilling events to " + directory + ", up to " + maxSpillBytes + " bytes.");
+    }
+
+    boolean isSpillEnabled() {
+        return mSpillDirectory != null;
+    }
+
+    /** Returns the disk space taken by spilled events. */
+    public long getSpillBytes() {
+        return mSpillBytes.get();
+    }
+
+    /**
+     * Returns the disk space of spill files that were deleted but are not freed yet.
+     *
+     * <p>A file stays mapped after it is deleted, and there is no way to unmap it other than
+     * letting its buffer be garbage collected. So its disk space, which no longer counts against
+     * the spill budget, is freed some time later, and the spill directory may briefly take more
+     * than the budget.
+     */
+    public long getDeletedSpillBytes() {
+        Reference<? extends MappedByteBuffer> reference;
+        while ((reference = mUnmappedSegments.poll()) != null) {
+            DeletedSegment segment = (DeletedSegment) reference;
+            if (mDeletedSegments.remove(segment)) {
+                mDeletedSpillBytes.addAndGet(-segment.mBytes);
+            }
+        }
+        return mDeletedSpillBytes.get();
+    }
+
+    EventSpill createSpill() {
+        return new EventSpill(
+                new File(mSpillDirectory, Integer.toString(mNextSpillId.incrementAndGet())), this);
+    }
+
+    boolean reserveSpillBytes(long bytes) {
+        if (mSpillBytes.addAndGet(bytes) <= mMaxSpillBytes) {
+            return true;
+        }
+        mSpillBytes.addAndGet(-bytes);
+        return false;
+    }
+
+    void releaseSpillBytes(long bytes) {
+        mSpillBytes.addAndGet(-bytes);
+    }
+
+    /** Returns the budget of a deleted segment file, and tracks it until it is unmapped. */
+    void releaseSpillSegment(MappedByteBuffer buffer) {
+        long bytes = buffer.capacity();
+        mDeletedSpillBytes.addAndGet(bytes);
+        mDeletedSegments.add(new DeletedSegment(buffer, bytes, mUnmappedSegments));
+        mSpillBytes.addAndGet(-bytes);
+        getDeletedSpillBytes();
+    }
+
+    private static final class DeletedSegment extends PhantomReference<MappedByteBuffer> {
+        private final long mBytes;
+
+        private DeletedSegment(
+                MappedByteBuffer buffer, long bytes, ReferenceQueue<MappedByteBuffer> queue) {
+            super(buffer, queue);
+            mBytes = bytes;
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
             }
-            return eventDeque;
         }
+        file.delete();
     }
 
     /**
      * Post an {@link SnippetEvent} object to the Event cache.
      *
-     * <p>Snippet classes should use this method to post events. If EVENT_DEQUE_MAX_SIZE is reached,
-     * the oldest elements will be retired until the new event could be posted.
+     * <p>Snippet classes should use this method to post events. The event is pushed to a matching
+     * {@link EventSubscription} that can take it; otherwise it is queued. If the queue or the cache
+     * is full, the {@link OverflowPolicy} of the queue decides whether older events are retired,
+     * this one is dropped, or this call waits for room.
      *
      * @param snippetEvent The snippetEvent to post to {@link EventCache}.
      */
     public void postEvent(SnippetEvent snippetEvent) {
-        String qId = getQueueId(snippetEvent.getCallbackId(), snippetEvent.getName());
-        Deque<SnippetEvent> q = getEventDeque(qId);
-        synchronized (q) {
-            while (!q.offer(snippetEvent)) {
-                SnippetEvent retiredEvent = q.removeFirst();
-                Log.v(
-                        String.format(
-                                Locale.US,
-                                "Retired event %s due to deque reaching the size limit (%s).",
-                                retiredEvent,
-                                EVENT_DEQUE_MAX_SIZE));
+        List<EventSubscription> subscriptions =
+                mSubscriptionsByCallbackId.get(snippetEvent.getCallbackId());
+        if (subscriptions != null) {
+            for (EventSubscription subscription : subscriptions) {
+                if (subscription.matches(snippetEvent) && subscription.tryPush(snippetEvent)) {
+                    return;
+                }
+            }
+        }
+        boolean queued =
+                getEventQueue(snippetEvent.getCallbackId(), snippetEvent.getName())
+                        .offer(snippetEvent, estimateSize(snippetEvent));
+        if (queued && !mWaiters.isEmpty()) {
+            for (Waiter waiter : mWaiters) {
+                if (waiter.mFilter.matches(snippetEvent)) {
+                    waiter.signal();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the oldest queued event matching a filter, from any of the queues it
+     * selects. Events that do not match stay queued.
+     *
+     * @return the event, or null if none matches.
+     */
+    public SnippetEvent takeMatching(EventFilter filter) {
+        while (true) {
+            EventQueue oldestQueue = null;
+            SnippetEvent oldest = null;
+            for (Map.Entry<QueueKey, EventQueue> entry : mEventQueues.entrySet()) {
+                QueueKey key = entry.getKey();
+                if (!filter.selects(key.mCallbackId, key.mName)) {
+                    continue;
+                }
+                SnippetEvent event = entry.getValue().peekMatching(filter);
+                if (event != null
+                        && (oldest == null || event.getCreationTime() < oldest.getCreationTime())) {
+                    oldestQueue = entry.getValue();
+                    oldest = event;
+                }
+            }
+            if (oldest == null) {
+                return null;
+            }
+            if (oldestQueue.take(oldest)) {
+                return oldest;
+            }
+            // Another thread took the event, or is just posting or taking one; look again.
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Removes and returns the oldest event matching a filter, waiting up to the given time for one
+     * to be posted if none is queued. The waiting thread is woken up by the threads posting
+     * matching events, rather than polling the queues.
+     *
+     * @return the event, or null if none matched in time.
+     */
+    public SnippetEvent waitAndTakeMatching(EventFilter filter, long timeoutMs)
+            throws InterruptedException {
+        SnippetEvent event = takeMatching(filter);
+        if (event != null || timeoutMs <= 0) {
+            return event;
+        }
+        Waiter waiter = new Waiter(filter);
+        mWaiters.add(waiter);
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (true) {
+                // Read before looking, so that an event posted meanwhile is not missed.
+                long signals = waiter.getSignals();
+                event = takeMatching(filter);
+                if (event != null) {
+                    return event;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                waiter.await(signals, remaining);
+            }
+        } finally {
+            mWaiters.remove(waiter);
+        }
+    }
+
+    /**
+     * Removes and returns all the queued events matching a filter, oldest first. Events that do
+     * not match stay queued.
+     */
+    public List<SnippetEvent> takeAllMatching(EventFilter filter) {
+        List<SnippetEvent> events = new ArrayList<>();
+        for (Map.Entry<QueueKey, EventQueue> entry : mEventQueues.entrySet()) {
+            QueueKey key = entry.getKey();
+            if (filter.selects(key.mCallbackId, key.mName)) {
+                events.addAll(entry.getValue().takeAllMatching(filter));
+            }
+        }
+        Collections.sort(
+                events, (a, b) -> Long.compare(a.getCreationTime(), b.getCreationTime()));
+        return events;
+    }
+
+    /**
+     * Counts the given bytes against the cache budget, applying the overflow policy of the queue
+     * if they do not fit.
+     *
+     * @return false if the bytes could not be reserved.
+     */
+    boolean reserveBytes(long bytes, EventQueue queue) {
+        long deadline = 0;
+        while (true) {
+            if (tryReserveBytes(bytes)) {
+                return true;
+            }
+            switch (queue.getPolicy()) {
+                case DROP_NEWEST:
+                    return false;
+                case BLOCK:
+                    long now = System.nanoTime();
+                    if (deadline == 0) {
+                        deadline =
+                                now + TimeUnit.MILLISECONDS.toNanos(queue.getBlockTimeoutMs());
+                    }
+                    if (now - deadline >= 0 || !awaitBytesFreed(deadline - now)) {
+                        return false;
+                    }
+                    break;
+                case DROP_OLDEST:
+                default:
+                    // Events of other queues are left alone; only this one overflows.
+                    if (!queue.retireOldest()) {
+                        return false;
+                    }
+                    break;
             }
         }
-        Log.v(String.format(Locale.US, "Posted event(%s)", qId));
     }
 
-    /** Clears all cached events. */
+    /** Counts the given bytes against the cache budget if they fit. */
+    boolean tryReserveBytes(long bytes) {
+        if (mTotalBytes.addAndGet(bytes) <= mMaxTotalBytes) {
+            return true;
+        }
+        mTotalBytes.addAndGet(-bytes);
+        return false;
+    }
+
+    /** Returns bytes to the cache budget when an event leaves its queue. */
+    void releaseBytes(long bytes) {
+        mTotalBytes.addAndGet(-bytes);
+        notifyBytesFreed();
+    }
+
+    private void notifyBytesFreed() {
+        if (mBytesWaiters.get() > 0) {
+            synchronized (mBytesFreed) {
+                mBytesFreed.notifyAll();
+            }
+        }
+    }
+
+    /** Waits for bytes to be released; returns false if interrupted. */
+    private boolean awaitBytesFreed(long timeoutNanos) {
+        mBytesWaiters.incrementAndGet();
+        try {
+            synchronized (mBytesFreed) {
+                // Bytes may have been released before this thread started waiting.
+                if (mTotalBytes.get() < mMaxTotalBytes) {
+                    return true;
+                }
+                TimeUnit.NANOSECONDS.timedWait(mBytesFreed, timeoutNanos);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            mBytesWaiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Registers interest in the events of a callback ID.
+     *
+     * @param eventNames the names of the events to push, or null for all of them.
+     */
+    public EventSubscription subscribe(String callbackId, Collection<String> eventNames) {
+        EventSubscription subscription =
+                new EventSubscription(
+                        mNextSubscriptionId.incrementAndGet(), callbackId, eventNames);
+        mSubscriptions.put(subscription.getId(), subscription);
+        List<EventSubscription> subscriptions = mSubscriptionsByCallbackId.get(callbackId);
+        if (subscriptions == null) {
+            mSubscriptionsByCallbackId.putIfAbsent(
+                    callbackId, new CopyOnWriteArrayList<EventSubscription>());
+            subscriptions = mSubscriptionsByCallbackId.get(callbackId);
+        }
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /** Returns the subscription with the given ID, or null if there is none. */
+    public EventSubscription getSubscription(int subscriptionId) {
+        return mSubscriptions.get(subscriptionId);
+    }
+
+    /**
+     * Removes a subscription. Its events are queued again from now on.
+     *
+     * @return false if there was no such subscription.
+     */
+    public boolean unsubscribe(int subscriptionId) {
+        EventSubscription subscription = mSubscriptions.remove(subscriptionId);
+        if (subscription == null) {
+            return false;
+        }
+        List<EventSubscription> subscriptions =
+                mSubscriptionsByCallbackId.get(subscription.getCallbackId());
+        if (subscriptions != null) {
+            subscriptions.remove(subscription);
+        }
+        return true;
+    }
+
+    /** Clears all cached events and subscriptions. */
     public void clearAll() {
-        synchronized (mEventDeques) {
-            mEventDeques.clear();
+        for (EventQueue queue : mEventQueues.values()) {
+            queue.clear();
+        }
+        mEventQueues.clear();
+        mSubscriptions.clear();
+        mSubscriptionsByCallbackId.clear();
+    }
+
+    /** Estimates the memory held by an event, without walking more than its own data. */
+    private static long estimateSize(SnippetEvent event) {
+        long size =
+                EVENT_OVERHEAD_BYTES
+                        + 2L * (event.getCallbackId().length() + event.getName().length());
+        if (event instanceof CompactSnippetEvent) {
+            return size + ((CompactSnippetEvent) event).estimateDataSize();
+        }
+        return size + estimateSize(event.getData());
+    }
+
+    private static long estimateSize(Object value) {
+        if (value instanceof String) {
+            return VALUE_OVERHEAD_BYTES + 2L * ((String) value).length();
+        }
+        if (value instanceof Bundle) {
+            Bundle bundle = (Bundle) value;
+            long size = VALUE_OVERHEAD_BYTES;
+            for (String key : bundle.keySet()) {
+                size += VALUE_OVERHEAD_BYTES + 2L * key.length() + estimateSize(bundle.get(key));
+            }
+            return size;
+        }
+        if (value instanceof Collection) {
+            long size = VALUE_OVERHEAD_BYTES;
+            for (Object element : (Collection<?>) value) {
+                size += estimateSize(element);
+            }
+            return size;
+        }
+        if (value instanceof Object[]) {
+            long size = VALUE_OVERHEAD_BYTES;
+            for (Object element : (Object[]) value) {
+                size += estimateSize(element);
+            }
+            return size;
+        }
+        if (value != null && value.getClass().isArray()) {
+            Class<?> type = value.getClass().getComponentType();
+            int width = 1;
+            if (type == long.class || type == double.class) {
+                width = 8;
+            } else if (type == int.class || type == float.class) {
+                width = 4;
+            } else if (type == char.class || type == short.class) {
+                width = 2;
+            }
+            return VALUE_OVERHEAD_BYTES + (long) width * Array.getLength(value);
         }
+        return VALUE_OVERHEAD_BYTES;
     }
 }
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.event;
+
+import android.os.Bundle;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Selects the events a client waits for, by callback ID, event name and the fields of their data,
+ * so that they are matched on the device instead of being sent to the client one by one.
+ *
+ * <p>The conditions on the data are a JSON object keyed by field, all of which must hold:
+ *
+ * <pre>
+ * {"ssid": "home",                     the field equals the value
+ *  "rssi": {"min": -70, "max": -30},   the field is a number within the range, inclusive
+ *  "reason": {"regex": "^TIMEOUT"},    the regex is found in the field converted to a string
+ *  "result.code": {"equals": 0}}       a field of the nested Bundle "result"
+ * </pre>
+ *
+ * <p>Numbers are compared by value, whatever their types. A null value matches a missing field.
+ */
+public final class EventFilter {
+    // Marks a condition without "equals", since null is a value to compare with.
+    private static final Object NO_VALUE = new Object();
+
+    private final Set<String> mCallbackIds;
+    private final Set<String> mEventNames;
+    private final List<Condition> mConditions;
+
+    /**
+     * Creates a filter.
+     *
+     * @param callbackIds the callback IDs of the events, or null for any.
+     * @param eventNames the names of the events, or null for any.
+     * @param conditions the conditions on the data of the events, or null for none.
+     * @throws IllegalArgumentException if neither callback IDs nor names are given, or a condition
+     *     is malformed.
+     */
+    public EventFilter(
+            Collection<String> callbackIds,
+            Collection<String> eventNames,
+            JSONObject conditions) {
+        if (callbackIds == null && eventNames == null) {
+            throw new IllegalArgumentException("An event filter needs callback IDs or names.");
+        }
+        mCallbackIds = toSet(callbackIds);
+        mEventNames = toSet(eventNames);
+        mConditions = parseConditions(conditions);
+    }
+
+    /** Whether the queue of the given callback ID and event name may hold matching events. */
+    public boolean selects(String callbackId, String eventName) {
+        return (mCallbackIds == null || mCallbackIds.contains(callbackId))
+                && (mEventNames == null || mEventNames.contains(eventName));
+    }
+
+    /** Whether the filter has conditions on the data of the events. */
+    public boolean hasConditions() {
+        return !mConditions.isEmpty();
+    }
+
+    /** Whether the event is one of those selected, and its data meets all the conditions. */
+    public boolean matches(SnippetEvent event) {
+        if (!selects(event.getCallbackId(), event.getName())) {
+            return false;
+        }
+        for (Condition condition : mConditions) {
+            if (!condition.matches(event)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Set<String> toSet(Collection<String> values) {
+        return values == null ? null : Collections.unmodifiableSet(new HashSet<>(values));
+    }
+
+    private static List<Condition> parseConditions(JSONObject conditions) {
+        if (conditions == null || conditions.length() == 0) {
+            return Collections.emptyList();
+        }
+        List<Condition> parsed = new ArrayList<>(conditions.length());
+        for (Iterator<?> keys = conditions.keys(); keys.hasNext(); ) {
+            String field = (String) keys.next();
+            Object spec = conditions.opt(field);
+            if (spec instanceof JSONObject) {
+                parsed.add(parseCondition(field, (JSONObject) spec));
+            } else {
+                parsed.add(new Condition(field, checkComparable(field, spec), null, null, null));
+            }
+        }
+        return parsed;
+    }
+
+    private static Condition parseCondition(String field, JSONObject spec) {
+        Object equals = null;
+        Number min = null;
+        Number max = null;
+        Pattern regex = null;
+        for (Iterator<?> keys = spec.keys(); keys.hasNext(); ) {
+            String key = (String) keys.next();
+            Object value = spec.opt(key);
+            switch (key) {
+                case "equals":
+                    equals = checkComparable(field, value);
+                    break;
+                case "min":
+                    min = checkNumber(field, key, value);
+                    break;
+                case "max":
+                    max = checkNumber(field, key, value);
+                    break;
+                case "regex":
+                    if (!(value instanceof String)) {
+                        throw new IllegalArgumentException(
+                                "The regex of field \"" + field + "\" must be a string.");
+                    }
+                    try {
+                        regex = Pattern.compile((String) value);
+                    } catch (PatternSyntaxException e) {
+                        throw new IllegalArgumentException(
+                                "Invalid regex for field \"" + field + "\": " + e.getMessage(), e);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                            "Unknown condition \"" + key + "\" for field \"" + field
+                                    + "\", expected equals, min, max or regex.");
+            }
+        }
+        if (!spec.has("equals") && min == null && max == null && regex == null) {
+            throw new IllegalArgumentException("No condition for field \"" + field + "\".");
+        }
+        return new Condition(field, spec.has("equals") ? equals : NO_VALUE, min, max, regex);
+    }
+
+    private static Object checkComparable(String field, Object value) {
+        if (value instanceof JSONObject || value instanceof JSONArray) {
+            throw new IllegalArgumentException(
+                    "Field \"" + field + "\" can only equal a string, a number or a boolean.");
+        }
+        return value == JSONObject.NULL ? null : value;
+    }
+
+    private static Number checkNumber(String field, String key, Object value) {
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException(
+                    "The " + key + " of field \"" + field + "\" must be a number.");
+        }
+        return (Number) value;
+    }
+
+    /** The conditions on one field of the data. */
+    private static final class Condition {
+        private final String mField;
+        private final String[] mPath;
+        private final Object mEquals;
+        private final Number mMin;
+        private final Number mMax;
+        private final Pattern mRegex;
+
+        private Condition(String field, Object equals, Number min, Number max, Pattern regex) {
+            mField = field;
+            mPath = field.split("\\.");
+            mEquals = equals;
+            mMin = min;
+            mMax = max;
+            mRegex = regex;
+        }
+
+        private boolean matches(SnippetEvent event) {
+            Object value = lookUp(event);
+            if (mEquals != NO_VALUE && !valueEquals(value, mEquals)) {
+                return false;
+            }
+            if (mMin != null || mMax != null) {
+                if (!(value instanceof Number)) {
+                    return false;
+                }
+                Number number = (Number) value;
+                if ((mMin != null && compare(number, mMin) < 0)
+                        || (mMax != null && compare(number, mMax) > 0)) {
+                    return false;
+                }
+            }
+            return mRegex == null || (value != null && mRegex.matcher(value.toString()).find());
+        }
+
+        /**
+         * Returns the value of the field, a key of the data or a path through nested Bundles, or
+         * through nested JSON objects for spilled events.
+         */
+        @SuppressWarnings("deprecation")
+        private Object lookUp(SnippetEvent event) {
+            Object value = event.getValue(mField);
+            if (value != null || mPath.length == 1) {
+                return value;
+            }
+            value = event.getValue(mPath[0]);
+            for (int i = 1; i < mPath.length; i++) {
+                if (value instanceof Bundle) {
+                    value = ((Bundle) value).get(mPath[i]);
+                } else if (value instanceof JSONObject) {
+                    value = ((JSONObject) value).opt(mPath[i]);
+                } else {
+                    return null;
+                }
+            }
+            return value == JSONObject.NULL ? null : value;
+        }
+    }
+
+    private static boolean valueEquals(Object value, Object expected) {
+        if (value == null || expected == null) {
+            return value == expected;
+        }
+        if (value instanceof Number && expected instanceof Number) {
+            return compare((Number) value, (Number) expected) == 0;
+        }
+        if (value instanceof Boolean || expected instanceof Boolean) {
+            return value.equals(expected);
+        }
+        return value.toString().equals(expected.toString());
+    }
+
+    private static int compare(Number a, Number b) {
+        if (isIntegral(a) && isIntegral(b)) {
+            return Long.compare(a.longValue(), b.longValue());
+        }
+        return Double.compare(a.doubleValue(), b.doubleValue());
+    }
+
+    private static boolean isIntegral(Number number) {
+        return number instanceof Integer
+                || number instanceof Long
+                || number instanceof Short
+                || number instanceof Byte;
+    }
+}
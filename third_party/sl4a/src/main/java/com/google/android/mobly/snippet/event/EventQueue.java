@@ -0,0 +1,453 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.event;
+
+import com.google.android.mobly.snippet.util.Log;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The bounded queue of the events of one callback ID and name, in {@link EventCache}.
+ *
+ * <p>Posting and taking events does not lock the queue: events are kept in a {@link
+ * ConcurrentLinkedDeque}, and its free slots and available events are counted by two semaphores,
+ * which only block the callers that have to wait.
+ *
+ * <p>If the cache has a spill directory, events that do not fit in memory are appended to an
+ * {@link EventSpill} instead of overflowing, and read back after the events in memory.
+ *
+ * <p>Events can also be taken out of order, when they match an {@link EventFilter}; the events
+ * before them stay queued. Spilled events are looked at after the events in memory, which are
+ * older.
+ */
+public final class EventQueue {
+    /** What posting an event to a full queue does. */
+    public enum OverflowPolicy {
+        /** Retire the oldest events to make room. The default. */
+        DROP_OLDEST,
+        /** Drop the event being posted. */
+        DROP_NEWEST,
+        /** Wait for room up to the timeout of the queue, then drop the event being posted. */
+        BLOCK
+    }
+
+    private static final class Entry {
+        private final SnippetEvent mEvent;
+        private final long mBytes;
+
+        private Entry(SnippetEvent event, long bytes) {
+            mEvent = event;
+            mBytes = bytes;
+        }
+    }
+
+    /** A semaphore whose permits can also be taken away, to shrink the queue. */
+    private static final class ResizableSemaphore extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        private ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        private void reduce(int reduction) {
+            reducePermits(reduction);
+        }
+    }
+
+    private final String mId;
+    private final EventCache mCache;
+    private final ConcurrentLinkedDeque<Entry> mEntries = new ConcurrentLinkedDeque<>();
+    // Free slots, and events that can be taken. An entry is added before its permit is released,
+    // so holding a permit of mAvailable guarantees an entry to poll.
+    private final ResizableSemaphore mSpace;
+    private final Semaphore mAvailable = new Semaphore(0);
+    private volatile int mCapacity;
+    private volatile OverflowPolicy mPolicy;
+    private volatile long mBlockTimeoutMs;
+    private final AtomicLong mPosted = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicInteger mDepth = new AtomicInteger();
+    private final AtomicInteger mPeakDepth = new AtomicInteger();
+    // Events that did not fit in memory, created on the first one.
+    private volatile EventSpill mSpill;
+    private final AtomicInteger mSpilled = new AtomicInteger();
+
+    EventQueue(
+            String id,
+            EventCache cache,
+            int capacity,
+            OverflowPolicy policy,
+            long blockTimeoutMs) {
+        mId = id;
+        mCache = cache;
+        mCapacity = capacity;
+        mSpace = new ResizableSemaphore(capacity);
+        mPolicy = policy;
+        mBlockTimeoutMs = blockTimeoutMs;
+    }
+
+    /**
+     * Changes the capacity and overflow policy of the queue. Shrinking it below its current size
+     * keeps the events already queued; new events overflow until enough of them are taken.
+     *
+     * @param blockTimeoutMs how long {@link OverflowPolicy#BLOCK} waits for room.
+     */
+    public void configure(int capacity, OverflowPolicy policy, long blockTimeoutMs) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative capacity: " + capacity);
+        }
+        synchronized (mSpace) {
+            if (capacity > mCapacity) {
+                mSpace.release(capacity - mCapacity);
+            } else if (capacity < mCapacity) {
+                mSpace.reduce(mCapacity - capacity);
+            }
+            mCapacity = capacity;
+        }
+        mPolicy = policy;
+        mBlockTimeoutMs = blockTimeoutMs;
+    }
+
+    /**
+     * Adds an event, applying the overflow policy if the queue or the cache is full.
+     *
+     * @param bytes the estimated size of the event, counted against the cache budget.
+     * @return false if the event was dropped.
+     */
+    boolean offer(SnippetEvent event, long bytes) {
+        if (mCache.isSpillEnabled()) {
+            // Once events are spilled, later ones follow them so they are read back in order.
+            if (mSpilled.get() == 0 && mSpace.tryAcquire()) {
+                if (mCache.tryReserveBytes(bytes)) {
+                    enqueue(event, bytes);
+                    return true;
+                }
+                mSpace.release();
+            }
+            if (spill(event)) {
+                return true;
+            }
+            // The spill is full or failed; fall back to the overflow policy.
+        }
+        if (!reserveSlot()) {
+            recordDrop();
+            return false;
+        }
+        if (!mCache.reserveBytes(bytes, this)) {
+            mSpace.release();
+            recordDrop();
+            return false;
+        }
+        enqueue(event, bytes);
+        return true;
+    }
+
+    private void enqueue(SnippetEvent event, long bytes) {
+        mEntries.addLast(new Entry(event, bytes));
+        onAdded();
+    }
+
+    private boolean spill(SnippetEvent event) {
+        EventSpill spill = mSpill;
+        if (spill == null) {
+            synchronized (this) {
+                if (mSpill == null) {
+                    mSpill = mCache.createSpill();
+                }
+                spill = mSpill;
+            }
+        }
+        try {
+            if (!spill.append(event)) {
+                return false;
+            }
+        } catch (IOException | JSONException e) {
+            Log.e("Failed to spill an event of queue " + mId, e);
+            return false;
+        }
+        mSpilled.incrementAndGet();
+        onAdded();
+        return true;
+    }
+
+    private void onAdded() {
+        int depth = mDepth.incrementAndGet();
+        int peak;
+        while (depth > (peak = mPeakDepth.get()) && !mPeakDepth.compareAndSet(peak, depth)) {
+            // Retry until the peak is at least the current depth.
+        }
+        mPosted.incrementAndGet();
+        mAvailable.release();
+    }
+
+    private boolean reserveSlot() {
+        if (mSpace.tryAcquire()) {
+            return true;
+        }
+        switch (mPolicy) {
+            case DROP_NEWEST:
+                return false;
+            case BLOCK:
+                try {
+                    return mSpace.tryAcquire(mBlockTimeoutMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            case DROP_OLDEST:
+            default:
+                // Retire events until a slot frees up; after the queue shrank, that may take
+                // more than one.
+                while (!mSpace.tryAcquire()) {
+                    if (!retireOldest()) {
+                        if (mCapacity == 0) {
+                            return false;
+                        }
+                        // Another thread is taking the last events; let it finish.
+                        Thread.yield();
+                    }
+                }
+                return true;
+        }
+    }
+
+    /**
+     * Removes the oldest event to make room, counting it as dropped.
+     *
+     * @return false if the queue had no event to remove.
+     */
+    boolean retireOldest() {
+        if (!mAvailable.tryAcquire()) {
+            return false;
+        }
+        remove();
+        recordDrop();
+        return true;
+    }
+
+    private void recordDrop() {
+        if (mDropped.getAndIncrement() == 0) {
+            Log.w("Event queue " + mId + " overflowed, dropping events (" + mPolicy + ").");
+        }
+    }
+
+    /**
+     * Removes and returns the oldest event, waiting for one up to the given time.
+     *
+     * @return the event, or null if none was posted in time.
+     */
+    public SnippetEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!mAvailable.tryAcquire(timeout, unit)) {
+            return null;
+        }
+        return remove();
+    }
+
+    /** Removes and returns all the events queued so far, oldest first. */
+    public List<SnippetEvent> drain() {
+        int count = mAvailable.drainPermits();
+        List<SnippetEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            SnippetEvent event = remove();
+            if (event != null) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Removes and returns the oldest event if there is one, without waiting.
+     *
+     * @return the event, or null if there was none.
+     */
+    SnippetEvent tryPoll() {
+        if (!mAvailable.tryAcquire()) {
+            return null;
+        }
+        return remove();
+    }
+
+    /** Returns the oldest event that the filter accepts, without removing it. */
+    SnippetEvent peekMatching(EventFilter filter) {
+        for (Entry entry : mEntries) {
+            if (filter.matches(entry.mEvent)) {
+                return entry.mEvent;
+            }
+        }
+        EventSpill spill = mSpill;
+        return spill == null || mSpilled.get() == 0 ? null : spill.peekMatching(filter);
+    }
+
+    /**
+     * Removes the given event, found by {@link #peekMatching}, leaving the events before it queued.
+     *
+     * @return false if the event was taken by another thread, or is not available yet.
+     */
+    boolean take(SnippetEvent event) {
+        if (event instanceof EventSpill.SpilledEvent) {
+            return takeSpilled((EventSpill.SpilledEvent) event);
+        }
+        for (Entry entry : mEntries) {
+            if (entry.mEvent == event) {
+                return take(entry);
+            }
+        }
+        return false;
+    }
+
+    /** Removes and returns all the events that the filter accepts, oldest first. */
+    List<SnippetEvent> takeAllMatching(EventFilter filter) {
+        List<SnippetEvent> events = new ArrayList<>();
+        for (Entry entry : mEntries) {
+            if (filter.matches(entry.mEvent) && take(entry)) {
+                events.add(entry.mEvent);
+            }
+        }
+        EventSpill spill = mSpill;
+        if (spill != null && mSpilled.get() > 0) {
+            for (EventSpill.SpilledEvent event : spill.findMatching(filter, Integer.MAX_VALUE)) {
+                if (takeSpilled(event)) {
+                    events.add(event);
+                }
+            }
+        }
+        return events;
+    }
+
+    private boolean take(Entry entry) {
+        // Taking a permit keeps the entries at least as many as the permits other threads hold.
+        if (!mAvailable.tryAcquire()) {
+            return false;
+        }
+        if (!mEntries.removeFirstOccurrence(entry)) {
+            mAvailable.release();
+            return false;
+        }
+        mDepth.decrementAndGet();
+        release(entry);
+        return true;
+    }
+
+    private boolean takeSpilled(EventSpill.SpilledEvent event) {
+        if (!mAvailable.tryAcquire()) {
+            return false;
+        }
+        if (!mSpill.take(event)) {
+            mAvailable.release();
+            return false;
+        }
+        mSpilled.decrementAndGet();
+        mDepth.decrementAndGet();
+        return true;
+    }
+
+    /** Removes all the events, without counting them as dropped. */
+    void clear() {
+        int count = mAvailable.drainPermits();
+        for (int i = 0; i < count && mEntries.peekFirst() != null; i++) {
+            remove();
+        }
+        EventSpill spill = mSpill;
+        if (spill != null) {
+            mDepth.addAndGet(-mSpilled.getAndSet(0));
+            spill.clear();
+        }
+    }
+
+    /**
+     * Removes the oldest event, for a permit of mAvailable already taken. Events in memory are
+     * older than spilled ones.
+     *
+     * @return the event, or null if it was spilled and could not be read back.
+     */
+    private SnippetEvent remove() {
+        Entry entry = mEntries.pollFirst();
+        mDepth.decrementAndGet();
+        if (entry == null) {
+            SnippetEvent event = mSpill.read();
+            mSpilled.decrementAndGet();
+            return event;
+        }
+        return release(entry);
+    }
+
+    /** Frees the slot and the bytes of an entry removed from memory. */
+    private SnippetEvent release(Entry entry) {
+        mSpace.release();
+        mCache.releaseBytes(entry.mBytes);
+        return entry.mEvent;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return mPolicy;
+    }
+
+    long getBlockTimeoutMs() {
+        return mBlockTimeoutMs;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /** Number of events currently queued. */
+    public int size() {
+        return mDepth.get();
+    }
+
+    /** Number of the queued events that are spilled to files. */
+    public int getSpilledCount() {
+        return mSpilled.get();
+    }
+
+    /** Number of events accepted into the queue since it was created. */
+    public long getPostedCount() {
+        return mPosted.get();
+    }
+
+    /** Number of events dropped by the overflow policy since the queue was created. */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /** Returns the configuration and counters of the queue. */
+    public JSONObject toJson() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("size", size());
+        stats.put("capacity", getCapacity());
+        stats.put("policy", getPolicy().name());
+        stats.put("posted", getPostedCount());
+        stats.put("dropped", getDroppedCount());
+        stats.put("peakDepth", getPeakDepth());
+        stats.put("spilled", getSpilledCount());
+        return stats;
+    }
+
+    /** Largest number of events queued at once since the queue was created. */
+    public int getPeakDepth() {
+        return mPeakDepth.get();
+    }
+}
@@ -18,12 +18,16 @@ package com.google.android.mobly.snippet.event;
 
 import androidx.annotation.Nullable;
 import com.google.android.mobly.snippet.Snippet;
+import com.google.android.mobly.snippet.event.EventQueue.OverflowPolicy;
 import com.google.android.mobly.snippet.rpc.Rpc;
+import com.google.android.mobly.snippet.rpc.RpcDefault;
+import com.google.android.mobly.snippet.rpc.RpcOptional;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -50,13 +54,14 @@ public class EventSnippet implements Snippet {
         if (timeout == null) {
             timeout = DEFAULT_TIMEOUT_MILLISECOND;
         }
-        String qId = EventCache.getQueueId(callbackId, eventName);
-        LinkedBlockingDeque<SnippetEvent> q = mEventCache.getEventDeque(qId);
-        SnippetEvent result = q.pollFirst(timeout, TimeUnit.MILLISECONDS);
+        SnippetEvent result =
+                mEventCache
+                        .getEventQueue(callbackId, eventName)
+                        .poll(timeout, TimeUnit.MILLISECONDS);
         if (result == null) {
             throw new EventSnippetException("timeout.");
         }
-        return result.toJson();
+        return result.toResultJson();
     }
 
     @Rpc(
@@ -66,20 +71,135 @@ public class EventSnippet implements Snippet {
                             + "the same name will occur after the call.")
     public List<JSONObject> eventGetAll(String callbackId, String eventName)
             throws InterruptedException, JSONException {
-        String qId = EventCache.getQueueId(callbackId, eventName);
-        LinkedBlockingDeque<SnippetEvent> q = mEventCache.getEventDeque(qId);
-        ArrayList<JSONObject> results = new ArrayList<>(q.size());
-        ArrayList<SnippetEvent> buffer = new ArrayList<>(q.size());
-        q.drainTo(buffer);
-        for (SnippetEvent snippetEvent : buffer) {
-            results.add(snippetEvent.toJson());
-        }
-        if (results.size() == 0) {
+        List<SnippetEvent> buffer = mEventCache.getEventQueue(callbackId, eventName).drain();
+        if (buffer.size() == 0) {
             return Collections.emptyList();
         }
+        return toJson(buffer);
+    }
+
+    @Rpc(
+            description =
+                    "Blocks until an event of any of the given callback IDs and names, either of "
+                            + "which may be null for any, has been received and its data matches "
+                            + "the filter, e.g. {\"rssi\": {\"min\": -70}, \"ssid\": \"home\"}. "
+                            + "The filter is checked on the device: the oldest matching event is "
+                            + "removed from the cache, and the others are left there. Default "
+                            + "timeout is 60s.")
+    public JSONObject eventWaitAndGetAny(
+            JSONArray callbackIds,
+            @RpcOptional JSONArray eventNames,
+            @RpcOptional JSONObject filter,
+            @RpcOptional Integer timeout)
+            throws InterruptedException, JSONException, EventSnippetException {
+        if (timeout == null) {
+            timeout = DEFAULT_TIMEOUT_MILLISECOND;
+        }
+        SnippetEvent result =
+                mEventCache.waitAndTakeMatching(
+                        new EventFilter(toList(callbackIds), toList(eventNames), filter), timeout);
+        if (result == null) {
+            throw new EventSnippetException("timeout.");
+        }
+        return result.toResultJson();
+    }
+
+    @Rpc(
+            description =
+                    "Gets and removes all the events of the given callback IDs and names, either of "
+                            + "which may be null for any, whose data matches the filter, oldest "
+                            + "first. Events that do not match are left in the cache. "
+                            + "Non-blocking.")
+    public List<JSONObject> eventGetAllMatching(
+            JSONArray callbackIds,
+            @RpcOptional JSONArray eventNames,
+            @RpcOptional JSONObject filter)
+            throws JSONException {
+        return toJson(
+                mEventCache.takeAllMatching(
+                        new EventFilter(toList(callbackIds), toList(eventNames), filter)));
+    }
+
+    @Rpc(
+            description =
+                    "Pushes the events of a callback ID, optionally only those with the given names, "
+                            + "to the connection that grants credits to the returned subscription "
+                            + "ID. Events that cannot be pushed are cached as usual.")
+    public int eventSubscribe(String callbackId, @RpcOptional JSONArray eventNames)
+            throws JSONException {
+        return mEventCache.subscribe(callbackId, toList(eventNames)).getId();
+    }
+
+    @Rpc(
+            description =
+                    "Stops pushing the events of a subscription. Returns false if there was no such "
+                            + "subscription.")
+    public boolean eventUnsubscribe(Integer subscriptionId) {
+        return mEventCache.unsubscribe(subscriptionId);
+    }
+
+    @Rpc(
+            description =
+                    "Sets how many events of a certain name are cached, and what happens when more "
+                            + "are posted: DROP_OLDEST, DROP_NEWEST, or BLOCK the poster for up to "
+                            + "blockTimeoutMs.")
+    public void eventConfigureQueue(
+            String callbackId,
+            String eventName,
+            Integer capacity,
+            String policy,
+            @RpcDefault("0") Long blockTimeoutMs) {
+        mEventCache.configureQueue(
+                callbackId, eventName, capacity, OverflowPolicy.valueOf(policy), blockTimeoutMs);
+    }
+
+    @Rpc(
+            description =
+                    "Gets the counters of the event queues of a callback ID, keyed by event name, "
+                            + "the estimated size of all cached events, the disk space taken "
+                            + "by spilled events, and that of deleted spill files not freed "
+                            + "yet.")
+    public JSONObject eventQueueStats(String callbackId) throws JSONException {
+        JSONObject queues = new JSONObject();
+        String prefix = EventCache.getQueueId(callbackId, "");
+        for (Map.Entry<String, EventQueue> entry : mEventCache.getEventQueues().entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                continue;
+            }
+            queues.put(entry.getKey().substring(prefix.length()), entry.getValue().toJson());
+        }
+        JSONObject result = new JSONObject();
+        result.put("queues", queues);
+        result.put("totalBytes", mEventCache.getTotalBytes());
+        result.put("maxTotalBytes", mEventCache.getMaxTotalBytes());
+        result.put("spillBytes", mEventCache.getSpillBytes());
+        result.put("deletedSpillBytes", mEventCache.getDeletedSpillBytes());
+        return result;
+    }
+
+    /**
+     * Returns the JSON trees of the events. Those of {@link CompactSnippetEvent} are written into
+     * the response as the text of the event, without building the tree.
+     */
+    private static List<JSONObject> toJson(List<SnippetEvent> events) throws JSONException {
+        List<JSONObject> results = new ArrayList<>(events.size());
+        for (SnippetEvent snippetEvent : events) {
+            results.add(snippetEvent.toResultJson());
+        }
         return results;
     }
 
+    private static List<String> toList(JSONArray strings) throws JSONException {
+        if (strings == null) {
+            return null;
+        }
+        List<String> list = new ArrayList<>(strings.length());
+        for (int i = 0; i < strings.length(); i++) {
+            list.add(strings.getString(i));
+        }
+        return list;
+    }
+
     @Override
     public void shutdown() {
         mEventCache.clearAll();
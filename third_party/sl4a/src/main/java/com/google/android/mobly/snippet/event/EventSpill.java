@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.event;
+
+import com.google.android.mobly.snippet.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The events of an {@link EventQueue} that did not fit in memory, kept in files.
+ *
+ * <p>Events are appended as length-prefixed JSON records to memory-mapped segment files, and read
+ * back in the order they were appended. An event matching an {@link EventFilter} can also be taken
+ * out of order: its length is negated in place, and reading skips it. A segment is deleted as soon
+ * as all its events were read or taken, so a drained spill takes no disk space once the mappings of
+ * its segments are garbage collected, see {@link EventCache#getDeletedSpillBytes}.
+ */
+final class EventSpill {
+    private static final int SEGMENT_BYTES = 1024 * 1024;
+    private static final int LENGTH_BYTES = 4;
+
+    /**
+     * An event read back from a spill. Its data is only available through {@link #toJson()} and
+     * {@link #getValue}, as JSON values, not through {@link #getData()}.
+     */
+    static final class SpilledEvent extends SnippetEvent {
+        private final JSONObject mJson;
+        // Where its record is, for an event found by a filter but not taken yet.
+        private final Segment mSegment;
+        private final int mPosition;
+
+        private SpilledEvent(JSONObject json, Segment segment, int position) throws JSONException {
+            super(json.getString("callbackId"), json.getString("name"), json.getLong("time"));
+            mJson = json;
+            mSegment = segment;
+            mPosition = position;
+        }
+
+        @Override
+        public JSONObject toJson() {
+            return mJson;
+        }
+
+        @Override
+        Object getValue(String key) {
+            JSONObject data = mJson.optJSONObject("data");
+            Object value = data == null ? null : data.opt(key);
+            return value == JSONObject.NULL ? null : value;
+        }
+    }
+
+    private static final class Segment {
+        private final File mFile;
+        private final MappedByteBuffer mBuffer;
+        private int mWritePosition;
+        private int mReadPosition;
+
+        private Segment(File file, MappedByteBuffer buffer) {
+            mFile = file;
+            mBuffer = buffer;
+        }
+    }
+
+    private final File mDirectory;
+    private final EventCache mCache;
+    private final ArrayDeque<Segment> mSegments = new ArrayDeque<>();
+    private int mNextSegment;
+
+    EventSpill(File directory, EventCache cache) {
+        mDirectory = directory;
+        mCache = cache;
+    }
+
+    /**
+     * Appends an event.
+     *
+     * @return false if the spill budget of the cache is used up.
+     */
+    synchronized boolean append(SnippetEvent event) throws IOException, JSONException {
+        byte[] record = event.toJsonString().getBytes(StandardCharsets.UTF_8);
+        Segment tail = mSegments.peekLast();
+        if (tail == null
+                || tail.mBuffer.capacity() - tail.mWritePosition < LENGTH_BYTES + record.length) {
+            tail = openSegment(Math.max(SEGMENT_BYTES, LENGTH_BYTES + record.length));
+            if (tail == null) {
+                return false;
+            }
+        }
+        ByteBuffer buffer = tail.mBuffer.duplicate();
+        buffer.position(tail.mWritePosition);
+        buffer.putInt(record.length);
+        buffer.put(record);
+        tail.mWritePosition = buffer.position();
+        return true;
+    }
+
+    private Segment openSegment(int size) throws IOException {
+        if (!mCache.reserveSpillBytes(size)) {
+            return null;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            mCache.releaseSpillBytes(size);
+            throw new IOException("Failed to create " + mDirectory);
+        }
+        File file = new File(mDirectory, String.format(Locale.US, "%08d.seg", mNextSegment++));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // The mapping stays valid after the channel is closed.
+            MappedByteBuffer buffer =
+                    raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            Segment segment = new Segment(file, buffer);
+            mSegments.addLast(segment);
+            return segment;
+        } catch (IOException e) {
+            mCache.releaseSpillBytes(size);
+            file.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Removes and returns the oldest event. The spill must not be empty.
+     *
+     * @return the event, or null if its record could not be parsed.
+     */
+    synchronized SnippetEvent read() {
+        skipTaken();
+        Segment head = mSegments.getFirst();
+        int position = head.mReadPosition;
+        byte[] record = readRecord(head, position);
+        head.mReadPosition = position + LENGTH_BYTES + record.length;
+        skipTaken();
+        return parse(record, null, 0);
+    }
+
+    /** Returns the oldest event that the filter accepts, without removing it, or null. */
+    synchronized SpilledEvent peekMatching(EventFilter filter) {
+        List<SpilledEvent> events = findMatching(filter, 1);
+        return events.isEmpty() ? null : events.get(0);
+    }
+
+    /**
+     * Returns the events that the filter accepts, oldest first, without removing them.
+     *
+     * @param limit how many events to return at most.
+     */
+    synchronized List<SpilledEvent> findMatching(EventFilter filter, int limit) {
+        List<SpilledEvent> events = new ArrayList<>();
+        for (Segment segment : mSegments) {
+            int position = segment.mReadPosition;
+            while (position < segment.mWritePosition && events.size() < limit) {
+                int length = segment.mBuffer.getInt(position);
+                if (length > 0) {
+                    SpilledEvent event =
+                            parse(readRecord(segment, position), segment, position);
+                    if (event != null && filter.matches(event)) {
+                        events.add(event);
+                    }
+                }
+                position += LENGTH_BYTES + Math.abs(length);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Removes an event found by {@link #findMatching}, leaving the events before it in the spill.
+     *
+     * @return false if the event was already read or taken.
+     */
+    synchronized boolean take(SpilledEvent event) {
+        Segment segment = event.mSegment;
+        if (!mSegments.contains(segment) || event.mPosition < segment.mReadPosition) {
+            return false;
+        }
+        int length = segment.mBuffer.getInt(event.mPosition);
+        if (length < 0) {
+            return false;
+        }
+        segment.mBuffer.putInt(event.mPosition, -length);
+        skipTaken();
+        return true;
+    }
+
+    private static byte[] readRecord(Segment segment, int position) {
+        ByteBuffer buffer = segment.mBuffer.duplicate();
+        buffer.position(position);
+        byte[] record = new byte[buffer.getInt()];
+        buffer.get(record);
+        return record;
+    }
+
+    private SpilledEvent parse(byte[] record, Segment segment, int position) {
+        try {
+            return new SpilledEvent(
+                    new JSONObject(new String(record, StandardCharsets.UTF_8)), segment, position);
+        } catch (JSONException e) {
+            Log.e("Failed to read back a spilled event from " + mDirectory, e);
+            return null;
+        }
+    }
+
+    /** Moves past the taken events at the head, deleting the segments left with no event. */
+    private void skipTaken() {
+        Segment head;
+        while ((head = mSegments.peekFirst()) != null) {
+            int length;
+            while (head.mReadPosition < head.mWritePosition
+                    && (length = head.mBuffer.getInt(head.mReadPosition)) < 0) {
+                head.mReadPosition += LENGTH_BYTES - length;
+            }
+            if (head.mReadPosition < head.mWritePosition) {
+                return;
+            }
+            mSegments.removeFirst();
+            deleteSegment(head);
+        }
+    }
+
+    /** Deletes all the events and their files. */
+    synchronized void clear() {
+        for (Segment segment : mSegments) {
+            deleteSegment(segment);
+        }
+        mSegments.clear();
+        mDirectory.delete();
+    }
+
+    private void deleteSegment(Segment segment) {
+        if (!segment.mFile.delete()) {
+            Log.w("Failed to delete " + segment.mFile);
+        }
+        mCache.releaseSpillSegment(segment.mBuffer);
+    }
+}
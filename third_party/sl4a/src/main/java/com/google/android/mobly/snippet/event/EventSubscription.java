@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.event;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Interest of a client in the events of a callback ID, pushed to it as they are posted.
+ *
+ * <p>Events are pushed only while the subscription is attached to a {@link Listener} and the
+ * client has granted credits, one credit per event. Other events are kept in the regular {@link
+ * EventCache} queues, where {@code eventWaitAndGet} and {@code eventGetAll} find them.
+ */
+public final class EventSubscription {
+    /** Receives the events of an attached subscription. */
+    public interface Listener {
+        /**
+         * Called on the thread posting the event, so it must not block. The credit of the event
+         * has already been taken.
+         */
+        void onEvent(EventSubscription subscription, SnippetEvent event);
+    }
+
+    private final int mId;
+    private final String mCallbackId;
+    // Null to match all the events of the callback ID.
+    private final Set<String> mEventNames;
+    private final AtomicInteger mCredits = new AtomicInteger(0);
+    private volatile Listener mListener;
+
+    EventSubscription(int id, String callbackId, Collection<String> eventNames) {
+        mId = id;
+        mCallbackId = callbackId;
+        mEventNames =
+                eventNames == null ? null : Collections.unmodifiableSet(new HashSet<>(eventNames));
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    public String getCallbackId() {
+        return mCallbackId;
+    }
+
+    /** Whether the event belongs to this subscription. */
+    public boolean matches(SnippetEvent event) {
+        return mCallbackId.equals(event.getCallbackId())
+                && (mEventNames == null || mEventNames.contains(event.getName()));
+    }
+
+    /** Pushes events to {@code listener} from now on, replacing any previous listener. */
+    public void attach(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Stops pushing events to {@code listener}, if it is still the attached one. Credits left are
+     * discarded.
+     */
+    public void detach(Listener listener) {
+        if (mListener == listener) {
+            mListener = null;
+            mCredits.set(0);
+        }
+    }
+
+    /** Allows {@code credits} more events to be pushed. */
+    public void grantCredits(int credits) {
+        if (credits <= 0) {
+            return;
+        }
+        int current;
+        do {
+            current = mCredits.get();
+        } while (!mCredits.compareAndSet(
+                current, (int) Math.min((long) current + credits, Integer.MAX_VALUE)));
+    }
+
+    public int getCredits() {
+        return mCredits.get();
+    }
+
+    /**
+     * Pushes the event if the subscription is attached and has a credit left.
+     *
+     * @return false if the event was not pushed and must be queued instead.
+     */
+    boolean tryPush(SnippetEvent event) {
+        Listener listener = mListener;
+        if (listener == null) {
+            return false;
+        }
+        int current;
+        do {
+            current = mCredits.get();
+            if (current <= 0) {
+                return false;
+            }
+        } while (!mCredits.compareAndSet(current, current - 1));
+        listener.onEvent(this, event);
+        return true;
+    }
+}
@@ -30,8 +30,8 @@ public class SnippetEvent {
     private final String mName;
     // The content of this event. We use Android's Bundle because it adheres to Android convention
     // and adding data to it does not throw checked exceptions, which makes the world a better
-    // place.
-    private final Bundle mData = new Bundle();
+    // place. Null for events that keep their data elsewhere, see CompactSnippetEvent.
+    private final Bundle mData;
 
     private final long mCreationTime;
 
@@ -46,6 +46,16 @@ public class SnippetEvent {
      * @param name The name of the event.
      */
     public SnippetEvent(String callbackId, String name) {
+        this(callbackId, name, System.currentTimeMillis());
+    }
+
+    /** Constructs an event that was created at the given time, e.g. when reading it back. */
+    SnippetEvent(String callbackId, String name, long creationTime) {
+        this(callbackId, name, creationTime, new Bundle());
+    }
+
+    /** Constructs an event holding its data in the given Bundle, or elsewhere if null. */
+    SnippetEvent(String callbackId, String name, long creationTime, Bundle data) {
         if (callbackId == null) {
             throw new IllegalArgumentException("SnippetEvent's callback ID shall not be null.");
         }
@@ -54,7 +64,8 @@ public class SnippetEvent {
         }
         mCallbackId = callbackId;
         mName = name;
-        mCreationTime = System.currentTimeMillis();
+        mCreationTime = creationTime;
+        mData = data;
     }
 
     public String getCallbackId() {
@@ -89,4 +100,23 @@ public class SnippetEvent {
         result.put("data", JsonBuilder.build(mData));
         return result;
     }
+
+    /** Returns the value of a field of the data, or null if there is none. */
+    @SuppressWarnings("deprecation")
+    Object getValue(String key) {
+        return mData.get(key);
+    }
+
+    /**
+     * Returns the JSON tree of the event for the result of an RPC, which only {@link
+     * com.google.android.mobly.snippet.rpc.JsonBuilder} serializes.
+     */
+    JSONObject toResultJson() throws JSONException {
+        return toJson();
+    }
+
+    /** Returns the JSON text of {@link #toJson()}. */
+    String toJsonString() throws JSONException {
+        return toJson().toString();
+    }
 }
@@ -23,21 +23,29 @@ import android.os.Build;
 import android.os.Bundle;
 import com.google.android.mobly.snippet.Snippet;
 import com.google.android.mobly.snippet.SnippetObjectConverter;
+import com.google.android.mobly.snippet.event.EventCache;
 import com.google.android.mobly.snippet.event.EventSnippet;
+import com.google.android.mobly.snippet.rpc.JsonRpcServer;
 import com.google.android.mobly.snippet.rpc.MethodDescriptor;
-import com.google.android.mobly.snippet.rpc.RpcMinSdk;
+import com.google.android.mobly.snippet.rpc.RpcError;
+import com.google.android.mobly.snippet.rpc.RpcMetrics;
+import com.google.android.mobly.snippet.rpc.RpcResultCache;
 import com.google.android.mobly.snippet.rpc.RunOnUiThread;
 import com.google.android.mobly.snippet.schedulerpc.ScheduleRpcSnippet;
 import com.google.android.mobly.snippet.util.Log;
 import com.google.android.mobly.snippet.util.MainThread;
+import com.google.android.mobly.snippet.util.NamedThreadFactory;
 import com.google.android.mobly.snippet.util.SnippetLibException;
+import java.io.File;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -45,6 +53,14 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class SnippetManager {
     /**
@@ -54,8 +70,29 @@ public class SnippetManager {
      * interface.
      */
     private static final String TAG_NAME_SNIPPET_LIST = "mobly-snippets";
-    /** Name of the XML tag specifying the custom object converter class to use. */
+    /**
+     * Name of the XML tag specifying the custom object converter classes to use.
+     *
+     * <p>Comma delimited list of full names of classes implementing SnippetObjectConverter.
+     */
     private static final String TAG_NAME_OBJECT_CONVERTER = "mobly-object-converter";
+    /**
+     * Name of the XML tag specifying how many bytes of events may be spilled to the files dir when
+     * they do not fit in memory. Spilling is off if absent.
+     */
+    private static final String TAG_NAME_EVENT_SPILL_BYTES = "mobly-event-spill-bytes";
+    /**
+     * Name of the XML tag specifying the budget of the RPC result cache, in bytes. Defaults to
+     * {@link RpcResultCache#DEFAULT_MAX_BYTES}.
+     */
+    private static final String TAG_NAME_RPC_CACHE_BYTES = "mobly-rpc-cache-bytes";
+    /** Directory under the files dir where events are spilled. */
+    private static final String EVENT_SPILL_DIR = "mobly-events";
+    /**
+     * Name of the XML tag that, when true, constructs all snippets in parallel when the server
+     * starts instead of on their first RPC.
+     */
+    private static final String TAG_NAME_WARM_UP = "mobly-snippet-warm-up";
 
     private final Map<Class<? extends Snippet>, Snippet> mSnippets;
     /** A map of strings to known RPCs. */
@@ -80,6 +117,13 @@ public class SnippetManager {
                     throw new RuntimeException(
                             "An RPC with the name " + m.getName() + " is already known.");
                 }
+                if (JsonRpcServer.BUILTIN_COMMANDS.contains(m.getName())) {
+                    // The server would handle the command instead of ever calling the RPC.
+                    throw new RuntimeException(
+                            "An RPC may not take the name of the built-in command "
+                                    + m.getName()
+                                    + ".");
+                }
                 knownRpcs.put(m.getName(), m);
             }
         }
@@ -92,15 +136,27 @@ public class SnippetManager {
         if (sInstance != null) {
             throw new IllegalStateException("SnippetManager should not be re-initialized");
         }
-        // Add custom object converter if user provided one.
-        Class<? extends SnippetObjectConverter> converterClazz =
-                findSnippetObjectConverterFromMetadata(context);
-        if (converterClazz != null) {
-            Log.d("Found custom converter class, adding...");
+        // Add the custom object converters the user provided.
+        for (Class<? extends SnippetObjectConverter> converterClazz :
+                findSnippetObjectConvertersFromMetadata(context)) {
+            Log.d("Found custom converter class " + converterClazz.getName() + ", adding...");
             SnippetObjectConverterManager.addConverter(converterClazz);
         }
+        int spillBytes = findMetadata(context).getInt(TAG_NAME_EVENT_SPILL_BYTES, 0);
+        if (spillBytes > 0) {
+            EventCache.getInstance()
+                    .enableSpill(new File(context.getFilesDir(), EVENT_SPILL_DIR), spillBytes);
+        }
+        int rpcCacheBytes = findMetadata(context).getInt(TAG_NAME_RPC_CACHE_BYTES, 0);
+        if (rpcCacheBytes > 0) {
+            RpcResultCache.getInstance().setMaxBytes(rpcCacheBytes);
+        }
         Collection<Class<? extends Snippet>> classList = findSnippetClassesFromMetadata(context);
         sInstance = new SnippetManager(classList);
+        // android:value="true" is parsed as a Boolean, not a String.
+        if ("true".equals(String.valueOf(findMetadata(context).get(TAG_NAME_WARM_UP)))) {
+            sInstance.warmUp();
+        }
         return sInstance;
     }
 
@@ -122,29 +178,118 @@ public class SnippetManager {
         return new TreeSet<>(mKnownRpcs.keySet());
     }
 
-    public Object invoke(Class<? extends Snippet> clazz, Method method, Object[] args)
+    /**
+     * Invokes an RPC method on its snippet, creating the snippet first if needed.
+     *
+     * @param descriptor the RPC to invoke, with its invocation plan.
+     * @param args the arguments decoded from the request.
+     * @throws Throwable the exception raised from executing the RPC method.
+     */
+    public Object invoke(MethodDescriptor descriptor, Object[] args) throws Throwable {
+        return invoke(descriptor, args, 0);
+    }
+
+    /**
+     * Invokes an RPC method like {@link #invoke(MethodDescriptor, Object[])}, waiting at most
+     * {@code timeoutMs} for an RPC that runs on the main thread.
+     *
+     * <p>Other RPCs run on the calling thread, so the caller bounds them itself: {@link
+     * com.google.android.mobly.snippet.util.RpcUtil} runs RPCs with a deadline on a thread it can
+     * abandon.
+     *
+     * @param timeoutMs how long to wait for the main thread, or 0 to wait as long as it takes.
+     * @throws RpcError with code {@link RpcError#CODE_DEADLINE_EXCEEDED} if the main thread did
+     *     not complete the RPC in time.
+     */
+    public Object invoke(MethodDescriptor descriptor, Object[] args, long timeoutMs)
             throws Throwable {
-        if (method.isAnnotationPresent(RpcMinSdk.class)) {
-            int requiredSdkLevel = method.getAnnotation(RpcMinSdk.class).value();
-            if (Build.VERSION.SDK_INT < requiredSdkLevel) {
-                throw new SnippetLibException(
-                        String.format(
-                                Locale.US,
-                                "%s requires API level %d, current level is %d",
-                                method.getName(),
-                                requiredSdkLevel,
-                                Build.VERSION.SDK_INT));
-            }
+        return invoke(snippetFor(descriptor), descriptor, args, timeoutMs);
+    }
+
+    /**
+     * Invokes an RPC that runs on the main thread without waiting for it, creating its snippet
+     * first if needed.
+     *
+     * <p>Cancelling the returned future withdraws the RPC if the main thread has not started it
+     * yet. The future completes on the main thread.
+     *
+     * @throws IllegalArgumentException if the RPC does not run on the main thread.
+     */
+    public CompletableFuture<Object> invokeAsync(MethodDescriptor descriptor, Object[] args)
+            throws Throwable {
+        if (!descriptor.isRunOnUiThread()) {
+            throw new IllegalArgumentException(
+                    descriptor.getName() + " does not run on the main thread.");
+        }
+        Snippet snippetImpl = snippetFor(descriptor);
+        Log.d(() -> "Queueing RPC method " + descriptor + " for the main thread");
+        return MainThread.submit(onMainThread(snippetImpl, descriptor, args, null));
+    }
+
+    /** Returns the snippet of an RPC, creating it if needed, once the RPC is known to run here. */
+    private Snippet snippetFor(MethodDescriptor descriptor) throws Throwable {
+        int requiredSdkLevel = descriptor.getMinSdk();
+        if (requiredSdkLevel > 0 && Build.VERSION.SDK_INT < requiredSdkLevel) {
+            throw new SnippetLibException(
+                    String.format(
+                            Locale.US,
+                            "%s requires API level %d, current level is %d",
+                            descriptor.getName(),
+                            requiredSdkLevel,
+                            Build.VERSION.SDK_INT));
         }
-        Snippet object;
         try {
-            object = get(clazz);
-            return invoke(object, method, args);
+            return get(descriptor.getSnippetClass());
         } catch (InvocationTargetException e) {
             throw e.getCause();
         }
     }
 
+    /**
+     * Constructs all snippets in parallel and waits until they are constructed, so that no RPC has
+     * to wait for it. A snippet that fails to construct is constructed again on its first RPC,
+     * which then reports the error.
+     */
+    private void warmUp() {
+        List<Class<? extends Snippet>> classes;
+        synchronized (mSnippets) {
+            classes = new ArrayList<>(mSnippets.keySet());
+        }
+        long start = System.nanoTime();
+        ExecutorService executor =
+                Executors.newFixedThreadPool(
+                        classes.size(), new NamedThreadFactory("SnippetManager warm-up"));
+        List<Future<?>> constructions = new ArrayList<>();
+        for (final Class<? extends Snippet> clazz : classes) {
+            constructions.add(
+                    executor.submit(
+                            () -> {
+                                try {
+                                    get(clazz);
+                                } catch (Exception e) {
+                                    Log.e("Failed to construct " + clazz.getName(), e);
+                                }
+                            }));
+        }
+        executor.shutdown();
+        try {
+            for (Future<?> construction : constructions) {
+                construction.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.w("Interrupted while constructing snippets; the rest are constructed lazily.");
+            return;
+        } catch (ExecutionException e) {
+            // Constructions catch their exceptions, so this is an Error.
+            throw (Error) e.getCause();
+        }
+        Log.i(
+                "Constructed %d snippets in %d ms",
+                classes.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
     public void shutdown() throws Exception {
         for (final Entry<Class<? extends Snippet>, Snippet> entry : mSnippets.entrySet()) {
             if (entry.getValue() == null) {
@@ -167,7 +312,6 @@ public class SnippetManager {
             }
         }
         mSnippets.clear();
-        mKnownRpcs.clear();
         mShutdown = true;
     }
 
@@ -190,19 +334,23 @@ public class SnippetManager {
         return appInfo.metaData;
     }
 
-    private static Class<? extends SnippetObjectConverter> findSnippetObjectConverterFromMetadata(
-            Context context) {
-        String className = findMetadata(context).getString(TAG_NAME_OBJECT_CONVERTER);
-        if (className == null) {
+    private static List<Class<? extends SnippetObjectConverter>>
+            findSnippetObjectConvertersFromMetadata(Context context) {
+        String classNames = findMetadata(context).getString(TAG_NAME_OBJECT_CONVERTER);
+        List<Class<? extends SnippetObjectConverter>> converters = new ArrayList<>();
+        if (classNames == null) {
             Log.i("No object converter provided.");
-            return null;
+            return converters;
         }
-        try {
-            return Class.forName(className).asSubclass(SnippetObjectConverter.class);
-        } catch (ClassNotFoundException | ClassCastException e) {
-            Log.e("Failed to find class " + className);
-            throw new RuntimeException(e);
+        for (String className : classNames.trim().split("\\s*,\\s*")) {
+            try {
+                converters.add(Class.forName(className).asSubclass(SnippetObjectConverter.class));
+            } catch (ClassNotFoundException | ClassCastException e) {
+                Log.e("Failed to find class " + className);
+                throw new RuntimeException(e);
+            }
         }
+        return converters;
     }
 
     private static Set<Class<? extends Snippet>> findSnippetClassesFromMetadata(Context context) {
@@ -245,6 +393,7 @@ public class SnippetManager {
                 snippetImpl = mSnippets.get(clazz);
                 if (snippetImpl == null) {
                     final Constructor<? extends Snippet> constructor = clazz.getConstructor();
+                    long start = System.nanoTime();
                     if (constructor.isAnnotationPresent(RunOnUiThread.class)) {
                         Log.d("Constructing " + clazz + " on the main thread");
                         snippetImpl =
@@ -259,6 +408,10 @@ public class SnippetManager {
                         Log.d("Constructing " + clazz);
                         snippetImpl = constructor.newInstance();
                     }
+                    Log.i(
+                            "Constructed %s in %d ms",
+                            clazz.getName(),
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
                     mSnippets.put(clazz, snippetImpl);
                 }
             }
@@ -266,25 +419,71 @@ public class SnippetManager {
         return snippetImpl;
     }
 
-    private Object invoke(final Snippet snippetImpl, final Method method, final Object[] args)
+    private Object invoke(
+            final Snippet snippetImpl,
+            final MethodDescriptor descriptor,
+            final Object[] args,
+            long timeoutMs)
             throws Exception {
-        if (method.isAnnotationPresent(RunOnUiThread.class)) {
-            Log.d(
-                    "Invoking RPC method "
-                            + method.getDeclaringClass()
-                            + "#"
-                            + method.getName()
-                            + " on the main thread");
-            return MainThread.run(
-                    new Callable<Object>() {
-                        @Override
-                        public Object call() throws Exception {
-                            return method.invoke(snippetImpl, args);
-                        }
-                    });
+        final RpcMetrics.MethodMetrics metrics = descriptor.getMetrics();
+        if (descriptor.isRunOnUiThread()) {
+            Log.d(() -> "Invoking RPC method " + descriptor + " on the main thread");
+            final AtomicBoolean finished = new AtomicBoolean(false);
+            try {
+                return MainThread.run(
+                        onMainThread(snippetImpl, descriptor, args, finished),
+                        timeoutMs,
+                        TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (finished.get()) {
+                    // Thrown by the RPC method itself.
+                    throw e;
+                }
+                throw RpcError.withCode(
+                        RpcError.CODE_DEADLINE_EXCEEDED,
+                        descriptor.getName()
+                                + " did not complete on the main thread within "
+                                + timeoutMs
+                                + " ms");
+            }
         } else {
-            Log.d("Invoking RPC method " + method.getDeclaringClass() + "#" + method.getName());
-            return method.invoke(snippetImpl, args);
+            Log.d(() -> "Invoking RPC method " + descriptor);
+            long start = System.nanoTime();
+            try {
+                return descriptor.invokeOn(snippetImpl, args);
+            } finally {
+                metrics.record(RpcMetrics.Phase.EXECUTE, System.nanoTime() - start);
+            }
         }
     }
+
+    /**
+     * Returns the call of an RPC on the main thread, which records how long it waited for the
+     * main thread and how long it ran.
+     *
+     * @param finished set once the RPC method returned or threw, if not null.
+     */
+    private static Callable<Object> onMainThread(
+            final Snippet snippetImpl,
+            final MethodDescriptor descriptor,
+            final Object[] args,
+            final AtomicBoolean finished) {
+        final RpcMetrics.MethodMetrics metrics = descriptor.getMetrics();
+        final long posted = System.nanoTime();
+        return new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                long start = System.nanoTime();
+                metrics.record(RpcMetrics.Phase.MAIN_THREAD_WAIT, start - posted);
+                try {
+                    return descriptor.invokeOn(snippetImpl, args);
+                } finally {
+                    if (finished != null) {
+                        finished.set(true);
+                    }
+                    metrics.record(RpcMetrics.Phase.EXECUTE, System.nanoTime() - start);
+                }
+            }
+        };
+    }
 }
@@ -1,8 +1,17 @@
 package com.google.android.mobly.snippet.manager;
 
+import com.google.android.mobly.snippet.ConvertsTypes;
 import com.google.android.mobly.snippet.SnippetObjectConverter;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -16,12 +25,33 @@ import org.json.JSONObject;
  * stages of execution, whereas users can have a clean interface for supplying these methods without
  * worrying about internal states of Snippet Lib.
  *
- * <p>This gives us the flexibility of changing Snippet Lib internal structure or expanding support
- * without impacting users. E.g. we can support multiple converter classes in the future.
+ * <p>Several converters may be added. The converters that apply to a class are resolved the first
+ * time the class is converted and cached, so converting an object costs one lookup however many
+ * converters there are: first the converters declaring the class, one of its superclasses or one
+ * of its interfaces with {@link ConvertsTypes}, then the converters declaring no types, each group
+ * in the order the converters were added. The first converter returning non-null wins.
  */
 public class SnippetObjectConverterManager {
-    private static SnippetObjectConverter mConverter;
+    private static final SnippetObjectConverter[] NO_CONVERTERS = new SnippetObjectConverter[0];
+
     private static volatile SnippetObjectConverterManager mManager;
+    // Replaced, never modified, when a converter is added.
+    private static volatile List<Registration> sRegistrations = Collections.emptyList();
+    // The converters that apply to each class. ClassValue would do, but Android only has it from
+    // API level 34.
+    private static final Map<Class<?>, SnippetObjectConverter[]> sConvertersByClass =
+            new ConcurrentHashMap<>();
+
+    /** A converter, and the types it declared, or none if it may convert any type. */
+    private static final class Registration {
+        final SnippetObjectConverter mConverter;
+        final Class<?>[] mTypes;
+
+        Registration(SnippetObjectConverter converter, Class<?>[] types) {
+            mConverter = converter;
+            mTypes = types;
+        }
+    }
 
     private SnippetObjectConverterManager() {}
 
@@ -32,12 +62,16 @@ public class SnippetObjectConverterManager {
         return mManager;
     }
 
-    static void addConverter(Class<? extends SnippetObjectConverter> converterClass) {
-        if (mConverter != null) {
-            throw new RuntimeException("A converter has been added, cannot add again.");
+    static synchronized void addConverter(Class<? extends SnippetObjectConverter> converterClass) {
+        for (Registration registration : sRegistrations) {
+            if (registration.mConverter.getClass() == converterClass) {
+                throw new RuntimeException(
+                        converterClass.getName() + " has been added, cannot add again.");
+            }
         }
+        SnippetObjectConverter converter;
         try {
-            mConverter = converterClass.getConstructor().newInstance();
+            converter = converterClass.getConstructor().newInstance();
         } catch (NoSuchMethodException e) {
             throw new RuntimeException("No default constructor found for the converter class.");
         } catch (IllegalAccessException e) {
@@ -47,19 +81,77 @@ public class SnippetObjectConverterManager {
         } catch (InstantiationException e) {
             throw new RuntimeException(e);
         }
+        ConvertsTypes types = converterClass.getAnnotation(ConvertsTypes.class);
+        List<Registration> registrations = new ArrayList<>(sRegistrations);
+        registrations.add(
+                new Registration(converter, types == null ? new Class<?>[0] : types.value()));
+        sRegistrations = Collections.unmodifiableList(registrations);
+        sConvertersByClass.clear();
     }
 
     public Object objectToJson(Object object) throws JSONException {
-        if (mConverter == null) {
-            return null;
+        for (SnippetObjectConverter converter : convertersFor(object.getClass())) {
+            JSONObject result = converter.serialize(object);
+            if (result != null) {
+                return result;
+            }
         }
-        return mConverter.serialize(object);
+        return null;
     }
 
     public Object jsonToObject(JSONObject jsonObject, Type type) throws JSONException {
-        if (mConverter == null) {
-            return null;
+        for (SnippetObjectConverter converter : convertersFor(rawClassOf(type))) {
+            Object result = converter.deserialize(jsonObject, type);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the converters that apply to the given class, in the order they are tried. */
+    private static SnippetObjectConverter[] convertersFor(Class<?> clazz) {
+        SnippetObjectConverter[] converters = sConvertersByClass.get(clazz);
+        if (converters == null) {
+            converters = resolveConverters(clazz);
+            sConvertersByClass.put(clazz, converters);
+        }
+        return converters;
+    }
+
+    private static SnippetObjectConverter[] resolveConverters(Class<?> clazz) {
+        List<Registration> registrations = sRegistrations;
+        if (registrations.isEmpty()) {
+            return NO_CONVERTERS;
+        }
+        Set<SnippetObjectConverter> converters = new LinkedHashSet<>();
+        for (Registration registration : registrations) {
+            for (Class<?> type : registration.mTypes) {
+                if (type.isAssignableFrom(clazz)) {
+                    converters.add(registration.mConverter);
+                    break;
+                }
+            }
+        }
+        for (Registration registration : registrations) {
+            if (registration.mTypes.length == 0) {
+                converters.add(registration.mConverter);
+            }
+        }
+        return converters.toArray(NO_CONVERTERS);
+    }
+
+    /**
+     * Returns the class of a parameter type, e.g. {@code List} for {@code List<String>}, or {@code
+     * Object} for a type variable or a wildcard.
+     */
+    private static Class<?> rawClassOf(Type type) {
+        if (type instanceof Class<?>) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return rawClassOf(((ParameterizedType) type).getRawType());
         }
-        return mConverter.deserialize(jsonObject, type);
+        return Object.class;
     }
 }
@@ -31,7 +31,19 @@ public class AndroidProxy {
         mJsonRpcServer.startLocal(port);
     }
 
+    public void startLocal(int port, SimpleServer.Engine engine) throws IOException {
+        mJsonRpcServer.startLocal(port, engine);
+    }
+
+    public void start(ServerTransport transport) {
+        mJsonRpcServer.start(transport);
+    }
+
     public int getPort() {
         return mJsonRpcServer.getPort();
     }
+
+    public String getEndpoint() {
+        return mJsonRpcServer.getEndpoint();
+    }
 }
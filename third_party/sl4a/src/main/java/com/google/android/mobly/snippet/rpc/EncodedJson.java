@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.rpc;
+
+/**
+ * A value already serialized to JSON text, which {@link JsonBuilder} writes into the response as
+ * is instead of converting the value again.
+ */
+public interface EncodedJson {
+    /**
+     * Returns the JSON text of the value.
+     *
+     * @param base64Bytes whether byte arrays are written as base64 strings, see {@link
+     *     SessionOptions#isBase64Bytes()}.
+     */
+    String getJson(boolean base64Bytes);
+}
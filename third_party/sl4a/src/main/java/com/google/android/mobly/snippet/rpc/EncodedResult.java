@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.rpc;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.BaseStream;
+import org.json.JSONException;
+
+/**
+ * The result of an RPC, already serialized to JSON text, which {@link JsonBuilder} writes as is.
+ *
+ * <p>The text is kept for both encodings of byte arrays, see {@link
+ * SessionOptions#isBase64Bytes()}, as a single string when the result holds no byte array. The
+ * result itself is not kept.
+ */
+final class EncodedResult implements EncodedJson {
+    private final String mJson;
+    private final String mBase64Json;
+
+    private EncodedResult(String json, String base64Json) {
+        mJson = json;
+        mBase64Json = base64Json;
+    }
+
+    /**
+     * Serializes a result, a second time only if it holds byte arrays.
+     *
+     * <p>An {@code Iterator} or a {@code Stream} is collected into a list first, so that its items
+     * can be written a second time.
+     *
+     * @throws JSONException if the result holds a value that is not valid in JSON, e.g. a NaN.
+     */
+    static EncodedResult encode(Object result) throws JSONException {
+        if (result instanceof Iterator || result instanceof BaseStream) {
+            result = collect(result);
+        }
+        JsonBuilder.TextWriter out = new JsonBuilder.TextWriter();
+        write(result, out, false);
+        String json = out.toString();
+        if (!out.hasBytes()) {
+            return new EncodedResult(json, json);
+        }
+        JsonBuilder.TextWriter base64Out = new JsonBuilder.TextWriter();
+        write(result, base64Out, true);
+        return new EncodedResult(json, base64Out.toString());
+    }
+
+    private static List<Object> collect(Object result) {
+        List<Object> items = new ArrayList<>();
+        if (result instanceof Iterator) {
+            Iterator<?> iterator = (Iterator<?>) result;
+            while (iterator.hasNext()) {
+                items.add(iterator.next());
+            }
+            return items;
+        }
+        try (BaseStream<?, ?> stream = (BaseStream<?, ?>) result) {
+            Iterator<?> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                items.add(iterator.next());
+            }
+        }
+        return items;
+    }
+
+    private static void write(Object result, Writer out, boolean base64Bytes)
+            throws JSONException {
+        try {
+            JsonBuilder.write(result, out, base64Bytes);
+        } catch (IOException e) {
+            // StringWriter does not throw.
+            throw new AssertionError(e);
+        }
+    }
+
+    /** Returns the JSON text, with byte arrays encoded as base64 strings if requested. */
+    @Override
+    public String getJson(boolean base64Bytes) {
+        return base64Bytes ? mBase64Json : mJson;
+    }
+
+    /** Returns roughly how many bytes of memory the text takes. */
+    long getSizeBytes() {
+        long chars = mJson.length();
+        if (mBase64Json != mJson) {
+            chars += mBase64Json.length();
+        }
+        return 2 * chars;
+    }
+}
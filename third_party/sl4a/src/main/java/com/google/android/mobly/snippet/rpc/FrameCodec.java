@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.rpc;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes and decodes the frames of a connection that negotiated {@link
+ * SessionOptions#isCompressed()}.
+ *
+ * <p>A frame is a 4-byte big-endian header followed by its payload. The high bit of the header is
+ * set if the payload is compressed, and the other bits hold the length of the payload. The payload
+ * is a message in UTF-8, compressed in the zlib format if it is at least {@link
+ * SessionOptions#getCompressionThreshold()} bytes long. Each compressed payload is complete on its
+ * own, e.g. for {@code zlib.decompress} in Python.
+ *
+ * <p>A frame whose header gives a payload longer than {@link #MAX_FRAME_LENGTH}, or whose payload
+ * inflates past {@link #MAX_MESSAGE_LENGTH}, is rejected before any of it is buffered, and the
+ * connection is closed: the header is sent by the client and cannot be trusted to size buffers.
+ *
+ * <p>The {@link Deflater} and {@link Inflater} are reused for all the frames of the connection,
+ * since allocating them costs more than compressing a typical response. Frames are encoded by the
+ * thread holding the connection for a response, and decoded by the thread reading requests, so
+ * each side has a lock of its own; the reader is never held up by a response being compressed.
+ */
+final class FrameCodec {
+    /** Length of the header of a frame. */
+    static final int HEADER_LENGTH = 4;
+
+    /** Longest payload a frame may carry, compressed or not. */
+    static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    /** Longest message a compressed payload may inflate to. */
+    static final int MAX_MESSAGE_LENGTH = 64 * 1024 * 1024;
+
+    private static final int COMPRESSED_FLAG = 0x80000000;
+    private static final int INITIAL_CAPACITY = 1024;
+    // Room made in the frame before each call to the compressor.
+    private static final int DEFLATE_STEP = 8192;
+
+    private final int mThreshold;
+    private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater mInflater = new Inflater();
+    // The frame being encoded, header first: the UTF-8 text of the message until it reaches the
+    // threshold, then its compressed form.
+    private byte[] mFrame;
+    private int mFrameLength;
+    private boolean mCompressing;
+    private boolean mEnded = false;
+
+    FrameCodec(int threshold) {
+        mThreshold = threshold;
+    }
+
+    /** Starts encoding a message. Frames are encoded one at a time. */
+    void beginFrame() throws IOException {
+        synchronized (mDeflater) {
+            if (mEnded) {
+                throw new IOException("The connection is closed.");
+            }
+            mFrame = new byte[INITIAL_CAPACITY];
+            mFrameLength = HEADER_LENGTH;
+            mCompressing = false;
+            mDeflater.reset();
+        }
+    }
+
+    /** Appends text to the message being encoded. Must not split a surrogate pair. */
+    void write(char[] chars, int offset, int length) throws IOException {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(chars, offset, length));
+        synchronized (mDeflater) {
+            checkNotEnded();
+            if (!mCompressing && mFrameLength - HEADER_LENGTH + bytes.remaining() >= mThreshold) {
+                // Compress what was kept as text so far, then everything that follows.
+                byte[] text = Arrays.copyOfRange(mFrame, HEADER_LENGTH, mFrameLength);
+                mFrameLength = HEADER_LENGTH;
+                mCompressing = true;
+                deflate(text, 0, text.length);
+            }
+            if (mCompressing) {
+                deflate(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            } else {
+                int count = bytes.remaining();
+                ensureCapacity(count);
+                bytes.get(mFrame, mFrameLength, count);
+                mFrameLength += count;
+            }
+        }
+    }
+
+    /** Completes the message being encoded and writes its frame to {@code session}. */
+    void endFrame(RpcSession session) throws IOException {
+        byte[] frame;
+        int length;
+        synchronized (mDeflater) {
+            checkNotEnded();
+            if (mCompressing) {
+                mDeflater.finish();
+                drainDeflater(true);
+            }
+            int header = mFrameLength - HEADER_LENGTH;
+            if (mCompressing) {
+                header |= COMPRESSED_FLAG;
+            }
+            ByteBuffer.wrap(mFrame, 0, HEADER_LENGTH).putInt(header);
+            frame = mFrame;
+            length = mFrameLength;
+            // The session may queue the frame without copying it.
+            mFrame = null;
+        }
+        session.writeStream(frame, 0, length);
+    }
+
+    /**
+     * Reads a frame and returns its message.
+     *
+     * @return the message, or null if the connection ended before a frame started.
+     */
+    String readFrame(DataInputStream in) throws IOException {
+        int header;
+        try {
+            header = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        byte[] payload = new byte[payloadLength(header)];
+        in.readFully(payload);
+        return decode(header, payload, 0, payload.length);
+    }
+
+    /**
+     * Returns the length of the payload following a frame header.
+     *
+     * @throws IOException if the payload is longer than {@link #MAX_FRAME_LENGTH}.
+     */
+    static int payloadLength(int header) throws IOException {
+        int length = header & ~COMPRESSED_FLAG;
+        if (length > MAX_FRAME_LENGTH) {
+            throw new IOException(
+                    "Frame of " + length + " bytes exceeds the limit of " + MAX_FRAME_LENGTH + ".");
+        }
+        return length;
+    }
+
+    /**
+     * Decodes the message in the payload of a frame.
+     *
+     * @throws IOException if the payload is invalid, or inflates past {@link #MAX_MESSAGE_LENGTH}.
+     */
+    String decode(int header, byte[] payload, int offset, int length) throws IOException {
+        if ((header & COMPRESSED_FLAG) == 0) {
+            return new String(payload, offset, length, StandardCharsets.UTF_8);
+        }
+        synchronized (mInflater) {
+            if (mEnded) {
+                throw new IOException("The connection is closed.");
+            }
+            mInflater.reset();
+            mInflater.setInput(payload, offset, length);
+            int capacity = (int) Math.min(MAX_MESSAGE_LENGTH, 4L * length);
+            byte[] text = new byte[Math.max(INITIAL_CAPACITY, capacity)];
+            int textLength = 0;
+            try {
+                while (!mInflater.finished()) {
+                    if (textLength == text.length) {
+                        if (textLength == MAX_MESSAGE_LENGTH) {
+                            throw new IOException(
+                                    "Compressed frame inflates past the limit of "
+                                            + MAX_MESSAGE_LENGTH
+                                            + " bytes.");
+                        }
+                        text = Arrays.copyOf(text, Math.min(2 * text.length, MAX_MESSAGE_LENGTH));
+                    }
+                    int count = mInflater.inflate(text, textLength, text.length - textLength);
+                    if (count == 0 && (mInflater.needsInput() || mInflater.needsDictionary())) {
+                        throw new IOException("Truncated compressed frame.");
+                    }
+                    textLength += count;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid compressed frame.", e);
+            }
+            return new String(text, 0, textLength, StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Releases the native memory of the compressor, once the connection is closed. */
+    void end() {
+        synchronized (mDeflater) {
+            synchronized (mInflater) {
+                mEnded = true;
+                mDeflater.end();
+                mInflater.end();
+            }
+        }
+    }
+
+    private void checkNotEnded() throws IOException {
+        if (mEnded) {
+            throw new IOException("The connection is closed.");
+        }
+        if (mFrame == null) {
+            throw new IllegalStateException("No frame is being encoded.");
+        }
+    }
+
+    private void deflate(byte[] bytes, int offset, int length) {
+        mDeflater.setInput(bytes, offset, length);
+        drainDeflater(false);
+    }
+
+    /** Moves the output of the compressor to the frame, until it needs input or is finished. */
+    private void drainDeflater(boolean finish) {
+        do {
+            ensureCapacity(DEFLATE_STEP);
+            mFrameLength += mDeflater.deflate(mFrame, mFrameLength, mFrame.length - mFrameLength);
+        } while (finish ? !mDeflater.finished() : !mDeflater.needsInput());
+    }
+
+    private void ensureCapacity(int extra) {
+        if (mFrameLength + extra > mFrame.length) {
+            mFrame = Arrays.copyOf(mFrame, Math.max(2 * mFrame.length, mFrameLength + extra));
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.rpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A {@link ServerTransport} whose connections are pairs of in-memory pipes, so that the protocol
+ * can be exercised on a plain JVM, without sockets or a device.
+ *
+ * <p>Clients connect with {@link #connect()}, which returns their end of the connection.
+ */
+public final class InMemoryTransport implements ServerTransport {
+    /** Bytes a pipe holds before its writer waits for the reader. */
+    private static final int PIPE_CAPACITY = 64 * 1024;
+
+    // Handed to accept() once the transport is closed.
+    private static final Connection CLOSED = new PipeConnection(null, null);
+
+    private final BlockingQueue<Connection> mPending = new LinkedBlockingQueue<>();
+    private volatile boolean mClosed = false;
+
+    /**
+     * Opens a connection to the server.
+     *
+     * @return the client end of the connection: its input stream receives what the server writes,
+     *     and its output stream sends requests.
+     * @throws IOException if the transport is closed.
+     */
+    public Connection connect() throws IOException {
+        if (mClosed) {
+            throw new IOException("The transport is closed.");
+        }
+        Pipe requests = new Pipe();
+        Pipe responses = new Pipe();
+        mPending.add(new PipeConnection(requests, responses));
+        return new PipeConnection(responses, requests);
+    }
+
+    @Override
+    public Connection accept() throws IOException {
+        Connection connection;
+        try {
+            connection = mPending.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (connection == CLOSED) {
+            mPending.add(CLOSED);
+            throw new IOException("The transport is closed.");
+        }
+        return connection;
+    }
+
+    @Override
+    public String getEndpoint() {
+        return "MEMORY";
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+        mPending.add(CLOSED);
+    }
+
+    /** One end of a connection, reading from a pipe and writing to the other. */
+    private static final class PipeConnection implements Connection {
+        private final Pipe mIn;
+        private final Pipe mOut;
+
+        private PipeConnection(Pipe in, Pipe out) {
+            mIn = in;
+            mOut = out;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return mIn.mInput;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return mOut.mOutput;
+        }
+
+        /** Closes both directions, like closing a socket. */
+        @Override
+        public void close() {
+            mIn.close();
+            mOut.close();
+        }
+    }
+
+    /**
+     * A bounded byte buffer between a writer and a reader. Unlike {@link java.io.PipedInputStream},
+     * it may be written from any number of threads, whether or not they are still alive.
+     */
+    private static final class Pipe {
+        private final byte[] mBuffer = new byte[PIPE_CAPACITY];
+        private int mStart = 0;
+        private int mCount = 0;
+        private boolean mClosed = false;
+
+        private final InputStream mInput =
+                new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        byte[] b = new byte[1];
+                        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int offset, int length) throws IOException {
+                        return Pipe.this.read(b, offset, length);
+                    }
+
+                    @Override
+                    public int available() {
+                        synchronized (Pipe.this) {
+                            return mCount;
+                        }
+                    }
+
+                    @Override
+                    public void close() {
+                        Pipe.this.close();
+                    }
+                };
+
+        private final OutputStream mOutput =
+                new OutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        write(new byte[] {(byte) b}, 0, 1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int offset, int length) throws IOException {
+                        Pipe.this.write(b, offset, length);
+                    }
+
+                    @Override
+                    public void close() {
+                        Pipe.this.close();
+                    }
+                };
+
+        private synchronized int read(byte[] b, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (mCount == 0) {
+                if (mClosed) {
+                    return -1;
+                }
+                await();
+            }
+            int count = Math.min(length, mCount);
+            int first = Math.min(count, mBuffer.length - mStart);
+            System.arraycopy(mBuffer, mStart, b, offset, first);
+            System.arraycopy(mBuffer, 0, b, offset + first, count - first);
+            mStart = (mStart + count) % mBuffer.length;
+            mCount -= count;
+            notifyAll();
+            return count;
+        }
+
+        private synchronized void write(byte[] b, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (mClosed) {
+                    throw new IOException("The connection is closed.");
+                }
+                if (mCount == mBuffer.length) {
+                    await();
+                    continue;
+                }
+                int end = (mStart + mCount) % mBuffer.length;
+                int count = Math.min(length, mBuffer.length - mCount);
+                count = Math.min(count, mBuffer.length - end);
+                System.arraycopy(b, offset, mBuffer, end, count);
+                mCount += count;
+                offset += count;
+                length -= count;
+                notifyAll();
+            }
+        }
+
+        private void await() throws IOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        /** Ends the stream: the reader gets what was written so far, then the end of the stream. */
+        private synchronized void close() {
+            mClosed = true;
+            notifyAll();
+        }
+    }
+}
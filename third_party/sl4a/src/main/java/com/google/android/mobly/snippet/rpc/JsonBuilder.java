@@ -20,19 +20,63 @@ import android.content.ComponentName;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.ParcelUuid;
+import android.util.Base64;
 import com.google.android.mobly.snippet.manager.SnippetObjectConverterManager;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.List;
+import java.util.Iterator;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.BaseStream;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
-/** Builds the result for JSON RPC. */
+/**
+ * Builds the result for JSON RPC.
+ *
+ * <p>{@link #build} converts a result into an {@code org.json} tree. {@link #write} serializes the
+ * same types to the same JSON text straight into a {@link Writer}, without building the tree or
+ * the string; keep the two in sync.
+ *
+ * <p>Both dispatch each value on its class, resolved once per class. Objects of types not listed
+ * here go to the custom converters of {@link SnippetObjectConverterManager}.
+ */
 public class JsonBuilder {
+    // A multiple of 3, so that the base64 of consecutive chunks concatenates without padding.
+    private static final int BASE64_CHUNK_SIZE = 3 * 1024;
+
+    /** How a value is converted, which only depends on its class. */
+    private enum Kind {
+        BYTE,
+        NUMBER,
+        STRING,
+        BOOLEAN,
+        JSON_SERIALIZABLE,
+        JSON_TREE,
+        COLLECTION,
+        BUNDLE,
+        INTENT,
+        MAP,
+        PARCEL_UUID,
+        ARRAY,
+        /** An {@code Iterator} or a {@code Stream}, whose items are pulled as they are written. */
+        ITERATOR,
+        /** Already serialized, see {@link EncodedJson}. */
+        ENCODED,
+        /** Converted by the custom converters, or by {@code toString()} if none does. */
+        CUSTOM
+    }
+
+    // The kind of each class converted, so a value is dispatched with a lookup instead of a chain
+    // of instanceof tests. ClassValue would do, but Android only has it from API level 34.
+    private static final Map<Class<?>, Kind> sKinds = new ConcurrentHashMap<>();
 
     private JsonBuilder() {}
 
@@ -40,69 +84,124 @@ public class JsonBuilder {
         if (data == null) {
             return JSONObject.NULL;
         }
-        if (data instanceof Byte) {
-            return (Byte) data & 0xFF;
+        switch (kindOf(data.getClass())) {
+            case BYTE:
+                return (Byte) data & 0xFF;
+            case NUMBER:
+            case STRING:
+            case BOOLEAN:
+            case JSON_TREE:
+                return data;
+            case JSON_SERIALIZABLE:
+                return ((JsonSerializable) data).toJSON();
+            case COLLECTION:
+                return buildJsonList(((Collection<?>) data).iterator());
+            case ITERATOR:
+                Iterator<?> items = iteratorOf(data);
+                try {
+                    return buildJsonList(items);
+                } finally {
+                    closeStream(data);
+                }
+            case BUNDLE:
+                return buildJsonBundle((Bundle) data);
+            case INTENT:
+                return buildJsonIntent((Intent) data);
+            case MAP:
+                // TODO(damonkohler): I would like to make this a checked cast if possible.
+                return buildJsonMap((Map<?, ?>) data);
+            case PARCEL_UUID:
+                return data.toString();
+            case ARRAY:
+                return buildJSONArray(data);
+            case ENCODED:
+                if (data instanceof JSONObject) {
+                    return data;
+                }
+                return new JSONTokener(((EncodedJson) data).getJson(false)).nextValue();
+            default:
+                // Try with custom converter provided by user.
+                Object result = SnippetObjectConverterManager.getInstance().objectToJson(data);
+                if (result != null) {
+                    return result;
+                }
+                return data.toString();
         }
-        if (data instanceof Integer) {
-            return data;
-        }
-        if (data instanceof Float) {
-            return data;
+    }
+
+    private static Iterator<?> iteratorOf(Object data) {
+        if (data instanceof Iterator) {
+            return (Iterator<?>) data;
         }
-        if (data instanceof Double) {
-            return data;
+        return ((BaseStream<?, ?>) data).iterator();
+    }
+
+    /** Closes a stream once its items were pulled, e.g. to release the file it reads. */
+    private static void closeStream(Object data) {
+        if (data instanceof BaseStream) {
+            ((BaseStream<?, ?>) data).close();
         }
-        if (data instanceof Long) {
-            return data;
+    }
+
+    /** Returns how objects of the given class are converted, resolving it on first use. */
+    private static Kind kindOf(Class<?> clazz) {
+        Kind kind = sKinds.get(clazz);
+        if (kind == null) {
+            kind = resolveKind(clazz);
+            sKinds.put(clazz, kind);
         }
-        if (data instanceof String) {
-            return data;
+        return kind;
+    }
+
+    /** Resolves the kind of a class, testing the types in the order they always were. */
+    private static Kind resolveKind(Class<?> clazz) {
+        if (clazz == Byte.class) {
+            return Kind.BYTE;
         }
-        if (data instanceof Boolean) {
-            return data;
+        if (clazz == Integer.class
+                || clazz == Float.class
+                || clazz == Double.class
+                || clazz == Long.class) {
+            return Kind.NUMBER;
         }
-        if (data instanceof JsonSerializable) {
-            return ((JsonSerializable) data).toJSON();
+        if (clazz == String.class) {
+            return Kind.STRING;
         }
-        if (data instanceof JSONObject) {
-            return data;
+        if (clazz == Boolean.class) {
+            return Kind.BOOLEAN;
         }
-        if (data instanceof JSONArray) {
-            return data;
+        if (JsonSerializable.class.isAssignableFrom(clazz)) {
+            return Kind.JSON_SERIALIZABLE;
         }
-        if (data instanceof Set<?>) {
-            List<Object> items = new ArrayList<>((Set<?>) data);
-            return buildJsonList(items);
+        // Before JSON trees, which may carry their text, see CompactSnippetEvent#toJson().
+        if (EncodedJson.class.isAssignableFrom(clazz)) {
+            return Kind.ENCODED;
         }
-        if (data instanceof Collection<?>) {
-            List<Object> items = new ArrayList<>((Collection<?>) data);
-            return buildJsonList(items);
+        if (JSONObject.class.isAssignableFrom(clazz) || JSONArray.class.isAssignableFrom(clazz)) {
+            return Kind.JSON_TREE;
         }
-        if (data instanceof List<?>) {
-            return buildJsonList((List<?>) data);
+        if (Collection.class.isAssignableFrom(clazz)) {
+            return Kind.COLLECTION;
         }
-        if (data instanceof Bundle) {
-            return buildJsonBundle((Bundle) data);
+        if (Bundle.class.isAssignableFrom(clazz)) {
+            return Kind.BUNDLE;
         }
-        if (data instanceof Intent) {
-            return buildJsonIntent((Intent) data);
+        if (Intent.class.isAssignableFrom(clazz)) {
+            return Kind.INTENT;
         }
-        if (data instanceof Map<?, ?>) {
-            // TODO(damonkohler): I would like to make this a checked cast if possible.
-            return buildJsonMap((Map<?, ?>) data);
+        if (Map.class.isAssignableFrom(clazz)) {
+            return Kind.MAP;
         }
-        if (data instanceof ParcelUuid) {
-            return data.toString();
+        if (ParcelUuid.class.isAssignableFrom(clazz)) {
+            return Kind.PARCEL_UUID;
         }
-        if (data.getClass().isArray()) {
-            return buildJSONArray(data);
+        if (clazz.isArray()) {
+            return Kind.ARRAY;
         }
-        // Try with custom converter provided by user.
-        Object result = SnippetObjectConverterManager.getInstance().objectToJson(data);
-        if (result != null) {
-            return result;
+        if (Iterator.class.isAssignableFrom(clazz) || BaseStream.class.isAssignableFrom(clazz)) {
+            return Kind.ITERATOR;
         }
-        return data.toString();
+        return Kind.CUSTOM;
     }
 
     private static JSONArray buildJSONArray(Object data) throws JSONException {
@@ -172,10 +271,10 @@ public class JsonBuilder {
         return result;
     }
 
-    private static <T> JSONArray buildJsonList(final List<T> list) throws JSONException {
+    private static JSONArray buildJsonList(Iterator<?> items) throws JSONException {
         JSONArray result = new JSONArray();
-        for (T item : list) {
-            result.put(build(item));
+        while (items.hasNext()) {
+            result.put(build(items.next()));
         }
         return result;
     }
@@ -189,4 +288,363 @@ public class JsonBuilder {
         }
         return result;
     }
+
+    /**
+     * Writes the JSON text of {@code data} to {@code out}, as {@code build(data).toString()} would.
+     *
+     * @throws JSONException if the data holds a value that is not valid in JSON, e.g. a NaN.
+     */
+    public static void write(Object data, Writer out) throws IOException, JSONException {
+        write(data, out, false);
+    }
+
+    /**
+     * Writes the JSON text of {@code data} to {@code out}.
+     *
+     * @param base64Bytes whether to write byte arrays as base64 strings instead of arrays of
+     *     numbers, see {@link SessionOptions#isBase64Bytes()}.
+     * @throws JSONException if the data holds a value that is not valid in JSON, e.g. a NaN.
+     */
+    public static void write(Object data, Writer out, boolean base64Bytes)
+            throws IOException, JSONException {
+        if (data == null) {
+            out.write("null");
+            return;
+        }
+        switch (kindOf(data.getClass())) {
+            case BYTE:
+                out.write(Integer.toString((Byte) data & 0xFF));
+                break;
+            case NUMBER:
+                out.write(JSONObject.numberToString((Number) data));
+                break;
+            case STRING:
+                writeString((String) data, out);
+                break;
+            case BOOLEAN:
+                out.write(data.toString());
+                break;
+            case JSON_SERIALIZABLE:
+                writeTreeValue(((JsonSerializable) data).toJSON(), out);
+                break;
+            case JSON_TREE:
+                writeTreeValue(data, out);
+                break;
+            case COLLECTION:
+                writeList(((Collection<?>) data).iterator(), out, base64Bytes);
+                break;
+            case ITERATOR:
+                try {
+                    writeList(iteratorOf(data), out, base64Bytes);
+                } finally {
+                    closeStream(data);
+                }
+                break;
+            case BUNDLE:
+                writeBundle((Bundle) data, out, base64Bytes);
+                break;
+            case INTENT:
+                writeIntent((Intent) data, out, base64Bytes);
+                break;
+            case MAP:
+                writeMap((Map<?, ?>) data, out, base64Bytes);
+                break;
+            case PARCEL_UUID:
+                writeString(data.toString(), out);
+                break;
+            case ARRAY:
+                writeArray(data, out, base64Bytes);
+                break;
+            case ENCODED:
+                // Its text may hold byte arrays.
+                markBytes(out);
+                out.write(((EncodedJson) data).getJson(base64Bytes));
+                break;
+            default:
+                // Try with custom converter provided by user.
+                Object result = SnippetObjectConverterManager.getInstance().objectToJson(data);
+                if (result != null) {
+                    writeTreeValue(result, out);
+                } else {
+                    writeString(data.toString(), out);
+                }
+                break;
+        }
+    }
+
+    private static void writeList(Iterator<?> items, Writer out, boolean base64Bytes)
+            throws IOException, JSONException {
+        out.write('[');
+        boolean first = true;
+        while (items.hasNext()) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            write(items.next(), out, base64Bytes);
+        }
+        out.write(']');
+    }
+
+    private static void writeMap(Map<?, ?> map, Writer out, boolean base64Bytes)
+            throws IOException, JSONException {
+        out.write('{');
+        boolean first = true;
+        for (Entry<?, ?> entry : map.entrySet()) {
+            Object key = entry.getKey();
+            first = writeName(key == null ? "" : key.toString(), first, out);
+            write(entry.getValue(), out, base64Bytes);
+        }
+        out.write('}');
+    }
+
+    /** Writes an array the way {@link #buildJSONArray} builds it, element types included. */
+    private static void writeArray(Object data, Writer out, boolean base64Bytes)
+            throws IOException, JSONException {
+        if (data instanceof byte[] || data instanceof Byte[]) {
+            markBytes(out);
+        }
+        if (base64Bytes && data instanceof byte[]) {
+            writeBase64((byte[]) data, out);
+            return;
+        }
+        if (base64Bytes && data instanceof Byte[] && !Arrays.asList((Byte[]) data).contains(null)) {
+            Byte[] boxed = (Byte[]) data;
+            byte[] bytes = new byte[boxed.length];
+            for (int i = 0; i < boxed.length; i++) {
+                bytes[i] = boxed[i];
+            }
+            writeBase64(bytes, out);
+            return;
+        }
+        out.write('[');
+        if (data instanceof int[]) {
+            int[] array = (int[]) data;
+            for (int i = 0; i < array.length; i++) {
+                writeSeparator(i, out);
+                out.write(Integer.toString(array[i]));
+            }
+        } else if (data instanceof short[]) {
+            short[] array = (short[]) data;
+            for (int i = 0; i < array.length; i++) {
+                writeSeparator(i, out);
+                out.write(Integer.toString(array[i]));
+            }
+        } else if (data instanceof long[]) {
+            long[] array = (long[]) data;
+            for (int i = 0; i < array.length; i++) {
+                writeSeparator(i, out);
+                out.write(Long.toString(array[i]));
+            }
+        } else if (data instanceof float[]) {
+            // JSONArray stores floats as doubles.
+            float[] array = (float[]) data;
+            for (int i = 0; i < array.length; i++) {
+                writeSeparator(i, out);
+                out.write(JSONObject.numberToString((double) array[i]));
+            }
+        } else if (data instanceof double[]) {
+            double[] array = (double[]) data;
+            for (int i = 0; i < array.length; i++) {
+                writeSeparator(i, out);
+                out.write(JSONObject.numberToString(array[i]));
+            }
+        } else if (data instanceof boolean[]) {
+            boolean[] array = (boolean[]) data;
+            for (int i = 0; i < array.length; i++) {
+                writeSeparator(i, out);
+                out.write(array[i] ? "true" : "false");
+            }
+        } else if (data instanceof char[]) {
+            // JSONArray stores chars as their code.
+            char[] array = (char[]) data;
+            for (int i = 0; i < array.length; i++) {
+                writeSeparator(i, out);
+                out.write(Integer.toString(array[i]));
+            }
+        } else if (data instanceof byte[]) {
+            byte[] array = (byte[]) data;
+            for (int i = 0; i < array.length; i++) {
+                writeSeparator(i, out);
+                out.write(Integer.toString(array[i] & 0xFF));
+            }
+        } else {
+            Object[] array = (Object[]) data;
+            for (int i = 0; i < array.length; i++) {
+                writeSeparator(i, out);
+                write(array[i], out, base64Bytes);
+            }
+        }
+        out.write(']');
+    }
+
+    private static void writeBundle(Bundle bundle, Writer out, boolean base64Bytes)
+            throws IOException, JSONException {
+        bundle.setClassLoader(JsonBuilder.class.getClassLoader());
+        out.write('{');
+        boolean first = true;
+        for (String key : bundle.keySet()) {
+            first = writeName(key, first, out);
+            write(bundle.get(key), out, base64Bytes);
+        }
+        out.write('}');
+    }
+
+    private static void writeIntent(Intent data, Writer out, boolean base64Bytes)
+            throws IOException, JSONException {
+        // JSONObject drops the fields put with a null value, so buildJsonIntent omits them too.
+        out.write('{');
+        boolean first = true;
+        if (data.getDataString() != null) {
+            first = writeName("data", first, out);
+            writeString(data.getDataString(), out);
+        }
+        if (data.getType() != null) {
+            first = writeName("type", first, out);
+            writeString(data.getType(), out);
+        }
+        first = writeName("extras", first, out);
+        write(data.getExtras(), out, base64Bytes);
+        writeName("categories", first, out);
+        write(data.getCategories(), out, base64Bytes);
+        if (data.getAction() != null) {
+            writeName("action", false, out);
+            writeString(data.getAction(), out);
+        }
+        ComponentName component = data.getComponent();
+        if (component != null) {
+            writeName("packagename", false, out);
+            writeString(component.getPackageName(), out);
+            writeName("classname", false, out);
+            writeString(component.getClassName(), out);
+        }
+        writeName("flags", false, out);
+        out.write(Integer.toString(data.getFlags()));
+        out.write('}');
+    }
+
+    /** Writes a quoted base64 string, encoding a chunk at a time. */
+    private static void markBytes(Writer out) {
+        if (out instanceof TextWriter) {
+            ((TextWriter) out).mHasBytes = true;
+        }
+    }
+
+    private static void writeBase64(byte[] bytes, Writer out) throws IOException {
+        out.write('"');
+        for (int offset = 0; offset < bytes.length; offset += BASE64_CHUNK_SIZE) {
+            int length = Math.min(BASE64_CHUNK_SIZE, bytes.length - offset);
+            out.write(Base64.encodeToString(bytes, offset, length, Base64.NO_WRAP));
+        }
+        out.write('"');
+    }
+
+    /** Writes a value held by an {@code org.json} tree, as {@code JSONStringer} would. */
+    private static void writeTreeValue(Object value, Writer out)
+            throws IOException, JSONException {
+        if (value == null || value == JSONObject.NULL) {
+            out.write("null");
+        } else if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            out.write('{');
+            boolean first = true;
+            for (Iterator<String> keys = object.keys(); keys.hasNext(); ) {
+                String key = keys.next();
+                first = writeName(key, first, out);
+                writeTreeValue(object.opt(key), out);
+            }
+            out.write('}');
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            out.write('[');
+            for (int i = 0; i < array.length(); i++) {
+                writeSeparator(i, out);
+                writeTreeValue(array.opt(i), out);
+            }
+            out.write(']');
+        } else if (value instanceof Boolean) {
+            out.write(value.toString());
+        } else if (value instanceof Number) {
+            out.write(JSONObject.numberToString((Number) value));
+        } else {
+            writeString(value.toString(), out);
+        }
+    }
+
+    /** Writes the name of an object member, preceded by a comma unless it is the first one. */
+    private static boolean writeName(String name, boolean first, Writer out) throws IOException {
+        if (!first) {
+            out.write(',');
+        }
+        writeString(name, out);
+        out.write(':');
+        return false;
+    }
+
+    private static void writeSeparator(int index, Writer out) throws IOException {
+        if (index > 0) {
+            out.write(',');
+        }
+    }
+
+    /** Writes a quoted JSON string, escaped the same way as {@code JSONStringer}. */
+    public static void writeString(String value, Writer out) throws IOException {
+        out.write('"');
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String escaped;
+            switch (c) {
+                case '"':
+                    escaped = "\\\"";
+                    break;
+                case '\\':
+                    escaped = "\\\\";
+                    break;
+                case '/':
+                    escaped = "\\/";
+                    break;
+                case '\t':
+                    escaped = "\\t";
+                    break;
+                case '\b':
+                    escaped = "\\b";
+                    break;
+                case '\n':
+                    escaped = "\\n";
+                    break;
+                case '\r':
+                    escaped = "\\r";
+                    break;
+                case '\f':
+                    escaped = "\\f";
+                    break;
+                default:
+                    if (c > 0x1F) {
+                        continue;
+                    }
+                    escaped = String.format(Locale.US, "\\u%04x", (int) c);
+                    break;
+            }
+            out.write(value, start, i - start);
+            out.write(escaped);
+            start = i + 1;
+        }
+        out.write(value, start, length - start);
+        out.write('"');
+    }
+
+    /**
+     * A {@link StringWriter} that records whether the text written to it holds byte arrays, whose
+     * text depends on {@code base64Bytes}.
+     */
+    static final class TextWriter extends StringWriter {
+        private boolean mHasBytes = false;
+
+        /** Whether the text holds a byte array, or text serialized elsewhere that may. */
+        boolean hasBytes() {
+            return mHasBytes;
+        }
+    }
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.rpc;
+
+import java.io.IOException;
+import org.json.JSONException;
+
+/**
+ * A response line that is serialized straight into the connection when it is sent, rather than
+ * built as a JSON tree and a string first.
+ *
+ * @see RpcSession#send(JsonResponse)
+ * @see JsonRpcResult
+ */
+public interface JsonResponse {
+    /** Writes the JSON text of the response, without a line terminator. */
+    void writeTo(ResponseWriter out) throws IOException, JSONException;
+
+    /** Whether the response reports a failed request. */
+    boolean isError();
+}
@@ -16,8 +16,11 @@
 
 package com.google.android.mobly.snippet.rpc;
 
+import com.google.android.mobly.snippet.util.Log;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.List;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -28,6 +31,12 @@ import org.json.JSONObject;
  */
 public class JsonRpcResult {
 
+    /**
+     * Minimum size of a {@code byte[]} result sent as a binary frame, in sessions that negotiated
+     * {@link SessionOptions#isBinaryFrames()}. Smaller ones are cheaper to send inline.
+     */
+    public static final int BINARY_FRAME_MIN_LENGTH = 64 * 1024;
+
     private JsonRpcResult() {
         // Utility class.
     }
@@ -66,9 +75,110 @@ public class JsonRpcResult {
         json.put("result", JSONObject.NULL);
         json.put("callback", JSONObject.NULL);
         json.put("error", stackTrace);
+        if (t instanceof RpcError && ((RpcError) t).getCode() != null) {
+            json.put("errorCode", ((RpcError) t).getCode());
+        }
         return json;
     }
 
+    /**
+     * Returns the response of a successful request, which serializes {@code data} only when it is
+     * sent. Equivalent to {@link #result} or, with a callback ID, {@link #callback}.
+     *
+     * <p>Byte arrays are encoded as negotiated by the session, see {@link SessionOptions}. If
+     * {@code data} fails to serialize before any of it was written out, an error response is sent
+     * instead.
+     */
+    public static JsonResponse streamed(final int id, final Object data, final String callbackId) {
+        return new JsonResponse() {
+            @Override
+            public void writeTo(ResponseWriter out) throws IOException, JSONException {
+                int mark = out.mark();
+                SessionOptions options = out.getOptions();
+                // A cached byte[] result is an EncodedResult, which is always written inline.
+                boolean framed =
+                        options.isBinaryFrames()
+                                && data instanceof byte[]
+                                && ((byte[]) data).length >= BINARY_FRAME_MIN_LENGTH;
+                try {
+                    out.write("{\"id\":");
+                    out.write(Integer.toString(id));
+                    if (framed) {
+                        out.write(",\"result\":null,\"binaryFrame\":true");
+                    } else {
+                        out.write(",\"result\":");
+                        JsonBuilder.write(data, out, options.isBase64Bytes());
+                    }
+                    out.write(",\"callback\":");
+                    if (callbackId == null) {
+                        out.write("null");
+                    } else {
+                        JsonBuilder.writeString(callbackId, out);
+                    }
+                    out.write(",\"error\":null}");
+                    if (framed) {
+                        out.attachFrame((byte[]) data);
+                    }
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    if (!out.reset(mark)) {
+                        throw e;
+                    }
+                    Log.e("Failed to serialize the result of request " + id, e);
+                    out.write(error(id, e).toString());
+                }
+            }
+
+            @Override
+            public boolean isError() {
+                return false;
+            }
+        };
+    }
+
+    /** Returns a response already built as a JSON object, e.g. by {@link #error}. */
+    public static JsonResponse of(final JSONObject json) {
+        return new JsonResponse() {
+            @Override
+            public void writeTo(ResponseWriter out) throws IOException {
+                out.write(json.toString());
+            }
+
+            @Override
+            public boolean isError() {
+                return !json.isNull("error");
+            }
+        };
+    }
+
+    /** Returns the response to a batch of requests: the array of their responses, in order. */
+    public static JsonResponse batch(final List<JsonResponse> responses) {
+        return new JsonResponse() {
+            @Override
+            public void writeTo(ResponseWriter out) throws IOException, JSONException {
+                out.write('[');
+                for (int i = 0; i < responses.size(); i++) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    responses.get(i).writeTo(out);
+                }
+                out.write(']');
+            }
+
+            @Override
+            public boolean isError() {
+                for (JsonResponse response : responses) {
+                    if (response.isError()) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
     public static String getStackTrace(Throwable throwable) {
         StringWriter stackTraceWriter = new StringWriter();
         stackTraceWriter.write("\n-------------- Java Stacktrace ---------------\n");
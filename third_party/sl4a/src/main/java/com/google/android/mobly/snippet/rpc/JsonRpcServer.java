@@ -17,16 +17,40 @@
 package com.google.android.mobly.snippet.rpc;
 
 import android.content.Context;
+import com.google.android.mobly.snippet.event.EventCache;
+import com.google.android.mobly.snippet.event.EventQueue;
+import com.google.android.mobly.snippet.event.EventSubscription;
+import com.google.android.mobly.snippet.event.SnippetEvent;
 import com.google.android.mobly.snippet.manager.SnippetManager;
 import com.google.android.mobly.snippet.util.Log;
+import com.google.android.mobly.snippet.util.NamedThreadFactory;
 import com.google.android.mobly.snippet.util.RpcUtil;
-import java.io.BufferedReader;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -35,58 +59,521 @@ import org.json.JSONObject;
 public class JsonRpcServer extends SimpleServer {
     private static final String CMD_CLOSE_SESSION = "closeSl4aSession";
     private static final String CMD_HELP = "help";
+    private static final String CMD_METRICS = "metrics";
+    private static final String CMD_CANCEL_RPC = "cancelRpc";
+    private static final String CMD_INVALIDATE_RPC_CACHE = "invalidateRpcCache";
+    private static final String CMD_NEXT_PAGE = "nextPage";
+    private static final String CMD_CLOSE_CURSOR = "closeCursor";
+    /** Names of the commands handled by the server itself, which no RPC may take. */
+    public static final Set<String> BUILTIN_COMMANDS =
+            Collections.unmodifiableSet(
+                    new HashSet<>(
+                            Arrays.asList(
+                                    CMD_CLOSE_SESSION,
+                                    CMD_HELP,
+                                    CMD_METRICS,
+                                    CMD_CANCEL_RPC,
+                                    CMD_INVALIDATE_RPC_CACHE,
+                                    CMD_NEXT_PAGE,
+                                    CMD_CLOSE_CURSOR)));
+    private static final String KEY_SUBSCRIPTION = "subscription";
+    private static final String KEY_CREDITS = "credits";
+    /**
+     * Optional field of a request: how long its RPC may take, in milliseconds. An RPC that does not
+     * complete in time is answered with the error code {@link RpcError#CODE_DEADLINE_EXCEEDED}.
+     */
+    private static final String KEY_DEADLINE_MS = "deadlineMs";
+    /**
+     * Optional field of a request: the number of items per page to send a result holding many
+     * items with, see {@link ResultCursors}.
+     */
+    private static final String KEY_PAGE_SIZE = "pageSize";
+
+    /** Number of threads shared by all pipelined sessions to execute their requests. */
+    private static final int PIPELINE_WORKER_COUNT = 32;
+    private static final long PIPELINE_WORKER_KEEP_ALIVE_SEC = 60;
 
     private final SnippetManager mSnippetManager;
     private final RpcUtil mRpcUtil;
+    private final ThreadPoolExecutor mPipelineExecutor;
+    /**
+     * Executes the pushes of events. A push may block on a slow client, so pushes do not take the
+     * threads of pipelined requests; each connection pushes from at most one thread at a time.
+     */
+    private final ExecutorService mPushExecutor =
+            Executors.newCachedThreadPool(new NamedThreadFactory("JsonRpcServer push worker"));
+    private final Map<RpcSession, PushChannel> mPushChannels = new ConcurrentHashMap<>();
+    private final RpcMetrics mMetrics = RpcMetrics.getInstance();
 
     /** Construct a {@link JsonRpcServer} connected to the provided {@link SnippetManager}. */
     public JsonRpcServer(Context context) {
         mSnippetManager = SnippetManager.initSnippetManager(context);
         mRpcUtil = new RpcUtil();
+        mPipelineExecutor =
+                new ThreadPoolExecutor(
+                        PIPELINE_WORKER_COUNT,
+                        PIPELINE_WORKER_COUNT,
+                        PIPELINE_WORKER_KEEP_ALIVE_SEC,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(),
+                        new NamedThreadFactory("JsonRpcServer pipeline worker"));
+        mPipelineExecutor.allowCoreThreadTimeOut(true);
     }
 
     @Override
-    protected void handleRPCConnection(
-            Socket sock, Integer UID, BufferedReader reader, PrintWriter writer) throws Exception {
-        Log.d("UID " + UID);
-        String data;
-        while ((data = reader.readLine()) != null) {
-            Log.v("Session " + UID + " Received: " + data);
-            JSONObject request = new JSONObject(data);
-            int id = request.getInt("id");
-            String method = request.getString("method");
-            JSONArray params = request.getJSONArray("params");
-
-            // Handle builtin commands
-            if (method.equals(CMD_HELP)) {
-                help(writer, id, mSnippetManager, UID);
+    protected void handleRPCRequest(RpcSession session, String data) throws Exception {
+        Integer UID = session.getUid();
+        Log.v(() -> "Session " + UID + " Received: " + Log.truncate(data));
+        long parseStart = System.nanoTime();
+        if (isBatch(data)) {
+            JSONArray requests = new JSONArray(data);
+            mMetrics.recordParse(System.nanoTime() - parseStart);
+            boolean closeRequested = containsCloseSession(requests);
+            JsonResponse responses = invokeBatch(requests, session);
+            if (closeRequested) {
+                closeSession(session, responses);
+                return;
+            }
+            send(session, responses);
+            return;
+        }
+        JSONObject request = new JSONObject(data);
+        mMetrics.recordParse(System.nanoTime() - parseStart);
+        if (request.has(KEY_SUBSCRIPTION)) {
+            grantCredits(session, request);
+            return;
+        }
+        int id = request.getInt("id");
+        String method = request.getString("method");
+        JSONArray params = request.getJSONArray("params");
+        long deadlineMs = request.optLong(KEY_DEADLINE_MS, 0);
+        int pageSize = request.optInt(KEY_PAGE_SIZE, 0);
+
+        // Handle builtin commands
+        if (method.equals(CMD_HELP)) {
+            send(session, JsonRpcResult.of(help(id, mSnippetManager)));
+            return;
+        } else if (method.equals(CMD_METRICS)) {
+            send(session, JsonRpcResult.of(metrics(id, params)));
+            return;
+        } else if (method.equals(CMD_CANCEL_RPC)) {
+            send(session, JsonRpcResult.of(cancelRpc(id, params, UID)));
+            return;
+        } else if (method.equals(CMD_INVALIDATE_RPC_CACHE)) {
+            send(session, JsonRpcResult.of(invalidateRpcCache(id, params)));
+            return;
+        } else if (method.equals(CMD_NEXT_PAGE)) {
+            send(session, nextPage(id, params, UID));
+            return;
+        } else if (method.equals(CMD_CLOSE_CURSOR)) {
+            send(session, JsonRpcResult.of(closeCursor(id, params, UID)));
+            return;
+        } else if (method.equals(CMD_CLOSE_SESSION)) {
+            closeSession(session, JsonRpcResult.of(JsonRpcResult.empty(id)));
+            return;
+        }
+        if (session.getOptions().isPipelined()) {
+            invokeRpcPipelined(method, params, id, deadlineMs, pageSize, session);
+            return;
+        }
+        send(
+                session,
+                mRpcUtil.invokeRpcStreamed(method, params, id, UID, deadlineMs, pageSize),
+                metricsOf(method));
+    }
+
+    /**
+     * Executes an RPC on the pipeline worker pool and sends its response as soon as it completes,
+     * possibly before the responses of requests received earlier on the same session.
+     *
+     * <p>Each in-flight request holds a permit of the session. Once the session reaches its limit,
+     * this blocks the reading of further requests, which pushes back on the client. RPCs that run
+     * on the main thread are queued for it without holding a worker until they complete.
+     */
+    private void invokeRpcPipelined(
+            final String method,
+            final JSONArray params,
+            final int id,
+            final long deadlineMs,
+            final int pageSize,
+            final RpcSession session)
+            throws InterruptedException {
+        final RpcMetrics.MethodMetrics metrics = metricsOf(method);
+        final Semaphore inFlight = session.getInFlight();
+        inFlight.acquire();
+        if (mRpcUtil.isRunOnUiThread(method)) {
+            // Queued for the main thread, with no worker waiting for it; the permit is held until
+            // the response is sent.
+            mRpcUtil.invokeRpcAsync(
+                            method,
+                            params,
+                            id,
+                            session.getUid(),
+                            deadlineMs,
+                            pageSize,
+                            this::executePipelined)
+                    .whenComplete(
+                            (response, t) -> {
+                                try {
+                                    if (t != null) {
+                                        throw t;
+                                    }
+                                    send(session, response, metrics);
+                                } catch (Throwable e) {
+                                    Log.e("Failed to send the response of request " + id, e);
+                                } finally {
+                                    inFlight.release();
+                                }
+                            });
+            return;
+        }
+        try {
+            mPipelineExecutor.execute(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                send(
+                                        session,
+                                        mRpcUtil.invokeRpcStreamed(
+                                                method,
+                                                params,
+                                                id,
+                                                session.getUid(),
+                                                deadlineMs,
+                                                pageSize),
+                                        metrics);
+                            } catch (IOException | JSONException e) {
+                                Log.e("Failed to send the response of request " + id, e);
+                            } finally {
+                                inFlight.release();
+                            }
+                        }
+                    });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the completion of an RPC on the pipeline worker pool, or in place once the server is
+     * shutting down, so that its response is still sent.
+     */
+    private void executePipelined(Runnable command) {
+        try {
+            mPipelineExecutor.execute(command);
+        } catch (RejectedExecutionException e) {
+            command.run();
+        }
+    }
+
+    /**
+     * Handles a credit grant, {@code {"subscription": <ID>, "credits": <count>}}, which attaches
+     * the subscription to this connection and lets it push {@code count} more events.
+     *
+     * <p>Each pushed event is a line of its own, {@code {"subscription": <ID>, "event": <event>}}.
+     * Clients usually open a connection dedicated to pushed events, so that they do not interleave
+     * with RPC responses.
+     */
+    private void grantCredits(RpcSession session, JSONObject request)
+            throws IOException, JSONException {
+        int subscriptionId = request.getInt(KEY_SUBSCRIPTION);
+        int credits = request.getInt(KEY_CREDITS);
+        EventSubscription subscription = EventCache.getInstance().getSubscription(subscriptionId);
+        if (subscription == null) {
+            JSONObject error = new JSONObject();
+            error.put(KEY_SUBSCRIPTION, subscriptionId);
+            error.put("error", "Subscription does not exist.");
+            send(session, JsonRpcResult.of(error));
+            return;
+        }
+        PushChannel channel = mPushChannels.get(session);
+        if (channel == null) {
+            mPushChannels.putIfAbsent(session, new PushChannel(session));
+            channel = mPushChannels.get(session);
+            if (session.isClosed()) {
+                onSessionClosed(session);
+                return;
+            }
+        }
+        channel.add(subscription);
+        subscription.grantCredits(credits);
+    }
+
+    @Override
+    protected void onSessionClosed(RpcSession session) {
+        PushChannel channel = mPushChannels.remove(session);
+        if (channel != null) {
+            channel.close();
+        }
+        if (!isSessionConnected(session.getUid())) {
+            ResultCursors.getInstance().closeAll(session.getUid());
+        }
+    }
+
+    /**
+     * Pushes the events of the subscriptions attached to a connection, in the order they were
+     * posted, from the push executor. Once a push fails, the channel is closed and its events are
+     * queued in the {@link EventCache} again.
+     */
+    private final class PushChannel implements EventSubscription.Listener, Runnable {
+        private final RpcSession mSession;
+        private final Set<EventSubscription> mSubscriptions =
+                Collections.newSetFromMap(new ConcurrentHashMap<EventSubscription, Boolean>());
+        private final Queue<PendingEvent> mPending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+        private volatile boolean mClosed = false;
+
+        private PushChannel(RpcSession session) {
+            mSession = session;
+        }
+
+        private void add(EventSubscription subscription) {
+            mSubscriptions.add(subscription);
+            subscription.attach(this);
+        }
+
+        @Override
+        public void onEvent(EventSubscription subscription, SnippetEvent event) {
+            mPending.add(new PendingEvent(subscription.getId(), event));
+            schedule();
+        }
+
+        private void schedule() {
+            if (!mScheduled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                mPushExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // The server is shutting down: queue the pending events right away.
+                mClosed = true;
+                detachAll();
+                run();
+            }
+        }
+
+        @Override
+        public void run() {
+            PendingEvent pending;
+            while ((pending = mPending.poll()) != null) {
+                SnippetEvent event = pending.mEvent;
+                if (mClosed) {
+                    // Queue the event like any event that could not be pushed.
+                    EventCache.getInstance().postEvent(event);
+                    continue;
+                }
+                try {
+                    send(mSession, pushOf(pending.mSubscriptionId, event));
+                } catch (IOException | JSONException e) {
+                    Log.e("Failed to push event " + event.getName() + ", queuing it instead.", e);
+                    // Detach first, so that the event is not handed back to this channel.
+                    mPushChannels.remove(mSession, this);
+                    mClosed = true;
+                    detachAll();
+                    EventCache.getInstance().postEvent(event);
+                }
+            }
+            mScheduled.set(false);
+            if (!mPending.isEmpty()) {
+                schedule();
+            }
+        }
+
+        /** Detaches the subscriptions, and queues their events that were not pushed yet. */
+        private void close() {
+            mClosed = true;
+            detachAll();
+            schedule();
+        }
+
+        private void detachAll() {
+            for (EventSubscription subscription : mSubscriptions) {
+                subscription.detach(this);
+            }
+        }
+    }
+
+    /**
+     * Returns the line pushing an event, {@code {"subscription": <ID>, "event": {...}}}. Events
+     * serialized already, like {@link com.google.android.mobly.snippet.event.CompactSnippetEvent},
+     * are written as is.
+     */
+    private static JsonResponse pushOf(final int subscriptionId, final SnippetEvent event) {
+        return new JsonResponse() {
+            @Override
+            public void writeTo(ResponseWriter out) throws IOException, JSONException {
+                out.write("{\"" + KEY_SUBSCRIPTION + "\":");
+                out.write(Integer.toString(subscriptionId));
+                out.write(",\"event\":");
+                JsonBuilder.write(event instanceof EncodedJson ? event : event.toJson(), out);
+                out.write('}');
+            }
+
+            @Override
+            public boolean isError() {
+                return false;
+            }
+        };
+    }
+
+    private static final class PendingEvent {
+        private final int mSubscriptionId;
+        private final SnippetEvent mEvent;
+
+        private PendingEvent(int subscriptionId, SnippetEvent event) {
+            mSubscriptionId = subscriptionId;
+            mEvent = event;
+        }
+    }
+
+    private void closeSession(RpcSession session, JsonResponse response) throws Exception {
+        Log.d("Got shutdown signal");
+        // Shut down all RPC receivers.
+        mSnippetManager.shutdown();
+
+        // Shut down this client connection. As soon as this happens, the client will
+        // kill us by triggering the 'stop' action from another instrumentation, so no
+        // other cleanup steps are guaranteed to execute.
+        send(session, response);
+        session.close();
+
+        // Shut down this server.
+        shutdown();
+    }
+
+    /** A line holding a JSON array instead of a JSON object is a batch of requests. */
+    private static boolean isBatch(String data) {
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '[';
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsCloseSession(JSONArray requests) throws JSONException {
+        for (int i = 0; i < requests.length(); i++) {
+            if (CMD_CLOSE_SESSION.equals(requests.getJSONObject(i).getString("method"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Executes a batch of requests and returns their responses in the order of the requests.
+     *
+     * <p>Entries run one after another, or concurrently on the pipeline worker pool if the session
+     * negotiated parallel batches. Each entry sent to the pool holds a permit of the session, like
+     * a pipelined request, and the entries that find no permit free run in place. If the session
+     * asked to stop on the first error, entries that have not started yet once an entry fails are
+     * answered with an error instead of being run.
+     *
+     * <p>A {@code closeSl4aSession} entry is answered like the other entries; the session is closed
+     * after the whole batch response has been sent.
+     */
+    private JsonResponse invokeBatch(JSONArray requests, RpcSession session)
+            throws JSONException, InterruptedException {
+        final Integer UID = session.getUid();
+        final SessionOptions options = session.getOptions();
+        final Semaphore inFlight = session.getInFlight();
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        List<JsonResponse> responses = new ArrayList<>(requests.length());
+        List<Future<JsonResponse>> futures = new ArrayList<>(requests.length());
+        for (int i = 0; i < requests.length(); i++) {
+            final JSONObject request = requests.getJSONObject(i);
+            // Validate every entry up front, the same way a single request is validated.
+            request.getInt("id");
+            request.getString("method");
+            request.getJSONArray("params");
+            if (!options.isBatchParallel()) {
+                responses.add(invokeBatchEntry(request, UID, options, failed));
                 continue;
-            } else if (method.equals(CMD_CLOSE_SESSION)) {
-                Log.d("Got shutdown signal");
-                synchronized (writer) {
-                    // Shut down all RPC receivers.
-                    mSnippetManager.shutdown();
-
-                    // Shut down this client connection. As soon as this happens, the client will
-                    // kill us by triggering the 'stop' action from another instrumentation, so no
-                    // other cleanup steps are guaranteed to execute.
-                    send(writer, JsonRpcResult.empty(id), UID);
-                    reader.close();
-                    writer.close();
-                    sock.close();
-
-                    // Shut down this server.
-                    shutdown();
+            }
+            if (!inFlight.tryAcquire()) {
+                FutureTask<JsonResponse> entry =
+                        new FutureTask<>(() -> invokeBatchEntry(request, UID, options, failed));
+                entry.run();
+                futures.add(entry);
+                continue;
+            }
+            try {
+                futures.add(
+                        mPipelineExecutor.submit(
+                                new Callable<JsonResponse>() {
+                                    @Override
+                                    public JsonResponse call() throws JSONException {
+                                        try {
+                                            return invokeBatchEntry(request, UID, options, failed);
+                                        } finally {
+                                            inFlight.release();
+                                        }
+                                    }
+                                }));
+            } catch (RejectedExecutionException e) {
+                inFlight.release();
+                throw e;
+            }
+        }
+        for (Future<JsonResponse> future : futures) {
+            try {
+                responses.add(future.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof JSONException) {
+                    throw (JSONException) e.getCause();
                 }
-                return;
+                throw new RuntimeException(e.getCause());
             }
-            JSONObject returnValue = mRpcUtil.invokeRpc(method, params, id, UID);
-            send(writer, returnValue, UID);
         }
+        return JsonRpcResult.batch(responses);
     }
 
-    private void help(PrintWriter writer, int id, SnippetManager receiverManager, Integer UID)
+    private JsonResponse invokeBatchEntry(
+            JSONObject request, Integer UID, SessionOptions options, AtomicBoolean failed)
             throws JSONException {
+        int id = request.getInt("id");
+        String method = request.getString("method");
+        if (options.isBatchStopOnError() && failed.get()) {
+            return JsonRpcResult.of(
+                    JsonRpcResult.error(
+                            id,
+                            new RpcError("Not executed: an earlier request of the batch failed.")));
+        }
+        JsonResponse response;
+        if (method.equals(CMD_HELP)) {
+            response = JsonRpcResult.of(help(id, mSnippetManager));
+        } else if (method.equals(CMD_METRICS)) {
+            response = JsonRpcResult.of(metrics(id, request.getJSONArray("params")));
+        } else if (method.equals(CMD_CANCEL_RPC)) {
+            response = JsonRpcResult.of(cancelRpc(id, request.getJSONArray("params"), UID));
+        } else if (method.equals(CMD_INVALIDATE_RPC_CACHE)) {
+            response = JsonRpcResult.of(invalidateRpcCache(id, request.getJSONArray("params")));
+        } else if (method.equals(CMD_NEXT_PAGE)) {
+            response = nextPage(id, request.getJSONArray("params"), UID);
+        } else if (method.equals(CMD_CLOSE_CURSOR)) {
+            response = JsonRpcResult.of(closeCursor(id, request.getJSONArray("params"), UID));
+        } else if (method.equals(CMD_CLOSE_SESSION)) {
+            response = JsonRpcResult.of(JsonRpcResult.empty(id));
+        } else {
+            response =
+                    mRpcUtil.invokeRpcStreamed(
+                            method,
+                            request.getJSONArray("params"),
+                            id,
+                            UID,
+                            request.optLong(KEY_DEADLINE_MS, 0),
+                            request.optInt(KEY_PAGE_SIZE, 0));
+        }
+        if (response.isError()) {
+            failed.set(true);
+        }
+        return response;
+    }
+
+    private JSONObject help(int id, SnippetManager receiverManager) throws JSONException {
         // Create a map from class simple name to the methods inside it.
         Map<String, Set<MethodDescriptor>> methods = new TreeMap<>();
         for (String method : receiverManager.getMethodNames()) {
@@ -107,15 +594,117 @@ public class JsonRpcServer extends SimpleServer {
                 result.append("  ").append(descriptor.getHelp()).append("\n");
             }
         }
-        send(writer, JsonRpcResult.result(id, result), UID);
+        return JsonRpcResult.result(id, result);
+    }
+
+    /**
+     * Reports the RPC metrics, the connected sessions, the backlog of pipelined requests, the event
+     * queues and the size of the RPC result cache. Passing true as the only parameter resets the
+     * RPC metrics afterwards.
+     */
+    private JSONObject metrics(int id, JSONArray params) throws JSONException {
+        JSONObject result = mMetrics.toJson();
+        result.put("activeSessions", getSessionCount());
+        result.put("pipelineActive", mPipelineExecutor.getActiveCount());
+        result.put("pipelineQueued", mPipelineExecutor.getQueue().size());
+        JSONObject eventQueues = new JSONObject();
+        for (Map.Entry<String, EventQueue> entry :
+                EventCache.getInstance().getEventQueues().entrySet()) {
+            eventQueues.put(entry.getKey(), entry.getValue().toJson());
+        }
+        result.put("eventQueues", eventQueues);
+        result.put("rpcCache", RpcResultCache.getInstance().toJson());
+        result.put("openCursors", ResultCursors.getInstance().getCount());
+        if (params.optBoolean(0, false)) {
+            mMetrics.reset();
+        }
+        return JsonRpcResult.result(id, result);
+    }
+
+    /**
+     * Cancels the RPC of the request with the given ID, the only parameter, if it is still
+     * executing. Returns whether it was.
+     *
+     * <p>The request of the RPC must belong to the same session. Unless the session is pipelined,
+     * its connection is busy with the RPC, so the client sends this from another connection that
+     * continues the session.
+     */
+    private JSONObject cancelRpc(int id, JSONArray params, Integer UID) throws JSONException {
+        return JsonRpcResult.result(id, mRpcUtil.cancelRpc(UID, params.getInt(0)));
+    }
+
+    /**
+     * Drops the cached results of the RPC named by the only parameter, or of all RPCs without
+     * parameters, see {@link RpcCache}. Returns the number of results dropped.
+     */
+    private JSONObject invalidateRpcCache(int id, JSONArray params) throws JSONException {
+        String method = params.isNull(0) ? null : params.getString(0);
+        return JsonRpcResult.result(id, RpcResultCache.getInstance().invalidate(method));
+    }
+
+    /**
+     * Sends the next page of a cursor of the session, given as the first parameter. The optional
+     * second parameter is the number of items, by default the page size the cursor was made with.
+     */
+    private JsonResponse nextPage(int id, JSONArray params, Integer UID) throws JSONException {
+        try {
+            Map<String, Object> page =
+                    ResultCursors.getInstance()
+                            .nextPage(UID, params.getInt(0), params.optInt(1, 0));
+            return JsonRpcResult.streamed(id, page, null);
+        } catch (RpcError | RuntimeException e) {
+            Log.e("Failed to get the next page.", e);
+            return JsonRpcResult.of(JsonRpcResult.error(id, e));
+        }
+    }
+
+    /**
+     * Releases a cursor of the session, given as the only parameter, before it is exhausted.
+     * Returns whether the session had it.
+     */
+    private JSONObject closeCursor(int id, JSONArray params, Integer UID) throws JSONException {
+        return JsonRpcResult.result(id, ResultCursors.getInstance().close(UID, params.getInt(0)));
+    }
+
+    private void send(RpcSession session, JsonResponse response)
+            throws IOException, JSONException {
+        send(session, response, null);
     }
 
-    private void send(PrintWriter writer, JSONObject result, int UID) {
-        writer.write(result + "\n");
-        writer.flush();
-        Log.v("Session " + UID + " Sent: " + result);
+    /**
+     * Returns the metrics of the RPC with the given name, or null if there is no such RPC, so that
+     * names sent by clients do not add metrics.
+     */
+    private RpcMetrics.MethodMetrics metricsOf(String method) {
+        MethodDescriptor rpc = mSnippetManager.getMethodDescriptor(method);
+        return rpc == null ? null : rpc.getMetrics();
+    }
+
+    /**
+     * Sends a response, recording the time taken to encode it.
+     *
+     * @param metrics the metrics of the RPC answered, or null for batches, built-in commands and
+     *     unknown RPCs.
+     */
+    private void send(RpcSession session, JsonResponse response, RpcMetrics.MethodMetrics metrics)
+            throws IOException, JSONException {
+        long start = System.nanoTime();
+        String sent = session.send(response);
+        mMetrics.recordEncode(metrics, System.nanoTime() - start);
+        if (sent != null) {
+            Log.v(() -> "Session " + session.getUid() + " Sent: " + Log.truncate(sent));
+        } else {
+            Log.v(() -> "Session " + session.getUid() + " Sent a streamed response.");
+        }
     }
 
     @Override
     protected void handleConnection(Socket socket) throws Exception {}
+
+    @Override
+    public void shutdown() throws Exception {
+        super.shutdown();
+        mPipelineExecutor.shutdown();
+        mPushExecutor.shutdown();
+    }
 }
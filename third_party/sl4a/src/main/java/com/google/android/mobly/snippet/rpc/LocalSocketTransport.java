@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.rpc;
+
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A {@link ServerTransport} listening on a Unix domain socket in the abstract namespace, which the
+ * host reaches through {@code adb forward tcp:<host port> localabstract:<name>}.
+ *
+ * <p>Unlike a TCP port, a name chosen per snippet, e.g. from its package, cannot collide with the
+ * ports of other snippets or services on the device, and no TCP stack sits between adbd and the
+ * server.
+ */
+public final class LocalSocketTransport implements ServerTransport {
+    private final String mName;
+    private final LocalServerSocket mServerSocket;
+    private volatile boolean mClosed = false;
+
+    /**
+     * Binds a socket in the abstract namespace.
+     *
+     * @param name the name of the socket, without the {@code localabstract:} prefix.
+     * @throws IOException if the name is already bound, e.g. by another snippet.
+     */
+    public LocalSocketTransport(String name) throws IOException {
+        mName = name;
+        mServerSocket = new LocalServerSocket(name);
+    }
+
+    /** The name of the socket in the abstract namespace. */
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public Connection accept() throws IOException {
+        LocalSocket socket = mServerSocket.accept();
+        if (mClosed) {
+            socket.close();
+            throw new IOException("The transport is closed.");
+        }
+        return new LocalConnection(socket);
+    }
+
+    @Override
+    public String getEndpoint() {
+        return "LOCALABSTRACT " + mName;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mClosed = true;
+        // Closing a LocalServerSocket does not wake up a thread blocked in accept(), so connect to
+        // it once more.
+        try (LocalSocket wakeUp = new LocalSocket()) {
+            wakeUp.connect(new LocalSocketAddress(mName));
+        } catch (IOException e) {
+            // Nothing is waiting for a connection.
+        }
+        mServerSocket.close();
+    }
+
+    @Override
+    public String toString() {
+        return "localabstract:" + mName;
+    }
+
+    private static final class LocalConnection implements Connection {
+        private final LocalSocket mSocket;
+
+        private LocalConnection(LocalSocket socket) {
+            mSocket = socket;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return mSocket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return mSocket.getOutputStream();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mSocket.close();
+        }
+    }
+}
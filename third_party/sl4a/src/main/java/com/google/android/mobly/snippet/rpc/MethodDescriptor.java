@@ -18,38 +18,96 @@ package com.google.android.mobly.snippet.rpc;
 
 import android.content.Intent;
 import android.net.Uri;
+import android.util.Base64;
 import com.google.android.mobly.snippet.Snippet;
 import com.google.android.mobly.snippet.manager.SnippetManager;
 import com.google.android.mobly.snippet.manager.SnippetObjectConverterManager;
 import com.google.android.mobly.snippet.util.AndroidUtil;
+import com.google.android.mobly.snippet.util.Log;
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.stream.IntStream;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-/** An adapter that wraps {@code Method}. */
+/**
+ * An adapter that wraps {@code Method}.
+ *
+ * <p>Everything needed to invoke the method is resolved once, when the descriptor is collected: a
+ * decoder for each parameter, the value of parameters the client may omit, and the annotations
+ * that change how the method runs. Invoking the RPC then only decodes the arguments and calls the
+ * method.
+ */
 public final class MethodDescriptor {
     private static final Map<Class<?>, TypeConverter<?>> typeConverters = populateConverters();
+    private static final Map<Type, ArgumentDecoder> argumentDecoders = populateDecoders();
 
     private final Method mMethod;
     private final Class<? extends Snippet> mClass;
+    private final boolean mIsAsync;
+    private final int mMinSdk;
+    private final boolean mRunOnUiThread;
+    private final Type[] mParameterTypes;
+    private final ArgumentDecoder[] mDecoders;
+    private final MissingArgument[] mMissingArguments;
+    private final MethodHandle mHandle;
+    private final RpcMetrics.MethodMetrics mMetrics;
+    // Null unless the results of the RPC are cached.
+    private final RpcCache mCache;
+    // Null unless the results of the RPC are paged.
+    private final RpcPaged mPaged;
 
     private MethodDescriptor(Class<? extends Snippet> clazz, Method method) {
         mClass = clazz;
         mMethod = method;
+        mIsAsync = method.isAnnotationPresent(AsyncRpc.class);
+        RpcMinSdk minSdk = method.getAnnotation(RpcMinSdk.class);
+        mMinSdk = minSdk == null ? 0 : minSdk.value();
+        mRunOnUiThread = method.isAnnotationPresent(RunOnUiThread.class);
+        Type[] parameterTypes = method.getGenericParameterTypes();
+        Annotation[][] annotations = method.getParameterAnnotations();
+        mParameterTypes = new Type[parameterTypes.length];
+        mDecoders = new ArgumentDecoder[parameterTypes.length];
+        mMissingArguments = new MissingArgument[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            mParameterTypes[i] = normalizeType(parameterTypes[i]);
+            mDecoders[i] = decoderFor(mParameterTypes[i]);
+            mMissingArguments[i] =
+                    missingArgumentFor(i, parameterTypes[i], Arrays.asList(annotations[i]));
+        }
+        mHandle = unreflect(method);
+        mMetrics = RpcMetrics.getInstance().forMethod(method.getName());
+        RpcCache cache = method.getAnnotation(RpcCache.class);
+        if (cache != null && mIsAsync) {
+            Log.w("Ignoring @RpcCache on " + this + ": the results of async RPCs are not cached");
+            cache = null;
+        }
+        mPaged = method.getAnnotation(RpcPaged.class);
+        if (cache != null && mPaged != null) {
+            Log.w("Ignoring @RpcCache on " + this + ": the results of paged RPCs are not cached");
+            cache = null;
+        }
+        mCache = cache;
     }
 
     @Override
@@ -57,18 +115,77 @@ public final class MethodDescriptor {
         return mMethod.getDeclaringClass().getCanonicalName() + "." + mMethod.getName();
     }
 
-    /** Collects all methods with {@code RPC} annotation from given class. */
+    /**
+     * Collects all methods with {@code RPC} annotation from given class.
+     *
+     * <p>The methods are taken from the {@link RpcIndex} generated for the class at compile time
+     * if there is one, and found by scanning all public methods of the class otherwise.
+     */
     public static Collection<MethodDescriptor> collectFrom(Class<? extends Snippet> clazz) {
+        Method[] indexed = loadIndex(clazz);
         List<MethodDescriptor> descriptors = new ArrayList<MethodDescriptor>();
+        if (indexed != null) {
+            for (Method method : indexed) {
+                descriptors.add(new MethodDescriptor(clazz, method));
+            }
+            return descriptors;
+        }
         for (Method method : clazz.getMethods()) {
-            if (method.isAnnotationPresent(Rpc.class)
-                    || method.isAnnotationPresent(AsyncRpc.class)) {
+            if (isRpc(method)) {
                 descriptors.add(new MethodDescriptor(clazz, method));
             }
         }
         return descriptors;
     }
 
+    private static boolean isRpc(Method method) {
+        return method.isAnnotationPresent(Rpc.class) || method.isAnnotationPresent(AsyncRpc.class);
+    }
+
+    /**
+     * Returns the RPC methods listed by the index of the given class, or null if it has no index
+     * or its index is out of date.
+     *
+     * <p>An index left over from an earlier build of the class is detected by the RPCs the class
+     * declares that it lacks, or by the methods it lists that are no longer RPCs. RPCs added to a
+     * superclass compiled separately from the class are not detected; rebuilding the class updates
+     * its index.
+     */
+    private static Method[] loadIndex(Class<? extends Snippet> clazz) {
+        String indexName = clazz.getName() + RpcIndex.CLASS_NAME_SUFFIX;
+        Method[] methods;
+        try {
+            methods =
+                    Class.forName(indexName, true, clazz.getClassLoader())
+                            .asSubclass(RpcIndex.class)
+                            .getDeclaredConstructor()
+                            .newInstance()
+                            .getRpcMethods();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            Log.w("Ignoring RPC index " + indexName + ": " + e);
+            return null;
+        }
+        for (Method method : methods) {
+            if (!isRpc(method)) {
+                Log.w("Ignoring RPC index " + indexName + ": " + method + " is not an RPC");
+                return null;
+            }
+        }
+        Set<Method> indexed = new HashSet<>(Arrays.asList(methods));
+        for (Method method : clazz.getDeclaredMethods()) {
+            if (Modifier.isPublic(method.getModifiers())
+                    && !method.isBridge()
+                    && isRpc(method)
+                    && !indexed.contains(method)) {
+                Log.w("Ignoring RPC index " + indexName + ": it lacks the RPC " + method);
+                return null;
+            }
+        }
+        return methods;
+    }
+
     /**
      * Invokes the call that belongs to this object with the given parameters. Wraps the response
      * (possibly an exception) in a JSONObject.
@@ -78,130 +195,377 @@ public final class MethodDescriptor {
      * @throws Throwable the exception raised from executing the RPC method.
      */
     public Object invoke(SnippetManager manager, final JSONArray parameters) throws Throwable {
-        final Annotation[][] annotations = getParameterAnnotations();
-        final Type[] parameterTypes = getGenericParameterTypes();
-        final Object[] args = new Object[parameterTypes.length];
+        return invoke(manager, parameters, 0);
+    }
+
+    /**
+     * Invokes the call like {@link #invoke(SnippetManager, JSONArray)}, waiting at most {@code
+     * timeoutMs} for the main thread if the RPC runs on it.
+     *
+     * @see SnippetManager#invoke(MethodDescriptor, Object[], long)
+     */
+    public Object invoke(SnippetManager manager, final JSONArray parameters, long timeoutMs)
+            throws Throwable {
+        if (mCache != null) {
+            return invokeCached(manager, parameters, timeoutMs);
+        }
+        return invokeUncached(manager, parameters, timeoutMs);
+    }
+
+    /**
+     * Returns the cached result of the RPC for these parameters if there is one, without decoding
+     * them. Otherwise invokes the RPC and caches its result, serialized.
+     */
+    private Object invokeCached(SnippetManager manager, JSONArray parameters, long timeoutMs)
+            throws Throwable {
+        RpcResultCache cache = RpcResultCache.getInstance();
+        String key = RpcResultCache.canonicalize(parameters);
+        EncodedResult cached = cache.get(getName(), key);
+        mMetrics.recordCacheLookup(cached != null);
+        if (cached != null) {
+            return cached;
+        }
+        Object result = invokeUncached(manager, parameters, timeoutMs);
+        EncodedResult encoded;
+        try {
+            encoded = EncodedResult.encode(result);
+        } catch (JSONException e) {
+            // Not valid JSON: sending the response reports it.
+            return result;
+        }
+        cache.put(getName(), key, encoded, mCache.ttlMs(), mCache.maxEntries());
+        return encoded;
+    }
+
+    /**
+     * Invokes an RPC that runs on the main thread without waiting for it, see {@link
+     * SnippetManager#invokeAsync}. A cached result completes the future right away.
+     */
+    public CompletableFuture<Object> invokeAsync(SnippetManager manager, JSONArray parameters)
+            throws Throwable {
+        if (mCache == null) {
+            return manager.invokeAsync(this, decodeArguments(parameters));
+        }
+        final RpcResultCache cache = RpcResultCache.getInstance();
+        final String key = RpcResultCache.canonicalize(parameters);
+        EncodedResult cached = cache.get(getName(), key);
+        mMetrics.recordCacheLookup(cached != null);
+        if (cached != null) {
+            return CompletableFuture.completedFuture((Object) cached);
+        }
+        return manager.invokeAsync(this, decodeArguments(parameters))
+                .thenApply(
+                        result -> {
+                            EncodedResult encoded;
+                            try {
+                                encoded = EncodedResult.encode(result);
+                            } catch (JSONException e) {
+                                // Not valid JSON: sending the response reports it.
+                                return result;
+                            }
+                            cache.put(
+                                    getName(), key, encoded, mCache.ttlMs(), mCache.maxEntries());
+                            return encoded;
+                        });
+    }
+
+    private Object invokeUncached(SnippetManager manager, JSONArray parameters, long timeoutMs)
+            throws Throwable {
+        return manager.invoke(this, decodeArguments(parameters), timeoutMs);
+    }
+
+    private Object[] decodeArguments(JSONArray parameters) throws JSONException, RpcError {
+        final Object[] args = new Object[mDecoders.length];
 
         if (parameters.length() > args.length) {
             throw new RpcError("Too many parameters specified.");
         }
 
+        long start = System.nanoTime();
         for (int i = 0; i < args.length; i++) {
-            final Type parameterType = parameterTypes[i];
             if (i < parameters.length()) {
-                args[i] = convertParameter(parameters, i, parameterType);
-            } else if (MethodDescriptor.hasDefaultValue(Arrays.asList(annotations[i]))) {
-                args[i] = MethodDescriptor.getDefaultValue(
-                        parameterType, Arrays.asList(annotations[i]));
-            } else if (MethodDescriptor.isOptional(Arrays.asList(annotations[i]))) {
-                args[i] = MethodDescriptor.getOptionalValue(
-                        parameterType, Arrays.asList(annotations[i]));
+                args[i] = decodeArgument(parameters, i);
             } else {
-                throw new RpcError("Argument " + (i + 1) + " is not present");
+                args[i] = mMissingArguments[i].get();
             }
         }
+        mMetrics.record(RpcMetrics.Phase.DECODE, System.nanoTime() - start);
+        return args;
+    }
+
+    /**
+     * Calls the wrapped method on the given snippet, on the calling thread.
+     *
+     * @return the value returned by the method, boxed if primitive and null if void.
+     * @throws Exception the exception raised by the method itself.
+     */
+    public Object invokeOn(Snippet snippet, Object[] args) throws Exception {
+        if (mHandle == null) {
+            try {
+                return mMethod.invoke(snippet, args);
+            } catch (InvocationTargetException e) {
+                throw asException(e.getCause());
+            }
+        }
+        try {
+            return (Object) mHandle.invokeExact((Object) snippet, args);
+        } catch (Throwable t) {
+            throw asException(t);
+        }
+    }
 
-        return manager.invoke(mClass, mMethod, args);
+    private static Exception asException(Throwable t) {
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        if (t instanceof Exception) {
+            return (Exception) t;
+        }
+        return new UndeclaredThrowableException(t);
+    }
+
+    /**
+     * Returns a handle calling the method with its arguments spread from an {@code Object[]}, or
+     * null if the method can only be called through reflection.
+     */
+    private static MethodHandle unreflect(Method method) {
+        try {
+            return MethodHandles.publicLookup()
+                    .unreflect(method)
+                    .asSpreader(Object[].class, method.getParameterTypes().length)
+                    .asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+        } catch (IllegalAccessException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** Converts the JSON value of a parameter into its Java type. Resolved once per parameter. */
+    private interface ArgumentDecoder {
+        Object decode(JSONArray parameters, int index) throws JSONException;
+    }
+
+    /** Supplies the value of a parameter omitted by the client. Resolved once per parameter. */
+    private interface MissingArgument {
+        Object get() throws RpcError;
     }
 
     /** Converts a parameter from JSON into a Java Object. */
-    private static Object convertParameter(final JSONArray parameters, int index, Type type)
+    private Object decodeArgument(final JSONArray parameters, int index)
             throws JSONException, RpcError {
+        // We must handle null explicitly because we cannot magically cast it.
+        if (parameters.isNull(index)) {
+            return null;
+        }
         try {
-            // The refelection system sometimes returns a GenericArrayType type
-            // instead of a raw type, causing issues with later type
-            // comparisons.
-            if (type instanceof GenericArrayType) {
-                Type componentType = ((GenericArrayType) type).getGenericComponentType();
-                type = Array.newInstance((Class<?>) componentType, 0).getClass();
-            }
-
-            // We must handle null and numbers explicitly because we cannot magically cast them. We
-            // also need to convert implicitly from numbers to bools.
-            if (parameters.isNull(index)) {
-                return null;
-            } else if (type == Boolean.class || type == boolean.class) {
-                try {
-                    return parameters.getBoolean(index);
-                } catch (JSONException e) {
-                    return parameters.getInt(index) != 0;
-                }
-            } else if (type == Long.class || type == long.class) {
-                return parameters.getLong(index);
-            } else if (type == Double.class || type == double.class) {
-                return parameters.getDouble(index);
-            } else if (type == Integer.class || type == int.class) {
-                return parameters.getInt(index);
-            } else if (type == Intent.class) {
-                return buildIntent(parameters.getJSONObject(index));
-            } else if (type == String.class) {
-                return parameters.getString(index);
-            } else if (type == Integer[].class || type == int[].class) {
-                JSONArray list = parameters.getJSONArray(index);
-                Integer[] result = new Integer[list.length()];
-                for (int i = 0; i < list.length(); i++) {
-                    result[i] = list.getInt(i);
-                }
-                if (type == int[].class) {
-                    return Arrays.stream(result).mapToInt(Integer::intValue).toArray();
-                }
-                return result;
-            } else if (type == Long[].class || type == long[].class) {
-                JSONArray list = parameters.getJSONArray(index);
-                Long[] result = new Long[list.length()];
-                for (int i = 0; i < list.length(); i++) {
-                    result[i] = list.getLong(i);
-                }
-                if (type == long[].class) {
-                    return Arrays.stream(result).mapToLong(Long::longValue).toArray();
-                }
-                return result;
-            } else if (type == Byte[].class || type == byte[].class) {
-                JSONArray list = parameters.getJSONArray(index);
-                byte[] result = new byte[list.length()];
-                for (int i = 0; i < list.length(); i++) {
-                    result[i] = (byte) list.getInt(i);
-                }
-                if (type == Byte[].class) {
-                    return IntStream.range(0, result.length)
-                        .mapToObj(i -> result[i])
-                        .toArray(Byte[]::new);
-                }
-                return result;
-            } else if (type == String[].class) {
-                JSONArray list = parameters.getJSONArray(index);
-                String[] result = new String[list.length()];
-                for (int i = 0; i < list.length(); i++) {
-                    result[i] = list.getString(i);
-                }
-                return result;
-            } else if (type == JSONObject.class) {
-                return parameters.getJSONObject(index);
-            } else if (type == JSONArray.class) {
-                return parameters.getJSONArray(index);
-            } else {
-                // Try any custom converter provided.
-                Object object =
-                        SnippetObjectConverterManager.getInstance()
-                                .jsonToObject(parameters.getJSONObject(index), type);
-                if (object != null) {
-                    return object;
-                }
-                // Magically cast the parameter to the right Java type.
-                return ((Class<?>) type).cast(parameters.get(index));
-            }
+            return mDecoders[index].decode(parameters, index);
         } catch (ClassCastException e) {
             throw new RpcError(
                     "Argument "
                             + (index + 1)
                             + " should be of type "
-                            + ((Class<?>) type).getSimpleName()
+                            + ((Class<?>) mParameterTypes[index]).getSimpleName()
                             + ", but is of type "
                             + parameters.get(index).getClass().getSimpleName(),
                     e);
         }
     }
 
+    /**
+     * The refelection system sometimes returns a GenericArrayType type instead of a raw type,
+     * causing issues with later type comparisons.
+     */
+    private static Type normalizeType(Type type) {
+        if (type instanceof GenericArrayType) {
+            Type componentType = ((GenericArrayType) type).getGenericComponentType();
+            return Array.newInstance((Class<?>) componentType, 0).getClass();
+        }
+        return type;
+    }
+
+    private static ArgumentDecoder decoderFor(final Type type) {
+        ArgumentDecoder decoder = argumentDecoders.get(type);
+        if (decoder != null) {
+            return decoder;
+        }
+        return (parameters, index) -> {
+            // Try any custom converter provided.
+            Object object =
+                    SnippetObjectConverterManager.getInstance()
+                            .jsonToObject(parameters.getJSONObject(index), type);
+            if (object != null) {
+                return object;
+            }
+            // Magically cast the parameter to the right Java type.
+            return ((Class<?>) type).cast(parameters.get(index));
+        };
+    }
+
+    private static MissingArgument missingArgumentFor(
+            final int index, final Type parameterType, final List<Annotation> annotations) {
+        for (Annotation a : annotations) {
+            if (a instanceof RpcDefault) {
+                return defaultArgumentFor(parameterType, annotations, (RpcDefault) a);
+            }
+        }
+        if (isOptional(annotations)) {
+            return () -> null;
+        }
+        return () -> {
+            throw new RpcError("Argument " + (index + 1) + " is not present");
+        };
+    }
+
+    /**
+     * Resolves the converter of a default value once. Values produced by the predefined converters
+     * are immutable, so they are also converted once; custom converters may return mutable values
+     * and still run on each call.
+     *
+     * <p>An invalid default value is reported when the parameter is actually omitted, as it was
+     * before plans were precomputed.
+     */
+    private static MissingArgument defaultArgumentFor(
+            final Type parameterType,
+            final List<Annotation> annotations,
+            RpcDefault defaultAnnotation) {
+        final String literal = defaultAnnotation.value();
+        final TypeConverter<?> converter;
+        try {
+            converter = converterFor(parameterType, defaultAnnotation.converter());
+        } catch (IllegalArgumentException e) {
+            return () -> getDefaultValue(parameterType, annotations);
+        }
+        if (defaultAnnotation.converter() == TypeConverter.class) {
+            try {
+                final Object value = converter.convert(literal);
+                return () -> value;
+            } catch (RuntimeException e) {
+                // Fall through and fail on each call instead.
+            }
+        }
+        return () -> converter.convert(literal);
+    }
+
+    private static Byte[] toBoxed(byte[] bytes) {
+        Byte[] result = new Byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            result[i] = bytes[i];
+        }
+        return result;
+    }
+
+    /**
+     * Returns the decoders for the parameter types supported out of the box.
+     *
+     * <p>Byte arrays are accepted either as arrays of numbers or as base64 strings.
+     */
+    private static Map<Type, ArgumentDecoder> populateDecoders() {
+        Map<Type, ArgumentDecoder> decoders = new HashMap<>();
+        ArgumentDecoder booleanDecoder =
+                (parameters, index) -> {
+                    // We need to convert implicitly from numbers to bools.
+                    try {
+                        return parameters.getBoolean(index);
+                    } catch (JSONException e) {
+                        return parameters.getInt(index) != 0;
+                    }
+                };
+        decoders.put(Boolean.class, booleanDecoder);
+        decoders.put(boolean.class, booleanDecoder);
+        ArgumentDecoder longDecoder = (parameters, index) -> parameters.getLong(index);
+        decoders.put(Long.class, longDecoder);
+        decoders.put(long.class, longDecoder);
+        ArgumentDecoder doubleDecoder = (parameters, index) -> parameters.getDouble(index);
+        decoders.put(Double.class, doubleDecoder);
+        decoders.put(double.class, doubleDecoder);
+        ArgumentDecoder intDecoder = (parameters, index) -> parameters.getInt(index);
+        decoders.put(Integer.class, intDecoder);
+        decoders.put(int.class, intDecoder);
+        decoders.put(
+                Intent.class, (parameters, index) -> buildIntent(parameters.getJSONObject(index)));
+        decoders.put(String.class, (parameters, index) -> parameters.getString(index));
+        decoders.put(
+                Integer[].class,
+                (parameters, index) -> {
+                    JSONArray list = parameters.getJSONArray(index);
+                    Integer[] result = new Integer[list.length()];
+                    for (int i = 0; i < list.length(); i++) {
+                        result[i] = list.getInt(i);
+                    }
+                    return result;
+                });
+        decoders.put(
+                int[].class,
+                (parameters, index) -> {
+                    JSONArray list = parameters.getJSONArray(index);
+                    int[] result = new int[list.length()];
+                    for (int i = 0; i < list.length(); i++) {
+                        result[i] = list.getInt(i);
+                    }
+                    return result;
+                });
+        decoders.put(
+                Long[].class,
+                (parameters, index) -> {
+                    JSONArray list = parameters.getJSONArray(index);
+                    Long[] result = new Long[list.length()];
+                    for (int i = 0; i < list.length(); i++) {
+                        result[i] = list.getLong(i);
+                    }
+                    return result;
+                });
+        decoders.put(
+                long[].class,
+                (parameters, index) -> {
+                    JSONArray list = parameters.getJSONArray(index);
+                    long[] result = new long[list.length()];
+                    for (int i = 0; i < list.length(); i++) {
+                        result[i] = list.getLong(i);
+                    }
+                    return result;
+                });
+        decoders.put(
+                byte[].class,
+                (parameters, index) -> {
+                    Object value = parameters.get(index);
+                    if (value instanceof String) {
+                        return Base64.decode((String) value, Base64.DEFAULT);
+                    }
+                    JSONArray list = parameters.getJSONArray(index);
+                    byte[] result = new byte[list.length()];
+                    for (int i = 0; i < list.length(); i++) {
+                        result[i] = (byte) list.getInt(i);
+                    }
+                    return result;
+                });
+        decoders.put(
+                Byte[].class,
+                (parameters, index) -> {
+                    Object value = parameters.get(index);
+                    if (value instanceof String) {
+                        return toBoxed(Base64.decode((String) value, Base64.DEFAULT));
+                    }
+                    JSONArray list = parameters.getJSONArray(index);
+                    Byte[] result = new Byte[list.length()];
+                    for (int i = 0; i < list.length(); i++) {
+                        result[i] = (byte) list.getInt(i);
+                    }
+                    return result;
+                });
+        decoders.put(
+                String[].class,
+                (parameters, index) -> {
+                    JSONArray list = parameters.getJSONArray(index);
+                    String[] result = new String[list.length()];
+                    for (int i = 0; i < list.length(); i++) {
+                        result[i] = list.getString(i);
+                    }
+                    return result;
+                });
+        decoders.put(JSONObject.class, (parameters, index) -> parameters.getJSONObject(index));
+        decoders.put(JSONArray.class, (parameters, index) -> parameters.getJSONArray(index));
+        return decoders;
+    }
+
     private static Object buildIntent(JSONObject jsonObject) throws JSONException {
         Intent intent = new Intent();
         if (jsonObject.has("action")) {
@@ -239,15 +603,36 @@ public final class MethodDescriptor {
         return mMethod.getName();
     }
 
-    private Type[] getGenericParameterTypes() {
-        return mMethod.getGenericParameterTypes();
+    public boolean isAsync() {
+        return mIsAsync;
     }
 
-    public boolean isAsync() {
-        return mMethod.isAnnotationPresent(AsyncRpc.class);
+    /** The minimum API level required by the RPC, or 0 if it runs on any API level. */
+    public int getMinSdk() {
+        return mMinSdk;
+    }
+
+    /** Whether the RPC must run on the main app thread. */
+    public boolean isRunOnUiThread() {
+        return mRunOnUiThread;
+    }
+
+    /** The number of items per page of the results of the RPC, or 0 if they are not paged. */
+    public int getPageSize() {
+        return mPaged == null ? 0 : mPaged.pageSize();
+    }
+
+    /** How long the cursor of a paged result is kept without a request for its next page. */
+    public long getCursorTtlMs() {
+        return mPaged == null ? ResultCursors.DEFAULT_TTL_MS : mPaged.ttlMs();
+    }
+
+    /** Returns the counters and phase histograms of this RPC. */
+    public RpcMetrics.MethodMetrics getMetrics() {
+        return mMetrics;
     }
 
-    Class<? extends Snippet> getSnippetClass() {
+    public Class<? extends Snippet> getSnippetClass() {
         return mClass;
     }
 
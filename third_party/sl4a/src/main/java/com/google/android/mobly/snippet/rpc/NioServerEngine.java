@@ -0,0 +1,707 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.rpc;
+
+import com.google.android.mobly.snippet.util.Log;
+import com.google.android.mobly.snippet.util.NamedThreadFactory;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.json.JSONObject;
+
+/**
+ * The {@link SimpleServer.Engine#NIO} engine, built on non-blocking channels and a {@link
+ * Selector}.
+ *
+ * <p>A single selector thread accepts connections, reads their bytes into pooled direct buffers,
+ * splits them into request lines and writes out queued responses. Complete lines are handed to a
+ * fixed pool of worker threads, which decode them and run the handshake. {@link
+ * SimpleServer#handleRPCRequest} runs on a pool that grows with the connections busy with an RPC,
+ * like the threads of the blocking engine, so that long RPCs, e.g. waiting for an event, neither
+ * hold a worker nor delay the handshakes of other connections. The lines of a connection are
+ * handled one at a time and in order, so an idle connection holds no thread at all. The selector
+ * stops reading from a connection whose requests fall behind, so a client cannot queue requests
+ * without bound. Connections that negotiated {@link SessionOptions#isCompressed()} are split into
+ * frames instead. The selector thread only checks their headers against {@link
+ * FrameCodec#MAX_FRAME_LENGTH}, which also bounds request lines; the workers decode them.
+ */
+final class NioServerEngine {
+    private static final int BACKLOG = 50;
+    private static final int WORKER_COUNT =
+            Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_BUFFERS = 4;
+    private static final int INITIAL_LINE_CAPACITY = 256;
+    // A streamed response waits once more than this many bytes of a connection are queued.
+    private static final long MAX_QUEUED_BYTES = 64 * 1024;
+    private static final long DRAIN_WAIT_MS = 100;
+    // Reading from a connection pauses once this many requests, or bytes of them, wait to be
+    // handled, e.g. while pipelined RPCs wait for a free slot. It resumes below half of each.
+    private static final int MAX_QUEUED_REQUESTS = 64;
+    private static final long MAX_QUEUED_REQUEST_BYTES = 1024 * 1024;
+    // How long the selector keeps flushing responses to closing connections after shutdown.
+    private static final long SHUTDOWN_FLUSH_TIMEOUT_MS = 1000;
+
+    private final SimpleServer mServer;
+    private final ExecutorService mWorkers =
+            Executors.newFixedThreadPool(
+                    WORKER_COUNT, new NamedThreadFactory("SimpleServer NIO worker"));
+    // Runs the RPCs of each connection, one thread per connection busy with one.
+    private final ExecutorService mRpcThreads =
+            Executors.newCachedThreadPool(new NamedThreadFactory("SimpleServer NIO RPC"));
+    // Direct buffers are expensive to allocate, so reads share a few of them. Only accessed by the
+    // selector thread.
+    private final ArrayDeque<ByteBuffer> mBufferPool = new ArrayDeque<>();
+    // Connections whose interest set must be updated by the selector thread.
+    private final Queue<Connection> mPendingUpdates = new ConcurrentLinkedQueue<>();
+    private Selector mSelector;
+    private ServerSocketChannel mServerChannel;
+    private Thread mSelectorThread;
+
+    NioServerEngine(SimpleServer server) {
+        mServer = server;
+    }
+
+    void start(InetAddress address, int port) throws IOException {
+        mSelector = Selector.open();
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.configureBlocking(false);
+        mServerChannel.socket().bind(new InetSocketAddress(address, port), BACKLOG);
+        mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+        mSelectorThread =
+                new Thread("SimpleServer NIO selector") {
+                    @Override
+                    public void run() {
+                        runSelector();
+                    }
+                };
+        mSelectorThread.start();
+        Log.v("Bound to " + mServerChannel.socket().getInetAddress());
+    }
+
+    int getPort() {
+        return mServerChannel.socket().getLocalPort();
+    }
+
+    /** Stops accepting connections. Sessions must be closed separately. */
+    void shutdown() {
+        try {
+            mServerChannel.close();
+        } catch (IOException e) {
+            Log.e("Failed to close server socket.", e);
+        }
+        mSelector.wakeup();
+        mWorkers.shutdown();
+        mRpcThreads.shutdown();
+    }
+
+    private void runSelector() {
+        long flushDeadline = 0;
+        while (true) {
+            try {
+                if (mServer.isStopped()) {
+                    if (flushDeadline == 0) {
+                        flushDeadline = System.currentTimeMillis() + SHUTDOWN_FLUSH_TIMEOUT_MS;
+                    }
+                    if (mSelector.keys().isEmpty()
+                            || System.currentTimeMillis() > flushDeadline) {
+                        break;
+                    }
+                    mSelector.select(SHUTDOWN_FLUSH_TIMEOUT_MS);
+                } else {
+                    mSelector.select();
+                }
+                Connection connection;
+                while ((connection = mPendingUpdates.poll()) != null) {
+                    connection.updateInterest();
+                }
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    connection = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        connection.read();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.write();
+                    }
+                }
+            } catch (IOException e) {
+                if (!mServer.isStopped()) {
+                    Log.e("Failed to select connections.", e);
+                }
+            }
+        }
+        for (SelectionKey key : mSelector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                ((Connection) key.attachment()).closeNow();
+            }
+        }
+        try {
+            mSelector.close();
+        } catch (IOException e) {
+            Log.e("Failed to close selector.", e);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = mServerChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        if (mServer.isStopped()) {
+            channel.close();
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(mSelector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = mBufferPool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        if (mBufferPool.size() < MAX_POOLED_BUFFERS) {
+            mBufferPool.push(buffer);
+        }
+    }
+
+    /** A client connection and its session, once the handshake has succeeded. */
+    private final class Connection implements Runnable {
+        private final SocketChannel mChannel;
+        private final SelectionKey mKey;
+        // The line or frame being received, accumulated across reads. Only accessed by the selector
+        // thread.
+        private byte[] mLine = new byte[INITIAL_LINE_CAPACITY];
+        private int mLineLength = 0;
+        // Guarded by this. Complete requests waiting to be decoded, and decoded lines waiting for
+        // their RPC; how many of both there are and their size; whether a worker decodes them and
+        // whether an RPC thread serves them; and whether reading is paused until they catch up.
+        private final ArrayDeque<Request> mRequests = new ArrayDeque<>();
+        private final ArrayDeque<Request> mLines = new ArrayDeque<>();
+        private int mQueuedRequests = 0;
+        private long mRequestBytes = 0;
+        private boolean mDecoding = false;
+        private boolean mServing = false;
+        private boolean mReadPaused = false;
+        private final Queue<ByteBuffer> mOutgoing = new ConcurrentLinkedQueue<>();
+        private final AtomicLong mOutgoingBytes = new AtomicLong();
+        // Held while a response is queued, so that concurrent responses do not interleave.
+        private final ReentrantLock mSendLock = new ReentrantLock();
+        // Notified by the selector thread when the queue drains below MAX_QUEUED_BYTES.
+        private final Object mDrained = new Object();
+        private volatile boolean mCloseRequested = false;
+        private boolean mClosed = false;
+        private NioSession mSession;
+        // Set by the handshake before it is answered, once requests come as frames.
+        private volatile FrameCodec mCodec;
+
+        private Connection(SocketChannel channel, SelectionKey key) {
+            mChannel = channel;
+            mKey = key;
+        }
+
+        /** Reads what is available and dispatches the complete lines. Selector thread only. */
+        private void read() {
+            ByteBuffer buffer = acquireBuffer();
+            try {
+                if (mChannel.read(buffer) < 0) {
+                    closeNow();
+                    return;
+                }
+                buffer.flip();
+                FrameCodec codec = mCodec;
+                if (codec != null) {
+                    readFrames(buffer, codec);
+                    return;
+                }
+                while (buffer.hasRemaining()) {
+                    int start = buffer.position();
+                    int end = start;
+                    while (end < buffer.limit() && buffer.get(end) != '\n') {
+                        end++;
+                    }
+                    if (mLineLength + end - start > FrameCodec.MAX_FRAME_LENGTH) {
+                        throw new IOException(
+                                "Request line exceeds the limit of "
+                                        + FrameCodec.MAX_FRAME_LENGTH
+                                        + " bytes.");
+                    }
+                    appendToLine(buffer, end - start);
+                    if (end == buffer.limit()) {
+                        break;
+                    }
+                    buffer.get(); // Skip the '\n'.
+                    int length = mLineLength;
+                    if (length > 0 && mLine[length - 1] == '\r') {
+                        length--;
+                    }
+                    dispatch(new Request(null, 0, Arrays.copyOf(mLine, length)));
+                    mLineLength = 0;
+                }
+            } catch (IOException e) {
+                if (!mServer.isStopped()) {
+                    Log.e("Failed to read from connection.", e);
+                }
+                closeNow();
+            } finally {
+                releaseBuffer(buffer);
+            }
+        }
+
+        /**
+         * Dispatches the complete frames in {@code buffer}, keeping the start of the last one.
+         *
+         * @throws IOException if a header gives a payload longer than {@link
+         *     FrameCodec#MAX_FRAME_LENGTH}, before any of it is buffered.
+         */
+        private void readFrames(ByteBuffer buffer, FrameCodec codec) throws IOException {
+            while (true) {
+                // The header first, then the payload whose length it gives.
+                int frameLength = FrameCodec.HEADER_LENGTH;
+                int header = 0;
+                if (mLineLength >= FrameCodec.HEADER_LENGTH) {
+                    header = ByteBuffer.wrap(mLine).getInt(0);
+                    frameLength += FrameCodec.payloadLength(header);
+                }
+                if (mLineLength < frameLength) {
+                    if (!buffer.hasRemaining()) {
+                        return;
+                    }
+                    appendToLine(buffer, Math.min(frameLength - mLineLength, buffer.remaining()));
+                    continue;
+                }
+                dispatch(
+                        new Request(
+                                codec,
+                                header,
+                                Arrays.copyOfRange(mLine, FrameCodec.HEADER_LENGTH, mLineLength)));
+                mLineLength = 0;
+            }
+        }
+
+        private void appendToLine(ByteBuffer buffer, int count) {
+            if (mLineLength + count > mLine.length) {
+                mLine = Arrays.copyOf(mLine, Math.max(2 * mLine.length, mLineLength + count));
+            }
+            buffer.get(mLine, mLineLength, count);
+            mLineLength += count;
+        }
+
+        private void dispatch(Request request) {
+            synchronized (this) {
+                mRequests.add(request);
+                mQueuedRequests++;
+                mRequestBytes += request.mBytes.length;
+                if (!mReadPaused
+                        && (mQueuedRequests >= MAX_QUEUED_REQUESTS
+                                || mRequestBytes >= MAX_QUEUED_REQUEST_BYTES)) {
+                    // The rest of the current read is still dispatched, then nothing more.
+                    mReadPaused = true;
+                    if (mKey.isValid()) {
+                        mKey.interestOps(mKey.interestOps() & ~SelectionKey.OP_READ);
+                    }
+                }
+                if (mDecoding) {
+                    return;
+                }
+                mDecoding = true;
+            }
+            try {
+                mWorkers.execute(this::decodeRequests);
+            } catch (RejectedExecutionException e) {
+                closeNow();
+            }
+        }
+
+        /**
+         * Decodes the queued requests of this connection in order, answers the handshake and hands
+         * the other lines to {@link #serveLines()}. Worker threads only.
+         */
+        private void decodeRequests() {
+            while (true) {
+                Request request;
+                synchronized (this) {
+                    request = mRequests.poll();
+                    if (request == null || isClosed()) {
+                        clearRequests();
+                        mDecoding = false;
+                        return;
+                    }
+                }
+                try {
+                    request.mLine = request.decode();
+                    if (mSession == null) {
+                        // Later requests are only decoded once the handshake set the codec.
+                        handled(request);
+                        handshake(request.mLine);
+                        continue;
+                    }
+                } catch (Exception e) {
+                    if (!mServer.isStopped()) {
+                        Log.e("Server error.", e);
+                    }
+                    requestClose();
+                    continue;
+                }
+                synchronized (this) {
+                    mLines.add(request);
+                    if (mServing) {
+                        continue;
+                    }
+                    mServing = true;
+                }
+                try {
+                    mRpcThreads.execute(this);
+                } catch (RejectedExecutionException e) {
+                    requestClose();
+                }
+            }
+        }
+
+        /** Runs the RPCs of the decoded lines of this connection, in order. RPC threads only. */
+        @Override
+        public void run() {
+            while (true) {
+                Request request;
+                synchronized (this) {
+                    request = mLines.poll();
+                    if (request == null || isClosed()) {
+                        clearRequests();
+                        mServing = false;
+                        return;
+                    }
+                }
+                handled(request);
+                try {
+                    mServer.handleRPCRequest(mSession, request.mLine);
+                } catch (Exception e) {
+                    if (!mServer.isStopped()) {
+                        Log.e("Server error.", e);
+                    }
+                    requestClose();
+                }
+            }
+        }
+
+        /** Stops counting a request as queued, resuming reads once few enough are. */
+        private synchronized void handled(Request request) {
+            mQueuedRequests--;
+            mRequestBytes -= request.mBytes.length;
+            if (mReadPaused
+                    && mQueuedRequests < MAX_QUEUED_REQUESTS / 2
+                    && mRequestBytes < MAX_QUEUED_REQUEST_BYTES / 2) {
+                mReadPaused = false;
+                mPendingUpdates.add(this);
+                mSelector.wakeup();
+            }
+        }
+
+        /** Drops the requests of a closed connection. */
+        private synchronized void clearRequests() {
+            if (isClosed()) {
+                mRequests.clear();
+                mLines.clear();
+                mQueuedRequests = 0;
+                mRequestBytes = 0;
+            }
+        }
+
+        private void handshake(String line) throws Exception {
+            Log.v("Received: " + Log.truncate(line));
+            JSONObject request = new JSONObject(line);
+            if (!SimpleServer.isHandshake(request)) {
+                Log.d("Closing non-RPC connection, unsupported by the NIO engine.");
+                requestClose();
+                return;
+            }
+            SessionOptions options = SessionOptions.fromHandshake(request);
+            JSONObject result = new JSONObject();
+            Integer uid = mServer.handshake(request, options, result);
+            NioSession session = uid == null ? null : new NioSession(uid, options, this);
+            if (session != null) {
+                // The client sends frames once it has the answer, so they must be expected first.
+                mCodec = session.getCodec();
+            }
+            // Answer before serving the session, so that no RPC response can precede it.
+            send(result.toString());
+            Log.v("Sent: " + result);
+            if (session == null) {
+                requestClose();
+                return;
+            }
+            synchronized (this) {
+                if (mClosed) {
+                    if (mCodec != null) {
+                        mCodec.end();
+                    }
+                    return;
+                }
+                mSession = session;
+                mServer.registerSession(mSession);
+            }
+        }
+
+        /** Queues a line to be written by the selector thread. Any thread. */
+        private void send(String line) {
+            mSendLock.lock();
+            try {
+                enqueue(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)));
+            } finally {
+                mSendLock.unlock();
+            }
+        }
+
+        private void beginStream() {
+            mSendLock.lock();
+        }
+
+        /**
+         * Queues part of a response, then waits until the client has read enough of the queue.
+         * Worker threads only.
+         */
+        private void writeStream(char[] chars, int offset, int length) throws IOException {
+            enqueue(StandardCharsets.UTF_8.encode(CharBuffer.wrap(chars, offset, length)));
+            awaitDrained();
+        }
+
+        /** Queues raw bytes without copying them, like the text variant. Worker threads only. */
+        private void writeStream(byte[] bytes, int offset, int length) throws IOException {
+            enqueue(ByteBuffer.wrap(bytes, offset, length).slice());
+            awaitDrained();
+        }
+
+        private void awaitDrained() throws IOException {
+            synchronized (mDrained) {
+                while (mOutgoingBytes.get() > MAX_QUEUED_BYTES) {
+                    if (isClosed()) {
+                        throw new IOException("Connection closed while writing a response.");
+                    }
+                    try {
+                        mDrained.wait(DRAIN_WAIT_MS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+        }
+
+        private void endStream(boolean complete) {
+            try {
+                if (!complete) {
+                    requestClose();
+                }
+            } finally {
+                mSendLock.unlock();
+            }
+        }
+
+        private void enqueue(ByteBuffer buffer) {
+            mOutgoingBytes.addAndGet(buffer.remaining());
+            mOutgoing.add(buffer);
+            mPendingUpdates.add(this);
+            mSelector.wakeup();
+        }
+
+        /** Closes the connection once its queued responses are written. Any thread. */
+        private void requestClose() {
+            mCloseRequested = true;
+            mPendingUpdates.add(this);
+            mSelector.wakeup();
+        }
+
+        private boolean isClosed() {
+            return mCloseRequested || !mChannel.isOpen();
+        }
+
+        /** Selector thread only. */
+        private void updateInterest() {
+            if (!mKey.isValid()) {
+                return;
+            }
+            if (mOutgoing.isEmpty() && mCloseRequested) {
+                closeNow();
+                return;
+            }
+            mKey.interestOps(interestOps());
+        }
+
+        /** Returns the operations to wait for. Selector thread only. */
+        private int interestOps() {
+            int ops;
+            synchronized (this) {
+                ops = mReadPaused ? 0 : SelectionKey.OP_READ;
+            }
+            if (!mOutgoing.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            return ops;
+        }
+
+        /** Writes queued responses until the socket buffer is full. Selector thread only. */
+        private void write() {
+            try {
+                ByteBuffer buffer;
+                while ((buffer = mOutgoing.peek()) != null) {
+                    mChannel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        return;
+                    }
+                    mOutgoing.poll();
+                    long queued = mOutgoingBytes.addAndGet(-buffer.limit());
+                    if (queued <= MAX_QUEUED_BYTES && queued + buffer.limit() > MAX_QUEUED_BYTES) {
+                        synchronized (mDrained) {
+                            mDrained.notifyAll();
+                        }
+                    }
+                }
+                mKey.interestOps(interestOps());
+                if (mCloseRequested) {
+                    closeNow();
+                }
+            } catch (IOException e) {
+                if (!mServer.isStopped()) {
+                    Log.e("Failed to write to connection.", e);
+                }
+                closeNow();
+            }
+        }
+
+        private void closeNow() {
+            NioSession session;
+            synchronized (this) {
+                if (mClosed) {
+                    return;
+                }
+                mClosed = true;
+                session = mSession;
+            }
+            mKey.cancel();
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                Log.e(e.getMessage(), e);
+            }
+            synchronized (mDrained) {
+                mDrained.notifyAll();
+            }
+            if (session != null) {
+                mServer.unregisterSession(session);
+            }
+        }
+    }
+
+    /** A request line, or the payload of a frame, as read from a connection. */
+    private static final class Request {
+        // Null for a line.
+        private final FrameCodec mCodec;
+        private final int mHeader;
+        private final byte[] mBytes;
+        // The text of the request, once decoded by a worker.
+        private String mLine;
+
+        private Request(FrameCodec codec, int header, byte[] bytes) {
+            mCodec = codec;
+            mHeader = header;
+            mBytes = bytes;
+        }
+
+        private String decode() throws IOException {
+            if (mCodec == null) {
+                return new String(mBytes, StandardCharsets.UTF_8);
+            }
+            return mCodec.decode(mHeader, mBytes, 0, mBytes.length);
+        }
+    }
+
+    /** Session of a connection served by the NIO engine. */
+    private static final class NioSession extends RpcSession {
+        private final Connection mConnection;
+
+        private NioSession(Integer uid, SessionOptions options, Connection connection) {
+            super(uid, options);
+            mConnection = connection;
+        }
+
+        @Override
+        public void send(String response) {
+            mConnection.send(response);
+        }
+
+        @Override
+        void beginStream() {
+            mConnection.beginStream();
+        }
+
+        @Override
+        void writeStream(char[] chars, int offset, int length) throws IOException {
+            mConnection.writeStream(chars, offset, length);
+        }
+
+        @Override
+        void writeStream(byte[] bytes, int offset, int length) throws IOException {
+            mConnection.writeStream(bytes, offset, length);
+        }
+
+        @Override
+        void endStream(boolean complete) {
+            mConnection.endStream(complete);
+        }
+
+        @Override
+        public void close() {
+            mConnection.requestClose();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return mConnection.isClosed();
+        }
+    }
+}
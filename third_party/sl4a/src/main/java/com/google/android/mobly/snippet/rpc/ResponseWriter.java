@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.rpc;
+
+import com.google.android.mobly.snippet.util.Log;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONException;
+
+/**
+ * Writes one response line to an {@link RpcSession} as it is serialized.
+ *
+ * <p>The text is collected in a per-thread buffer first. A response that fits in the buffer is
+ * sent whole once complete; a larger one takes exclusive use of the connection and is written out
+ * one buffer at a time, so the memory it needs does not depend on its size.
+ *
+ * <p>On a connection that negotiated {@link SessionOptions#isCompressed()}, the text goes to the
+ * {@link FrameCodec} of the session instead, which sends the response as a single frame once it
+ * is complete. A large response still takes exclusive use of the connection while it is
+ * serialized, which the codec relies on.
+ *
+ * <p>While nothing has been written out yet, {@link #mark()} and {@link #reset(int)} let a {@link
+ * JsonResponse} discard what it wrote, e.g. to send an error instead of a result that failed to
+ * serialize.
+ */
+public final class ResponseWriter extends Writer {
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final ThreadLocal<char[]> buffers =
+            new ThreadLocal<char[]>() {
+                @Override
+                protected char[] initialValue() {
+                    return new char[BUFFER_SIZE];
+                }
+            };
+
+    private final RpcSession mSession;
+    private final FrameCodec mCodec;
+    private final char[] mBuffer = buffers.get();
+    // Binary frames to send after the response line, in order.
+    private final List<byte[]> mFrames = new ArrayList<>();
+    private int mCount = 0;
+    private boolean mStreaming = false;
+
+    ResponseWriter(RpcSession session) {
+        mSession = session;
+        mCodec = session.getCodec();
+    }
+
+    /**
+     * Writes {@code response} followed by a line terminator, or as a frame.
+     *
+     * @return the response line if it fit in the buffer and verbose logging is on, for the log, or
+     *     null.
+     */
+    String send(JsonResponse response) throws IOException, JSONException {
+        String line = null;
+        boolean complete = false;
+        try {
+            response.writeTo(this);
+            if (!mStreaming && Log.isLoggable(android.util.Log.VERBOSE)) {
+                line = new String(mBuffer, 0, mCount);
+            }
+            if (mCodec == null) {
+                write('\n');
+            }
+            if (!mStreaming) {
+                beginStream();
+            }
+            writeBuffer(mCount);
+            if (mCodec != null) {
+                mCodec.endFrame(mSession);
+            }
+            for (byte[] frame : mFrames) {
+                byte[] header = ByteBuffer.allocate(4).putInt(frame.length).array();
+                mSession.writeStream(header, 0, header.length);
+                mSession.writeStream(frame, 0, frame.length);
+            }
+            complete = true;
+        } finally {
+            if (mStreaming) {
+                mStreaming = false;
+                mSession.endStream(complete);
+            }
+        }
+        return line;
+    }
+
+    /** The options of the session the response is sent on. */
+    public SessionOptions getOptions() {
+        return mSession.getOptions();
+    }
+
+    /**
+     * Sends {@code payload} as a binary frame following the response line, after the frames
+     * already attached. Only for sessions that negotiated {@link SessionOptions#isBinaryFrames()}.
+     */
+    public void attachFrame(byte[] payload) {
+        mFrames.add(payload);
+    }
+
+    /**
+     * Returns the current position, or -1 if part of the response has already been written out.
+     */
+    public int mark() {
+        return mStreaming ? -1 : mCount;
+    }
+
+    /**
+     * Discards what was written since {@code mark} was taken.
+     *
+     * @return false if that is no longer possible because part of it was written out.
+     */
+    public boolean reset(int mark) {
+        if (mStreaming || mark < 0) {
+            return false;
+        }
+        mCount = mark;
+        return true;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (mCount == mBuffer.length) {
+            flushBuffer();
+        }
+        mBuffer[mCount++] = (char) c;
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (mCount == mBuffer.length) {
+                flushBuffer();
+            }
+            int count = Math.min(length, mBuffer.length - mCount);
+            System.arraycopy(chars, offset, mBuffer, mCount, count);
+            mCount += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void write(String str, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (mCount == mBuffer.length) {
+                flushBuffer();
+            }
+            int count = Math.min(length, mBuffer.length - mCount);
+            str.getChars(offset, offset + count, mBuffer, mCount);
+            mCount += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /** Does nothing: the response is written out when the buffer is full or when it is complete. */
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+
+    private void flushBuffer() throws IOException {
+        if (!mStreaming) {
+            beginStream();
+        }
+        // Keep a surrogate pair together, so that each chunk can be encoded on its own.
+        int count = mCount;
+        if (Character.isHighSurrogate(mBuffer[count - 1])) {
+            count--;
+        }
+        writeBuffer(count);
+    }
+
+    private void beginStream() throws IOException {
+        mSession.beginStream();
+        mStreaming = true;
+        if (mCodec != null) {
+            mCodec.beginFrame();
+        }
+    }
+
+    private void writeBuffer(int count) throws IOException {
+        if (mCodec != null) {
+            mCodec.write(mBuffer, 0, count);
+        } else {
+            mSession.writeStream(mBuffer, 0, count);
+        }
+        System.arraycopy(mBuffer, count, mBuffer, 0, mCount - count);
+        mCount -= count;
+    }
+}
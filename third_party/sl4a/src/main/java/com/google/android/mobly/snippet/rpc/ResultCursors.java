@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.rpc;
+
+import com.google.android.mobly.snippet.util.Log;
+import com.google.android.mobly.snippet.util.NamedThreadFactory;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.BaseStream;
+
+/**
+ * The rest of the RPC results sent a page at a time, each held by a cursor until the client has
+ * fetched all of it.
+ *
+ * <p>A page is {@code {"items": [...], "cursor": <ID>}}, where the cursor is null once the result
+ * is exhausted. Results are not copied: a cursor pulls the items of each page from the iterator of
+ * the result when the page is requested, so {@code Iterator} and {@code Stream} results are
+ * produced lazily.
+ *
+ * <p>A cursor belongs to the session of its RPC. It is released once the result is exhausted, when
+ * the client closes it, when no page was requested for its TTL, or when the last connection of its
+ * session ends.
+ */
+public final class ResultCursors {
+    /** Default time a cursor is kept without a request for its next page. */
+    public static final long DEFAULT_TTL_MS = 60 * 1000;
+
+    private static final ResultCursors sInstance = new ResultCursors();
+
+    private final Map<Integer, Cursor> mCursors = new ConcurrentHashMap<>();
+    private final AtomicInteger mNextId = new AtomicInteger();
+    private final ScheduledThreadPoolExecutor mExpirer;
+
+    private ResultCursors() {
+        mExpirer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("ResultCursors"));
+        // Cursors closed early must not linger in the queue until their expiry.
+        mExpirer.setRemoveOnCancelPolicy(true);
+    }
+
+    public static ResultCursors getInstance() {
+        return sInstance;
+    }
+
+    /** Whether a result holds items that can be sent a page at a time. */
+    public static boolean isPageable(Object result) {
+        return result instanceof Iterable
+                || result instanceof Iterator
+                || result instanceof BaseStream
+                || (result != null && result.getClass().isArray() && !(result instanceof byte[]));
+    }
+
+    /**
+     * Returns the first page of a pageable result, keeping the rest under a new cursor if there is
+     * more.
+     *
+     * @param uid the session the cursor belongs to.
+     */
+    public Map<String, Object> firstPage(Integer uid, Object result, int pageSize, long ttlMs) {
+        Cursor cursor = new Cursor(mNextId.incrementAndGet(), uid, result, pageSize, ttlMs);
+        mCursors.put(cursor.mId, cursor);
+        return cursor.nextPage(pageSize);
+    }
+
+    /**
+     * Returns the next page of a cursor.
+     *
+     * @param pageSize the number of items, or 0 for the page size of the cursor.
+     * @throws RpcError if the session has no such cursor, e.g. because it expired.
+     */
+    public Map<String, Object> nextPage(Integer uid, int cursorId, int pageSize) throws RpcError {
+        Cursor cursor = mCursors.get(cursorId);
+        if (cursor == null || !cursor.mUid.equals(uid)) {
+            throw new RpcError("Unknown cursor " + cursorId + ", it may have expired.");
+        }
+        Map<String, Object> page = cursor.nextPage(pageSize > 0 ? pageSize : cursor.mPageSize);
+        if (page == null) {
+            throw new RpcError("Cursor " + cursorId + " was closed.");
+        }
+        return page;
+    }
+
+    /**
+     * Releases a cursor of a session before its result is exhausted.
+     *
+     * @return false if the session had no such cursor.
+     */
+    public boolean close(Integer uid, int cursorId) {
+        Cursor cursor = mCursors.get(cursorId);
+        if (cursor == null || !cursor.mUid.equals(uid)) {
+            return false;
+        }
+        return cursor.close();
+    }
+
+    /** Releases all cursors of a session. */
+    public void closeAll(Integer uid) {
+        for (Cursor cursor : mCursors.values()) {
+            if (cursor.mUid.equals(uid)) {
+                cursor.close();
+            }
+        }
+    }
+
+    /** Returns the number of open cursors. */
+    public int getCount() {
+        return mCursors.size();
+    }
+
+    private static Iterator<?> iteratorOf(final Object result) {
+        if (result instanceof Iterable) {
+            return ((Iterable<?>) result).iterator();
+        }
+        if (result instanceof Iterator) {
+            return (Iterator<?>) result;
+        }
+        if (result instanceof BaseStream) {
+            return ((BaseStream<?, ?>) result).iterator();
+        }
+        final int length = Array.getLength(result);
+        return new Iterator<Object>() {
+            private int mIndex = 0;
+
+            @Override
+            public boolean hasNext() {
+                return mIndex < length;
+            }
+
+            @Override
+            public Object next() {
+                if (mIndex >= length) {
+                    throw new NoSuchElementException();
+                }
+                return Array.get(result, mIndex++);
+            }
+        };
+    }
+
+    /** The rest of a result, released once exhausted, closed or expired. */
+    private final class Cursor implements Runnable {
+        private final int mId;
+        private final Integer mUid;
+        private final Object mResult;
+        private final Iterator<?> mItems;
+        private final int mPageSize;
+        private final long mTtlNanos;
+        private long mExpiresNanos;
+        private ScheduledFuture<?> mExpiry;
+        private boolean mClosed = false;
+
+        private Cursor(int id, Integer uid, Object result, int pageSize, long ttlMs) {
+            mId = id;
+            mUid = uid;
+            mResult = result;
+            mItems = iteratorOf(result);
+            mPageSize = pageSize;
+            mTtlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        }
+
+        /**
+         * Pulls the next page from the result, and releases the cursor if it is exhausted. Returns
+         * null if the cursor was released since it was looked up.
+         */
+        private synchronized Map<String, Object> nextPage(int pageSize) {
+            if (mClosed) {
+                return null;
+            }
+            List<Object> items = new ArrayList<>(Math.min(pageSize, 1024));
+            boolean more;
+            try {
+                while (items.size() < pageSize && mItems.hasNext()) {
+                    items.add(mItems.next());
+                }
+                more = mItems.hasNext();
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+            Map<String, Object> page = new LinkedHashMap<>();
+            page.put("items", items);
+            if (more) {
+                page.put("cursor", mId);
+                mExpiresNanos = System.nanoTime() + mTtlNanos;
+                if (mExpiry == null) {
+                    mExpiry = mExpirer.schedule(this, mTtlNanos, TimeUnit.NANOSECONDS);
+                }
+            } else {
+                page.put("cursor", null);
+                close();
+            }
+            return page;
+        }
+
+        private synchronized boolean close() {
+            if (mClosed) {
+                return false;
+            }
+            mClosed = true;
+            mCursors.remove(mId, this);
+            if (mExpiry != null) {
+                mExpiry.cancel(false);
+            }
+            if (mResult instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) mResult).close();
+                } catch (Exception e) {
+                    Log.w("Failed to close the result of cursor " + mId + ": " + e);
+                }
+            }
+            return true;
+        }
+
+        /** Releases the cursor if it expired, or checks again when it will. */
+        @Override
+        public synchronized void run() {
+            if (mClosed) {
+                return;
+            }
+            long remaining = mExpiresNanos - System.nanoTime();
+            if (remaining > 0) {
+                mExpiry = mExpirer.schedule(this, remaining, TimeUnit.NANOSECONDS);
+                return;
+            }
+            Log.d("Cursor " + mId + " of session " + mUid + " expired.");
+            close();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.rpc;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Use this annotation to reuse the result of an idempotent {@link Rpc}, e.g. an expensive read.
+ *
+ * <p>The result is kept as JSON text in the {@link RpcResultCache}, per list of parameters sent by
+ * the client, and returned without calling the method again until it expires, is evicted, or is
+ * invalidated by the "invalidateRpcCache" built-in command.
+ *
+ * <p>This annotation is ignored on {@link AsyncRpc} and {@link RpcPaged} methods. A cached result
+ * is sent whole even if the request sets "pageSize", and a {@code byte[]} result is sent inline
+ * even if the session asked for binary frames, see {@link SessionOptions}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@Documented
+public @interface RpcCache {
+    /** How long a result is reused, in milliseconds, or 0 to reuse it until it is evicted. */
+    long ttlMs() default 0;
+
+    /** Maximum number of results kept for the RPC, one per distinct list of parameters. */
+    int maxEntries() default 16;
+}
@@ -18,12 +18,45 @@ package com.google.android.mobly.snippet.rpc;
 
 @SuppressWarnings("serial")
 public class RpcError extends Exception {
+    /** Code of the error of an RPC that did not complete within its deadline. */
+    public static final String CODE_DEADLINE_EXCEEDED = "DEADLINE_EXCEEDED";
+    /** Code of the error of an RPC cancelled by the client with {@code cancelRpc}. */
+    public static final String CODE_CANCELLED = "CANCELLED";
+    /**
+     * Code of the error of an RPC with a deadline that was not run, because every worker for such
+     * RPCs was busy.
+     */
+    public static final String CODE_RESOURCE_EXHAUSTED = "RESOURCE_EXHAUSTED";
+    /** Code of the error of a request whose ID is that of an RPC still in flight in the session. */
+    public static final String CODE_DUPLICATE_ID = "DUPLICATE_ID";
+
+    private final String mCode;
 
     public RpcError(String message) {
         super(message);
+        mCode = null;
     }
 
     public RpcError(String message, Throwable cause) {
         super(message, cause);
+        mCode = null;
+    }
+
+    private RpcError(String code, String message, Throwable cause) {
+        super(message, cause);
+        mCode = code;
+    }
+
+    /**
+     * Returns an error that clients can tell apart by its code, sent in the {@code errorCode} field
+     * of the response.
+     */
+    public static RpcError withCode(String code, String message) {
+        return new RpcError(code, message, null);
+    }
+
+    /** The code sent to the client, or null for errors that have none. */
+    public String getCode() {
+        return mCode;
     }
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.rpc;
+
+import java.lang.reflect.Method;
+
+/**
+ * Index of the RPCs of a snippet class, generated at compile time by the mobly-snippet-processor
+ * annotation processor.
+ *
+ * <p>The index of {@code com.my.app.FooSnippet} is the class {@code
+ * com.my.app.FooSnippet_RpcIndex}. When it exists, {@link MethodDescriptor#collectFrom} looks up
+ * the RPC methods it lists by name and parameter types, instead of scanning all public methods of
+ * the snippet class and their annotations. Snippet classes without an index are scanned.
+ */
+public interface RpcIndex {
+    /** Suffix appended to the binary name of a snippet class to name its index. */
+    String CLASS_NAME_SUFFIX = "_RpcIndex";
+
+    /**
+     * Returns the public methods of the snippet class annotated with {@link Rpc} or {@link
+     * AsyncRpc}, including inherited ones.
+     *
+     * @throws NoSuchMethodException if the snippet class changed since the index was generated.
+     */
+    Method[] getRpcMethods() throws NoSuchMethodException;
+}
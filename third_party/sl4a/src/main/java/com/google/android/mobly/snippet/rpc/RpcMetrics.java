@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.rpc;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Always-on counters and latency histograms of the RPCs served, reported by the {@code metrics}
+ * built-in command.
+ *
+ * <p>Recording takes no lock: counters are atomic, and histograms are arrays of atomic buckets,
+ * one per power of two of microseconds. Percentiles are reported as the upper bound of their
+ * bucket, capped by the maximum, so they are accurate within a factor of two.
+ */
+public final class RpcMetrics {
+    /** The phases of serving an RPC. */
+    public enum Phase {
+        /** Decoding the JSON parameters into the arguments of the method. */
+        DECODE,
+        /** Waiting for the main thread, for RPCs that run on it. */
+        MAIN_THREAD_WAIT,
+        /** Running the method itself. */
+        EXECUTE,
+        /** Serializing the response and writing it to the connection. */
+        ENCODE
+    }
+
+    /** A lock-free histogram of durations. */
+    public static final class Histogram {
+        // Bucket 0 holds durations under 1us; bucket b holds those in [2^(b-1), 2^b) us.
+        private static final int BUCKET_COUNT = 40;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotalMicros = new AtomicLong();
+        private final AtomicLong mMaxMicros = new AtomicLong();
+
+        public void record(long nanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+            int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mTotalMicros.addAndGet(micros);
+            long max;
+            while (micros > (max = mMaxMicros.get()) && !mMaxMicros.compareAndSet(max, micros)) {
+                // Retry until the max is at least this duration.
+            }
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        private void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mTotalMicros.set(0);
+            mMaxMicros.set(0);
+        }
+
+        /** Returns the upper bound of the bucket holding the given fraction of durations. */
+        private long percentileMicros(long[] buckets, long count, double fraction) {
+            long rank = (long) Math.ceil(count * fraction);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (buckets.length - 1);
+        }
+
+        public JSONObject toJson() throws JSONException {
+            long[] buckets = new long[BUCKET_COUNT];
+            long count = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets[i] = mBuckets.get(i);
+                count += buckets[i];
+            }
+            JSONObject json = new JSONObject();
+            json.put("count", count);
+            if (count == 0) {
+                return json;
+            }
+            long max = mMaxMicros.get();
+            json.put("meanUs", mTotalMicros.get() / Math.max(1, mCount.get()));
+            json.put("maxUs", max);
+            json.put("p50Us", Math.min(max, percentileMicros(buckets, count, 0.5)));
+            json.put("p90Us", Math.min(max, percentileMicros(buckets, count, 0.9)));
+            json.put("p99Us", Math.min(max, percentileMicros(buckets, count, 0.99)));
+            return json;
+        }
+    }
+
+    /** The counters and phase histograms of one RPC. */
+    public static final class MethodMetrics {
+        private final AtomicLong mCalls = new AtomicLong();
+        private final AtomicLong mErrors = new AtomicLong();
+        private final AtomicLong mCacheHits = new AtomicLong();
+        private final AtomicLong mCacheMisses = new AtomicLong();
+        private final Histogram[] mPhases = new Histogram[Phase.values().length];
+
+        private MethodMetrics() {
+            for (int i = 0; i < mPhases.length; i++) {
+                mPhases[i] = new Histogram();
+            }
+        }
+
+        /** Counts a call, and whether it threw. */
+        public void recordCall(boolean error) {
+            mCalls.incrementAndGet();
+            if (error) {
+                mErrors.incrementAndGet();
+            }
+        }
+
+        /** Counts a lookup of the result cache, for RPCs annotated with {@link RpcCache}. */
+        public void recordCacheLookup(boolean hit) {
+            (hit ? mCacheHits : mCacheMisses).incrementAndGet();
+        }
+
+        public void record(Phase phase, long nanos) {
+            mPhases[phase.ordinal()].record(nanos);
+        }
+
+        private void reset() {
+            mCalls.set(0);
+            mErrors.set(0);
+            mCacheHits.set(0);
+            mCacheMisses.set(0);
+            for (Histogram histogram : mPhases) {
+                histogram.reset();
+            }
+        }
+
+        private JSONObject toJson(double seconds) throws JSONException {
+            JSONObject json = new JSONObject();
+            long calls = mCalls.get();
+            json.put("calls", calls);
+            json.put("errors", mErrors.get());
+            json.put("callsPerSecond", calls / seconds);
+            if (mCacheHits.get() > 0 || mCacheMisses.get() > 0) {
+                json.put("cacheHits", mCacheHits.get());
+                json.put("cacheMisses", mCacheMisses.get());
+            }
+            JSONObject phases = new JSONObject();
+            for (Phase phase : Phase.values()) {
+                Histogram histogram = mPhases[phase.ordinal()];
+                if (histogram.getCount() > 0) {
+                    phases.put(phase.name().toLowerCase(Locale.ROOT), histogram.toJson());
+                }
+            }
+            json.put("phases", phases);
+            return json;
+        }
+    }
+
+    private static final RpcMetrics sInstance = new RpcMetrics();
+
+    private final Map<String, MethodMetrics> mMethods = new ConcurrentHashMap<>();
+    // Server-wide histograms: parsing request lines, whose RPC is not known yet, and encoding all
+    // responses, including batches and built-in commands.
+    private final Histogram mParse = new Histogram();
+    private final Histogram mEncode = new Histogram();
+    // The main thread dispatcher: time tasks wait in its queue, which includes snippet
+    // construction and shutdown, and the batches they run in, one Looper message each.
+    private final Histogram mMainThreadWait = new Histogram();
+    private final AtomicLong mMainThreadBatches = new AtomicLong();
+    private final AtomicLong mMainThreadTasks = new AtomicLong();
+    // Workers of RPCs with a deadline: those abandoned to RPCs that are still running, which is
+    // not reset, those abandoned since the reset, and RPCs refused because none was free.
+    private final AtomicLong mAbandonedDeadlineWorkers = new AtomicLong();
+    private final AtomicLong mDeadlineWorkersAbandoned = new AtomicLong();
+    private final AtomicLong mDeadlineWorkersRejected = new AtomicLong();
+    private volatile long mResetTimeNanos = System.nanoTime();
+
+    private RpcMetrics() {}
+
+    public static RpcMetrics getInstance() {
+        return sInstance;
+    }
+
+    /** Returns the metrics of the RPC with the given name, creating them if needed. */
+    public MethodMetrics forMethod(String name) {
+        MethodMetrics metrics = mMethods.get(name);
+        if (metrics == null) {
+            metrics = mMethods.computeIfAbsent(name, k -> new MethodMetrics());
+        }
+        return metrics;
+    }
+
+    /** Records the time taken to parse a request line. */
+    public void recordParse(long nanos) {
+        mParse.record(nanos);
+    }
+
+    /**
+     * Records the time taken to serialize and write a response.
+     *
+     * @param method the metrics of the RPC answered, or null for batches, built-in commands and
+     *     unknown RPCs.
+     */
+    public void recordEncode(MethodMetrics method, long nanos) {
+        mEncode.record(nanos);
+        if (method != null) {
+            method.record(Phase.ENCODE, nanos);
+        }
+    }
+
+    /** Records how long a task waited in the queue of the main thread before it started. */
+    public void recordMainThreadWait(long nanos) {
+        mMainThreadWait.record(nanos);
+    }
+
+    /** Records a batch of tasks run by the main thread in a single Looper message. */
+    public void recordMainThreadBatch(int tasks) {
+        mMainThreadBatches.incrementAndGet();
+        mMainThreadTasks.addAndGet(tasks);
+    }
+
+    /** Records a deadline worker left to an RPC that was answered without waiting for it. */
+    public void recordDeadlineWorkerAbandoned() {
+        mAbandonedDeadlineWorkers.incrementAndGet();
+        mDeadlineWorkersAbandoned.incrementAndGet();
+    }
+
+    /** Records that an RPC whose deadline worker was abandoned has returned. */
+    public void recordAbandonedDeadlineWorkerReturned() {
+        mAbandonedDeadlineWorkers.decrementAndGet();
+    }
+
+    /** Records an RPC with a deadline refused because no deadline worker was free. */
+    public void recordDeadlineWorkerRejected() {
+        mDeadlineWorkersRejected.incrementAndGet();
+    }
+
+    /** Clears all counters and histograms. */
+    public void reset() {
+        for (MethodMetrics metrics : mMethods.values()) {
+            metrics.reset();
+        }
+        mParse.reset();
+        mEncode.reset();
+        mMainThreadWait.reset();
+        mMainThreadBatches.set(0);
+        mMainThreadTasks.set(0);
+        mDeadlineWorkersAbandoned.set(0);
+        mDeadlineWorkersRejected.set(0);
+        mResetTimeNanos = System.nanoTime();
+    }
+
+    public JSONObject toJson() throws JSONException {
+        double seconds = Math.max(1e-3, (System.nanoTime() - mResetTimeNanos) / 1e9);
+        JSONObject json = new JSONObject();
+        json.put("seconds", seconds);
+        long calls = 0;
+        JSONObject methods = new JSONObject();
+        // Sorted, so successive reports are easy to compare.
+        for (Map.Entry<String, MethodMetrics> entry : new TreeMap<>(mMethods).entrySet()) {
+            MethodMetrics metrics = entry.getValue();
+            if (metrics.mCalls.get() == 0) {
+                // Reset since it was last called.
+                continue;
+            }
+            calls += metrics.mCalls.get();
+            methods.put(entry.getKey(), metrics.toJson(seconds));
+        }
+        json.put("calls", calls);
+        json.put("callsPerSecond", calls / seconds);
+        json.put("parse", mParse.toJson());
+        json.put("encode", mEncode.toJson());
+        JSONObject mainThread = new JSONObject();
+        mainThread.put("batches", mMainThreadBatches.get());
+        mainThread.put("tasks", mMainThreadTasks.get());
+        mainThread.put("queueWait", mMainThreadWait.toJson());
+        json.put("mainThread", mainThread);
+        JSONObject deadlineWorkers = new JSONObject();
+        deadlineWorkers.put("abandonedRunning", mAbandonedDeadlineWorkers.get());
+        deadlineWorkers.put("abandoned", mDeadlineWorkersAbandoned.get());
+        deadlineWorkers.put("rejected", mDeadlineWorkersRejected.get());
+        json.put("deadlineWorkers", deadlineWorkers);
+        json.put("methods", methods);
+        return json;
+    }
+}
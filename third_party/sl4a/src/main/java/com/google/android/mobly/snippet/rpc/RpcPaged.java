@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.rpc;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Use this annotation to send the result of an RPC returning many items a page at a time.
+ *
+ * <p>A result that is a collection, an array, an {@code Iterable}, an {@code Iterator} or a {@code
+ * Stream} is then answered with its first page, {@code {"items": [...], "cursor": <ID>}}, and the
+ * client fetches the following pages with the "nextPage" built-in command. See {@link
+ * ResultCursors}. A client may also page the result of any RPC by setting "pageSize" in its
+ * request.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@Documented
+public @interface RpcPaged {
+    /** Number of items per page, unless the request asks for another size. */
+    int pageSize() default 100;
+
+    /** How long the rest of the result is kept without a request for its next page. */
+    long ttlMs() default ResultCursors.DEFAULT_TTL_MS;
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.rpc;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The results of the RPCs annotated with {@link RpcCache}, shared by all sessions.
+ *
+ * <p>Results are keyed by RPC name and canonical JSON text of the parameters, in which object
+ * members are sorted by name. The least recently used result of an RPC is evicted when it exceeds
+ * its {@link RpcCache#maxEntries()}, and the least recently used result of all is evicted while
+ * the cache exceeds its byte budget.
+ */
+public final class RpcResultCache {
+    /** Default budget of the cache, in bytes of result text. */
+    public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+    // Rough cost of an entry beyond its text: the entry, its keys and its map nodes.
+    private static final long ENTRY_OVERHEAD_BYTES = 160;
+
+    private static final RpcResultCache sInstance = new RpcResultCache();
+
+    private final Object mLock = new Object();
+    // All results, least recently used first, by "<RPC name>\n<parameters>".
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    // The results of each RPC, least recently used first, by parameters. An RPC keeps its map once
+    // it has one.
+    private final Map<String, LinkedHashMap<String, Entry>> mEntriesByMethod = new HashMap<>();
+    private long mBytes = 0;
+    private long mMaxBytes = DEFAULT_MAX_BYTES;
+
+    private static final class Entry {
+        final String mMethod;
+        final String mParams;
+        final String mKey;
+        final EncodedResult mResult;
+        final long mSizeBytes;
+        // System.nanoTime() after which the result expires, or 0 if it does not.
+        final long mExpiresNanos;
+
+        Entry(String method, String params, EncodedResult result, long ttlMs) {
+            mMethod = method;
+            mParams = params;
+            mKey = method + "\n" + params;
+            mResult = result;
+            mSizeBytes =
+                    result.getSizeBytes()
+                            + 2L * (mKey.length() + params.length())
+                            + ENTRY_OVERHEAD_BYTES;
+            mExpiresNanos =
+                    ttlMs > 0
+                            ? Math.max(1, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMs))
+                            : 0;
+        }
+
+        boolean isExpired(long now) {
+            return mExpiresNanos != 0 && now - mExpiresNanos > 0;
+        }
+    }
+
+    private RpcResultCache() {}
+
+    public static RpcResultCache getInstance() {
+        return sInstance;
+    }
+
+    /** Sets the budget of the cache, in bytes of result text, evicting results to meet it. */
+    public void setMaxBytes(long maxBytes) {
+        synchronized (mLock) {
+            mMaxBytes = maxBytes;
+            evictToBudget();
+        }
+    }
+
+    /** Returns the cached result of an RPC for the given canonical parameters, or null. */
+    EncodedResult get(String method, String params) {
+        synchronized (mLock) {
+            LinkedHashMap<String, Entry> entries = mEntriesByMethod.get(method);
+            Entry entry = entries == null ? null : entries.get(params);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.isExpired(System.nanoTime())) {
+                remove(entry);
+                return null;
+            }
+            // Marks it as the most recently used of all.
+            mEntries.get(entry.mKey);
+            return entry.mResult;
+        }
+    }
+
+    /** Caches the result of an RPC, evicting older results to make room if needed. */
+    void put(String method, String params, EncodedResult result, long ttlMs, int maxEntries) {
+        Entry entry = new Entry(method, params, result, ttlMs);
+        synchronized (mLock) {
+            if (entry.mSizeBytes > mMaxBytes || maxEntries <= 0) {
+                return;
+            }
+            Entry previous = mEntries.get(entry.mKey);
+            if (previous != null) {
+                remove(previous);
+            }
+            LinkedHashMap<String, Entry> entries = mEntriesByMethod.get(method);
+            if (entries == null) {
+                entries = new LinkedHashMap<>(16, 0.75f, true);
+                mEntriesByMethod.put(method, entries);
+            }
+            while (entries.size() >= maxEntries) {
+                remove(entries.values().iterator().next());
+            }
+            entries.put(params, entry);
+            mEntries.put(entry.mKey, entry);
+            mBytes += entry.mSizeBytes;
+            evictToBudget();
+        }
+    }
+
+    /**
+     * Drops the cached results of an RPC, or of all RPCs if {@code method} is null.
+     *
+     * @return the number of results dropped.
+     */
+    public int invalidate(String method) {
+        synchronized (mLock) {
+            List<Entry> dropped = new ArrayList<>();
+            if (method == null) {
+                dropped.addAll(mEntries.values());
+            } else if (mEntriesByMethod.containsKey(method)) {
+                dropped.addAll(mEntriesByMethod.get(method).values());
+            }
+            for (Entry entry : dropped) {
+                remove(entry);
+            }
+            return dropped.size();
+        }
+    }
+
+    public JSONObject toJson() throws JSONException {
+        synchronized (mLock) {
+            JSONObject json = new JSONObject();
+            json.put("entries", mEntries.size());
+            json.put("bytes", mBytes);
+            json.put("maxBytes", mMaxBytes);
+            return json;
+        }
+    }
+
+    private void evictToBudget() {
+        Iterator<Entry> leastRecentlyUsed = mEntries.values().iterator();
+        while (mBytes > mMaxBytes && leastRecentlyUsed.hasNext()) {
+            Entry entry = leastRecentlyUsed.next();
+            leastRecentlyUsed.remove();
+            removeFromMethod(entry);
+        }
+    }
+
+    private void remove(Entry entry) {
+        mEntries.remove(entry.mKey);
+        removeFromMethod(entry);
+    }
+
+    private void removeFromMethod(Entry entry) {
+        mBytes -= entry.mSizeBytes;
+        mEntriesByMethod.get(entry.mMethod).remove(entry.mParams);
+    }
+
+    /**
+     * Returns the JSON text of the parameters with the members of objects sorted by name, so that
+     * parameters that only differ in the order of their members have the same key.
+     */
+    static String canonicalize(JSONArray params) throws JSONException {
+        StringWriter out = new StringWriter();
+        try {
+            writeCanonical(params, out);
+        } catch (IOException e) {
+            // StringWriter does not throw.
+            throw new AssertionError(e);
+        }
+        return out.toString();
+    }
+
+    private static void writeCanonical(Object value, Writer out)
+            throws IOException, JSONException {
+        if (value == null || value == JSONObject.NULL) {
+            out.write("null");
+        } else if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            List<String> names = new ArrayList<>();
+            for (Iterator<String> keys = object.keys(); keys.hasNext(); ) {
+                names.add(keys.next());
+            }
+            Collections.sort(names);
+            out.write('{');
+            for (int i = 0; i < names.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                JsonBuilder.writeString(names.get(i), out);
+                out.write(':');
+                writeCanonical(object.opt(names.get(i)), out);
+            }
+            out.write('}');
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            out.write('[');
+            for (int i = 0; i < array.length(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeCanonical(array.opt(i), out);
+            }
+            out.write(']');
+        } else if (value instanceof Number) {
+            out.write(JSONObject.numberToString((Number) value));
+        } else if (value instanceof Boolean) {
+            out.write(value.toString());
+        } else {
+            JsonBuilder.writeString(value.toString(), out);
+        }
+    }
+}
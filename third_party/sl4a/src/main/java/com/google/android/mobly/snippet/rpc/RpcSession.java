@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.rpc;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import org.json.JSONException;
+
+/**
+ * The server end of a client connection to an RPC session, as seen by the request handler.
+ *
+ * <p>Each server engine provides its own implementation. Request lines received on the connection
+ * are passed to {@link SimpleServer#handleRPCRequest} one at a time and in order; responses may be
+ * sent from any thread.
+ */
+public abstract class RpcSession {
+    private final Integer mUid;
+    private final SessionOptions mOptions;
+    private final Semaphore mInFlight;
+    private final FrameCodec mCodec;
+
+    protected RpcSession(Integer uid, SessionOptions options) {
+        mUid = uid;
+        mOptions = options;
+        mInFlight = new Semaphore(options.getMaxInFlight());
+        mCodec =
+                options.isCompressed() ? new FrameCodec(options.getCompressionThreshold()) : null;
+    }
+
+    /** Globally unique ID of the session this connection belongs to. */
+    public Integer getUid() {
+        return mUid;
+    }
+
+    /** The options negotiated in the handshake of this connection. */
+    public SessionOptions getOptions() {
+        return mOptions;
+    }
+
+    /** Permits held by the requests of a pipelined session while they execute. */
+    Semaphore getInFlight() {
+        return mInFlight;
+    }
+
+    /**
+     * The frames of this connection, or null if its messages are newline-terminated lines.
+     *
+     * @see SessionOptions#isCompressed()
+     */
+    FrameCodec getCodec() {
+        return mCodec;
+    }
+
+    /**
+     * Sends one response line to the client.
+     *
+     * <p>Safe to call from several threads at once; each response is written whole. Sessions that
+     * negotiated {@link SessionOptions#isCompressed()} only take {@link #send(JsonResponse)}.
+     */
+    public abstract void send(String response);
+
+    /**
+     * Sends one response line, serialized by {@code response} straight into the connection.
+     *
+     * <p>Small responses are sent whole once serialized. Larger ones are written out as they are
+     * serialized, holding up the other responses of the connection until they are complete. Safe
+     * to call from several threads at once.
+     *
+     * @return the response line if it was small enough to be sent whole and verbose logging is on,
+     *     or null.
+     * @throws IOException if the connection failed while the response was written out.
+     * @throws JSONException if the response failed to serialize. If part of it was already
+     *     written out, the connection is closed.
+     */
+    public String send(JsonResponse response) throws IOException, JSONException {
+        return new ResponseWriter(this).send(response);
+    }
+
+    /**
+     * Takes exclusive use of the connection to write a response, waiting for the responses being
+     * written by other threads.
+     */
+    abstract void beginStream();
+
+    /** Writes part of a response. May block until the client has read earlier parts. */
+    abstract void writeStream(char[] chars, int offset, int length) throws IOException;
+
+    /** Writes raw bytes following a response line. May block like the text variant. */
+    abstract void writeStream(byte[] bytes, int offset, int length) throws IOException;
+
+    /**
+     * Releases the connection taken by {@link #beginStream()}.
+     *
+     * @param complete whether the whole response line was written. If not, the client cannot make
+     *     sense of what follows, so the connection is closed.
+     */
+    abstract void endStream(boolean complete);
+
+    /**
+     * Closes the connection once the responses already sent have been written out. Requests
+     * received afterwards are dropped.
+     */
+    public abstract void close();
+
+    /** Whether {@link #close()} has been called or the client has gone away. */
+    public abstract boolean isClosed();
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.rpc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Where a {@link SimpleServer} listens for connections, and how it accepts them.
+ *
+ * <p>The server only deals with the byte streams of the connections, so the same protocol is
+ * served over TCP ({@link TcpTransport}), an abstract-namespace Unix domain socket ({@link
+ * LocalSocketTransport}) or in memory ({@link InMemoryTransport}).
+ *
+ * @see SimpleServer#start(ServerTransport)
+ */
+public interface ServerTransport extends Closeable {
+    /**
+     * Waits for the next connection.
+     *
+     * @throws IOException if the transport failed or was closed.
+     */
+    Connection accept() throws IOException;
+
+    /**
+     * Describes where clients connect, as reported in the {@code SNIPPET SERVING} line, e.g. {@code
+     * "PORT 8080"}.
+     */
+    String getEndpoint();
+
+    /** Stops listening, making a pending {@link #accept()} fail. Open connections stay open. */
+    @Override
+    void close() throws IOException;
+
+    /** A connection accepted by a transport. */
+    interface Connection extends Closeable {
+        InputStream getInputStream() throws IOException;
+
+        OutputStream getOutputStream() throws IOException;
+    }
+}
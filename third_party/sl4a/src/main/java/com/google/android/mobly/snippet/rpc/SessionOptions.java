@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.rpc;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Per-session options negotiated by the client in the {@code initiate}/{@code continue} handshake.
+ *
+ * <p>All options are optional and default to the behavior of clients that predate them, so a
+ * handshake without any of these fields gets the classic one-request-at-a-time session.
+ *
+ * <p>Sample handshake enabling pipelined execution:
+ *
+ * <pre>{@code
+ * {"cmd": "initiate", "uid": -1, "pipeline": true, "maxInFlight": 8}
+ * }</pre>
+ *
+ * The options actually granted by the server are echoed back in the handshake response.
+ *
+ * <p>Batches, i.e. request lines holding a JSON array of request objects, are always accepted.
+ * {@code "batchParallel": true} runs the entries of a batch concurrently instead of one after
+ * another, and {@code "batchStopOnError": true} skips the entries that have not started yet once
+ * one of them fails.
+ *
+ * <p>{@code "byteEncoding": "base64"} sends {@code byte[]} results as base64 strings instead of
+ * arrays of numbers. {@code byte[]} parameters accept a base64 string in every session.
+ *
+ * <p>{@code "binaryFrames": true} sends a {@code byte[]} result of at least {@link
+ * JsonRpcResult#BINARY_FRAME_MIN_LENGTH} bytes out of line. Its response has a null {@code
+ * "result"} and {@code "binaryFrame": true}, and the line is immediately followed by a frame: the
+ * length of the payload as a 4-byte big-endian integer, then the raw bytes. The next response
+ * line starts right after the frame. The responses of a batch carry their frames after the batch
+ * line, in order. Results cached by {@link RpcCache} are already JSON text, and always sent inline.
+ *
+ * <p>{@code "compression": "deflate"} switches the connection to length-prefixed frames once the
+ * handshake response line has been received, in both directions: see {@link FrameCodec} for their
+ * format. A message of at least {@code "compressionThreshold"} bytes, {@link
+ * #DEFAULT_COMPRESSION_THRESHOLD} unless the client says, is compressed. The client must wait for
+ * the handshake response before sending its first frame, and binary frames follow the frame of
+ * their response as they follow its line otherwise.
+ */
+public final class SessionOptions {
+    private static final String KEY_PIPELINE = "pipeline";
+    private static final String KEY_MAX_IN_FLIGHT = "maxInFlight";
+    private static final String KEY_BATCH_PARALLEL = "batchParallel";
+    private static final String KEY_BATCH_STOP_ON_ERROR = "batchStopOnError";
+    private static final String KEY_BYTE_ENCODING = "byteEncoding";
+    private static final String KEY_BINARY_FRAMES = "binaryFrames";
+    private static final String KEY_COMPRESSION = "compression";
+    private static final String KEY_COMPRESSION_THRESHOLD = "compressionThreshold";
+
+    /** Value of {@code byteEncoding} sending byte arrays as arrays of numbers, the default. */
+    public static final String BYTE_ENCODING_ARRAY = "array";
+    /** Value of {@code byteEncoding} sending byte arrays as base64 strings. */
+    public static final String BYTE_ENCODING_BASE64 = "base64";
+    /** Value of {@code compression} sending newline-terminated messages, the default. */
+    public static final String COMPRESSION_NONE = "none";
+    /** Value of {@code compression} sending deflate-compressed frames. */
+    public static final String COMPRESSION_DEFLATE = "deflate";
+
+    /** Size in bytes from which messages are compressed if the client doesn't say. */
+    static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    /** Number of in-flight requests allowed per pipelined session if the client doesn't say. */
+    static final int DEFAULT_MAX_IN_FLIGHT = 16;
+    /** Upper bound on in-flight requests per pipelined session, whatever the client asks for. */
+    static final int MAX_IN_FLIGHT_LIMIT = 64;
+
+    private static final SessionOptions DEFAULT =
+            new SessionOptions(false, 1, false, false, false, false, -1);
+
+    private final boolean mPipelined;
+    private final int mMaxInFlight;
+    private final boolean mBatchParallel;
+    private final boolean mBatchStopOnError;
+    private final boolean mBase64Bytes;
+    private final boolean mBinaryFrames;
+    // Negative if messages are not compressed.
+    private final int mCompressionThreshold;
+
+    private SessionOptions(
+            boolean pipelined,
+            int maxInFlight,
+            boolean batchParallel,
+            boolean batchStopOnError,
+            boolean base64Bytes,
+            boolean binaryFrames,
+            int compressionThreshold) {
+        mPipelined = pipelined;
+        mMaxInFlight = maxInFlight;
+        mBatchParallel = batchParallel;
+        mBatchStopOnError = batchStopOnError;
+        mBase64Bytes = base64Bytes;
+        mBinaryFrames = binaryFrames;
+        mCompressionThreshold = compressionThreshold;
+    }
+
+    /** Returns the options of a session whose client did not negotiate anything. */
+    public static SessionOptions getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Parses the options out of a handshake request.
+     *
+     * @param request the {@code initiate} or {@code continue} command sent by the client.
+     */
+    public static SessionOptions fromHandshake(JSONObject request) {
+        boolean pipelined = request.optBoolean(KEY_PIPELINE, false);
+        boolean batchParallel = request.optBoolean(KEY_BATCH_PARALLEL, false);
+        boolean batchStopOnError = request.optBoolean(KEY_BATCH_STOP_ON_ERROR, false);
+        boolean base64Bytes =
+                BYTE_ENCODING_BASE64.equals(
+                        request.optString(KEY_BYTE_ENCODING, BYTE_ENCODING_ARRAY));
+        boolean binaryFrames = request.optBoolean(KEY_BINARY_FRAMES, false);
+        int compressionThreshold = -1;
+        if (COMPRESSION_DEFLATE.equals(request.optString(KEY_COMPRESSION, COMPRESSION_NONE))) {
+            compressionThreshold =
+                    Math.max(
+                            0,
+                            request.optInt(
+                                    KEY_COMPRESSION_THRESHOLD, DEFAULT_COMPRESSION_THRESHOLD));
+        }
+        if (!pipelined
+                && !batchParallel
+                && !batchStopOnError
+                && !base64Bytes
+                && !binaryFrames
+                && compressionThreshold < 0) {
+            return DEFAULT;
+        }
+        int maxInFlight = 1;
+        if (pipelined) {
+            maxInFlight = request.optInt(KEY_MAX_IN_FLIGHT, DEFAULT_MAX_IN_FLIGHT);
+            maxInFlight = Math.max(1, Math.min(maxInFlight, MAX_IN_FLIGHT_LIMIT));
+        }
+        return new SessionOptions(
+                pipelined,
+                maxInFlight,
+                batchParallel,
+                batchStopOnError,
+                base64Bytes,
+                binaryFrames,
+                compressionThreshold);
+    }
+
+    /**
+     * Whether requests of this session may execute concurrently and be answered out of order.
+     *
+     * <p>Clients of a pipelined session must match responses to requests by their {@code id}.
+     */
+    public boolean isPipelined() {
+        return mPipelined;
+    }
+
+    /** Maximum number of requests of this session that may be executing at the same time. */
+    public int getMaxInFlight() {
+        return mMaxInFlight;
+    }
+
+    /** Whether the entries of a batch run concurrently rather than in order. */
+    public boolean isBatchParallel() {
+        return mBatchParallel;
+    }
+
+    /** Whether entries of a batch are skipped once an earlier entry has failed. */
+    public boolean isBatchStopOnError() {
+        return mBatchStopOnError;
+    }
+
+    /** Whether byte arrays in results are sent as base64 strings rather than arrays of numbers. */
+    public boolean isBase64Bytes() {
+        return mBase64Bytes;
+    }
+
+    /** Whether large byte array results are sent as binary frames after their response line. */
+    public boolean isBinaryFrames() {
+        return mBinaryFrames;
+    }
+
+    /** Whether messages are sent as frames, compressed from the threshold on. */
+    public boolean isCompressed() {
+        return mCompressionThreshold >= 0;
+    }
+
+    /** Size in bytes of the UTF-8 text of a message from which it is compressed. */
+    public int getCompressionThreshold() {
+        return mCompressionThreshold;
+    }
+
+    /** Adds the granted options to the handshake response sent back to the client. */
+    void putTo(JSONObject response) throws JSONException {
+        response.put(KEY_PIPELINE, mPipelined);
+        if (mPipelined) {
+            response.put(KEY_MAX_IN_FLIGHT, mMaxInFlight);
+        }
+        response.put(KEY_BATCH_PARALLEL, mBatchParallel);
+        response.put(KEY_BATCH_STOP_ON_ERROR, mBatchStopOnError);
+        response.put(KEY_BYTE_ENCODING, mBase64Bytes ? BYTE_ENCODING_BASE64 : BYTE_ENCODING_ARRAY);
+        response.put(KEY_BINARY_FRAMES, mBinaryFrames);
+        response.put(KEY_COMPRESSION, isCompressed() ? COMPRESSION_DEFLATE : COMPRESSION_NONE);
+        if (isCompressed()) {
+            response.put(KEY_COMPRESSION_THRESHOLD, mCompressionThreshold);
+        }
+    }
+}
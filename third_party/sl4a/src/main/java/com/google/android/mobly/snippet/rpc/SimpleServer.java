@@ -17,34 +17,49 @@
 package com.google.android.mobly.snippet.rpc;
 
 import com.google.android.mobly.snippet.util.Log;
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
-import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-/** A simple server. */
+/**
+ * A simple server.
+ *
+ * <p>The protocol is served over a {@link ServerTransport}: a TCP port by default, see {@link
+ * #startLocal(int, Engine)}, or any transport given to {@link #start(ServerTransport)}.
+ */
 public abstract class SimpleServer {
-    private static int threadIndex = 0;
-    private final ConcurrentHashMap<Integer, ConnectionThread> mConnectionThreads =
+    private static final AtomicInteger threadIndex = new AtomicInteger(0);
+    // The open connections of each session, by UID. A client may join a session with "continue"
+    // while its first connection is still open, e.g. for a connection dedicated to pushed events.
+    private final ConcurrentHashMap<Integer, Set<RpcSession>> mSessions =
             new ConcurrentHashMap<>();
-    private final List<SimpleServerObserver> mObservers = new ArrayList<>();
+    // Notified from the connection threads of the blocking engine and from the worker threads of
+    // the NIO engine.
+    private final List<SimpleServerObserver> mObservers = new CopyOnWriteArrayList<>();
     private volatile boolean mStopServer = false;
-    private ServerSocket mServer;
+    private ServerTransport mTransport;
     private Thread mServerThread;
+    private NioServerEngine mNioEngine;
 
     public interface SimpleServerObserver {
         void onConnect();
@@ -52,10 +67,34 @@ public abstract class SimpleServer {
         void onDisconnect();
     }
 
+    /** How the server accepts connections and reads their requests. */
+    public enum Engine {
+        /**
+         * One thread per connection, blocked on reading the next request. The default, and the
+         * only engine serving transports other than TCP.
+         */
+        BLOCKING,
+        /**
+         * A single selector thread reads all connections without blocking and hands complete
+         * request lines to a fixed pool of worker threads. RPCs run on threads of their own, so
+         * that only connections busy with an RPC hold a thread.
+         */
+        NIO
+    }
+
+    /** Handles a TCP connection whose first line is not an RPC session handshake. */
     protected abstract void handleConnection(Socket socket) throws Exception;
 
-    protected abstract void handleRPCConnection(
-            Socket socket, Integer UID, BufferedReader reader, PrintWriter writer) throws Exception;
+    /**
+     * Handles one request line received on an RPC session.
+     *
+     * <p>Requests of a connection are handled one at a time and in the order they were received.
+     * Throwing closes the connection.
+     *
+     * @param session the connection the request was received on, used to send responses.
+     * @param request the request line, without its line terminator.
+     */
+    protected abstract void handleRPCRequest(RpcSession session, String request) throws Exception;
 
     /** Adds an observer. */
     public void addObserver(SimpleServerObserver observer) {
@@ -79,24 +118,100 @@ public abstract class SimpleServer {
         }
     }
 
+    /** Session of a connection served by the blocking engine. */
+    private static final class StreamSession extends RpcSession {
+        private final ServerTransport.Connection mConnection;
+        private final PrintWriter mWriter;
+        // Held while a response is written, so that concurrent responses do not interleave.
+        private final ReentrantLock mWriteLock = new ReentrantLock();
+        private volatile boolean mClosed = false;
+
+        private StreamSession(
+                Integer uid,
+                SessionOptions options,
+                ServerTransport.Connection connection,
+                PrintWriter writer) {
+            super(uid, options);
+            mConnection = connection;
+            mWriter = writer;
+        }
+
+        @Override
+        public void send(String response) {
+            mWriteLock.lock();
+            try {
+                mWriter.write(response + "\n");
+                mWriter.flush();
+            } finally {
+                mWriteLock.unlock();
+            }
+        }
+
+        @Override
+        void beginStream() {
+            mWriteLock.lock();
+        }
+
+        @Override
+        void writeStream(char[] chars, int offset, int length) throws IOException {
+            mWriter.write(chars, offset, length);
+            // Flushes, so a response also stops being serialized if the client has gone away.
+            if (mWriter.checkError()) {
+                throw new IOException("Failed to write to the connection.");
+            }
+        }
+
+        @Override
+        void writeStream(byte[] bytes, int offset, int length) throws IOException {
+            mWriter.flush();
+            OutputStream out = mConnection.getOutputStream();
+            out.write(bytes, offset, length);
+            out.flush();
+        }
+
+        @Override
+        void endStream(boolean complete) {
+            try {
+                if (!complete) {
+                    close();
+                }
+            } finally {
+                mWriteLock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            mClosed = true;
+            try {
+                mConnection.close();
+            } catch (IOException e) {
+                Log.e(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public boolean isClosed() {
+            return mClosed;
+        }
+    }
+
     private final class ConnectionThread extends Thread {
-        private final Socket mmSocket;
+        private final ServerTransport.Connection mmConnection;
         private final BufferedReader reader;
-        private final PrintWriter writer;
-        private final Integer UID;
+        private final StreamSession session;
         private final boolean isRpc;
+        private DataInputStream frames;
 
         private ConnectionThread(
-                Socket socket,
+                ServerTransport.Connection connection,
                 boolean rpc,
-                Integer uid,
                 BufferedReader reader,
-                PrintWriter writer) {
+                StreamSession session) {
             setName("SimpleServer ConnectionThread " + getId());
-            mmSocket = socket;
-            this.UID = uid;
+            mmConnection = connection;
             this.reader = reader;
-            this.writer = writer;
+            this.session = session;
             this.isRpc = rpc;
         }
 
@@ -106,31 +221,39 @@ public abstract class SimpleServer {
             try {
                 if (isRpc) {
                     Log.d("Handling RPC connection in " + getId());
-                    handleRPCConnection(mmSocket, UID, reader, writer);
+                    Log.d("UID " + session.getUid());
+                    String data;
+                    while (!session.isClosed() && (data = readRequest()) != null) {
+                        handleRPCRequest(session, data);
+                    }
                 } else {
                     Log.d("Handling Non-RPC connection in " + getId());
-                    handleConnection(mmSocket);
+                    handleConnection(((TcpTransport.TcpConnection) mmConnection).getSocket());
                 }
             } catch (Exception e) {
                 if (!mStopServer) {
                     Log.e("Server error.", e);
                 }
             } finally {
-                close();
-                mConnectionThreads.remove(this.UID);
-                notifyOnDisconnect();
+                session.close();
+                unregisterSession(session);
                 Log.v("Server thread " + getId() + " stopped.");
             }
         }
 
-        private void close() {
-            if (mmSocket != null) {
-                try {
-                    mmSocket.close();
-                } catch (IOException e) {
-                    Log.e(e.getMessage(), e);
-                }
+        /** Reads the next request line or frame, or returns null once the client has gone away. */
+        private String readRequest() throws IOException {
+            FrameCodec codec = session.getCodec();
+            if (codec == null) {
+                return reader.readLine();
+            }
+            if (frames == null) {
+                // Frames start right after the handshake line, which the client waits for the
+                // answer to, so the reader has not buffered any of them.
+                frames =
+                        new DataInputStream(new BufferedInputStream(mmConnection.getInputStream()));
             }
+            return codec.readFrame(frames);
         }
     }
 
@@ -167,13 +290,51 @@ public abstract class SimpleServer {
      * @throws IOException
      */
     public void startLocal(int port) throws IOException {
+        startLocal(port, Engine.BLOCKING);
+    }
+
+    /**
+     * Starts the RPC server bound to the localhost address.
+     *
+     * @param port the port to bind to or 0 to pick any unused port
+     * @param engine how to accept connections and read their requests
+     * @throws IOException
+     */
+    public void startLocal(int port, Engine engine) throws IOException {
         InetAddress address = getPrivateInetAddress();
-        mServer = new ServerSocket(port, 5 /* backlog */, address);
+        if (engine == Engine.NIO) {
+            mNioEngine = new NioServerEngine(this);
+            mNioEngine.start(address, port);
+            return;
+        }
+        start(new TcpTransport(address, port));
+    }
+
+    /**
+     * Starts the RPC server on the given transport, with the {@link Engine#BLOCKING} engine.
+     *
+     * @param transport the transport to accept connections from, which the server closes on
+     *     {@link #shutdown()}.
+     */
+    public void start(ServerTransport transport) {
+        mTransport = transport;
         start();
     }
 
+    /** Returns the TCP port the server listens on, or -1 if it does not listen on TCP. */
     public int getPort() {
-        return mServer.getLocalPort();
+        if (mNioEngine != null) {
+            return mNioEngine.getPort();
+        }
+        return mTransport instanceof TcpTransport ? ((TcpTransport) mTransport).getPort() : -1;
+    }
+
+    /** Describes where clients connect, e.g. {@code "PORT 8080"}. */
+    public String getEndpoint() {
+        if (mNioEngine != null) {
+            return "PORT " + mNioEngine.getPort();
+        }
+        return mTransport.getEndpoint();
     }
 
     private void start() {
@@ -183,11 +344,11 @@ public abstract class SimpleServer {
                     public void run() {
                         while (!mStopServer) {
                             try {
-                                Socket sock = mServer.accept();
+                                ServerTransport.Connection connection = mTransport.accept();
                                 if (!mStopServer) {
-                                    startConnectionThread(sock);
+                                    startConnectionThread(connection);
                                 } else {
-                                    sock.close();
+                                    connection.close();
                                 }
                             } catch (IOException e) {
                                 if (!mStopServer) {
@@ -202,84 +363,165 @@ public abstract class SimpleServer {
                     }
                 };
         mServerThread.start();
-        Log.v("Bound to " + mServer.getInetAddress());
+        Log.v("Bound to " + mTransport);
     }
 
-    private void startConnectionThread(final Socket sock) throws IOException, JSONException {
+    private void startConnectionThread(final ServerTransport.Connection connection)
+            throws IOException, JSONException {
         BufferedReader reader =
-                new BufferedReader(new InputStreamReader(sock.getInputStream()), 8192);
-        PrintWriter writer = new PrintWriter(sock.getOutputStream(), true);
+                new BufferedReader(new InputStreamReader(connection.getInputStream()), 8192);
+        PrintWriter writer = new PrintWriter(connection.getOutputStream(), true);
         String data;
         if ((data = reader.readLine()) != null) {
-            Log.v("Received: " + data);
+            Log.v("Received: " + Log.truncate(data));
             JSONObject request = new JSONObject(data);
-            if (request.has("cmd") && request.has("uid")) {
-                String cmd = request.getString("cmd");
-                int uid = request.getInt("uid");
+            if (isHandshake(request)) {
+                SessionOptions options = SessionOptions.fromHandshake(request);
                 JSONObject result = new JSONObject();
-                if (cmd.equals("initiate")) {
-                    Log.d("Initiate a new session");
-                    threadIndex += 1;
-                    int mUID = threadIndex;
-                    ConnectionThread networkThread =
-                            new ConnectionThread(sock, true, mUID, reader, writer);
-                    mConnectionThreads.put(mUID, networkThread);
-                    networkThread.start();
-                    notifyOnConnect();
-                    result.put("uid", mUID);
-                    result.put("status", true);
-                    result.put("error", null);
-                } else if (cmd.equals("continue")) {
-                    Log.d("Continue an existing session");
-                    Log.d("keys: " + mConnectionThreads.keySet().toString());
-                    if (!mConnectionThreads.containsKey(uid)) {
-                        result.put("uid", uid);
-                        result.put("status", false);
-                        result.put("error", "Session does not exist.");
-                    } else {
-                        ConnectionThread networkThread =
-                                new ConnectionThread(sock, true, uid, reader, writer);
-                        mConnectionThreads.put(uid, networkThread);
-                        networkThread.start();
-                        notifyOnConnect();
-                        result.put("uid", uid);
-                        result.put("status", true);
-                        result.put("error", null);
-                    }
-                } else {
-                    result.put("uid", uid);
-                    result.put("status", false);
-                    result.put("error", "Unrecognized command.");
+                Integer uid = handshake(request, options, result);
+                StreamSession session = null;
+                if (uid != null) {
+                    session = new StreamSession(uid, options, connection, writer);
+                    registerSession(session);
                 }
+                // Answer before serving the session, so that no RPC response can precede it.
                 writer.write(result + "\n");
                 writer.flush();
                 Log.v("Sent: " + result);
+                if (session != null) {
+                    new ConnectionThread(connection, true, reader, session).start();
+                } else {
+                    connection.close();
+                }
+            } else if (connection instanceof TcpTransport.TcpConnection) {
+                StreamSession session =
+                        new StreamSession(0, SessionOptions.getDefault(), connection, writer);
+                registerSession(session);
+                new ConnectionThread(connection, false, reader, session).start();
             } else {
-                ConnectionThread networkThread =
-                        new ConnectionThread(sock, false, 0, reader, writer);
-                mConnectionThreads.put(0, networkThread);
-                networkThread.start();
-                notifyOnConnect();
+                Log.d("Closing non-RPC connection, only supported over TCP.");
+                connection.close();
             }
         }
     }
 
+    /** Whether the first line received on a connection is an RPC session handshake. */
+    static boolean isHandshake(JSONObject request) {
+        return request.has("cmd") && request.has("uid");
+    }
+
+    /**
+     * Processes the {@code initiate}/{@code continue} handshake of a new connection.
+     *
+     * @param request the handshake line sent by the client
+     * @param options the session options parsed from the handshake
+     * @param result receives the handshake response to send back to the client
+     * @return the UID of the session the connection joins, or null if the handshake was refused
+     */
+    Integer handshake(JSONObject request, SessionOptions options, JSONObject result)
+            throws JSONException {
+        String cmd = request.getString("cmd");
+        int uid = request.getInt("uid");
+        if (cmd.equals("initiate")) {
+            Log.d("Initiate a new session");
+            int mUID = threadIndex.incrementAndGet();
+            result.put("uid", mUID);
+            result.put("status", true);
+            result.put("error", null);
+            options.putTo(result);
+            return mUID;
+        } else if (cmd.equals("continue")) {
+            Log.d("Continue an existing session");
+            Log.d("keys: " + mSessions.keySet().toString());
+            if (!mSessions.containsKey(uid)) {
+                result.put("uid", uid);
+                result.put("status", false);
+                result.put("error", "Session does not exist.");
+                return null;
+            }
+            result.put("uid", uid);
+            result.put("status", true);
+            result.put("error", null);
+            options.putTo(result);
+            return uid;
+        }
+        result.put("uid", uid);
+        result.put("status", false);
+        result.put("error", "Unrecognized command.");
+        return null;
+    }
+
+    /** Returns the number of sessions currently connected. */
+    public int getSessionCount() {
+        return mSessions.size();
+    }
+
+    /** Whether a session has a connection open. */
+    protected boolean isSessionConnected(Integer uid) {
+        return mSessions.containsKey(uid);
+    }
+
+    /** Records a new connection to a session, which may have other connections open. */
+    void registerSession(RpcSession session) {
+        mSessions.compute(
+                session.getUid(),
+                (uid, connections) -> {
+                    if (connections == null) {
+                        connections = ConcurrentHashMap.newKeySet();
+                    }
+                    connections.add(session);
+                    return connections;
+                });
+        notifyOnConnect();
+    }
+
+    /** Forgets a connection that has ended, and its session once it has no connection left. */
+    void unregisterSession(RpcSession session) {
+        mSessions.computeIfPresent(
+                session.getUid(),
+                (uid, connections) -> {
+                    connections.remove(session);
+                    return connections.isEmpty() ? null : connections;
+                });
+        if (session.getCodec() != null) {
+            session.getCodec().end();
+        }
+        onSessionClosed(session);
+        notifyOnDisconnect();
+    }
+
+    /**
+     * Called once the connection of a session has ended, to release what the server holds for it.
+     */
+    protected void onSessionClosed(RpcSession session) {}
+
+    /** Whether {@link #shutdown()} has been called. */
+    boolean isStopped() {
+        return mStopServer;
+    }
+
     public void shutdown() throws Exception {
         // Stop listening on the server socket to ensure that
         // beyond this point there are no incoming requests.
         mStopServer = true;
-        try {
-            mServer.close();
-        } catch (IOException e) {
-            Log.e("Failed to close server socket.", e);
+        if (mNioEngine != null) {
+            mNioEngine.shutdown();
+        } else {
+            try {
+                mTransport.close();
+            } catch (IOException e) {
+                Log.e("Failed to close server socket.", e);
+            }
         }
-        // Since the server is not running, the mNetworkThreads set can only
-        // shrink from this point onward. We can just stop all of the running helper
-        // threads. In the worst case, one of the running threads will already have
-        // shut down. Since this is a CopyOnWriteList, we don't have to worry about
-        // concurrency issues while iterating over the set of threads.
-        for (ConnectionThread connectionThread : mConnectionThreads.values()) {
-            connectionThread.close();
+        // Since the server is not running, the mSessions map can only
+        // shrink from this point onward. We can just close all of the open
+        // sessions. In the worst case, one of them will already have been
+        // closed. Since this is a ConcurrentHashMap, we don't have to worry about
+        // concurrency issues while iterating over the sessions.
+        for (Set<RpcSession> connections : mSessions.values()) {
+            for (RpcSession session : connections) {
+                session.close();
+            }
         }
         for (SimpleServerObserver observer : mObservers) {
             removeObserver(observer);
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.rpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * The default {@link ServerTransport}, a TCP server socket, which the host reaches through {@code
+ * adb forward tcp:<host port> tcp:<port>}.
+ */
+public final class TcpTransport implements ServerTransport {
+    private static final int BACKLOG = 5;
+
+    private final ServerSocket mServerSocket;
+
+    /**
+     * Binds a server socket.
+     *
+     * @param address the address to bind to.
+     * @param port the port to bind to, or 0 to pick any unused port.
+     */
+    public TcpTransport(InetAddress address, int port) throws IOException {
+        mServerSocket = new ServerSocket(port, BACKLOG, address);
+    }
+
+    /** The port the server socket is bound to. */
+    public int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    @Override
+    public Connection accept() throws IOException {
+        return new TcpConnection(mServerSocket.accept());
+    }
+
+    @Override
+    public String getEndpoint() {
+        return "PORT " + getPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mServerSocket.close();
+    }
+
+    @Override
+    public String toString() {
+        return mServerSocket.getInetAddress() + ":" + getPort();
+    }
+
+    /** A TCP connection, which is also handed to {@link SimpleServer#handleConnection}. */
+    static final class TcpConnection implements Connection {
+        private final Socket mSocket;
+
+        private TcpConnection(Socket socket) {
+            mSocket = socket;
+        }
+
+        Socket getSocket() {
+            return mSocket;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return mSocket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return mSocket.getOutputStream();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mSocket.close();
+        }
+    }
+}
@@ -18,7 +18,10 @@ package com.google.android.mobly.snippet.schedulerpc;
 
 import com.google.android.mobly.snippet.Snippet;
 import com.google.android.mobly.snippet.rpc.AsyncRpc;
+import com.google.android.mobly.snippet.rpc.Rpc;
 import com.google.android.mobly.snippet.util.RpcUtil;
+import com.google.android.mobly.snippet.util.ScheduledRpc;
+import java.util.List;
 import org.json.JSONArray;
 
 /** Snippet that provides {@link AsyncRpc} to schedule other RPCs. */
@@ -30,13 +33,60 @@ public class ScheduleRpcSnippet implements Snippet {
         mRpcUtil = new RpcUtil();
     }
 
-    @AsyncRpc(description = "Delay the given RPC by provided milli-seconds.")
-    public void scheduleRpc(
-            String callbackId, String methodName, long delayTimerMs, JSONArray params)
-            throws Throwable {
-        mRpcUtil.scheduleRpc(callbackId, methodName, delayTimerMs, params);
+    @AsyncRpc(
+            description =
+                    "Delay the given RPC by provided milli-seconds. Returns a handle to cancel it "
+                            + "with.")
+    public int scheduleRpc(
+            String callbackId, String methodName, long delayTimerMs, JSONArray params) {
+        return mRpcUtil.scheduleRpc(callbackId, methodName, delayTimerMs, params);
+    }
+
+    @AsyncRpc(
+            description =
+                    "Runs the given RPC repeatedly, every periodMs counted from the start of the "
+                            + "first run, until cancelled. Each result is cached as an event. "
+                            + "Returns a handle to cancel it with.")
+    public int scheduleRpcAtFixedRate(
+            String callbackId,
+            String methodName,
+            long initialDelayMs,
+            long periodMs,
+            JSONArray params) {
+        return mRpcUtil.scheduleRpcAtFixedRate(
+                callbackId, methodName, initialDelayMs, periodMs, params);
+    }
+
+    @AsyncRpc(
+            description =
+                    "Runs the given RPC repeatedly, delayMs after the end of the previous run, "
+                            + "until cancelled. Each result is cached as an event. Returns a "
+                            + "handle to cancel it with.")
+    public int scheduleRpcWithFixedDelay(
+            String callbackId,
+            String methodName,
+            long initialDelayMs,
+            long delayMs,
+            JSONArray params) {
+        return mRpcUtil.scheduleRpcWithFixedDelay(
+                callbackId, methodName, initialDelayMs, delayMs, params);
+    }
+
+    @Rpc(
+            description =
+                    "Cancels a scheduled RPC by handle. Returns false if there was no such "
+                            + "schedule or it already ran.")
+    public boolean cancelScheduledRpc(Integer handle) {
+        return mRpcUtil.cancelScheduledRpc(handle);
+    }
+
+    @Rpc(description = "Lists the RPCs that are scheduled to run again.")
+    public List<ScheduledRpc> listScheduledRpcs() {
+        return mRpcUtil.listScheduledRpcs();
     }
 
     @Override
-    public void shutdown() {}
+    public void shutdown() {
+        mRpcUtil.cancelAllScheduledRpcs();
+    }
 }
@@ -21,10 +21,32 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Bundle;
+import java.util.Locale;
+import java.util.function.Supplier;
 
+/**
+ * Logging utility that tags messages with the log tag of the APK and the caller's class and line.
+ *
+ * <p>Every method first checks whether its level is loggable, so disabled levels cost neither a
+ * stack walk nor, with the {@link Supplier} and format overloads, building the message. A level is
+ * loggable if {@code android.util.Log.isLoggable} says so for the APK log tag, e.g. after {@code
+ * adb shell setprop log.tag.<tag> VERBOSE}, or if it is at least the level set by the
+ * "mobly-log-level" metadata field.
+ */
 public final class Log {
     public static volatile String apkLogTag = null;
 
+    /** Longest payload returned by {@link #truncate}. */
+    public static final int MAX_PAYLOAD_LENGTH = 1024;
+
+    /** Name of the metadata field setting the lowest level always logged, e.g. "VERBOSE". */
+    private static final String TAG_NAME_LOG_LEVEL = "mobly-log-level";
+    /**
+     * Name of the metadata field that, when "false", leaves the caller's class and line out of log
+     * tags, which saves a stack walk per message.
+     */
+    private static final String TAG_NAME_LOG_CALLER_TAGS = "mobly-log-caller-tags";
+
     private static final String MY_CLASS_NAME = Log.class.getName();
     private static final String ANDROID_LOG_CLASS_NAME = android.util.Log.class.getName();
 
@@ -37,6 +59,10 @@ public final class Log {
     // getStackTrace()} is called (althrought this is the natual expectation).
     private static final int STACK_TRACE_WALK_START_INDEX = 2;
 
+    // Lowest level logged regardless of android.util.Log.isLoggable; none by default.
+    private static volatile int sForcedLevel = android.util.Log.ASSERT + 1;
+    private static volatile boolean sCallerTags = true;
+
     private Log() {}
 
     public static synchronized void initLogTag(Context context) {
@@ -53,6 +79,8 @@ public final class Log {
                     "Failed to find ApplicationInfo with package name: " + packageName);
         }
         Bundle bundle = appInfo.metaData;
+        // android:value="false" is parsed as a Boolean, not a String.
+        sCallerTags = !"false".equals(String.valueOf(bundle.get(TAG_NAME_LOG_CALLER_TAGS)));
         apkLogTag = bundle.getString("mobly-log-tag");
         if (apkLogTag == null) {
             apkLogTag = packageName;
@@ -60,13 +88,63 @@ public final class Log {
                     "AndroidManifest.xml does not contain metadata field named \"mobly-log-tag\". "
                             + "Using package name for logging instead.");
         }
+        String level = bundle.getString(TAG_NAME_LOG_LEVEL);
+        if (level != null) {
+            Integer priority = parseLevel(level);
+            if (priority == null) {
+                w("Ignoring unknown " + TAG_NAME_LOG_LEVEL + " \"" + level + "\".");
+            } else {
+                sForcedLevel = priority;
+            }
+        }
     }
 
-    private static String getTag() {
+    private static Integer parseLevel(String level) {
+        switch (level.toUpperCase(Locale.ROOT)) {
+            case "VERBOSE":
+                return android.util.Log.VERBOSE;
+            case "DEBUG":
+                return android.util.Log.DEBUG;
+            case "INFO":
+                return android.util.Log.INFO;
+            case "WARN":
+                return android.util.Log.WARN;
+            case "ERROR":
+                return android.util.Log.ERROR;
+            default:
+                return null;
+        }
+    }
+
+    /** Whether messages of the given {@code android.util.Log} level are logged. */
+    public static boolean isLoggable(int priority) {
+        return priority >= sForcedLevel || android.util.Log.isLoggable(getApkLogTag(), priority);
+    }
+
+    /**
+     * Shortens a payload, such as a request or response, to {@link #MAX_PAYLOAD_LENGTH} characters
+     * for tracing.
+     */
+    public static String truncate(CharSequence payload) {
+        if (payload.length() <= MAX_PAYLOAD_LENGTH) {
+            return payload.toString();
+        }
+        return payload.subSequence(0, MAX_PAYLOAD_LENGTH) + "... (" + payload.length() + " chars)";
+    }
+
+    private static String getApkLogTag() {
         String logTag = apkLogTag;
         if (logTag == null) {
             throw new IllegalStateException("Logging called before initLogTag()");
         }
+        return logTag;
+    }
+
+    private static String getTag() {
+        String logTag = getApkLogTag();
+        if (!sCallerTags) {
+            return logTag;
+        }
         StackTraceElement[] stackTraceElements = Thread.currentThread().getStackTrace();
 
         boolean isCallerClassNameFound = false;
@@ -97,50 +175,144 @@ public final class Log {
     }
 
     public static void v(String message) {
-        android.util.Log.v(getTag(), message);
+        if (isLoggable(android.util.Log.VERBOSE)) {
+            android.util.Log.v(getTag(), message);
+        }
     }
 
     public static void v(String message, Throwable e) {
-        android.util.Log.v(getTag(), message, e);
+        if (isLoggable(android.util.Log.VERBOSE)) {
+            android.util.Log.v(getTag(), message, e);
+        }
     }
 
-    public static void e(Throwable e) {
-        android.util.Log.e(getTag(), "Error", e);
+    /** Logs a message that is only built if the level is loggable. */
+    public static void v(Supplier<String> message) {
+        if (isLoggable(android.util.Log.VERBOSE)) {
+            android.util.Log.v(getTag(), message.get());
+        }
     }
 
-    public static void e(String message) {
-        android.util.Log.e(getTag(), message);
+    /** Logs a message that is only formatted, in {@link Locale#US}, if the level is loggable. */
+    public static void v(String format, Object... args) {
+        if (isLoggable(android.util.Log.VERBOSE)) {
+            android.util.Log.v(getTag(), String.format(Locale.US, format, args));
+        }
     }
 
-    public static void e(String message, Throwable e) {
-        android.util.Log.e(getTag(), message, e);
+    public static void d(String message) {
+        if (isLoggable(android.util.Log.DEBUG)) {
+            android.util.Log.d(getTag(), message);
+        }
+    }
+
+    public static void d(String message, Throwable e) {
+        if (isLoggable(android.util.Log.DEBUG)) {
+            android.util.Log.d(getTag(), message, e);
+        }
+    }
+
+    /** Logs a message that is only built if the level is loggable. */
+    public static void d(Supplier<String> message) {
+        if (isLoggable(android.util.Log.DEBUG)) {
+            android.util.Log.d(getTag(), message.get());
+        }
+    }
+
+    /** Logs a message that is only formatted, in {@link Locale#US}, if the level is loggable. */
+    public static void d(String format, Object... args) {
+        if (isLoggable(android.util.Log.DEBUG)) {
+            android.util.Log.d(getTag(), String.format(Locale.US, format, args));
+        }
+    }
+
+    public static void i(String message) {
+        if (isLoggable(android.util.Log.INFO)) {
+            android.util.Log.i(getTag(), message);
+        }
+    }
+
+    public static void i(String message, Throwable e) {
+        if (isLoggable(android.util.Log.INFO)) {
+            android.util.Log.i(getTag(), message, e);
+        }
+    }
+
+    /** Logs a message that is only built if the level is loggable. */
+    public static void i(Supplier<String> message) {
+        if (isLoggable(android.util.Log.INFO)) {
+            android.util.Log.i(getTag(), message.get());
+        }
+    }
+
+    /** Logs a message that is only formatted, in {@link Locale#US}, if the level is loggable. */
+    public static void i(String format, Object... args) {
+        if (isLoggable(android.util.Log.INFO)) {
+            android.util.Log.i(getTag(), String.format(Locale.US, format, args));
+        }
     }
 
     public static void w(Throwable e) {
-        android.util.Log.w(getTag(), "Warning", e);
+        if (isLoggable(android.util.Log.WARN)) {
+            android.util.Log.w(getTag(), "Warning", e);
+        }
     }
 
     public static void w(String message) {
-        android.util.Log.w(getTag(), message);
+        if (isLoggable(android.util.Log.WARN)) {
+            android.util.Log.w(getTag(), message);
+        }
     }
 
     public static void w(String message, Throwable e) {
-        android.util.Log.w(getTag(), message, e);
+        if (isLoggable(android.util.Log.WARN)) {
+            android.util.Log.w(getTag(), message, e);
+        }
     }
 
-    public static void d(String message) {
-        android.util.Log.d(getTag(), message);
+    /** Logs a message that is only built if the level is loggable. */
+    public static void w(Supplier<String> message) {
+        if (isLoggable(android.util.Log.WARN)) {
+            android.util.Log.w(getTag(), message.get());
+        }
     }
 
-    public static void d(String message, Throwable e) {
-        android.util.Log.d(getTag(), message, e);
+    /** Logs a message that is only formatted, in {@link Locale#US}, if the level is loggable. */
+    public static void w(String format, Object... args) {
+        if (isLoggable(android.util.Log.WARN)) {
+            android.util.Log.w(getTag(), String.format(Locale.US, format, args));
+        }
     }
 
-    public static void i(String message) {
-        android.util.Log.i(getTag(), message);
+    public static void e(Throwable e) {
+        if (isLoggable(android.util.Log.ERROR)) {
+            android.util.Log.e(getTag(), "Error", e);
+        }
     }
 
-    public static void i(String message, Throwable e) {
-        android.util.Log.i(getTag(), message, e);
+    public static void e(String message) {
+        if (isLoggable(android.util.Log.ERROR)) {
+            android.util.Log.e(getTag(), message);
+        }
+    }
+
+    public static void e(String message, Throwable e) {
+        if (isLoggable(android.util.Log.ERROR)) {
+            android.util.Log.e(getTag(), message, e);
+        }
+    }
+
+    /** Logs a message that is only built if the level is loggable. */
+    public static void e(Supplier<String> message) {
+        if (isLoggable(android.util.Log.ERROR)) {
+            android.util.Log.e(getTag(), message.get());
+        }
+    }
+
+    /** Logs a message that is only formatted, in {@link Locale#US}, if the level is loggable. */
+    public static void e(String format, Object... args) {
+        if (isLoggable(android.util.Log.ERROR)) {
+            android.util.Log.e(getTag(), String.format(Locale.US, format, args));
+        }
     }
 }
@@ -18,49 +18,76 @@ package com.google.android.mobly.snippet.util;
 
 import android.os.Handler;
 import android.os.Looper;
+import com.google.android.mobly.snippet.rpc.RpcMetrics;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+/**
+ * Runs tasks on the main thread.
+ *
+ * <p>Tasks are queued, and all the tasks queued when the main thread gets to them run in a single
+ * {@link Handler} message, so a burst of tasks costs one Looper turn instead of one per task.
+ * Tasks queued while a batch runs wait for the next message, so the Looper still gets to its other
+ * messages in between.
+ *
+ * <p>How long tasks wait in the queue, and how many run per batch, are reported by {@link
+ * RpcMetrics}, to tell a busy main thread from slow tasks.
+ */
 public class MainThread {
-    /**
-     * Wraps a {@link Callable} in a {@link Runnable} that has a way to get the return value and
-     * exception after the fact.
-     */
-    private static class CallableWrapper<T> implements Runnable {
-        private final Callable<T> mCallable;
-        private final CountDownLatch mLatch = new CountDownLatch(1);
-        private T mReturnValue;
-        private Throwable mException;
+    /** A task queued for the main thread, completing its future if it has one. */
+    private static final class Task<T> extends FutureTask<T> {
+        private final long mQueuedNanos = System.nanoTime();
+        private final CompletableFuture<T> mFuture;
 
-        public CallableWrapper(Callable<T> callable) {
-            mCallable = callable;
+        private Task(Callable<T> callable, CompletableFuture<T> future) {
+            super(callable);
+            mFuture = future;
         }
 
         @Override
-        public final void run() {
-            try {
-                mReturnValue = mCallable.call();
-            } catch (Throwable t) {
-                mException = t;
-            } finally {
-                mLatch.countDown();
+        public void run() {
+            if (!isDone()) {
+                sMetrics.recordMainThreadWait(System.nanoTime() - mQueuedNanos);
             }
+            super.run();
         }
 
-        public void awaitTermination() throws InterruptedException {
-            mLatch.await();
-        }
-
-        public T getReturnValue() {
-            return mReturnValue;
-        }
-
-        public Throwable getException() {
-            return mException;
+        @Override
+        protected void done() {
+            if (mFuture == null) {
+                return;
+            }
+            if (isCancelled()) {
+                mFuture.cancel(false);
+                return;
+            }
+            try {
+                mFuture.complete(get());
+            } catch (ExecutionException e) {
+                mFuture.completeExceptionally(e.getCause());
+            } catch (InterruptedException e) {
+                // Not reached: the task is done, so get() does not wait.
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
     private static final Handler sMainThreadHandler = new Handler(Looper.getMainLooper());
+    private static final RpcMetrics sMetrics = RpcMetrics.getInstance();
+    private static final Runnable sRunBatch = MainThread::runBatch;
+
+    private static final Object sLock = new Object();
+    // The tasks queued since the last batch started, and an empty list to queue the next ones in
+    // once it does. A batch message is posted for the first task queued.
+    private static List<Task<?>> sQueued = new ArrayList<>();
+    private static List<Task<?>> sSpare = new ArrayList<>();
+    private static boolean sScheduled = false;
 
     private MainThread() {
         // Utility class.
@@ -68,23 +95,91 @@ public class MainThread {
 
     /** Executed in the main thread. Returns the result of an execution or any exception thrown. */
     public static <T> T run(final Callable<T> task) throws Exception {
-        CallableWrapper<T> wrapper = new CallableWrapper<>(task);
-        return runCallableWrapper(wrapper);
+        return run(task, 0, TimeUnit.MILLISECONDS);
     }
 
-    private static <T> T runCallableWrapper(CallableWrapper<T> wrapper) throws Exception {
-        sMainThreadHandler.post(wrapper);
-        wrapper.awaitTermination();
-        Throwable exception = wrapper.getException();
-        if (exception != null) {
-            if (exception instanceof RuntimeException) {
-                throw (RuntimeException) exception;
+    /**
+     * Executed in the main thread, waiting at most the given time. Returns the result of an
+     * execution or any exception thrown.
+     *
+     * <p>If the wait times out or the calling thread is interrupted, the task is withdrawn if the
+     * main thread has not started it yet. A task already running cannot be stopped, and completes
+     * unobserved.
+     *
+     * @param timeout how long to wait; 0 waits as long as the task takes.
+     * @throws TimeoutException if the task did not complete within the timeout.
+     */
+    public static <T> T run(final Callable<T> task, long timeout, TimeUnit unit)
+            throws Exception {
+        Task<T> queued = enqueue(task, null);
+        try {
+            if (timeout <= 0) {
+                return queued.get();
             }
+            return queued.get(timeout, unit);
+        } catch (ExecutionException e) {
+            Throwable exception = e.getCause();
             if (exception instanceof Error) {
                 throw (Error) exception;
             }
             throw (Exception) exception;
+        } catch (TimeoutException e) {
+            queued.cancel(false);
+            throw new TimeoutException(
+                    "The main thread did not complete the task within "
+                            + unit.toMillis(timeout)
+                            + " ms");
+        } catch (InterruptedException e) {
+            queued.cancel(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Queues a task for the main thread without waiting for it.
+     *
+     * <p>Completing or cancelling the returned future, for instance once a deadline passes,
+     * withdraws the task if the main thread has not started it yet. The future completes on the
+     * main thread, so work chained to it that may block must run on an executor of its own.
+     */
+    public static <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        final Task<T> queued = enqueue(task, future);
+        future.whenComplete((result, t) -> queued.cancel(false));
+        return future;
+    }
+
+    private static <T> Task<T> enqueue(Callable<T> callable, CompletableFuture<T> future) {
+        Task<T> task = new Task<>(callable, future);
+        boolean post;
+        synchronized (sLock) {
+            sQueued.add(task);
+            post = !sScheduled;
+            sScheduled = true;
+        }
+        if (post) {
+            sMainThreadHandler.post(sRunBatch);
+        }
+        return task;
+    }
+
+    /** Runs the tasks queued so far, on the main thread. */
+    private static void runBatch() {
+        List<Task<?>> batch;
+        synchronized (sLock) {
+            batch = sQueued;
+            // A task may run a nested Looper that runs another batch before this one returns.
+            sQueued = sSpare != null ? sSpare : new ArrayList<Task<?>>();
+            sSpare = null;
+            sScheduled = false;
+        }
+        sMetrics.recordMainThreadBatch(batch.size());
+        for (Task<?> task : batch) {
+            task.run();
+        }
+        batch.clear();
+        synchronized (sLock) {
+            sSpare = batch;
         }
-        return wrapper.getReturnValue();
     }
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** A {@link ThreadFactory} that creates numbered daemon threads with a common name prefix. */
+public final class NamedThreadFactory implements ThreadFactory {
+    private final String mPrefix;
+    private final AtomicInteger mCount = new AtomicInteger();
+
+    public NamedThreadFactory(String prefix) {
+        mPrefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, mPrefix + " " + mCount.incrementAndGet());
+        // Worker threads must never keep the instrumentation process alive on their own.
+        thread.setDaemon(true);
+        return thread;
+    }
+}
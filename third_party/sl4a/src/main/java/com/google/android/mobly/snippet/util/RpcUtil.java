@@ -19,12 +19,38 @@ package com.google.android.mobly.snippet.util;
 import com.google.android.mobly.snippet.event.EventCache;
 import com.google.android.mobly.snippet.event.SnippetEvent;
 import com.google.android.mobly.snippet.manager.SnippetManager;
+import com.google.android.mobly.snippet.rpc.JsonResponse;
 import com.google.android.mobly.snippet.rpc.JsonRpcResult;
 import com.google.android.mobly.snippet.rpc.MethodDescriptor;
+import com.google.android.mobly.snippet.rpc.ResultCursors;
 import com.google.android.mobly.snippet.rpc.RpcError;
+import com.google.android.mobly.snippet.rpc.RpcMetrics;
+import com.google.android.mobly.snippet.rpc.RpcPaged;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -38,13 +64,49 @@ import org.json.JSONObject;
  * <p>However, We still need snippet continue to run and execute previously scheduled RPCs
  *
  * <p>The return value of the scheduled RPC is cached in {@link EventCache} and can be retrieved
- * later after device is back online.
+ * later after device is back online. RPCs scheduled to repeat cache the return value of each run.
+ *
+ * <p>A few threads keep the time of all the scheduled RPCs, and hand each run to a bounded pool of
+ * workers, so that a slow RPC does not hold up the runs of the others.
+ *
+ * <p>It also invokes the RPCs requested by clients, bounding those that have a deadline and
+ * cancelling them on request; see {@link #invokeRpcStreamed(String, JSONArray, int, Integer,
+ * long)}.
  */
 public class RpcUtil {
     // RPC ID is used for reporting responses back to the client. However, the results of
     // scheduled RPCs are reported back to the client via events instead of through synchronous
     // responses, so the RPC ID is unused. We pass an arbitrary value of 0.
     private static final int DEFAULT_ID = 0;
+    // Threads that only hand the runs of the scheduled RPCs to the workers when they are due.
+    private static final int SCHEDULER_THREAD_COUNT = 4;
+    private static final ScheduledThreadPoolExecutor sScheduler =
+            createScheduler(SCHEDULER_THREAD_COUNT, "RpcUtil scheduler");
+    // Run the scheduled RPCs. Runs that are due while all the workers are busy wait for one.
+    private static final int SCHEDULED_WORKER_COUNT = 16;
+    private static final long SCHEDULED_WORKER_KEEP_ALIVE_MS = 60 * 1000;
+    private static final ThreadPoolExecutor sScheduledWorkers = createScheduledWorkers();
+    private static final Map<Integer, ScheduledRpc> sScheduledRpcs = new ConcurrentHashMap<>();
+    // Runs the RPCs that have a deadline, so that the thread waiting for one can give up on time.
+    // The thread of an RPC that ignores interruption is abandoned to it, and keeps its place in the
+    // pool until the RPC returns; once all are taken, RPCs with a deadline are refused.
+    private static final int MAX_DEADLINE_WORKERS = 16;
+    private static final long DEADLINE_WORKER_KEEP_ALIVE_MS = 60 * 1000;
+    private static final ThreadPoolExecutor sDeadlineExecutor =
+            new ThreadPoolExecutor(
+                    0,
+                    MAX_DEADLINE_WORKERS,
+                    DEADLINE_WORKER_KEEP_ALIVE_MS,
+                    TimeUnit.MILLISECONDS,
+                    new SynchronousQueue<Runnable>(),
+                    new NamedThreadFactory("RpcUtil deadline worker"));
+    // Fails the RPCs queued for the main thread without waiting for them once their deadline
+    // passes, so that no thread waits for each of them.
+    private static final ScheduledThreadPoolExecutor sDeadlineTimer =
+            createScheduler(1, "RpcUtil deadline timer");
+    // The RPCs requested by clients being executed, by session and request ID.
+    private static final Map<RpcKey, InFlightRpc> sInFlightRpcs = new ConcurrentHashMap<>();
+    private static final AtomicInteger sNextScheduleHandle = new AtomicInteger();
     private final SnippetManager mReceiverManager;
     private final EventCache mEventCache = EventCache.getInstance();
 
@@ -52,6 +114,27 @@ public class RpcUtil {
         mReceiverManager = SnippetManager.getInstance();
     }
 
+    private static ThreadPoolExecutor createScheduledWorkers() {
+        ThreadPoolExecutor workers =
+                new ThreadPoolExecutor(
+                        SCHEDULED_WORKER_COUNT,
+                        SCHEDULED_WORKER_COUNT,
+                        SCHEDULED_WORKER_KEEP_ALIVE_MS,
+                        TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<Runnable>(),
+                        new NamedThreadFactory("RpcUtil scheduled RPC worker"));
+        workers.allowCoreThreadTimeOut(true);
+        return workers;
+    }
+
+    private static ScheduledThreadPoolExecutor createScheduler(int threads, String name) {
+        ScheduledThreadPoolExecutor scheduler =
+                new ScheduledThreadPoolExecutor(threads, new NamedThreadFactory(name));
+        // Cancelled schedules must not linger in the queue until their next run time.
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
     /**
      * Schedule given RPC with some delay.
      *
@@ -59,35 +142,220 @@ public class RpcUtil {
      * @param methodName The RPC name to be scheduled.
      * @param delayMs The delay in ms
      * @param params Array of the parameters to the RPC
+     * @return The handle of the schedule, for {@link #cancelScheduledRpc}.
      */
-    public void scheduleRpc(
+    public int scheduleRpc(
             final String callbackId,
             final String methodName,
             final long delayMs,
-            final JSONArray params)
-            throws Throwable {
-        Timer timer = new Timer();
-        TimerTask task =
-                new TimerTask() {
+            final JSONArray params) {
+        return schedule(callbackId, methodName, params, ScheduledRpc.Mode.ONCE, delayMs, 0);
+    }
+
+    /**
+     * Schedule given RPC to run repeatedly, every period counted from the start of the first run.
+     * Runs that would overlap are delayed, not run concurrently.
+     *
+     * @param callbackId The callback ID used to cache the result of each run.
+     * @param methodName The RPC name to be scheduled.
+     * @param initialDelayMs The delay of the first run in ms
+     * @param periodMs The period between the starts of runs in ms
+     * @param params Array of the parameters to the RPC
+     * @return The handle of the schedule, for {@link #cancelScheduledRpc}.
+     */
+    public int scheduleRpcAtFixedRate(
+            String callbackId,
+            String methodName,
+            long initialDelayMs,
+            long periodMs,
+            JSONArray params) {
+        return schedule(
+                callbackId,
+                methodName,
+                params,
+                ScheduledRpc.Mode.FIXED_RATE,
+                initialDelayMs,
+                periodMs);
+    }
+
+    /**
+     * Schedule given RPC to run repeatedly, with a delay between the end of a run and the start of
+     * the next one.
+     *
+     * @param callbackId The callback ID used to cache the result of each run.
+     * @param methodName The RPC name to be scheduled.
+     * @param initialDelayMs The delay of the first run in ms
+     * @param delayMs The delay between runs in ms
+     * @param params Array of the parameters to the RPC
+     * @return The handle of the schedule, for {@link #cancelScheduledRpc}.
+     */
+    public int scheduleRpcWithFixedDelay(
+            String callbackId,
+            String methodName,
+            long initialDelayMs,
+            long delayMs,
+            JSONArray params) {
+        return schedule(
+                callbackId,
+                methodName,
+                params,
+                ScheduledRpc.Mode.FIXED_DELAY,
+                initialDelayMs,
+                delayMs);
+    }
+
+    /**
+     * Cancels a scheduled RPC. A run already in progress completes.
+     *
+     * @return false if there was no such schedule, or it already completed.
+     */
+    public boolean cancelScheduledRpc(int handle) {
+        ScheduledRpc scheduledRpc = sScheduledRpcs.remove(handle);
+        if (scheduledRpc == null) {
+            return false;
+        }
+        scheduledRpc.cancel();
+        return true;
+    }
+
+    /** Cancels all the scheduled RPCs. */
+    public void cancelAllScheduledRpcs() {
+        for (Integer handle : sScheduledRpcs.keySet()) {
+            cancelScheduledRpc(handle);
+        }
+    }
+
+    /** Returns the RPCs that are scheduled to run again, by handle. */
+    public List<ScheduledRpc> listScheduledRpcs() {
+        List<ScheduledRpc> scheduledRpcs = new ArrayList<>(sScheduledRpcs.values());
+        Collections.sort(
+                scheduledRpcs,
+                new Comparator<ScheduledRpc>() {
+                    @Override
+                    public int compare(ScheduledRpc a, ScheduledRpc b) {
+                        return Integer.compare(a.getHandle(), b.getHandle());
+                    }
+                });
+        return scheduledRpcs;
+    }
+
+    private int schedule(
+            String callbackId,
+            String methodName,
+            JSONArray params,
+            ScheduledRpc.Mode mode,
+            long initialDelayMs,
+            long periodMs) {
+        if (mode != ScheduledRpc.Mode.ONCE && periodMs <= 0) {
+            throw new IllegalArgumentException("The period must be positive, got " + periodMs);
+        }
+        final ScheduledRpc scheduledRpc =
+                new ScheduledRpc(
+                        sNextScheduleHandle.incrementAndGet(),
+                        callbackId,
+                        methodName,
+                        params,
+                        mode,
+                        periodMs);
+        // Registered first, so a run that starts right away can unregister it.
+        sScheduledRpcs.put(scheduledRpc.getHandle(), scheduledRpc);
+        long initialDelayNanos = TimeUnit.MILLISECONDS.toNanos(initialDelayMs);
+        scheduleRun(scheduledRpc, System.nanoTime() + initialDelayNanos);
+        return scheduledRpc.getHandle();
+    }
+
+    /**
+     * Hands a run of a scheduled RPC to the workers at the given {@link System#nanoTime()}.
+     *
+     * <p>Each run is scheduled once the previous one ends, so runs never overlap: one due at a
+     * fixed rate while the previous one is running starts as soon as that one ends.
+     */
+    private void scheduleRun(final ScheduledRpc scheduledRpc, final long runAtNanos) {
+        final Runnable run =
+                new Runnable() {
                     @Override
                     public void run() {
-                        SnippetEvent event = new SnippetEvent(callbackId, methodName);
-                        try {
-                            JSONObject obj = invokeRpc(methodName, params, DEFAULT_ID, callbackId);
-                            // Cache RPC method return value.
-                            for (int i = 0; i < obj.names().length(); i++) {
-                                String key = obj.names().getString(i);
-                                event.getData().putString(key, obj.get(key).toString());
-                            }
-                        } catch (JSONException e) {
-                            String stackTrace = JsonRpcResult.getStackTrace(e);
-                            event.getData().putString("error", stackTrace);
-                        } finally {
-                            mEventCache.postEvent(event);
-                        }
+                        runScheduledRpc(scheduledRpc, runAtNanos);
+                    }
+                };
+        Runnable dispatch =
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        sScheduledWorkers.execute(run);
                     }
                 };
-        timer.schedule(task, delayMs);
+        scheduledRpc.setFuture(
+                sScheduler.schedule(
+                        dispatch,
+                        Math.max(0, runAtNanos - System.nanoTime()),
+                        TimeUnit.NANOSECONDS));
+    }
+
+    private void runScheduledRpc(ScheduledRpc scheduledRpc, long runAtNanos) {
+        if (scheduledRpc.isCancelled()) {
+            return;
+        }
+        if (scheduledRpc.getMode() == ScheduledRpc.Mode.ONCE
+                && !sScheduledRpcs.remove(scheduledRpc.getHandle(), scheduledRpc)) {
+            // It was cancelled since.
+            return;
+        }
+        scheduledRpc.onRun();
+        String methodName = scheduledRpc.getMethodName();
+        SnippetEvent event = new SnippetEvent(scheduledRpc.getCallbackId(), methodName);
+        try {
+            JSONObject obj =
+                    invokeRpc(
+                            methodName,
+                            scheduledRpc.getParams(),
+                            DEFAULT_ID,
+                            scheduledRpc.getCallbackId());
+            // Cache RPC method return value.
+            for (int i = 0; i < obj.names().length(); i++) {
+                String key = obj.names().getString(i);
+                event.getData().putString(key, obj.get(key).toString());
+            }
+        } catch (JSONException e) {
+            String stackTrace = JsonRpcResult.getStackTrace(e);
+            event.getData().putString("error", stackTrace);
+        } finally {
+            try {
+                mEventCache.postEvent(event);
+            } finally {
+                // An exception escaping before this would silently end a repeating schedule.
+                scheduleNextRun(scheduledRpc, runAtNanos);
+            }
+        }
+    }
+
+    private void scheduleNextRun(ScheduledRpc scheduledRpc, long runAtNanos) {
+        if (scheduledRpc.isCancelled()) {
+            return;
+        }
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(scheduledRpc.getPeriodMs());
+        switch (scheduledRpc.getMode()) {
+            case FIXED_RATE:
+                scheduleRun(scheduledRpc, runAtNanos + periodNanos);
+                break;
+            case FIXED_DELAY:
+                scheduleRun(scheduledRpc, System.nanoTime() + periodNanos);
+                break;
+            case ONCE:
+            default:
+                break;
+        }
+    }
+
+    /** Returns the first page of a result if it is to be sent a page at a time, or the result. */
+    private static Object firstPageIfPaged(
+            MethodDescriptor rpc, Object returnValue, Integer UID, int pageSize) {
+        int size = pageSize > 0 ? pageSize : rpc.getPageSize();
+        if (size > 0 && ResultCursors.isPageable(returnValue)) {
+            return ResultCursors.getInstance()
+                    .firstPage(UID, returnValue, size, rpc.getCursorTtlMs());
+        }
+        return returnValue;
     }
 
     /**
@@ -100,7 +368,178 @@ public class RpcUtil {
      */
     public JSONObject invokeRpc(String methodName, JSONArray params, int id, Integer UID)
             throws JSONException {
-        return invokeRpc(methodName, params, id, String.format(Locale.US, "%d-%d", UID, id));
+        return invokeRpc(methodName, params, id, callbackId(UID, id), new RpcKey(UID, id));
+    }
+
+    /**
+     * Invoke the RPC, leaving the serialization of its result to when the response is sent.
+     *
+     * @param methodName The RPC name to be invoked.
+     * @param params Array of the parameters to the RPC
+     * @param id The ID that identifies an RPC
+     * @param UID Globally unique session ID.
+     */
+    public JsonResponse invokeRpcStreamed(
+            String methodName, JSONArray params, int id, Integer UID) throws JSONException {
+        return invokeRpcStreamed(methodName, params, id, UID, 0);
+    }
+
+    /**
+     * Invoke the RPC, giving up on it if it does not complete within the deadline.
+     *
+     * <p>An RPC with a deadline runs on a worker thread, which is interrupted and abandoned once
+     * the deadline passes, while the error {@link RpcError#CODE_DEADLINE_EXCEEDED} is returned. An
+     * RPC that runs on the main thread is withdrawn from it if it has not started yet.
+     *
+     * @param methodName The RPC name to be invoked.
+     * @param params Array of the parameters to the RPC
+     * @param id The ID that identifies an RPC
+     * @param UID Globally unique session ID.
+     * @param deadlineMs How long the RPC may take, or 0 for no limit.
+     */
+    public JsonResponse invokeRpcStreamed(
+            String methodName, JSONArray params, int id, Integer UID, long deadlineMs)
+            throws JSONException {
+        return invokeRpcStreamed(methodName, params, id, UID, deadlineMs, 0);
+    }
+
+    /**
+     * Invoke the RPC like {@link #invokeRpcStreamed(String, JSONArray, int, Integer, long)}, and
+     * send its result a page at a time if it holds many items.
+     *
+     * <p>A result that is a collection, an array, an {@code Iterable}, an {@code Iterator} or a
+     * {@code Stream} is answered with its first page, and the rest is kept by {@link
+     * ResultCursors} for the session, if the request set a page size or the RPC is annotated with
+     * {@link RpcPaged}.
+     *
+     * @param pageSize the number of items per page requested, or 0 to page the result as the RPC
+     *     is annotated.
+     */
+    public JsonResponse invokeRpcStreamed(
+            String methodName,
+            JSONArray params,
+            int id,
+            Integer UID,
+            long deadlineMs,
+            int pageSize)
+            throws JSONException {
+        String callbackId = callbackId(UID, id);
+        MethodDescriptor rpc = mReceiverManager.getMethodDescriptor(methodName);
+        if (rpc == null) {
+            return JsonRpcResult.of(
+                    JsonRpcResult.error(id, new RpcError("Unknown RPC: " + methodName)));
+        }
+        try {
+            Object returnValue =
+                    invoke(rpc, params, callbackId, deadlineMs, new RpcKey(UID, id));
+            return JsonRpcResult.streamed(
+                    id,
+                    firstPageIfPaged(rpc, returnValue, UID, pageSize),
+                    rpc.isAsync() ? callbackId : null);
+        } catch (Throwable t) {
+            Log.e("Invocation error.", t);
+            return JsonRpcResult.of(JsonRpcResult.error(id, t));
+        }
+    }
+
+    /** Whether the RPC with the given name runs on the main thread, see {@link #invokeRpcAsync}. */
+    public boolean isRunOnUiThread(String methodName) {
+        MethodDescriptor rpc = mReceiverManager.getMethodDescriptor(methodName);
+        return rpc != null && rpc.isRunOnUiThread();
+    }
+
+    /**
+     * Invoke an RPC that runs on the main thread like {@link #invokeRpcStreamed(String, JSONArray,
+     * int, Integer, long, int)}, without a thread waiting for it.
+     *
+     * <p>The RPC is queued for the main thread, and the response is built on {@code executor} once
+     * it completes. The deadline is kept by a timer, which fails the RPC and withdraws it from the
+     * main thread if it has not started yet; so does {@link #cancelRpc}.
+     *
+     * @param executor runs the completion of the RPC, which must not run on the main thread.
+     * @return the response, which never completes exceptionally unless the error response itself
+     *     cannot be built.
+     */
+    public CompletableFuture<JsonResponse> invokeRpcAsync(
+            String methodName,
+            JSONArray params,
+            final int id,
+            final Integer UID,
+            final long deadlineMs,
+            final int pageSize,
+            Executor executor) {
+        final String callbackId = callbackId(UID, id);
+        final MethodDescriptor rpc = mReceiverManager.getMethodDescriptor(methodName);
+        if (rpc == null) {
+            return CompletableFuture.completedFuture(
+                    errorResponse(id, new RpcError("Unknown RPC: " + methodName)));
+        }
+        final RpcKey key = new RpcKey(UID, id);
+        // Registered before the RPC is queued, so that it can be cancelled as soon as it is.
+        final InFlightRpc call = new InFlightRpc(null, null);
+        if (!register(key, call)) {
+            return CompletableFuture.completedFuture(errorResponse(id, duplicateId(id)));
+        }
+        final CompletableFuture<Object> result;
+        try {
+            result = rpc.invokeAsync(mReceiverManager, withCallbackId(rpc, params, callbackId));
+        } catch (Throwable t) {
+            unregister(key, call);
+            rpc.getMetrics().recordCall(true);
+            Log.e("Invocation error.", t);
+            return CompletableFuture.completedFuture(errorResponse(id, t));
+        }
+        call.setTask(result);
+        final ScheduledFuture<?> deadline =
+                deadlineMs <= 0
+                        ? null
+                        : sDeadlineTimer.schedule(
+                                () ->
+                                        result.completeExceptionally(
+                                                RpcError.withCode(
+                                                        RpcError.CODE_DEADLINE_EXCEEDED,
+                                                        rpc.getName()
+                                                                + " did not complete on the main"
+                                                                + " thread within "
+                                                                + deadlineMs
+                                                                + " ms")),
+                                deadlineMs,
+                                TimeUnit.MILLISECONDS);
+        return result.handleAsync(
+                (returnValue, t) -> {
+                    if (deadline != null) {
+                        deadline.cancel(false);
+                    }
+                    call.finish();
+                    unregister(key, call);
+                    rpc.getMetrics().recordCall(t != null);
+                    if (t != null) {
+                        Throwable cause = t instanceof CompletionException ? t.getCause() : t;
+                        if (t instanceof CancellationException || call.isCancelled()) {
+                            cause = cancelled(rpc);
+                        }
+                        Log.e("Invocation error.", cause);
+                        return errorResponse(id, cause);
+                    }
+                    try {
+                        return JsonRpcResult.streamed(
+                                id,
+                                firstPageIfPaged(rpc, returnValue, UID, pageSize),
+                                rpc.isAsync() ? callbackId : null);
+                    } catch (RuntimeException e) {
+                        Log.e("Invocation error.", e);
+                        return errorResponse(id, e);
+                    }
+                },
+                executor);
+    }
+
+    private static JsonResponse errorResponse(int id, Throwable t) {
+        try {
+            return JsonRpcResult.of(JsonRpcResult.error(id, t));
+        } catch (JSONException e) {
+            throw new CompletionException(e);
+        }
     }
 
     /**
@@ -113,27 +552,276 @@ public class RpcUtil {
      */
     public JSONObject invokeRpc(String methodName, JSONArray params, int id, String callbackId)
             throws JSONException {
+        return invokeRpc(methodName, params, id, callbackId, null);
+    }
+
+    /**
+     * Invoke the RPC.
+     *
+     * @param key the session and request of the RPC, so that it can be cancelled, or null.
+     */
+    private JSONObject invokeRpc(
+            String methodName, JSONArray params, int id, String callbackId, RpcKey key)
+            throws JSONException {
         MethodDescriptor rpc = mReceiverManager.getMethodDescriptor(methodName);
         if (rpc == null) {
             return JsonRpcResult.error(id, new RpcError("Unknown RPC: " + methodName));
         }
         try {
-            JSONArray newParams = new JSONArray();
-            /** If calling an {@link AsyncRpc}, put the message ID as the first param. */
+            Object returnValue = invoke(rpc, params, callbackId, 0, key);
             if (rpc.isAsync()) {
-                newParams.put(callbackId);
-                for (int i = 0; i < params.length(); i++) {
-                    newParams.put(params.get(i));
-                }
-                Object returnValue = rpc.invoke(mReceiverManager, newParams);
                 return JsonRpcResult.callback(id, returnValue, callbackId);
-            } else {
-                Object returnValue = rpc.invoke(mReceiverManager, params);
-                return JsonRpcResult.result(id, returnValue);
             }
+            return JsonRpcResult.result(id, returnValue);
         } catch (Throwable t) {
             Log.e("Invocation error.", t);
             return JsonRpcResult.error(id, t);
         }
     }
+
+    /**
+     * Cancels an RPC of a session that is still executing, and answers it with the error {@link
+     * RpcError#CODE_CANCELLED}.
+     *
+     * <p>An RPC with a deadline is abandoned right away, and its worker thread interrupted. Other
+     * RPCs run on the thread serving their request, which is interrupted; an RPC that ignores
+     * interruption keeps running, or completes normally.
+     *
+     * @param UID Globally unique session ID.
+     * @param id The ID of the request of the RPC.
+     * @return false if the RPC was not executing.
+     */
+    public boolean cancelRpc(Integer UID, int id) {
+        InFlightRpc call = sInFlightRpcs.get(new RpcKey(UID, id));
+        return call != null && call.cancel();
+    }
+
+    /**
+     * Invokes an RPC, on a deadline worker if it has a deadline.
+     *
+     * @param key the session and request of the RPC, so that it can be cancelled, or null.
+     */
+    private Object invoke(
+            final MethodDescriptor rpc,
+            JSONArray params,
+            String callbackId,
+            final long deadlineMs,
+            RpcKey key)
+            throws Throwable {
+        params = withCallbackId(rpc, params, callbackId);
+        if (deadlineMs <= 0 || rpc.isRunOnUiThread()) {
+            // The main thread bounds its own wait, so this thread needs no helper.
+            InFlightRpc call = new InFlightRpc(Thread.currentThread(), null);
+            if (!register(key, call)) {
+                throw duplicateId(key.mId);
+            }
+            try {
+                return invokeAndRecord(rpc, params, deadlineMs);
+            } catch (Throwable t) {
+                throw call.isCancelled() ? cancelled(rpc) : t;
+            } finally {
+                call.finish();
+                unregister(key, call);
+            }
+        }
+        final JSONArray rpcParams = params;
+        final InFlightRpc call = new InFlightRpc(null, null);
+        FutureTask<Object> task =
+                new FutureTask<>(
+                        () -> {
+                            call.onWorkerStarted();
+                            try {
+                                return invokeAndRecord(rpc, rpcParams, deadlineMs);
+                            } catch (Exception | Error e) {
+                                throw e;
+                            } catch (Throwable t) {
+                                throw new UndeclaredThrowableException(t);
+                            } finally {
+                                call.onWorkerFinished();
+                            }
+                        });
+        call.setTask(task);
+        if (!register(key, call)) {
+            throw duplicateId(key.mId);
+        }
+        try {
+            try {
+                sDeadlineExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                RpcMetrics.getInstance().recordDeadlineWorkerRejected();
+                throw RpcError.withCode(
+                        RpcError.CODE_RESOURCE_EXHAUSTED,
+                        "All "
+                                + MAX_DEADLINE_WORKERS
+                                + " workers for RPCs with a deadline are busy, or abandoned to"
+                                + " RPCs that ignored theirs; "
+                                + rpc.getName()
+                                + " was not run");
+            }
+            return task.get(deadlineMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } catch (CancellationException e) {
+            throw cancelled(rpc);
+        } catch (TimeoutException e) {
+            task.cancel(true);
+            throw RpcError.withCode(
+                    RpcError.CODE_DEADLINE_EXCEEDED,
+                    rpc.getName() + " did not complete within " + deadlineMs + " ms");
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            throw e;
+        } finally {
+            call.finish();
+            unregister(key, call);
+        }
+    }
+
+    /** Returns the callback ID of a request, e.g. the first param of an {@link AsyncRpc}. */
+    private static String callbackId(Integer UID, int id) {
+        return String.format(Locale.US, "%d-%d", UID, id);
+    }
+
+    /** Records an RPC in flight, unless its key is null or another one has the same key. */
+    private static boolean register(RpcKey key, InFlightRpc call) {
+        return key == null || sInFlightRpcs.putIfAbsent(key, call) == null;
+    }
+
+    private static void unregister(RpcKey key, InFlightRpc call) {
+        if (key != null) {
+            sInFlightRpcs.remove(key, call);
+        }
+    }
+
+    private static RpcError duplicateId(int id) {
+        return RpcError.withCode(
+                RpcError.CODE_DUPLICATE_ID,
+                "The session already has an RPC with id " + id + " in flight");
+    }
+
+    /** If calling an {@link AsyncRpc}, put the message ID as the first param. */
+    private static JSONArray withCallbackId(
+            MethodDescriptor rpc, JSONArray params, String callbackId) throws JSONException {
+        if (!rpc.isAsync()) {
+            return params;
+        }
+        JSONArray newParams = new JSONArray();
+        newParams.put(callbackId);
+        for (int i = 0; i < params.length(); i++) {
+            newParams.put(params.get(i));
+        }
+        return newParams;
+    }
+
+    private Object invokeAndRecord(MethodDescriptor rpc, JSONArray params, long deadlineMs)
+            throws Throwable {
+        boolean failed = true;
+        try {
+            Object returnValue = rpc.invoke(mReceiverManager, params, deadlineMs);
+            failed = false;
+            return returnValue;
+        } finally {
+            rpc.getMetrics().recordCall(failed);
+        }
+    }
+
+    private static RpcError cancelled(MethodDescriptor rpc) {
+        return RpcError.withCode(RpcError.CODE_CANCELLED, rpc.getName() + " was cancelled");
+    }
+
+    /** Identifies an RPC in flight by its session and the ID of its request. */
+    private static final class RpcKey {
+        private final Integer mUid;
+        private final int mId;
+
+        private RpcKey(Integer uid, int id) {
+            mUid = uid;
+            mId = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RpcKey)) {
+                return false;
+            }
+            RpcKey other = (RpcKey) o;
+            return mId == other.mId && Objects.equals(mUid, other.mUid);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(mUid) + mId;
+        }
+    }
+
+    /**
+     * An RPC being executed, either on the thread serving its request, as a task of the deadline
+     * executor or on the main thread.
+     */
+    private static final class InFlightRpc {
+        private final Thread mThread;
+        private Future<?> mTask;
+        private boolean mCancelled = false;
+        private boolean mFinished = false;
+        // Whether a deadline worker is running the RPC, and whether it was abandoned to it.
+        private boolean mWorkerRunning = false;
+        private boolean mAbandoned = false;
+
+        private InFlightRpc(Thread thread, Future<?> task) {
+            mThread = thread;
+            mTask = task;
+        }
+
+        /** Sets the task of the RPC once it is queued, cancelling it if the RPC already was. */
+        private synchronized void setTask(Future<?> task) {
+            mTask = task;
+            if (mCancelled) {
+                task.cancel(true);
+            }
+        }
+
+        private synchronized boolean cancel() {
+            if (mCancelled || mFinished) {
+                return false;
+            }
+            mCancelled = true;
+            if (mTask != null) {
+                mTask.cancel(true);
+            } else if (mThread != null) {
+                mThread.interrupt();
+            }
+            return true;
+        }
+
+        private synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        private synchronized void onWorkerStarted() {
+            mWorkerRunning = true;
+        }
+
+        private synchronized void onWorkerFinished() {
+            mWorkerRunning = false;
+            if (mAbandoned) {
+                RpcMetrics.getInstance().recordAbandonedDeadlineWorkerReturned();
+            }
+        }
+
+        private void finish() {
+            synchronized (this) {
+                mFinished = true;
+                if (mWorkerRunning) {
+                    // Answered without waiting for the RPC, which keeps its worker.
+                    mAbandoned = true;
+                    RpcMetrics.getInstance().recordDeadlineWorkerAbandoned();
+                }
+            }
+            if (mThread != null && isCancelled()) {
+                // The interrupt was meant for the RPC only, not for the next request the thread
+                // serves.
+                Thread.interrupted();
+            }
+        }
+    }
 }
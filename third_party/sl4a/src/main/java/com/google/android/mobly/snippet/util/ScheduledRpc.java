@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.mobly.snippet.util;
+
+import com.google.android.mobly.snippet.rpc.JsonSerializable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/** An RPC scheduled with {@link RpcUtil}, identified by the handle returned when scheduling it. */
+public final class ScheduledRpc implements JsonSerializable {
+    /** How an RPC repeats. */
+    public enum Mode {
+        /** Runs once, after the delay. */
+        ONCE,
+        /** Runs every period, counted from the start of the first run. */
+        FIXED_RATE,
+        /** Runs with a period between the end of a run and the start of the next one. */
+        FIXED_DELAY
+    }
+
+    private final int mHandle;
+    private final String mCallbackId;
+    private final String mMethodName;
+    private final JSONArray mParams;
+    private final Mode mMode;
+    private final long mPeriodMs;
+    private final AtomicLong mRunCount = new AtomicLong();
+    private volatile ScheduledFuture<?> mFuture;
+    private volatile boolean mCancelled;
+
+    ScheduledRpc(
+            int handle,
+            String callbackId,
+            String methodName,
+            JSONArray params,
+            Mode mode,
+            long periodMs) {
+        mHandle = handle;
+        mCallbackId = callbackId;
+        mMethodName = methodName;
+        mParams = params;
+        mMode = mode;
+        mPeriodMs = periodMs;
+    }
+
+    public int getHandle() {
+        return mHandle;
+    }
+
+    public String getCallbackId() {
+        return mCallbackId;
+    }
+
+    public String getMethodName() {
+        return mMethodName;
+    }
+
+    JSONArray getParams() {
+        return mParams;
+    }
+
+    public Mode getMode() {
+        return mMode;
+    }
+
+    long getPeriodMs() {
+        return mPeriodMs;
+    }
+
+    /** Number of times the RPC ran so far. */
+    public long getRunCount() {
+        return mRunCount.get();
+    }
+
+    void onRun() {
+        mRunCount.incrementAndGet();
+    }
+
+    void setFuture(ScheduledFuture<?> future) {
+        mFuture = future;
+        // It may have been cancelled while being scheduled.
+        if (mCancelled) {
+            future.cancel(false);
+        }
+    }
+
+    void cancel() {
+        mCancelled = true;
+        ScheduledFuture<?> future = mFuture;
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    boolean isCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("handle", mHandle);
+        json.put("callbackId", mCallbackId);
+        json.put("method", mMethodName);
+        json.put("params", mParams);
+        json.put("mode", mMode.name());
+        json.put("periodMs", mPeriodMs);
+        json.put("runs", mRunCount.get());
+        ScheduledFuture<?> future = mFuture;
+        if (future != null) {
+            json.put("nextRunInMs", Math.max(0, future.getDelay(TimeUnit.MILLISECONDS)));
+        }
+        return json;
+    }
+}